@@ -0,0 +1,99 @@
+package com.example.android.sunshine;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+
+import com.example.android.sunshine.data.ForecastMappedFile;
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utils.PollingCheck;
+
+/*
+    Measures the time from MainActivity.onCreate to the first frame with forecast rows in it,
+    with and without the ForecastSnapshot.  The numbers are written to the log; the only thing
+    asserted is that the snapshot is actually what gets drawn first when it exists.
+ */
+public class TestStartupBenchmark extends ActivityInstrumentationTestCase2<MainActivity> {
+    public static final String LOG_TAG = TestStartupBenchmark.class.getSimpleName();
+
+    private static final long FIRST_DRAW_TIMEOUT = 10000;
+
+    public TestStartupBenchmark() {
+        super(MainActivity.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        insertForecast();
+    }
+
+    public void testFirstDrawWithSnapshot() {
+        Context context = getInstrumentation().getTargetContext();
+        ForecastMappedFile.write(context, Utility.getPreferredLocation(context));
+
+        long millis = waitForFirstMeaningfulDraw();
+        Log.i(LOG_TAG, "First meaningful draw with snapshot: " + millis + "ms");
+        assertTrue("Error: the first frame didn't come from the snapshot",
+                StartupTrace.isFirstDrawFromSnapshot());
+    }
+
+    public void testFirstDrawWithoutSnapshot() {
+        ForecastMappedFile.delete(getInstrumentation().getTargetContext());
+
+        long millis = waitForFirstMeaningfulDraw();
+        Log.i(LOG_TAG, "First meaningful draw without snapshot: " + millis + "ms");
+        assertFalse("Error: the first frame came from a snapshot that doesn't exist",
+                StartupTrace.isFirstDrawFromSnapshot());
+    }
+
+    private long waitForFirstMeaningfulDraw() {
+        getActivity();
+        new PollingCheck(FIRST_DRAW_TIMEOUT) {
+            @Override
+            protected boolean check() {
+                return StartupTrace.getFirstMeaningfulDrawMillis() != -1;
+            }
+        }.run();
+        return StartupTrace.getFirstMeaningfulDrawMillis();
+    }
+
+    private void insertForecast() {
+        String locationSetting = Utility.getPreferredLocation(getInstrumentation().getTargetContext());
+
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, "Mountain View");
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, 37.386);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, -122.084);
+
+        getInstrumentation().getTargetContext().getContentResolver().delete(
+                WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        getInstrumentation().getTargetContext().getContentResolver().delete(
+                WeatherContract.LocationEntry.CONTENT_URI, null, null);
+        Uri locationUri = getInstrumentation().getTargetContext().getContentResolver().insert(
+                WeatherContract.LocationEntry.CONTENT_URI, locationValues);
+        long locationId = Long.parseLong(locationUri.getLastPathSegment());
+
+        long today = System.currentTimeMillis();
+        ContentValues[] forecast = new ContentValues[14];
+        for (int i = 0; i < forecast.length; i++) {
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, today + i * 86400000L);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, 1.1);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, 1.2);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, 1.3);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 75 + i);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, 65 - i);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 800);
+            forecast[i] = weatherValues;
+        }
+        getInstrumentation().getTargetContext().getContentResolver().bulkInsert(
+                WeatherContract.WeatherEntry.CONTENT_URI, forecast);
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.android.sunshine.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.RemoteException;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+
+/*
+    Checks that a batch is applied in one transaction, with the weather rows referring to the
+    location inserted by the batch, and that observers hear about it once per URI at commit.
+ */
+public class TestApplyBatch extends AndroidTestCase {
+
+    private static final int DAYS = 14;
+    private static final long SETTLE_MILLIS = 500;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    public void testBatchNotifiesOncePerUri() throws RemoteException,
+            OperationApplicationException {
+        TestUtilities.CountingContentObserver weatherObserver =
+                TestUtilities.CountingContentObserver.create();
+        TestUtilities.CountingContentObserver locationObserver =
+                TestUtilities.CountingContentObserver.create();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true,
+                weatherObserver);
+        mContext.getContentResolver().registerContentObserver(LocationEntry.CONTENT_URI, true,
+                locationObserver);
+        try {
+            ContentProviderResult[] results = mContext.getContentResolver().applyBatch(
+                    WeatherContract.CONTENT_AUTHORITY, createSyncBatch());
+
+            assertEquals(DAYS + 1, results.length);
+            long locationId = ContentUris.parseId(results[0].uri);
+            assertEquals("Error: The weather rows don't refer to the batch's location",
+                    DAYS, countWeather(locationId));
+            assertEquals("Error: The weather observer wasn't notified exactly once",
+                    1, weatherObserver.getCount(SETTLE_MILLIS));
+            assertEquals("Error: The location observer wasn't notified exactly once",
+                    1, locationObserver.getCount(0));
+
+            // Again: the location is already there, only the weather changes
+            results = mContext.getContentResolver().applyBatch(
+                    WeatherContract.CONTENT_AUTHORITY, createSyncBatch());
+            assertEquals("Error: The location got another row",
+                    locationId, ContentUris.parseId(results[0].uri));
+            assertEquals(DAYS, countWeather(locationId));
+            assertEquals(2, weatherObserver.getCount(SETTLE_MILLIS));
+            assertEquals("Error: An existing location was notified as changed",
+                    1, locationObserver.getCount(0));
+        } finally {
+            mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+            mContext.getContentResolver().unregisterContentObserver(locationObserver);
+            weatherObserver.quit();
+            locationObserver.quit();
+        }
+    }
+
+    public void testFailedBatchIsRolledBack() throws RemoteException {
+        TestUtilities.CountingContentObserver weatherObserver =
+                TestUtilities.CountingContentObserver.create();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true,
+                weatherObserver);
+        try {
+            ArrayList<ContentProviderOperation> operations = createSyncBatch();
+            // Fails after everything else was applied
+            operations.add(ContentProviderOperation.newAssertQuery(LocationEntry.CONTENT_URI)
+                    .withExpectedCount(2)
+                    .build());
+            try {
+                mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY,
+                        operations);
+                fail("Error: The failing operation didn't fail");
+            } catch (OperationApplicationException e) {
+                // Expected
+            }
+
+            Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null,
+                    null, null, null);
+            assertEquals("Error: The failed batch wasn't rolled back", 0, cursor.getCount());
+            cursor.close();
+            cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI, null,
+                    null, null, null);
+            assertEquals("Error: The failed batch wasn't rolled back", 0, cursor.getCount());
+            cursor.close();
+            assertEquals("Error: A rolled back batch was notified",
+                    0, weatherObserver.getCount(SETTLE_MILLIS));
+
+            // The location id the failed batch inserted mustn't outlive it
+            Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                    WeatherContract.METHOD_GET_LOCATION_ID, TestUtilities.TEST_LOCATION, null);
+            assertEquals("Error: The rolled back location has an id", -1,
+                    result.getLong(WeatherContract.EXTRA_LOCATION_ID));
+            ContentProviderResult[] results = mContext.getContentResolver().applyBatch(
+                    WeatherContract.CONTENT_AUTHORITY, createSyncBatch());
+            assertEquals(DAYS, countWeather(ContentUris.parseId(results[0].uri)));
+        } catch (OperationApplicationException e) {
+            fail("Error: " + e);
+        } finally {
+            mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+            weatherObserver.quit();
+        }
+    }
+
+    // The batch of a sync: the location, then its forecast
+    private static ArrayList<ContentProviderOperation> createSyncBatch() {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        for (int i = 0; i < DAYS; i++) {
+            ContentValues values = TestUtilities.createWeatherValues(0);
+            values.remove(WeatherEntry.COLUMN_LOC_KEY);
+            values.put(WeatherEntry.COLUMN_DATE,
+                    TestUtilities.TEST_DATE + i * DayNormalizer.DAY_IN_MILLIS);
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(values)
+                    .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                    .build());
+        }
+        return operations;
+    }
+
+    private int countWeather(long locationId) {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?", new String[]{Long.toString(locationId)},
+                null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.android.sunshine.data;
+
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+import java.util.Random;
+import java.util.TimeZone;
+
+/*
+    Checks the DayNormalizer against the Time round trip it replaced, for every day of 2000
+    to 2030, in zones with odd offsets and in zones whose transitions skip or repeat midnight.
+ */
+public class TestDayNormalizer extends AndroidTestCase {
+    public static final String LOG_TAG = TestDayNormalizer.class.getSimpleName();
+
+    private static final String[] ZONES = {
+            "UTC",
+            "America/Los_Angeles",
+            "Europe/Paris",
+            "Australia/Lord_Howe",      // 30 minutes of daylight saving time
+            "Asia/Kathmandu",           // +05:45
+            "Pacific/Apia",             // Skipped a whole day in 2011
+            "America/Sao_Paulo",        // Transitions at midnight until 2019
+            "America/Havana",           // Back to standard time at 01:00, repeating midnight
+            "Asia/Beirut",              // Transitions at midnight
+            "America/St_Johns"          // -03:30, transitions before 2011 at 00:01
+    };
+
+    private static final int FIRST_YEAR = 2000;
+    private static final int LAST_YEAR = 2030;
+
+    private TimeZone mSavedZone;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mSavedZone = TimeZone.getDefault();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TimeZone.setDefault(mSavedZone);
+        super.tearDown();
+    }
+
+    public void testMatchesTime() {
+        Random random = new Random(42);
+        for (String id : ZONES) {
+            TimeZone zone = TimeZone.getTimeZone(id);
+            assertEquals("Error: Unknown zone " + id, id, zone.getID());
+            // Time follows the default zone
+            TimeZone.setDefault(zone);
+            DayNormalizer normalizer = new DayNormalizer(zone);
+
+            Time time = new Time();
+            time.set(0, 0, 0, 1, 0, FIRST_YEAR);
+            int firstDay = Time.getJulianDay(time.toMillis(true), time.gmtoff);
+            time.set(0, 0, 0, 31, 11, LAST_YEAR);
+            int lastDay = Time.getJulianDay(time.toMillis(true), time.gmtoff);
+
+            for (int julianDay = firstDay; julianDay <= lastDay; julianDay++) {
+                long start = legacyStartOfJulianDay(julianDay);
+                assertEquals("Error: Start of day " + julianDay + " in " + id,
+                        start, normalizer.getStartOfJulianDay(julianDay));
+
+                long[] dates = {
+                        start - 1,
+                        start,
+                        start + 1,
+                        start + DayNormalizer.DAY_IN_MILLIS / 2,
+                        start + (long) (random.nextDouble() * DayNormalizer.DAY_IN_MILLIS)
+                };
+                for (long date : dates) {
+                    assertEquals("Error: Julian day of " + date + " in " + id,
+                            legacyJulianDay(date), normalizer.getJulianDay(date));
+                    assertEquals("Error: Normalized " + date + " in " + id,
+                            legacyNormalizeDate(date), normalizer.normalize(date));
+                }
+            }
+        }
+    }
+
+    public void testFollowsTimeZoneChanges() {
+        DayNormalizer normalizer = new DayNormalizer(null);
+        long date = 1449489600000L;  // December 7th, 2015, 12:00 UTC
+
+        TimeZone.setDefault(TimeZone.getTimeZone("Pacific/Kiritimati"));
+        normalizer.onTimeZoneChanged(null);
+        assertEquals(legacyNormalizeDate(date), normalizer.normalize(date));
+
+        // Fourteen hours ahead to ten hours behind: the same date, the day before
+        TimeZone.setDefault(TimeZone.getTimeZone("Pacific/Honolulu"));
+        normalizer.onTimeZoneChanged("Pacific/Honolulu");
+        assertEquals(legacyNormalizeDate(date), normalizer.normalize(date));
+    }
+
+    public void testSpeed() {
+        final int dates = 100000;
+        long step = 37 * 60 * 1000L;
+        long first = 1449489600000L;
+
+        long start = System.nanoTime();
+        long sum = 0;
+        for (int i = 0; i < dates; i++) {
+            sum += legacyNormalizeDate(first + i * step);
+        }
+        long legacyNanos = System.nanoTime() - start;
+
+        DayNormalizer normalizer = new DayNormalizer(null);
+        start = System.nanoTime();
+        for (int i = 0; i < dates; i++) {
+            sum -= normalizer.normalize(first + i * step);
+        }
+        long nanos = System.nanoTime() - start;
+
+        assertEquals(0, sum);
+        Log.i(LOG_TAG, dates + " dates normalized in " + legacyNanos / 1000000
+                + "ms with Time, " + nanos / 1000000 + "ms with the DayNormalizer");
+    }
+
+    // What WeatherContract.normalizeDate did
+    private static long legacyNormalizeDate(long startDate) {
+        Time time = new Time();
+        time.set(startDate);
+        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
+        return time.setJulianDay(julianDay);
+    }
+
+    private static int legacyJulianDay(long date) {
+        Time time = new Time();
+        time.set(date);
+        return Time.getJulianDay(date, time.gmtoff);
+    }
+
+    // What the sync did
+    private static long legacyStartOfJulianDay(int julianDay) {
+        return new Time().setJulianDay(julianDay);
+    }
+}
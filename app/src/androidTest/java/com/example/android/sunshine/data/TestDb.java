@@ -42,13 +42,17 @@ public class TestDb extends AndroidTestCase {
         final HashSet<String> tableNameHashSet = new HashSet<String>();
         tableNameHashSet.add(WeatherContract.LocationEntry.TABLE_NAME);
         tableNameHashSet.add(WeatherContract.WeatherEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.ArchiveEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherStore.TABLE_NAME);
+        tableNameHashSet.add(WeatherStore.CONDITION_TABLE_NAME);
 
         mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
         SQLiteDatabase db = new WeatherDbHelper(this.mContext).getWritableDatabase();
         assertEquals(true, db.isOpen());
 
-        // have we created the tables we want?
-        Cursor c = db.rawQuery("SELECT name FROM sqlite_master WHERE type='table'", null);
+        // have we created the tables we want?  (weather is a view over the stored rows)
+        Cursor c = db.rawQuery("SELECT name FROM sqlite_master WHERE type IN ('table', 'view')",
+                null);
 
         assertTrue("Error: This means that the database has not been created correctly", c.moveToFirst());
 
@@ -73,6 +77,9 @@ public class TestDb extends AndroidTestCase {
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_COORD_LAT);
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_COORD_LONG);
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_RETENTION_DAYS);
+        locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_ARCHIVE_PERIOD);
+        locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_GRID_CELL);
 
         int columnNameIndex = c.getColumnIndex("name");
         do {
@@ -125,7 +132,7 @@ public class TestDb extends AndroidTestCase {
         ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
 
         // Third Step (Weather): Insert ContentValues into database and get a row ID back
-        long weatherRowId = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, weatherValues);
+        long weatherRowId = WeatherStore.insert(db, weatherValues);
         assertTrue(weatherRowId != -1);
 
         // Fourth Step: Query the database and receive a Cursor back
@@ -0,0 +1,198 @@
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.DatabaseUtils;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that the packed forecast of the getForecast call holds what a query returns, then
+    times both ways of reading it.  The reads across processes are approximated by what Binder
+    adds to them: the Bundle goes through a Parcel, and the cursor through a CursorWindow sent in
+    a Parcel, as a ContentProvider does for a client in another process.
+ */
+public class TestForecastArrays extends AndroidTestCase {
+    public static final String LOG_TAG = TestForecastArrays.class.getSimpleName();
+
+    private static final int DAYS = 14;
+    private static final int READS = 200;
+    private static final String[] DESCRIPTIONS = {"Clear", "Rain", "Clouds"};
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+        long locationId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] values = new ContentValues[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            values[i] = TestUtilities.createWeatherValues(locationId);
+            values[i].put(WeatherEntry.COLUMN_DATE,
+                    TestUtilities.TEST_DATE + i * DayNormalizer.DAY_IN_MILLIS);
+            values[i].put(WeatherEntry.COLUMN_SHORT_DESC, DESCRIPTIONS[i % DESCRIPTIONS.length]);
+            values[i].put(WeatherEntry.COLUMN_WEATHER_ID, 800 + i % DESCRIPTIONS.length);
+            values[i].put(WeatherEntry.COLUMN_MAX_TEMP, 20.5 + i);
+            values[i].put(WeatherEntry.COLUMN_MIN_TEMP, 10.25 + i);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    public void testMatchesQuery() {
+        ForecastArrays forecast = ForecastArrays.query(mContext.getContentResolver(),
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+        assertNotNull(forecast);
+        assertEquals(DAYS, forecast.getCount());
+
+        Cursor cursor = query();
+        try {
+            for (int day = 0; cursor.moveToNext(); day++) {
+                assertEquals(cursor.getLong(0), forecast.getId(day));
+                assertEquals(cursor.getLong(1), forecast.getDate(day));
+                assertEquals(cursor.getInt(2), forecast.getWeatherId(day));
+                assertEquals(cursor.getString(3), forecast.getDescription(day));
+                assertEquals(cursor.getDouble(4), forecast.getMaxTemp(day));
+                assertEquals(cursor.getDouble(5), forecast.getMinTemp(day));
+                assertEquals(cursor.getDouble(6), forecast.getHumidity(day));
+                assertEquals(cursor.getDouble(7), forecast.getPressure(day));
+                assertEquals(cursor.getDouble(8), forecast.getWindSpeed(day));
+                assertEquals(cursor.getDouble(9), forecast.getDegrees(day));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testDateRange() {
+        long start = WeatherContract.normalizeDate(
+                TestUtilities.TEST_DATE + 3 * DayNormalizer.DAY_IN_MILLIS);
+        long end = WeatherContract.normalizeDate(
+                TestUtilities.TEST_DATE + 10 * DayNormalizer.DAY_IN_MILLIS);
+        ForecastArrays forecast = ForecastArrays.query(mContext.getContentResolver(),
+                TestUtilities.TEST_LOCATION, start, end);
+
+        assertEquals("Error: The end date isn't excluded", 7, forecast.getCount());
+        assertEquals(start, forecast.getDate(0));
+
+        forecast = ForecastArrays.query(mContext.getContentResolver(), "Nowhere",
+                TestUtilities.TEST_DATE);
+        assertEquals("Error: Another location had a forecast", 0, forecast.getCount());
+    }
+
+    public void testReadBenchmark() {
+        Cursor first = query();
+        double expected = readCursor(first);
+        first.close();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < READS; i++) {
+            Cursor cursor = query();
+            assertEquals(expected, readCursor(cursor));
+            cursor.close();
+        }
+        long queryNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < READS; i++) {
+            Cursor cursor = query();
+            CursorWindow window = new CursorWindow(LOG_TAG);
+            DatabaseUtils.cursorFillWindow(cursor, 0, window);
+            cursor.close();
+            Parcel parcel = Parcel.obtain();
+            window.writeToParcel(parcel, 0);
+            window.close();
+            parcel.setDataPosition(0);
+            CursorWindow received = CursorWindow.CREATOR.createFromParcel(parcel);
+            parcel.recycle();
+            assertEquals(expected, readWindow(received));
+            received.close();
+        }
+        long queryMarshalledNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < READS; i++) {
+            assertEquals(expected, readArrays(call()));
+        }
+        long callNanos = System.nanoTime() - start;
+
+        int bundleBytes = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < READS; i++) {
+            Cursor cursor = query();
+            Bundle bundle = ForecastArrays.toBundle(cursor);
+            cursor.close();
+            Parcel parcel = Parcel.obtain();
+            parcel.writeBundle(bundle);
+            bundleBytes = parcel.dataSize();
+            parcel.setDataPosition(0);
+            Bundle received = parcel.readBundle(getClass().getClassLoader());
+            parcel.recycle();
+            assertEquals(expected, readArrays(new ForecastArrays(received)));
+        }
+        long callMarshalledNanos = System.nanoTime() - start;
+
+        Log.i(LOG_TAG, "Reading " + DAYS + " days, per read: query " + queryNanos / READS / 1000
+                + "us, call " + callNanos / READS / 1000 + "us in the same process; query "
+                + queryMarshalledNanos / READS / 1000 + "us through a CursorWindow, call "
+                + callMarshalledNanos / READS / 1000 + "us through a Parcel of "
+                + bundleBytes + " bytes");
+    }
+
+    private Cursor query() {
+        return mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE),
+                ForecastArrays.COLUMNS, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+    }
+
+    private ForecastArrays call() {
+        return ForecastArrays.query(mContext.getContentResolver(), TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DATE);
+    }
+
+    // Reads every column, as a consumer would, into a checksum
+    private static double readCursor(Cursor cursor) {
+        double sum = 0;
+        while (cursor.moveToNext()) {
+            sum += cursor.getLong(0) + cursor.getLong(1) + cursor.getInt(2)
+                    + cursor.getString(3).length() + cursor.getDouble(4) + cursor.getDouble(5)
+                    + cursor.getDouble(6) + cursor.getDouble(7) + cursor.getDouble(8)
+                    + cursor.getDouble(9);
+        }
+        return sum;
+    }
+
+    private static double readWindow(CursorWindow window) {
+        double sum = 0;
+        for (int row = 0; row < window.getNumRows(); row++) {
+            sum += window.getLong(row, 0) + window.getLong(row, 1) + window.getInt(row, 2)
+                    + window.getString(row, 3).length() + window.getDouble(row, 4)
+                    + window.getDouble(row, 5) + window.getDouble(row, 6)
+                    + window.getDouble(row, 7) + window.getDouble(row, 8)
+                    + window.getDouble(row, 9);
+        }
+        return sum;
+    }
+
+    private static double readArrays(ForecastArrays forecast) {
+        double sum = 0;
+        for (int day = 0; day < forecast.getCount(); day++) {
+            sum += forecast.getId(day) + forecast.getDate(day) + forecast.getWeatherId(day)
+                    + forecast.getDescription(day).length() + forecast.getMaxTemp(day)
+                    + forecast.getMinTemp(day) + forecast.getHumidity(day)
+                    + forecast.getPressure(day) + forecast.getWindSpeed(day)
+                    + forecast.getDegrees(day);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+/*
+    Checks that the forecast file holds what the provider returns, and that a damaged or foreign
+    file is never read, then times reading today from it against a query.
+ */
+public class TestForecastMappedFile extends AndroidTestCase {
+    public static final String LOG_TAG = TestForecastMappedFile.class.getSimpleName();
+
+    private static final int DAYS = 14;
+    private static final int READS = 500;
+    private static final String[] DESCRIPTIONS = {"Clear", "Rain", "Clouds"};
+
+    private static final String[] TODAY_COLUMNS = {
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+        ForecastMappedFile.delete(mContext);
+        long locationId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        // From today on, as the file is written from today on
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ContentValues[] values = new ContentValues[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            values[i] = TestUtilities.createWeatherValues(locationId);
+            values[i].put(WeatherEntry.COLUMN_DATE, DayNormalizer.getDefault()
+                    .getStartOfJulianDay(DayNormalizer.getDefault().getJulianDay(today) + i));
+            values[i].put(WeatherEntry.COLUMN_SHORT_DESC, DESCRIPTIONS[i % DESCRIPTIONS.length]);
+            values[i].put(WeatherEntry.COLUMN_WEATHER_ID, 800 + i % DESCRIPTIONS.length);
+            values[i].put(WeatherEntry.COLUMN_MAX_TEMP, 20.5 + i);
+            values[i].put(WeatherEntry.COLUMN_MIN_TEMP, -10.25 + i);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+        ForecastMappedFile.write(mContext, TestUtilities.TEST_LOCATION);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ForecastMappedFile.delete(mContext);
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    public void testMatchesProvider() {
+        ForecastMappedFile snapshot = ForecastMappedFile.open(mContext,
+                TestUtilities.TEST_LOCATION);
+        assertNotNull("Error: The forecast file wasn't written", snapshot);
+        ForecastArrays forecast = ForecastArrays.query(mContext.getContentResolver(),
+                TestUtilities.TEST_LOCATION, System.currentTimeMillis());
+        assertEquals(DAYS, snapshot.getCount());
+        assertEquals(forecast.getCount(), snapshot.getCount());
+        for (int day = 0; day < DAYS; day++) {
+            assertEquals(forecast.getId(day), snapshot.getId(day));
+            assertEquals(forecast.getDate(day), snapshot.getDate(day));
+            assertEquals(forecast.getWeatherId(day), snapshot.getWeatherId(day));
+            assertEquals(forecast.getDescription(day), snapshot.getDescription(day));
+            assertEquals(forecast.getMaxTemp(day), snapshot.getMaxTemp(day));
+            assertEquals(forecast.getMinTemp(day), snapshot.getMinTemp(day));
+            assertEquals(forecast.getHumidity(day), snapshot.getHumidity(day));
+            assertEquals(forecast.getPressure(day), snapshot.getPressure(day));
+            assertEquals(forecast.getWindSpeed(day), snapshot.getWindSpeed(day));
+            assertEquals(forecast.getDegrees(day), snapshot.getDegrees(day));
+        }
+        assertEquals(0, snapshot.findDay(System.currentTimeMillis()));
+        assertEquals(-1, snapshot.findDay(
+                snapshot.getDate(DAYS - 1) + 2 * DayNormalizer.DAY_IN_MILLIS));
+        assertEquals(0, snapshot.findDate(System.currentTimeMillis()));
+        assertEquals("Error: A day before the file was found as its first day", -1,
+                snapshot.findDate(snapshot.getDate(0) - DayNormalizer.DAY_IN_MILLIS));
+        assertEquals(TestUtilities.createNorthPoleLocationValues()
+                .getAsDouble(LocationEntry.COLUMN_COORD_LAT), snapshot.getCoordLat());
+
+        assertNull("Error: The file of another location was read",
+                ForecastMappedFile.open(mContext, "Elsewhere"));
+    }
+
+    public void testDamagedFileIsIgnored() throws IOException {
+        // In the first day's record
+        damage(60);
+        assertNull("Error: A damaged file was read",
+                ForecastMappedFile.open(mContext, TestUtilities.TEST_LOCATION));
+    }
+
+    public void testDamagedHeaderIsIgnored() throws IOException {
+        // In the time the file was written at
+        damage(16);
+        assertNull("Error: A file with a damaged header was read",
+                ForecastMappedFile.open(mContext, TestUtilities.TEST_LOCATION));
+    }
+
+    public void testRewriteIsSeen() throws IOException {
+        ForecastMappedFile first = ForecastMappedFile.open(mContext,
+                TestUtilities.TEST_LOCATION);
+        assertNotNull(first);
+        File file = ForecastMappedFile.getFile(mContext);
+        long modified = file.lastModified();
+
+        // Another snapshot of the same length, written within the same timestamp of the file
+        ByteBuffer buffer = ForecastMappedFile.encode(TestUtilities.TEST_LOCATION,
+                first.getCoordLat(), first.getCoordLong(),
+                ForecastArrays.query(mContext.getContentResolver(),
+                        TestUtilities.TEST_LOCATION, System.currentTimeMillis()),
+                first.getWrittenAt() + 1);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(buffer.array(), 0, buffer.limit());
+        } finally {
+            out.close();
+        }
+        file.setLastModified(modified);
+
+        ForecastMappedFile second = ForecastMappedFile.open(mContext,
+                TestUtilities.TEST_LOCATION);
+        assertNotNull(second);
+        assertEquals("Error: The previous snapshot was read after a rewrite",
+                first.getWrittenAt() + 1, second.getWrittenAt());
+    }
+
+    public void testReadBenchmark() {
+        long now = System.currentTimeMillis();
+        double expected = readToday(ForecastMappedFile.open(mContext,
+                TestUtilities.TEST_LOCATION), now);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < READS; i++) {
+            // Mapped again and checked again each time
+            ForecastMappedFile.forget();
+            assertEquals(expected, readToday(ForecastMappedFile.open(mContext,
+                    TestUtilities.TEST_LOCATION), now));
+        }
+        long coldNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < READS; i++) {
+            assertEquals(expected, readToday(ForecastMappedFile.open(mContext,
+                    TestUtilities.TEST_LOCATION), now));
+        }
+        long warmNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < READS; i++) {
+            Cursor cursor = mContext.getContentResolver().query(
+                    WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION,
+                            now), TODAY_COLUMNS, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+            assertTrue(cursor.moveToFirst());
+            assertEquals(expected, cursor.getInt(0) + cursor.getString(1).length()
+                    + cursor.getDouble(2) + cursor.getDouble(3));
+            cursor.close();
+        }
+        long queryNanos = System.nanoTime() - start;
+
+        Log.i(LOG_TAG, "Reading today, per read: forecast file " + coldNanos / READS / 1000
+                + "us cold (mapped and checked), " + warmNanos / READS / 1000 + "us warm; "
+                + "provider query " + queryNanos / READS / 1000 + "us");
+    }
+
+    // Flips a byte of the file and drops the snapshot opened from it
+    private void damage(int offset) throws IOException {
+        RandomAccessFile out = new RandomAccessFile(ForecastMappedFile.getFile(mContext), "rw");
+        try {
+            out.seek(offset);
+            int b = out.read();
+            out.seek(offset);
+            out.write(b ^ 0xff);
+        } finally {
+            out.close();
+        }
+        ForecastMappedFile.forget();
+    }
+
+    // What a widget reads of today, into a checksum
+    private static double readToday(ForecastMappedFile snapshot, long now) {
+        int today = snapshot.findDay(now);
+        return snapshot.getWeatherId(today) + snapshot.getDescription(today).length()
+                + snapshot.getMaxTemp(today) + snapshot.getMinTemp(today);
+    }
+}
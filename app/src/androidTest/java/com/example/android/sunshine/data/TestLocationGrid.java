@@ -0,0 +1,260 @@
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/*
+    Checks the proximity queries of the location table, through the provider and against a scan
+    of every location, across the antimeridian and near the poles.  Then times them against that
+    scan at 10k and 1M locations.
+ */
+public class TestLocationGrid extends AndroidTestCase {
+    public static final String LOG_TAG = TestLocationGrid.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "location_grid_test.db";
+
+    private static final int CHECKS = 300;
+    private static final int QUERIES = 100;
+    private static final double RADIUS_KM = 50;
+
+    private static final String[] ID_COLUMNS = {LocationEntry._ID};
+    private static final String[] SCAN_COLUMNS = {
+            LocationEntry._ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        mContext.deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testProviderQueries() {
+        long london = insertLocation("London,GB", 51.5085, -0.1258);
+        long reading = insertLocation("Reading,GB", 51.4542, -0.9731);
+        insertLocation("Paris,FR", 48.8534, 2.3488);
+        // Either side of the antimeridian
+        long suva = insertLocation("Suva,FJ", -18.1416, 178.4415);
+        long tonga = insertLocation("Nuku'alofa,TO", -21.1394, -175.2018);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.buildLocationNearUri(51.5, -0.12, 100, 10), null, null, null, null);
+        assertEquals("Error: Wrong locations within 100km of London",
+                ids(london, reading), readIds(cursor));
+
+        cursor = mContext.getContentResolver().query(
+                LocationEntry.buildLocationNearestUri(-20, 179.9, 1), null, null, null, null);
+        assertEquals("Error: Wrong nearest location", ids(suva), readIds(cursor));
+
+        cursor = mContext.getContentResolver().query(
+                LocationEntry.buildLocationNearUri(-20, -179.9, 800, 10),
+                new String[]{LocationEntry.COLUMN_LOCATION_SETTING, LocationEntry.COLUMN_DISTANCE},
+                null, null, null);
+        try {
+            assertEquals("Error: The antimeridian wasn't crossed", 2, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("Suva,FJ", cursor.getString(0));
+            assertEquals(LocationGrid.distanceKm(-20, -179.9, -18.1416, 178.4415),
+                    cursor.getDouble(1), 1e-9);
+        } finally {
+            cursor.close();
+        }
+
+        // The cell follows the coordinates
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_COORD_LAT, -18.1);
+        values.put(LocationEntry.COLUMN_COORD_LONG, -179.5);
+        mContext.getContentResolver().update(LocationEntry.CONTENT_URI, values,
+                LocationEntry._ID + " = " + tonga, null);
+        cursor = mContext.getContentResolver().query(
+                LocationEntry.buildLocationNearestUri(-18, -179.6, 1), null, null, null, null);
+        assertEquals("Error: A moved location wasn't found", ids(tonga), readIds(cursor));
+    }
+
+    public void testMatchesScan() {
+        SQLiteDatabase db = createLocations(10000);
+        try {
+            Random random = new Random(7);
+            for (int i = 0; i < CHECKS; i++) {
+                // A third of the points near a pole or the antimeridian
+                double lat = i % 3 == 1 ? 85 + random.nextDouble() * 5 : randomLat(random);
+                double lon = i % 3 == 2 ? 179 + random.nextDouble() * 2 : randomLong(random);
+                if (lon >= 180) {
+                    lon -= 360;
+                }
+                double radius = 10 + random.nextDouble() * 2000;
+                assertEquals("Error: Wrong locations within " + radius + "km of " + lat + ","
+                        + lon, scan(db, lat, lon, radius, Integer.MAX_VALUE), readIds(
+                        LocationGrid.queryWithin(db, ID_COLUMNS, lat, lon, radius,
+                                Integer.MAX_VALUE)));
+                assertEquals("Error: Wrong nearest locations to " + lat + "," + lon,
+                        scan(db, lat, lon, Double.MAX_VALUE, 5),
+                        readIds(LocationGrid.queryNearest(db, ID_COLUMNS, lat, lon, 5)));
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+    public void testBenchmark() {
+        benchmark(10000);
+        mContext.deleteDatabase(DATABASE_NAME);
+        benchmark(1000000);
+    }
+
+    private void benchmark(int locations) {
+        SQLiteDatabase db = createLocations(locations);
+        try {
+            Random random = new Random(11);
+            double[][] points = new double[QUERIES][];
+            for (int i = 0; i < QUERIES; i++) {
+                points[i] = new double[]{randomLat(random), randomLong(random)};
+            }
+
+            long start = System.nanoTime();
+            for (double[] point : points) {
+                LocationGrid.queryWithin(db, ID_COLUMNS, point[0], point[1], RADIUS_KM,
+                        Integer.MAX_VALUE).close();
+            }
+            long radiusNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (double[] point : points) {
+                LocationGrid.queryNearest(db, ID_COLUMNS, point[0], point[1], 1).close();
+            }
+            long nearestNanos = System.nanoTime() - start;
+
+            // Too slow for every point at 1M
+            int scans = locations > 100000 ? 5 : QUERIES;
+            start = System.nanoTime();
+            for (int i = 0; i < scans; i++) {
+                scan(db, points[i][0], points[i][1], RADIUS_KM, Integer.MAX_VALUE);
+            }
+            long scanNanos = System.nanoTime() - start;
+
+            Log.i(LOG_TAG, locations + " locations, per query: within " + RADIUS_KM + "km "
+                    + radiusNanos / QUERIES / 1000 + "us, nearest "
+                    + nearestNanos / QUERIES / 1000 + "us; full scan "
+                    + scanNanos / scans / 1000 + "us");
+        } finally {
+            db.close();
+        }
+    }
+
+    // Locations spread over the earth, uniformly by area
+    private SQLiteDatabase createLocations(int count) {
+        SQLiteDatabase db = new WeatherDbHelper(mContext, DATABASE_NAME, false)
+                .getWritableDatabase();
+        Random random = new Random(42);
+        db.beginTransaction();
+        try {
+            SQLiteStatement insert = db.compileStatement("INSERT INTO " +
+                    LocationEntry.TABLE_NAME + " (" +
+                    LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+                    LocationEntry.COLUMN_CITY_NAME + ", " +
+                    LocationEntry.COLUMN_COORD_LAT + ", " +
+                    LocationEntry.COLUMN_COORD_LONG + ") VALUES (?, ?, ?, ?)");
+            for (int i = 0; i < count; i++) {
+                insert.bindString(1, "location" + i);
+                insert.bindString(2, "City " + i);
+                insert.bindDouble(3, randomLat(random));
+                insert.bindDouble(4, randomLong(random));
+                insert.executeInsert();
+            }
+            insert.close();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return db;
+    }
+
+    // The ids of the locations within the radius, nearest first, reading every location
+    private static List<Long> scan(SQLiteDatabase db, double lat, double lon, double radiusKm,
+                                   int limit) {
+        final List<double[]> found = new ArrayList<>();
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME, SCAN_COLUMNS, null, null, null, null,
+                null);
+        try {
+            while (cursor.moveToNext()) {
+                double distance = LocationGrid.distanceKm(lat, lon, cursor.getDouble(1),
+                        cursor.getDouble(2));
+                if (distance <= radiusKm) {
+                    found.add(new double[]{distance, cursor.getLong(0)});
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        Collections.sort(found, new Comparator<double[]>() {
+            @Override
+            public int compare(double[] a, double[] b) {
+                return Double.compare(a[0], b[0]);
+            }
+        });
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < Math.min(limit, found.size()); i++) {
+            ids.add((long) found.get(i)[1]);
+        }
+        return ids;
+    }
+
+    private static List<Long> readIds(Cursor cursor) {
+        List<Long> ids = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    private static List<Long> ids(long... values) {
+        List<Long> ids = new ArrayList<>();
+        for (long value : values) {
+            ids.add(value);
+        }
+        return ids;
+    }
+
+    private static double randomLat(Random random) {
+        return Math.toDegrees(Math.asin(2 * random.nextDouble() - 1));
+    }
+
+    private static double randomLong(Random random) {
+        return random.nextDouble() * 360 - 180;
+    }
+
+    private long insertLocation(String locationSetting, double lat, double lon) {
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        values.put(LocationEntry.COLUMN_CITY_NAME, locationSetting);
+        values.put(LocationEntry.COLUMN_COORD_LAT, lat);
+        values.put(LocationEntry.COLUMN_COORD_LONG, lon);
+        return Long.parseLong(mContext.getContentResolver()
+                .insert(LocationEntry.CONTENT_URI, values).getLastPathSegment());
+    }
+}
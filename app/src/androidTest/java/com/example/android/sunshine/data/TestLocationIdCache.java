@@ -0,0 +1,121 @@
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
+
+import java.util.concurrent.CountDownLatch;
+
+/*
+    Checks the getLocationId call: the insert-or-get under concurrent syncs, and that the ids
+    the provider keeps in memory follow the deletes and updates of the location table.
+ */
+public class TestLocationIdCache extends AndroidTestCase {
+
+    private static final int THREADS = 8;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    public void testInsertOrGet() {
+        assertEquals("Error: A missing location has an id", -1,
+                getLocationId(TestUtilities.TEST_LOCATION, false));
+
+        long locationId = getLocationId(TestUtilities.TEST_LOCATION, true);
+        assertTrue(locationId != -1);
+        assertEquals(locationId, getLocationId(TestUtilities.TEST_LOCATION, true));
+        assertEquals(locationId, getLocationId(TestUtilities.TEST_LOCATION, false));
+        assertEquals(1, countLocations());
+    }
+
+    public void testConcurrentInserts() throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final long[] ids = new long[THREADS];
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            final int thread = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        ids[thread] = getLocationId(TestUtilities.TEST_LOCATION, true);
+                    } catch (InterruptedException e) {
+                        ids[thread] = -1;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals("Error: The location was inserted more than once", 1, countLocations());
+        for (long id : ids) {
+            assertEquals("Error: The syncs didn't all get the same id", ids[0], id);
+        }
+        assertTrue(ids[0] != -1);
+    }
+
+    public void testDeleteInvalidates() {
+        getLocationId(TestUtilities.TEST_LOCATION, true);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+
+        assertEquals("Error: A deleted location still has an id", -1,
+                getLocationId(TestUtilities.TEST_LOCATION, false));
+        long locationId = getLocationId(TestUtilities.TEST_LOCATION, true);
+        assertEquals(1, countLocations());
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry._ID}, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: The location wasn't inserted again", cursor.getLong(0), locationId);
+        cursor.close();
+    }
+
+    public void testUpdateInvalidates() {
+        long locationId = getLocationId(TestUtilities.TEST_LOCATION, true);
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, "Elsewhere");
+        mContext.getContentResolver().update(LocationEntry.CONTENT_URI, values,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(locationId)});
+
+        assertEquals("Error: A renamed location still has an id under its old setting", -1,
+                getLocationId(TestUtilities.TEST_LOCATION, false));
+        assertEquals(locationId, getLocationId("Elsewhere", false));
+    }
+
+    private long getLocationId(String locationSetting, boolean insert) {
+        Bundle values = null;
+        if (insert) {
+            values = new Bundle();
+            values.putString(LocationEntry.COLUMN_CITY_NAME, "North Pole");
+            values.putDouble(LocationEntry.COLUMN_COORD_LAT, 64.7488);
+            values.putDouble(LocationEntry.COLUMN_COORD_LONG, -147.353);
+        }
+        Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_GET_LOCATION_ID, locationSetting, values);
+        return result.getLong(WeatherContract.EXTRA_LOCATION_ID);
+    }
+
+    private int countLocations() {
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI, null,
+                null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+}
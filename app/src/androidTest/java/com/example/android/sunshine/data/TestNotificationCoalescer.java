@@ -0,0 +1,133 @@
+package com.example.android.sunshine.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.os.RemoteException;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.R;
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+
+/*
+    Counts the requeries a forecast list goes through for what one sync notifies: the batch of the
+    sync, the compaction that follows it and a preference change, with every notification sent
+    at once as before, then through the coalescer.  A cursor's content observer is what a
+    CursorLoader registers, each of its notifications is one requery.
+ */
+public class TestNotificationCoalescer extends AndroidTestCase {
+    public static final String LOG_TAG = TestNotificationCoalescer.class.getSimpleName();
+
+    private static final int DAYS = 14;
+
+    private NotificationCoalescer mNotifications;
+    private long mWindowMillis;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mNotifications = NotificationCoalescer.getInstance(mContext);
+        mWindowMillis = mContext.getResources().getInteger(R.integer.notification_window_millis);
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mNotifications.setWindowMillis(mWindowMillis);
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testRequeriesPerSync() throws RemoteException, OperationApplicationException {
+        mNotifications.setWindowMillis(0);
+        int before = countRequeries();
+        mNotifications.setWindowMillis(mWindowMillis);
+        int after = countRequeries();
+
+        Log.i(LOG_TAG, "Requeries per sync: " + before + " sent at once, " + after
+                + " coalesced over " + mWindowMillis + "ms");
+        assertEquals("Error: Each notification didn't requery when sent at once", 3, before);
+        assertEquals("Error: The notifications of a sync weren't coalesced", 1, after);
+    }
+
+    public void testMergesByPrefix() {
+        mNotifications.setWindowMillis(mWindowMillis);
+        TestUtilities.CountingContentObserver observer =
+                TestUtilities.CountingContentObserver.create();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), false, observer);
+        try {
+            mNotifications.notifyChange(
+                    WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION));
+            mNotifications.notifyChange(WeatherEntry.CONTENT_URI);
+            mNotifications.notifyChange(
+                    WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION));
+            mNotifications.notifyChange(WeatherEntry.CONTENT_URI);
+            assertEquals("Error: The merged notifications weren't sent once",
+                    1, observer.getCount(mWindowMillis + 500));
+
+            // Other tables are apart
+            mNotifications.notifyChange(LocationEntry.CONTENT_URI);
+            mNotifications.notifyChange(
+                    WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION));
+            assertEquals(2, observer.getCount(mWindowMillis + 500));
+        } finally {
+            mContext.getContentResolver().unregisterContentObserver(observer);
+            observer.quit();
+        }
+    }
+
+    // Replays what a sync notifies and returns how many times the list would have requeried
+    private int countRequeries() throws RemoteException, OperationApplicationException {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE), null, null, null, null);
+        TestUtilities.CountingContentObserver observer =
+                TestUtilities.CountingContentObserver.create();
+        cursor.registerContentObserver(observer);
+        try {
+            // The sync's batch
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+            operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                    .withValues(TestUtilities.createNorthPoleLocationValues())
+                    .build());
+            for (int i = 0; i < DAYS; i++) {
+                ContentValues values = TestUtilities.createWeatherValues(0);
+                values.remove(WeatherEntry.COLUMN_LOC_KEY);
+                values.put(WeatherEntry.COLUMN_DATE,
+                        TestUtilities.TEST_DATE + i * DayNormalizer.DAY_IN_MILLIS);
+                operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                        .withValues(values)
+                        .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                        .build());
+            }
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY,
+                    operations);
+            // The compaction dropping the oldest day
+            mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                    WeatherEntry.COLUMN_DATE + " <= ?",
+                    new String[]{Long.toString(WeatherContract.normalizeDate(
+                            TestUtilities.TEST_DATE))});
+            // The units changed in the settings
+            mNotifications.notifyChange(WeatherEntry.CONTENT_URI);
+
+            return observer.getCount(mWindowMillis + 500);
+        } finally {
+            cursor.unregisterContentObserver(observer);
+            cursor.close();
+            observer.quit();
+            deleteAllRecords();
+        }
+    }
+
+    private void deleteAllRecords() {
+        TestUtilities.deleteAllRecords(mContext);
+        // Not counted by the next replay
+        mNotifications.flush();
+    }
+}
@@ -78,7 +78,7 @@ public class TestProvider extends AndroidTestCase {
         WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
         SQLiteDatabase db = dbHelper.getWritableDatabase();
 
-        db.delete(WeatherEntry.TABLE_NAME, null, null);
+        WeatherStore.delete(db, null, null);
         db.delete(LocationEntry.TABLE_NAME, null, null);
         db.close();
     }
@@ -179,7 +179,7 @@ public class TestProvider extends AndroidTestCase {
         // Fantastic.  Now that we have a location, add some weather!
         ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
 
-        long weatherRowId = db.insert(WeatherEntry.TABLE_NAME, null, weatherValues);
+        long weatherRowId = WeatherStore.insert(db, weatherValues);
         assertTrue("Unable to Insert WeatherEntry into the Database", weatherRowId != -1);
 
         db.close();
@@ -422,6 +422,45 @@ public class TestProvider extends AndroidTestCase {
     }
 
 
+    // Pages through the weather of a location the way ForecastPager does: each page starts right
+    // after the last date of the previous one, and holds at most the limit.
+    public void testWeatherLocationPages() {
+        deleteAllRecordsFromProvider();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        long locationRowId = ContentUris.parseId(locationUri);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+
+        final int pageSize = 4;
+        long startDate = TestUtilities.TEST_DATE;
+        int total = 0;
+        int pages = 0;
+        while (true) {
+            Cursor cursor = mContext.getContentResolver().query(
+                    WeatherEntry.buildWeatherLocationPage(TestUtilities.TEST_LOCATION, startDate,
+                            pageSize),
+                    new String[]{WeatherEntry.COLUMN_DATE},
+                    null,
+                    null,
+                    WeatherEntry.COLUMN_DATE + " ASC"
+            );
+            int count = cursor.getCount();
+            assertTrue("Error: Page larger than the limit", count <= pageSize);
+            if (count == 0) {
+                cursor.close();
+                break;
+            }
+            cursor.moveToLast();
+            startDate = cursor.getLong(0) + 1;
+            cursor.close();
+            total += count;
+            pages++;
+        }
+        assertEquals("Error: Paging didn't return every row", BULK_INSERT_RECORDS_TO_INSERT, total);
+        assertEquals("Error: Unexpected number of pages", 3, pages);
+    }
+
     static private final int BULK_INSERT_RECORDS_TO_INSERT = 10;
     static ContentValues[] createBulkInsertWeatherValues(long locationRowId) {
         long currentTestDate = TestUtilities.TEST_DATE;
@@ -8,12 +8,14 @@ import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.test.AndroidTestCase;
 
 import com.example.android.sunshine.utils.PollingCheck;
 
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /*
     Students: These are functions and some test data to make it easier to test your database and
@@ -96,6 +98,15 @@ public class TestUtilities extends AndroidTestCase {
         return locationRowId;
     }
 
+    /*
+        Empties the weather and location tables through the provider, so that its caches and
+        observers hear about it, as the tests that go through the provider start and end with.
+     */
+    public static void deleteAllRecords(Context context) {
+        context.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        context.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
     /*
         Students: The functions we provide inside of TestProvider use this utility class to test
         the ContentObserver callbacks using the PollingCheck class that we grabbed from the Android
@@ -147,4 +158,45 @@ public class TestUtilities extends AndroidTestCase {
     static TestContentObserver getTestContentObserver() {
         return TestContentObserver.getTestContentObserver();
     }
+
+    /*
+        Counts the notifications instead of waiting for one, to check how many a change sends.
+     */
+    static class CountingContentObserver extends ContentObserver {
+        final HandlerThread mHT;
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        static CountingContentObserver create() {
+            HandlerThread ht = new HandlerThread("CountingContentObserverThread");
+            ht.start();
+            return new CountingContentObserver(ht);
+        }
+
+        private CountingContentObserver(HandlerThread ht) {
+            super(new Handler(ht.getLooper()));
+            mHT = ht;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            mCount.incrementAndGet();
+        }
+
+        /*
+            The notifications received once the ones sent so far had time to arrive.
+         */
+        int getCount(long settleMillis) {
+            SystemClock.sleep(settleMillis);
+            return mCount.get();
+        }
+
+        void quit() {
+            mHT.quit();
+        }
+    }
 }
@@ -0,0 +1,131 @@
+package com.example.android.sunshine.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+    Benchmark: a writer doing sync-like bulk inserts while READERS threads run
+    WeatherProvider.query for a location, with and without write-ahead logging.  The reader
+    latencies (p50, p99, max) are written to the log.  The only thing asserted is that the readers
+    got through, the numbers depend too much on the device to be checked.
+ */
+public class TestWalConcurrency extends AndroidTestCase {
+    public static final String LOG_TAG = TestWalConcurrency.class.getSimpleName();
+
+    private static final int READERS = 4;
+    private static final int SYNCS = 40;
+    // Days inserted per sync, a lot more than a real sync so the write transactions are long
+    private static final int ROWS_PER_SYNC = 500;
+
+    private static final String WAL_DATABASE = "test_wal.db";
+    private static final String JOURNAL_DATABASE = "test_journal.db";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WAL_DATABASE);
+        mContext.deleteDatabase(JOURNAL_DATABASE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(WAL_DATABASE);
+        mContext.deleteDatabase(JOURNAL_DATABASE);
+        super.tearDown();
+    }
+
+    public void testReadersDuringSync() throws InterruptedException {
+        List<Long> journal = run(new WeatherDbHelper(mContext, JOURNAL_DATABASE, false));
+        List<Long> wal = run(new WeatherDbHelper(mContext, WAL_DATABASE, true));
+
+        assertFalse("Error: No read went through with the rollback journal", journal.isEmpty());
+        assertFalse("Error: No read went through with the write-ahead log", wal.isEmpty());
+        log("Rollback journal", journal);
+        log("Write-ahead log", wal);
+    }
+
+    /*
+        Returns the latencies of every reader query made while the writer was running, in
+        nanoseconds, sorted.
+     */
+    private List<Long> run(WeatherDbHelper helper) throws InterruptedException {
+        final WeatherProvider provider = new WeatherProvider();
+        provider.attachInfo(mContext, null);
+        provider.setOpenHelper(helper);
+
+        final long locationId = ContentUris.parseId(provider.insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues()));
+
+        final List<Long> latencies = Collections.synchronizedList(new ArrayList<Long>());
+        final boolean[] writing = {true};
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long date = TestUtilities.TEST_DATE;
+                for (int sync = 0; sync < SYNCS; sync++) {
+                    ContentValues[] values = new ContentValues[ROWS_PER_SYNC];
+                    for (int i = 0; i < ROWS_PER_SYNC; i++) {
+                        values[i] = TestUtilities.createWeatherValues(locationId);
+                        values[i].put(WeatherEntry.COLUMN_DATE, date);
+                        date += 24 * 60 * 60 * 1000;
+                    }
+                    provider.bulkInsert(WeatherEntry.CONTENT_URI, values);
+                }
+                synchronized (writing) {
+                    writing[0] = false;
+                }
+            }
+        });
+
+        Thread[] readers = new Thread[READERS];
+        for (int i = 0; i < READERS; i++) {
+            readers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (true) {
+                        synchronized (writing) {
+                            if (!writing[0]) return;
+                        }
+                        long start = System.nanoTime();
+                        Cursor cursor = provider.query(
+                                WeatherEntry.buildWeatherLocationPage(TestUtilities.TEST_LOCATION,
+                                        TestUtilities.TEST_DATE, 30),
+                                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+                        cursor.getCount();
+                        cursor.close();
+                        latencies.add(System.nanoTime() - start);
+                    }
+                }
+            });
+        }
+
+        writer.start();
+        for (Thread reader : readers) reader.start();
+        writer.join();
+        for (Thread reader : readers) reader.join();
+        helper.close();
+
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    private static void log(String name, List<Long> latencies) {
+        int count = latencies.size();
+        Log.i(LOG_TAG, name + ": " + count + " reads, p50 "
+                + latencies.get(count / 2) / 1000 + "us, p99 "
+                + latencies.get(Math.min(count - 1, count * 99 / 100)) / 1000 + "us, max "
+                + latencies.get(count - 1) / 1000 + "us");
+    }
+}
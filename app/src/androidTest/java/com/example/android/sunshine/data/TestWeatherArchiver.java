@@ -0,0 +1,167 @@
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.Calendar;
+
+/*
+    Runs the WeatherArchiver over a few months of daily weather, and checks that whatever leaves
+    the weather table ends up in the archive.
+ */
+public class TestWeatherArchiver extends AndroidTestCase {
+
+    private static final int HISTORY_DAYS = 90;
+    private static final int RETENTION_DAYS = 14;
+
+    private SQLiteDatabase mDb;
+    private long mNow;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+        mNow = System.currentTimeMillis();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    public void testWeeklyArchive() {
+        checkArchive(LocationEntry.ARCHIVE_PERIOD_WEEK);
+    }
+
+    public void testMonthlyArchive() {
+        checkArchive(LocationEntry.ARCHIVE_PERIOD_MONTH);
+    }
+
+    public void testNoArchive() {
+        long locationId = insertHistory(LocationEntry.ARCHIVE_PERIOD_NONE);
+
+        WeatherArchiver.Result result = WeatherArchiver.compact(mDb, mNow, Long.MAX_VALUE);
+
+        assertTrue(result.done);
+        assertEquals("Error: Days past the retention weren't deleted",
+                HISTORY_DAYS - RETENTION_DAYS, result.rowsRemoved);
+        assertEquals(0, count(ArchiveEntry.TABLE_NAME, null));
+        assertEquals(0, count(WeatherEntry.TABLE_NAME, WeatherEntry.COLUMN_LOC_KEY + " = "
+                + locationId + " AND " + WeatherEntry.COLUMN_DATE + " < " + getCutoff()));
+    }
+
+    // A budget that's already spent leaves everything for the next call
+    public void testBudget() {
+        insertHistory(LocationEntry.ARCHIVE_PERIOD_WEEK);
+
+        WeatherArchiver.Result result = WeatherArchiver.compact(mDb, mNow, 0);
+
+        assertFalse(result.done);
+        assertEquals(HISTORY_DAYS, count(WeatherEntry.TABLE_NAME, null));
+
+        result = WeatherArchiver.compact(mDb, mNow, Long.MAX_VALUE);
+        assertTrue(result.done);
+        assertTrue(result.periodsArchived > 0);
+    }
+
+    private void checkArchive(String period) {
+        long locationId = insertHistory(period);
+
+        WeatherArchiver.Result result = WeatherArchiver.compact(mDb, mNow, Long.MAX_VALUE);
+        assertTrue(result.done);
+        assertTrue("Error: Nothing was archived", result.periodsArchived > 0);
+
+        // Every day that left the weather table is counted in an archive row
+        Cursor cursor = mDb.query(ArchiveEntry.TABLE_NAME, null, null, null, null, null,
+                ArchiveEntry.COLUMN_START_DATE + " ASC");
+        int archivedDays = 0;
+        long cutoff = getCutoff();
+        while (cursor.moveToNext()) {
+            assertEquals(locationId, cursor.getLong(cursor.getColumnIndex(ArchiveEntry.COLUMN_LOC_KEY)));
+            assertEquals(period, cursor.getString(cursor.getColumnIndex(ArchiveEntry.COLUMN_PERIOD)));
+            long start = cursor.getLong(cursor.getColumnIndex(ArchiveEntry.COLUMN_START_DATE));
+            long end = cursor.getLong(cursor.getColumnIndex(ArchiveEntry.COLUMN_END_DATE));
+            assertTrue("Error: A period within the retention was archived", end <= cutoff);
+            assertEquals(0, count(WeatherEntry.TABLE_NAME, WeatherEntry.COLUMN_DATE + " >= "
+                    + start + " AND " + WeatherEntry.COLUMN_DATE + " < " + end));
+
+            // The daily temperatures are min = -i, max = i for the i-th day back
+            double min = cursor.getDouble(cursor.getColumnIndex(ArchiveEntry.COLUMN_MIN_TEMP));
+            double max = cursor.getDouble(cursor.getColumnIndex(ArchiveEntry.COLUMN_MAX_TEMP));
+            assertEquals("Error: Wrong min", -max, min, 0.001);
+            assertEquals("Error: Wrong mean", 0,
+                    cursor.getDouble(cursor.getColumnIndex(ArchiveEntry.COLUMN_MEAN_TEMP)), 0.001);
+            assertEquals("Error: Wrong dominant condition", 800,
+                    cursor.getInt(cursor.getColumnIndex(ArchiveEntry.COLUMN_WEATHER_ID)));
+            archivedDays += cursor.getInt(cursor.getColumnIndex(ArchiveEntry.COLUMN_DAYS));
+        }
+        cursor.close();
+        assertEquals(result.rowsRemoved, archivedDays);
+        assertEquals(HISTORY_DAYS, archivedDays + count(WeatherEntry.TABLE_NAME, null));
+
+        // The retained days are all still there
+        assertEquals(RETENTION_DAYS, count(WeatherEntry.TABLE_NAME,
+                WeatherEntry.COLUMN_DATE + " >= " + cutoff));
+
+        // Running again has nothing left to do
+        result = WeatherArchiver.compact(mDb, mNow, Long.MAX_VALUE);
+        assertEquals(0, result.rowsRemoved);
+    }
+
+    /*
+        Inserts a location with the given archive period, and one day of weather for each of the
+        HISTORY_DAYS days up to yesterday.  Two thirds of the days are clear (800), starting with
+        the oldest two, so clear is the dominant condition of any period.
+     */
+    private long insertHistory(String period) {
+        ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+        locationValues.put(LocationEntry.COLUMN_RETENTION_DAYS, RETENTION_DAYS);
+        locationValues.put(LocationEntry.COLUMN_ARCHIVE_PERIOD, period);
+        long locationId = mDb.insert(LocationEntry.TABLE_NAME, null, locationValues);
+        assertTrue(locationId != -1);
+
+        mDb.beginTransaction();
+        try {
+            for (int i = 1; i <= HISTORY_DAYS; i++) {
+                ContentValues weatherValues = TestUtilities.createWeatherValues(locationId);
+                weatherValues.put(WeatherEntry.COLUMN_DATE, daysAgo(i));
+                weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, -i);
+                weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, i);
+                weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, i % 3 == 1 ? 500 : 800);
+                assertTrue(WeatherStore.insert(mDb, weatherValues) != -1);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        return locationId;
+    }
+
+    private long getCutoff() {
+        return daysAgo(RETENTION_DAYS);
+    }
+
+    private long daysAgo(int days) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(mNow);
+        calendar.add(Calendar.DAY_OF_MONTH, -days);
+        return WeatherContract.normalizeDate(calendar.getTimeInMillis());
+    }
+
+    private int count(String table, String selection) {
+        Cursor cursor = mDb.query(table, new String[]{"COUNT(*)"}, selection, null,
+                null, null, null);
+        cursor.moveToFirst();
+        int count = cursor.getInt(0);
+        cursor.close();
+        return count;
+    }
+}
@@ -0,0 +1,223 @@
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Restores the backup into a database of its own, created empty as after a reinstall: it has
+    to hold what the provider held, also after appends, a torn write at the end of the file and
+    the rewrite once appends have doubled its size.
+    Then times how long it takes from opening that database to reading today's forecast.
+ */
+public class TestWeatherBackup extends AndroidTestCase {
+    public static final String LOG_TAG = TestWeatherBackup.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "weather_backup_test.db";
+
+    private static final int DAYS = 60;
+    private static final int BENCHMARK_LOCATIONS = 20;
+    private static final int BENCHMARK_DAYS = 365;
+
+    // Every day of every location, as both databases join them
+    private static final String SQL_ALL_DAYS = "SELECT " +
+            LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+            LocationEntry.COLUMN_CITY_NAME + ", " +
+            LocationEntry.COLUMN_COORD_LAT + ", " +
+            LocationEntry.COLUMN_COORD_LONG + ", " +
+            WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherEntry.COLUMN_SHORT_DESC + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherEntry.COLUMN_HUMIDITY + ", " +
+            WeatherEntry.COLUMN_PRESSURE + ", " +
+            WeatherEntry.COLUMN_WIND_SPEED + ", " +
+            WeatherEntry.COLUMN_DEGREES +
+            " FROM " + WeatherEntry.TABLE_NAME + " INNER JOIN " + LocationEntry.TABLE_NAME +
+            " ON " + WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_LOC_KEY + " = " +
+            LocationEntry.TABLE_NAME + "." + LocationEntry._ID +
+            " ORDER BY " + LocationEntry.COLUMN_LOCATION_SETTING + ", " + WeatherEntry.COLUMN_DATE;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+        WeatherBackup.delete(mContext);
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        WeatherBackup.delete(mContext);
+        mContext.deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testRestore() {
+        insertDays(insertLocation(TestUtilities.TEST_LOCATION), 0, DAYS);
+        insertDays(insertLocation("Elsewhere"), 0, DAYS);
+        WeatherBackup.write(mContext);
+
+        assertEquals("Error: The restored database differs", readAllDays(),
+                readRestored());
+    }
+
+    public void testAppend() throws IOException {
+        long locationId = insertLocation(TestUtilities.TEST_LOCATION);
+        insertDays(locationId, 0, DAYS);
+        // The first append writes the whole file
+        WeatherBackup.append(mContext, TestUtilities.TEST_LOCATION, 0);
+
+        // A later sync stores newer days, some of them again
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, 12.34);
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, values,
+                WeatherEntry.COLUMN_DATE + " >= ?", new String[]{Long.toString(getDate(50))});
+        insertDays(locationId, DAYS, DAYS + 10);
+        WeatherBackup.append(mContext, TestUtilities.TEST_LOCATION, getDate(50));
+
+        // And a crash cuts the write of the next segment short
+        File file = WeatherBackup.getFile(mContext);
+        long length = file.length();
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(new byte[]{0, 0, 1, 0, 1, 2, 3, 4, 5, 6});
+        } finally {
+            out.close();
+        }
+        assertEquals("Error: A torn segment was restored", readAllDays(),
+                readRestored());
+
+        // Which the next append writes over
+        insertDays(locationId, DAYS + 10, DAYS + 11);
+        WeatherBackup.append(mContext, TestUtilities.TEST_LOCATION, getDate(DAYS + 10));
+        assertTrue("Error: The torn segment wasn't dropped", file.length() < length + 200);
+        assertEquals("Error: A segment after a torn one was lost", readAllDays(),
+                readRestored());
+    }
+
+    public void testRewrite() {
+        insertDays(insertLocation(TestUtilities.TEST_LOCATION), 0, DAYS);
+        insertDays(insertLocation("Elsewhere"), 0, DAYS);
+        WeatherBackup.write(mContext);
+        File file = WeatherBackup.getFile(mContext);
+        long length = file.length();
+
+        // Each append of all the days of one location adds about half of the file, the first
+        // three find it smaller than twice the whole write
+        for (int i = 0; i < 3; i++) {
+            WeatherBackup.append(mContext, TestUtilities.TEST_LOCATION, 0);
+        }
+        assertTrue("Error: The backup was written again too early",
+                file.length() >= 2 * length);
+        // The next one writes it as a whole
+        WeatherBackup.append(mContext, TestUtilities.TEST_LOCATION, 0);
+        assertEquals("Error: The backup wasn't written again", length, file.length());
+        assertEquals("Error: The rewritten backup differs", readAllDays(), readRestored());
+    }
+
+    public void testTimeToFirstDataBenchmark() {
+        for (int i = 0; i < BENCHMARK_LOCATIONS; i++) {
+            insertDays(insertLocation("location" + i), 0, BENCHMARK_DAYS);
+        }
+        long start = System.nanoTime();
+        WeatherBackup.write(mContext);
+        long writeNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        SQLiteDatabase db = openRestored();
+        Cursor cursor = db.rawQuery(SQL_ALL_DAYS + " LIMIT 14", null);
+        try {
+            assertTrue("Error: Nothing to show after a reinstall", cursor.moveToFirst());
+        } finally {
+            cursor.close();
+        }
+        long firstDataNanos = System.nanoTime() - start;
+        db.close();
+
+        Log.i(LOG_TAG, BENCHMARK_LOCATIONS * BENCHMARK_DAYS + " days: backup of "
+                + WeatherBackup.getFile(mContext).length() / 1024 + "KB written in "
+                + writeNanos / 1000000 + "ms; from an empty database to the first forecast in "
+                + firstDataNanos / 1000000 + "ms");
+    }
+
+    // A new database, restored from the backup as it is created
+    private SQLiteDatabase openRestored() {
+        mContext.deleteDatabase(DATABASE_NAME);
+        WeatherDbHelper helper = new WeatherDbHelper(mContext, DATABASE_NAME, false);
+        helper.setBackupFile(WeatherBackup.getFile(mContext));
+        return helper.getWritableDatabase();
+    }
+
+    private List<String> readRestored() {
+        SQLiteDatabase db = openRestored();
+        try {
+            return readAllDays(db);
+        } finally {
+            db.close();
+        }
+    }
+
+    // What the provider holds
+    private List<String> readAllDays() {
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        try {
+            return readAllDays(db);
+        } finally {
+            db.close();
+        }
+    }
+
+    private static List<String> readAllDays(SQLiteDatabase db) {
+        List<String> days = new ArrayList<>();
+        Cursor cursor = db.rawQuery(SQL_ALL_DAYS, null);
+        try {
+            while (cursor.moveToNext()) {
+                StringBuilder day = new StringBuilder();
+                for (int i = 0; i < cursor.getColumnCount(); i++) {
+                    day.append(cursor.getString(i)).append('|');
+                }
+                days.add(day.toString());
+            }
+        } finally {
+            cursor.close();
+        }
+        return days;
+    }
+
+    private long insertLocation(String locationSetting) {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        return Long.parseLong(mContext.getContentResolver()
+                .insert(LocationEntry.CONTENT_URI, values).getLastPathSegment());
+    }
+
+    private void insertDays(long locationId, int first, int end) {
+        ContentValues[] values = new ContentValues[end - first];
+        for (int i = first; i < end; i++) {
+            values[i - first] = TestUtilities.createWeatherValues(locationId);
+            values[i - first].put(WeatherEntry.COLUMN_DATE, getDate(i));
+            values[i - first].put(WeatherEntry.COLUMN_MIN_TEMP, -10.25 + i % 7);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+    }
+
+    private static long getDate(int day) {
+        DayNormalizer normalizer = DayNormalizer.getDefault();
+        return normalizer.getStartOfJulianDay(
+                normalizer.getJulianDay(TestUtilities.TEST_DATE) + day);
+    }
+}
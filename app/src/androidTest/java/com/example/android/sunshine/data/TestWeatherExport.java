@@ -0,0 +1,210 @@
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract.ExportEntry;
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/*
+    Reads exports through the provider's pipe: the rows of the locations and dates asked for,
+    in CSV and in newline-delimited JSON, over more than one page, and that invalid URIs are
+    refused before a pipe is opened.  Then times a large export, and checks that the provider's
+    heap doesn't grow with it.
+ */
+public class TestWeatherExport extends AndroidTestCase {
+    public static final String LOG_TAG = TestWeatherExport.class.getSimpleName();
+
+    private static final int DAYS = 1500;
+    private static final int BENCHMARK_LOCATIONS = 100;
+    private static final int BENCHMARK_DAYS = 1000;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    public void testCsv() throws IOException {
+        insertDays(insertLocation(TestUtilities.TEST_LOCATION), DAYS);
+        insertDays(insertLocation("Elsewhere, with a comma"), DAYS);
+
+        long start = getDate(10);
+        long end = getDate(DAYS - 10);
+        BufferedReader reader = open(ExportEntry.buildExportUri(ExportEntry.FORMAT_CSV,
+                new String[]{TestUtilities.TEST_LOCATION}, start, end));
+        try {
+            assertEquals("Error: Wrong header", TextUtils.join(",", ExportEntry.COLUMNS),
+                    reader.readLine());
+            int rows = 0;
+            long lastDate = 0;
+            for (String line; (line = reader.readLine()) != null; rows++) {
+                String[] fields = line.split(",");
+                assertEquals("Error: Wrong fields in " + line, ExportEntry.COLUMNS.length,
+                        fields.length);
+                assertEquals(TestUtilities.TEST_LOCATION, fields[0]);
+                long date = Long.parseLong(fields[1]);
+                assertTrue("Error: Dates out of order", date > lastDate);
+                assertTrue("Error: Date out of range", date >= start && date < end);
+                lastDate = date;
+            }
+            assertEquals("Error: Rows were lost", DAYS - 20, rows);
+        } finally {
+            reader.close();
+        }
+
+        // Every location
+        reader = open(ExportEntry.buildExportUri(ExportEntry.FORMAT_CSV, null, 0, Long.MAX_VALUE));
+        try {
+            reader.readLine();
+            int rows = 0;
+            boolean quoted = false;
+            for (String line; (line = reader.readLine()) != null; rows++) {
+                quoted |= line.startsWith("\"Elsewhere, with a comma\",");
+            }
+            assertEquals("Error: Rows were lost", 2 * DAYS, rows);
+            assertTrue("Error: A field with a comma wasn't quoted", quoted);
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void testNdjson() throws IOException, JSONException {
+        insertDays(insertLocation(TestUtilities.TEST_LOCATION), DAYS);
+        assertEquals(ExportEntry.MIME_TYPE_NDJSON, mContext.getContentResolver().getType(
+                ExportEntry.buildExportUri(ExportEntry.FORMAT_NDJSON, null, 0, 1)));
+
+        BufferedReader reader = open(ExportEntry.buildExportUri(ExportEntry.FORMAT_NDJSON,
+                new String[]{TestUtilities.TEST_LOCATION}, 0, Long.MAX_VALUE));
+        ContentValues expected = TestUtilities.createWeatherValues(0);
+        try {
+            int rows = 0;
+            for (String line; (line = reader.readLine()) != null; rows++) {
+                JSONObject row = new JSONObject(line);
+                assertEquals(TestUtilities.TEST_LOCATION,
+                        row.getString(LocationEntry.COLUMN_LOCATION_SETTING));
+                assertEquals(getDate(rows), row.getLong(WeatherEntry.COLUMN_DATE));
+                assertEquals(expected.getAsString(WeatherEntry.COLUMN_SHORT_DESC),
+                        row.getString(WeatherEntry.COLUMN_SHORT_DESC));
+                assertEquals(expected.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP),
+                        row.getDouble(WeatherEntry.COLUMN_MAX_TEMP));
+            }
+            assertEquals("Error: Rows were lost", DAYS, rows);
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void testInvalidUri() throws IOException {
+        Uri[] uris = {
+                ExportEntry.CONTENT_URI.buildUpon()
+                        .appendQueryParameter(ExportEntry.PARAM_START_DATE, "yesterday").build(),
+                ExportEntry.CONTENT_URI.buildUpon()
+                        .appendQueryParameter(ExportEntry.PARAM_FORMAT, "xml").build()
+        };
+        for (Uri uri : uris) {
+            try {
+                mContext.getContentResolver().openInputStream(uri).close();
+                fail("Error: An invalid export was opened: " + uri);
+            } catch (FileNotFoundException e) {
+                // Expected, and the provider is still there
+            }
+        }
+        insertDays(insertLocation(TestUtilities.TEST_LOCATION), 1);
+        BufferedReader reader = open(ExportEntry.buildExportUri(ExportEntry.FORMAT_CSV, null, 0,
+                Long.MAX_VALUE));
+        try {
+            reader.readLine();
+            assertNotNull("Error: The provider didn't export after invalid URIs",
+                    reader.readLine());
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void testThroughputBenchmark() throws IOException {
+        for (int i = 0; i < BENCHMARK_LOCATIONS; i++) {
+            insertDays(insertLocation("location" + i), BENCHMARK_DAYS);
+        }
+        for (String format : new String[]{ExportEntry.FORMAT_CSV, ExportEntry.FORMAT_NDJSON}) {
+            Runtime runtime = Runtime.getRuntime();
+            runtime.gc();
+            long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+            long peakHeap = heapBefore;
+
+            long start = System.nanoTime();
+            InputStream in = mContext.getContentResolver().openInputStream(
+                    ExportEntry.buildExportUri(format, null, 0, Long.MAX_VALUE));
+            long bytes = 0;
+            int rows = 0;
+            try {
+                byte[] buffer = new byte[8192];
+                for (int read; (read = in.read(buffer)) != -1; bytes += read) {
+                    for (int i = 0; i < read; i++) {
+                        if (buffer[i] == '\n') {
+                            rows++;
+                        }
+                    }
+                    peakHeap = Math.max(peakHeap, runtime.totalMemory() - runtime.freeMemory());
+                }
+            } finally {
+                in.close();
+            }
+            long nanos = System.nanoTime() - start;
+            if (ExportEntry.FORMAT_CSV.equals(format)) {
+                // The header
+                rows--;
+            }
+            assertEquals("Error: Rows were lost", BENCHMARK_LOCATIONS * BENCHMARK_DAYS, rows);
+            Log.i(LOG_TAG, format + " export of " + rows + " rows, " + bytes / 1024 + "KB: "
+                    + rows * 1000000000L / nanos + " rows/s, heap grew by at most "
+                    + (peakHeap - heapBefore) / 1024 + "KB");
+        }
+    }
+
+    private BufferedReader open(Uri uri) throws IOException {
+        return new BufferedReader(new InputStreamReader(
+                mContext.getContentResolver().openInputStream(uri), "UTF-8"));
+    }
+
+    private long insertLocation(String locationSetting) {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        return Long.parseLong(mContext.getContentResolver()
+                .insert(LocationEntry.CONTENT_URI, values).getLastPathSegment());
+    }
+
+    private void insertDays(long locationId, int days) {
+        ContentValues[] values = new ContentValues[days];
+        for (int i = 0; i < days; i++) {
+            values[i] = TestUtilities.createWeatherValues(locationId);
+            values[i].put(WeatherEntry.COLUMN_DATE, getDate(i));
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+    }
+
+    private static long getDate(int day) {
+        DayNormalizer normalizer = DayNormalizer.getDefault();
+        return normalizer.getStartOfJulianDay(
+                normalizer.getJulianDay(TestUtilities.TEST_DATE) + day);
+    }
+}
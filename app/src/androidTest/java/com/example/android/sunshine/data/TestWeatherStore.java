@@ -0,0 +1,348 @@
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+/*
+    Checks the migration of a version 3 database, where every weather row holds its description
+    and REAL measures, to the condition table and scaled integers behind the weather view, and
+    that descriptions are only written along with their weather id.  Then compares the size and
+    the scan time of both at 100k rows.
+ */
+public class TestWeatherStore extends AndroidTestCase {
+    public static final String LOG_TAG = TestWeatherStore.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "weather_store_test.db";
+
+    private static final int LOCATIONS = 100;
+    private static final int DAYS = 1000;
+    private static final int SCANS = 3;
+
+    private static final int[] WEATHER_IDS = {200, 300, 500, 600, 701, 800, 801, 804};
+    private static final String[] DESCRIPTIONS =
+            {"Storm", "Drizzle", "Rain", "Snow", "Mist", "Clear", "Clouds", "Clouds"};
+
+    // The weather table as it was in version 3
+    private static final String SQL_CREATE_WEATHER_V3 = "CREATE TABLE " +
+            WeatherEntry.TABLE_NAME + " (" +
+            WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+            WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+            WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+            WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+            WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+            " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+            " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
+
+    private static final String SQL_CREATE_LOCATION_V3 = "CREATE TABLE " +
+            LocationEntry.TABLE_NAME + " (" +
+            LocationEntry._ID + " INTEGER PRIMARY KEY," +
+            LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
+            LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
+            LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
+            LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+            LocationEntry.COLUMN_RETENTION_DAYS + " INTEGER NOT NULL DEFAULT 30, " +
+            LocationEntry.COLUMN_ARCHIVE_PERIOD + " TEXT NOT NULL DEFAULT 'week');";
+
+    // The columns of the weather table, in the order of the version 3 table
+    private static final String[] COLUMNS = {
+            WeatherEntry._ID,
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testMigrationFromVersion3() {
+        createVersion3(3, 50);
+        double[][] expected = readAll(openVersion3());
+
+        SQLiteDatabase db = new WeatherDbHelper(mContext, DATABASE_NAME, false)
+                .getWritableDatabase();
+        try {
+            Cursor cursor = db.query(WeatherEntry.TABLE_NAME, COLUMNS, null, null, null, null,
+                    WeatherEntry._ID + " ASC");
+            try {
+                assertEquals("Error: Rows were lost", expected.length, cursor.getCount());
+                for (int row = 0; cursor.moveToNext(); row++) {
+                    for (int column = 0; column < COLUMNS.length; column++) {
+                        if (column == 3) {
+                            assertEquals("Error: Wrong description",
+                                    description((int) expected[row][4]), cursor.getString(3));
+                        } else {
+                            assertEquals("Error: " + COLUMNS[column] + " wasn't kept",
+                                    expected[row][column], cursor.getDouble(column));
+                        }
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+            assertEquals("Error: The descriptions weren't stored once per weather id",
+                    WEATHER_IDS.length,
+                    DatabaseUtils.queryNumEntries(db, WeatherStore.CONDITION_TABLE_NAME));
+
+            // Rows written after the migration go the same way
+            long id = WeatherStore.insert(db, TestUtilities.createWeatherValues(1));
+            cursor = db.query(WeatherEntry.TABLE_NAME, null, WeatherEntry._ID + " = " + id,
+                    null, null, null, null);
+            TestUtilities.validateCursor("Error: A row written after the migration",
+                    cursor, TestUtilities.createWeatherValues(1));
+        } finally {
+            db.close();
+        }
+    }
+
+    public void testIncompleteRowInTransaction() {
+        SQLiteDatabase db = new WeatherDbHelper(mContext, DATABASE_NAME, false)
+                .getWritableDatabase();
+        try {
+            ContentValues noDescription = TestUtilities.createWeatherValues(1);
+            noDescription.remove(WeatherEntry.COLUMN_SHORT_DESC);
+            noDescription.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + 1);
+            ContentValues later = TestUtilities.createWeatherValues(1);
+            later.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + 2);
+
+            // As in a bulk insert: the bad row mustn't take the others down with it
+            db.beginTransactionNonExclusive();
+            try {
+                assertTrue(WeatherStore.insert(db, TestUtilities.createWeatherValues(1)) != -1);
+                assertEquals("Error: A row without a description was inserted", -1,
+                        WeatherStore.insert(db, noDescription));
+                assertTrue(WeatherStore.insert(db, later) != -1);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            assertEquals("Error: The transaction was rolled back", 2,
+                    DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME));
+            assertEquals(-1, WeatherStore.insert(db, noDescription));
+        } finally {
+            db.close();
+        }
+    }
+
+    public void testDescriptionUpdate() {
+        SQLiteDatabase db = new WeatherDbHelper(mContext, DATABASE_NAME, false)
+                .getWritableDatabase();
+        try {
+            ContentValues later = TestUtilities.createWeatherValues(1);
+            later.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + 1);
+            WeatherStore.Inserter inserter = new WeatherStore.Inserter(db);
+            try {
+                assertTrue(inserter.insert(TestUtilities.createWeatherValues(1)) != -1);
+                assertTrue(inserter.insert(later) != -1);
+            } finally {
+                inserter.close();
+            }
+            String laterSelection = WeatherEntry.COLUMN_DATE + " = ?";
+            String[] laterArgs = {Long.toString(TestUtilities.TEST_DATE + 1)};
+
+            // The description of the weather id, so of both days
+            ContentValues description = new ContentValues();
+            description.put(WeatherEntry.COLUMN_SHORT_DESC, "Rain");
+            try {
+                WeatherStore.update(db, description, laterSelection, laterArgs);
+                fail("Error: A description was updated without its weather id");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+
+            // With its weather id, only the day updated changes
+            description.put(WeatherEntry.COLUMN_WEATHER_ID, 500);
+            assertEquals(1, WeatherStore.update(db, description, laterSelection, laterArgs));
+            Cursor cursor = db.query(WeatherEntry.TABLE_NAME,
+                    new String[]{WeatherEntry.COLUMN_SHORT_DESC}, null, null, null, null,
+                    WeatherEntry.COLUMN_DATE + " ASC");
+            try {
+                assertTrue(cursor.moveToFirst());
+                assertEquals("Error: The description of another day changed",
+                        TestUtilities.createWeatherValues(1)
+                                .getAsString(WeatherEntry.COLUMN_SHORT_DESC),
+                        cursor.getString(0));
+                assertTrue(cursor.moveToNext());
+                assertEquals("Rain", cursor.getString(0));
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+    public void testSizeAndScanBenchmark() {
+        createVersion3(LOCATIONS, DAYS);
+        SQLiteDatabase db = openVersion3();
+        db.execSQL("VACUUM");
+        long oldSize = getFile().length();
+        long oldScanNanos = scan(db);
+        db.close();
+
+        long start = System.nanoTime();
+        db = new WeatherDbHelper(mContext, DATABASE_NAME, false).getWritableDatabase();
+        long migrationNanos = System.nanoTime() - start;
+        db.execSQL("VACUUM");
+        long newSize = getFile().length();
+        long newScanNanos = scan(db);
+        db.close();
+
+        Log.i(LOG_TAG, LOCATIONS * DAYS + " rows: " + oldSize / 1024 + "KB with descriptions "
+                + "and REAL measures, " + newSize / 1024 + "KB with the condition table and "
+                + "scaled integers; full scan " + oldScanNanos / 1000000 + "ms before, "
+                + newScanNanos / 1000000 + "ms through the view; migration "
+                + migrationNanos / 1000000 + "ms");
+        assertTrue("Error: The database didn't shrink", newSize < oldSize);
+    }
+
+    // Fills a version 3 database with made up days, measures with two decimals at most
+    private void createVersion3(int locations, int days) {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(DATABASE_NAME, 0, null);
+        Random random = new Random(42);
+        try {
+            db.execSQL(SQL_CREATE_LOCATION_V3);
+            db.execSQL(SQL_CREATE_WEATHER_V3);
+            db.beginTransaction();
+            try {
+                SQLiteStatement location = db.compileStatement("INSERT INTO " +
+                        LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + ", " +
+                        LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+                        LocationEntry.COLUMN_CITY_NAME + ", " +
+                        LocationEntry.COLUMN_COORD_LAT + ", " +
+                        LocationEntry.COLUMN_COORD_LONG + ") VALUES (?, ?, ?, 0, 0)");
+                SQLiteStatement weather = db.compileStatement("INSERT INTO " +
+                        WeatherEntry.TABLE_NAME + " (" + TextUtils.join(", ",
+                        Arrays.copyOfRange(COLUMNS, 1, COLUMNS.length)) +
+                        ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+                for (int l = 1; l <= locations; l++) {
+                    location.bindLong(1, l);
+                    location.bindString(2, "location" + l);
+                    location.bindString(3, "City " + l);
+                    location.executeInsert();
+                    for (int d = 0; d < days; d++) {
+                        int condition = (l + d) % WEATHER_IDS.length;
+                        weather.bindLong(1, l);
+                        weather.bindLong(2, TestUtilities.TEST_DATE
+                                + d * DayNormalizer.DAY_IN_MILLIS);
+                        weather.bindString(3, DESCRIPTIONS[condition]);
+                        weather.bindLong(4, WEATHER_IDS[condition]);
+                        weather.bindDouble(5, hundredths(random, -3000, 3000));
+                        weather.bindDouble(6, hundredths(random, 0, 4500));
+                        weather.bindDouble(7, hundredths(random, 0, 10000));
+                        weather.bindDouble(8, hundredths(random, 95000, 105000));
+                        weather.bindDouble(9, hundredths(random, 0, 3000));
+                        weather.bindDouble(10, hundredths(random, 0, 36000));
+                        weather.executeInsert();
+                    }
+                }
+                location.close();
+                weather.close();
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            db.setVersion(3);
+        } finally {
+            db.close();
+        }
+    }
+
+    private SQLiteDatabase openVersion3() {
+        return mContext.openOrCreateDatabase(DATABASE_NAME, 0, null);
+    }
+
+    private File getFile() {
+        return mContext.getDatabasePath(DATABASE_NAME);
+    }
+
+    // Every column of every row, the description as its weather id
+    private static double[][] readAll(SQLiteDatabase db) {
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, COLUMNS, null, null, null, null,
+                WeatherEntry._ID + " ASC");
+        try {
+            double[][] rows = new double[cursor.getCount()][COLUMNS.length];
+            for (int row = 0; cursor.moveToNext(); row++) {
+                for (int column = 0; column < COLUMNS.length; column++) {
+                    if (column != 3) {
+                        rows[row][column] = cursor.getDouble(column);
+                    }
+                }
+            }
+            return rows;
+        } finally {
+            cursor.close();
+            db.close();
+        }
+    }
+
+    // Best of SCANS reads of every column of every row
+    private static long scan(SQLiteDatabase db) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < SCANS; i++) {
+            long start = System.nanoTime();
+            Cursor cursor = db.query(WeatherEntry.TABLE_NAME, COLUMNS, null, null, null, null,
+                    null);
+            double sum = 0;
+            while (cursor.moveToNext()) {
+                sum += cursor.getLong(0) + cursor.getLong(1) + cursor.getLong(2)
+                        + cursor.getString(3).length() + cursor.getInt(4) + cursor.getDouble(5)
+                        + cursor.getDouble(6) + cursor.getDouble(7) + cursor.getDouble(8)
+                        + cursor.getDouble(9) + cursor.getDouble(10);
+            }
+            cursor.close();
+            best = Math.min(best, System.nanoTime() - start);
+            assertTrue(sum != 0);
+        }
+        return best;
+    }
+
+    private static double hundredths(Random random, int min, int max) {
+        return (min + random.nextInt(max - min)) / 100.0;
+    }
+
+    private static String description(int weatherId) {
+        for (int i = 0; i < WEATHER_IDS.length; i++) {
+            if (WEATHER_IDS[i] == weatherId) {
+                return DESCRIPTIONS[i];
+            }
+        }
+        return null;
+    }
+}
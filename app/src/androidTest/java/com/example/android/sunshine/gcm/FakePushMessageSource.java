@@ -0,0 +1,86 @@
+package com.example.android.sunshine.gcm;
+
+import android.content.Context;
+import android.os.Bundle;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Stands in for the GCM server: builds the data bundles it would deliver and hands them to a
+    PushMessageHandler, whose syncs are recorded instead of run.
+ */
+public class FakePushMessageSource implements PushMessageHandler.SyncRequester {
+
+    public static class SyncRequest {
+        public final String[] locationSettings;
+        public final long version;
+        public final long deltaVersion;
+
+        SyncRequest(String[] locationSettings, long version, long deltaVersion) {
+            this.locationSettings = locationSettings;
+            this.version = version;
+            this.deltaVersion = deltaVersion;
+        }
+    }
+
+    private final PushMessageHandler mHandler;
+    private final List<SyncRequest> mRequests = new ArrayList<>();
+
+    public FakePushMessageSource(Context context) {
+        mHandler = new PushMessageHandler(context, this);
+    }
+
+    /*
+        Delivers a "new data" message for the locations, as GCM would, and returns whether the
+        handler asked for a sync.
+     */
+    public boolean send(long version, String... locationSettings) throws JSONException {
+        JSONObject message = new JSONObject();
+        message.put(PushMessageHandler.KEY_LOCATIONS, new JSONArray());
+        for (String location : locationSettings) {
+            message.getJSONArray(PushMessageHandler.KEY_LOCATIONS).put(location);
+        }
+        message.put(PushMessageHandler.KEY_VERSION, version);
+        return sendRaw(message.toString());
+    }
+
+    /*
+        Delivers a delta taking the location from baseVersion to version, with one day per
+        Julian day given, all with the same weather.
+     */
+    public boolean sendDelta(String locationSetting, long baseVersion, long version,
+                             int... julianDays) throws JSONException {
+        JSONArray days = new JSONArray();
+        for (int julianDay : julianDays) {
+            days.put(new JSONArray()
+                    .put(julianDay).put(500).put("Rain").put(14.5).put(9.2)
+                    .put(81).put(1012.3).put(4.1).put(230));
+        }
+        JSONObject delta = new JSONObject()
+                .put(ForecastDelta.KEY_LOCATION, locationSetting)
+                .put(ForecastDelta.KEY_BASE, baseVersion)
+                .put(ForecastDelta.KEY_VERSION, version)
+                .put(ForecastDelta.KEY_DAYS, days);
+        return sendRaw(new JSONObject().put(PushMessageHandler.KEY_DELTA, delta).toString());
+    }
+
+    public boolean sendRaw(String json) {
+        Bundle data = new Bundle();
+        data.putString(PushMessageHandler.EXTRA_DATA, json);
+        return mHandler.handle(data);
+    }
+
+    @Override
+    public void requestSync(String[] locationSettings, long version, long deltaVersion) {
+        mRequests.add(new SyncRequest(locationSettings, version, deltaVersion));
+    }
+
+    public List<SyncRequest> getRequests() {
+        return mRequests;
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.android.sunshine.gcm;
+
+import android.content.ContentValues;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.R;
+import com.example.android.sunshine.data.TestUtilities;
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.sync.ForecastVersions;
+
+/*
+    Feeds push messages through the FakePushMessageSource and checks which of them turn into
+    syncs, and for which locations, and which deltas end up in the provider.
+ */
+public class TestPushMessageHandler extends AndroidTestCase {
+
+    private static final String LOCATION = "99705";
+    private static final String OTHER_LOCATION = "94043";
+    // December 20th, 2014
+    private static final int JULIAN_DAY = 2457012;
+
+    private FakePushMessageSource mSource;
+    private String mSavedLocation;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String key = mContext.getString(R.string.pref_location_key);
+        mSavedLocation = prefs.getString(key, null);
+        prefs.edit().putString(key, LOCATION).commit();
+        ForecastVersions.clear(mContext);
+        TestUtilities.deleteAllRecords(mContext);
+        mSource = new FakePushMessageSource(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String key = mContext.getString(R.string.pref_location_key);
+        if (mSavedLocation == null) {
+            prefs.edit().remove(key).commit();
+        } else {
+            prefs.edit().putString(key, mSavedLocation).commit();
+        }
+        ForecastVersions.clear(mContext);
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    public void testSyncsOnlyTheShownLocation() throws Exception {
+        assertTrue(mSource.send(10, OTHER_LOCATION, LOCATION));
+
+        assertEquals(1, mSource.getRequests().size());
+        FakePushMessageSource.SyncRequest request = mSource.getRequests().get(0);
+        assertEquals(1, request.locationSettings.length);
+        assertEquals(LOCATION, request.locationSettings[0]);
+        assertEquals(10, request.version);
+    }
+
+    public void testIgnoresOtherLocations() throws Exception {
+        assertFalse(mSource.send(10, OTHER_LOCATION));
+        assertTrue(mSource.getRequests().isEmpty());
+    }
+
+    public void testIgnoresVersionsAlreadySynced() throws Exception {
+        ForecastVersions.set(mContext, LOCATION, 10);
+
+        assertFalse("Error: Synced a version we already hold", mSource.send(10, LOCATION));
+        assertFalse("Error: Synced an older version", mSource.send(9, LOCATION));
+        assertTrue("Error: Didn't sync a newer version", mSource.send(11, LOCATION));
+        assertEquals(1, mSource.getRequests().size());
+    }
+
+    public void testIgnoresOtherMessages() {
+        assertFalse(mSource.sendRaw("{\"weather\":\"storm\",\"location\":\"Mountain View\"}"));
+        assertFalse(mSource.sendRaw("not json"));
+        assertTrue(mSource.getRequests().isEmpty());
+    }
+
+    public void testAppliesDelta() throws Exception {
+        insertLocation();
+        ForecastVersions.setDelta(mContext, LOCATION, 10);
+
+        assertTrue(mSource.sendDelta(LOCATION, 10, 11, JULIAN_DAY, JULIAN_DAY + 1));
+
+        assertTrue("Error: A delta that applies caused a sync", mSource.getRequests().isEmpty());
+        assertEquals(2, countWeather());
+        assertEquals(11, ForecastVersions.getDelta(mContext, LOCATION));
+    }
+
+    public void testRejectsOutOfOrderDelta() throws Exception {
+        insertLocation();
+        ForecastVersions.setDelta(mContext, LOCATION, 10);
+
+        assertFalse(mSource.sendDelta(LOCATION, 8, 9, JULIAN_DAY));
+        assertFalse(mSource.sendDelta(LOCATION, 9, 10, JULIAN_DAY));
+
+        assertEquals(0, countWeather());
+        assertTrue(mSource.getRequests().isEmpty());
+        assertEquals(10, ForecastVersions.getDelta(mContext, LOCATION));
+    }
+
+    public void testSyncsAfterGap() throws Exception {
+        insertLocation();
+        ForecastVersions.setDelta(mContext, LOCATION, 10);
+
+        assertTrue(mSource.sendDelta(LOCATION, 11, 12, JULIAN_DAY));
+
+        assertEquals("Error: A delta after a gap was written", 0, countWeather());
+        assertEquals(1, mSource.getRequests().size());
+        assertEquals(12, mSource.getRequests().get(0).deltaVersion);
+        assertEquals(ForecastVersions.VERSION_NONE, mSource.getRequests().get(0).version);
+        // The version only moves once the sync has run
+        assertEquals(10, ForecastVersions.getDelta(mContext, LOCATION));
+    }
+
+    public void testAnnouncementsDontAffectDeltas() throws Exception {
+        insertLocation();
+        ForecastVersions.setDelta(mContext, LOCATION, 10);
+        // Announcements carry timestamps, far ahead of any delta version
+        ForecastVersions.set(mContext, LOCATION, 1419033600000L);
+
+        assertTrue(mSource.sendDelta(LOCATION, 10, 11, JULIAN_DAY));
+
+        assertTrue("Error: An announced version made a delta look stale",
+                mSource.getRequests().isEmpty());
+        assertEquals(1, countWeather());
+        assertEquals(11, ForecastVersions.getDelta(mContext, LOCATION));
+        assertEquals(1419033600000L, ForecastVersions.get(mContext, LOCATION));
+    }
+
+    public void testSyncsUnknownLocation() throws Exception {
+        assertTrue(mSource.sendDelta(LOCATION, 0, 1, JULIAN_DAY));
+
+        assertEquals(0, countWeather());
+        assertEquals(1, mSource.getRequests().size());
+    }
+
+    public void testRejectsInvalidDelta() throws Exception {
+        insertLocation();
+
+        // Days out of order
+        assertFalse(mSource.sendDelta(LOCATION, 0, 1, JULIAN_DAY + 1, JULIAN_DAY));
+        // Versions going backwards
+        assertFalse(mSource.sendDelta(LOCATION, 2, 1, JULIAN_DAY));
+        // No days
+        assertFalse(mSource.sendDelta(LOCATION, 0, 1));
+
+        assertEquals(0, countWeather());
+        assertTrue(mSource.getRequests().isEmpty());
+    }
+
+    private void insertLocation() {
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, LOCATION);
+        values.put(LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        values.put(LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        values.put(LocationEntry.COLUMN_COORD_LONG, -147.353);
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values);
+    }
+
+    private int countWeather() {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        assertNotNull(cursor);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.android.sunshine.sync;
+
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link HttpTransport} replaying recorded weather server responses from a directory, so the
+ * whole sync can run without the network.
+ * <p/>
+ * The response to a forecast query for q=&lt;location&gt; is the file &lt;location&gt;.json,
+ * or default.json if there is none.  Responses can be slowed down, and every nth one replaced
+ * by a server error with its "cod", as the weather server does.
+ */
+public class FixtureTransport implements HttpTransport {
+    private static final String LOG_TAG = FixtureTransport.class.getSimpleName();
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String QUERY_PARAM = "q";
+    private static final String DEFAULT_FIXTURE = "default";
+    private static final String FIXTURE_EXTENSION = ".json";
+
+    private final File mDirectory;
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private volatile long mDelayMillis;
+    private volatile int mErrorCode;
+    private volatile int mErrorEvery;
+
+    public FixtureTransport(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * Delays every response.  A delay longer than the read timeout ends in a timeout, after
+     * waiting for as long as the timeout.
+     */
+    public void setDelayMillis(long delayMillis) {
+        mDelayMillis = delayMillis;
+    }
+
+    /**
+     * Answers every nth request with the given error code instead of the fixture, or no
+     * request if every is 0.
+     */
+    public void setError(int code, int every) {
+        mErrorCode = code;
+        mErrorEvery = every;
+    }
+
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    @Override
+    public Response get(URL url, int connectTimeoutMillis, int readTimeoutMillis)
+            throws IOException {
+        int request = mRequestCount.incrementAndGet();
+        long delay = mDelayMillis;
+        if (delay > 0) {
+            sleep(Math.min(delay, readTimeoutMillis));
+            if (delay > readTimeoutMillis) {
+                throw new SocketTimeoutException("Replayed response later than " +
+                        readTimeoutMillis + "ms");
+            }
+        }
+
+        int every = mErrorEvery;
+        if (every > 0 && request % every == 0) {
+            String body = "{\"cod\":\"" + mErrorCode + "\",\"message\":\"Injected error\"}";
+            long bytes = body.getBytes(UTF_8).length;
+            return new Response(mErrorCode, body, bytes, bytes);
+        }
+
+        File fixture = getFixture(Uri.parse(url.toString()).getQueryParameter(QUERY_PARAM));
+        if (fixture == null) {
+            String body = "{\"cod\":\"404\",\"message\":\"No fixture\"}";
+            long bytes = body.getBytes(UTF_8).length;
+            return new Response(404, body, bytes, bytes);
+        }
+        String body = read(fixture);
+        return new Response(200, body, fixture.length(), fixture.length());
+    }
+
+    private File getFixture(String query) {
+        if (query != null) {
+            File fixture = new File(mDirectory, query + FIXTURE_EXTENSION);
+            // The query comes from the settings, it mustn't name files out of the directory
+            if (fixture.getParentFile().equals(mDirectory) && fixture.isFile()) {
+                return fixture;
+            }
+        }
+        File fallback = new File(mDirectory, DEFAULT_FIXTURE + FIXTURE_EXTENSION);
+        if (fallback.isFile()) {
+            return fallback;
+        }
+        Log.w(LOG_TAG, "No fixture for " + query + " in " + mDirectory);
+        return null;
+    }
+
+    private static String read(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            Reader reader = new InputStreamReader(in, UTF_8);
+            StringBuilder builder = new StringBuilder((int) file.length());
+            char[] buffer = new char[8 * 1024];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                builder.append(buffer, 0, read);
+            }
+            return builder.toString();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted during replay delay");
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.android.sunshine.sync;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.sync.AdaptiveSyncPolicy.Day;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Simulation: replays recorded forecast histories against the adaptive policy and against the
+    fixed 3 hour schedule, and reports the requests the policy saves and how it does against a
+    freshness SLA.
+
+    A history is the list of revisions the server made to today's and tomorrow's forecast, each
+    one "hour: high,low,id high,low,id".  A client sees a revision at its first sync after it.
+ */
+public class TestAdaptiveSyncPolicy extends AndroidTestCase {
+    public static final String LOG_TAG = TestAdaptiveSyncPolicy.class.getSimpleName();
+
+    private static final int HOUR = 60 * 60;
+    // Significant revisions must be seen within this delay
+    private static final int SLA = 4 * HOUR;
+
+    // A week of high pressure: the forecast barely moves
+    private static final String[] STABLE_HISTORY = {
+            "0: 24,13,800 25,14,800",
+            "12: 24.5,13,800 25,14,801",
+            "30: 25,14,800 25.5,14,800",
+            "41: 25,14.5,800 26,14,800",
+            "60: 26,14,800 26,15,800",
+            "78: 26,15,801 26.5,15,800",
+            "95: 26.5,15,800 26,15,800",
+            "113: 26,15,800 25.5,14.5,800",
+            "131: 25.5,14.5,800 25,14,802",
+            "150: 25,14,802 24.5,14,800",
+            "168: 25,14,800 25,14,800",
+    };
+
+    // Three days of a front moving through: large revisions every few hours
+    private static final String[] VOLATILE_HISTORY = {
+            "0: 18,9,800 17,8,500",
+            "4: 15,9,500 13,7,501",
+            "7: 12,8,501 14,9,300",
+            "10: 16,10,300 11,5,211",
+            "14: 13,8,211 15,8,500",
+            "17: 10,6,500 18,11,800",
+            "20: 14,7,800 12,6,501",
+            "22: 11,5,501 16,9,802",
+            "25: 16,9,802 10,4,600",
+            "28: 9,3,600 13,6,500",
+            "31: 13,6,500 17,10,800",
+            "35: 17,10,800 12,5,211",
+            "38: 12,5,211 15,8,500",
+            "43: 15,8,500 19,11,800",
+            "47: 19,11,800 18,11,800",
+            "62: 18,11,800 18,10,800",
+            "74: 18,10,800 18,10,800",
+    };
+
+    private static class Revision {
+        final int time;
+        final Day[] days;
+
+        Revision(int time, Day[] days) {
+            this.time = time;
+            this.days = days;
+        }
+    }
+
+    private static class Report {
+        int requests;
+        int significantRevisions;
+        int slaMisses;
+        long totalDelay;
+    }
+
+    public void testStableForecastSavesRequests() {
+        List<Revision> history = parse(STABLE_HISTORY);
+        Report fixed = simulate(history, false);
+        Report adaptive = simulate(history, true);
+        log("Stable", fixed, adaptive);
+
+        assertTrue("Error: The adaptive policy didn't save requests on a stable forecast",
+                adaptive.requests < fixed.requests);
+    }
+
+    public void testVolatileForecastStaysFresh() {
+        List<Revision> history = parse(VOLATILE_HISTORY);
+        Report fixed = simulate(history, false);
+        Report adaptive = simulate(history, true);
+        log("Volatile", fixed, adaptive);
+
+        assertTrue("Error: The adaptive policy missed the SLA more than the fixed schedule",
+                adaptive.slaMisses <= fixed.slaMisses);
+        assertTrue("Error: The adaptive policy was slower to pick up revisions",
+                adaptive.totalDelay <= fixed.totalDelay);
+    }
+
+    public void testFirstSyncKeepsInterval() {
+        AdaptiveSyncPolicy policy = new AdaptiveSyncPolicy();
+        Day[] days = parse(STABLE_HISTORY).get(0).days;
+
+        assertFalse(policy.onSync(new Day[0], days));
+        assertFalse(policy.onSync(new Day[days.length], days));
+        assertEquals("Error: A sync with nothing to compare stretched the interval",
+                AdaptiveSyncPolicy.DEFAULT_INTERVAL, policy.getInterval());
+        assertEquals(0.0, policy.getVolatility());
+    }
+
+    /*
+        Runs a client over the history, syncing at the policy's interval or at the fixed one.
+     */
+    private static Report simulate(List<Revision> history, boolean adaptive) {
+        int end = history.get(history.size() - 1).time;
+        AdaptiveSyncPolicy policy = new AdaptiveSyncPolicy();
+        List<Integer> syncs = new ArrayList<>();
+        Day[] shown = new Day[0];
+        for (int time = 0; time <= end; ) {
+            syncs.add(time);
+            Day[] latest = getRevisionAt(history, time).days;
+            if (adaptive) {
+                policy.onSync(shown, latest);
+            }
+            shown = latest;
+            time += adaptive ? policy.getInterval() : SunshineSyncAdapter.SYNC_INTERVAL;
+        }
+
+        Report report = new Report();
+        report.requests = syncs.size();
+        for (int i = 1; i < history.size(); i++) {
+            Revision revision = history.get(i);
+            double change = AdaptiveSyncPolicy.score(history.get(i - 1).days, revision.days);
+            if (change < AdaptiveSyncPolicy.VOLATILE_SCORE) {
+                continue;
+            }
+            report.significantRevisions++;
+            int delay = getFirstSyncAfter(syncs, revision.time, end) - revision.time;
+            report.totalDelay += delay;
+            if (delay > SLA) {
+                report.slaMisses++;
+            }
+        }
+        return report;
+    }
+
+    private static Revision getRevisionAt(List<Revision> history, int time) {
+        Revision latest = history.get(0);
+        for (Revision revision : history) {
+            if (revision.time <= time) {
+                latest = revision;
+            }
+        }
+        return latest;
+    }
+
+    /*
+        The first sync at or after the time, the end of the history counting as one, so a
+        revision the client never synced isn't forgotten.
+     */
+    private static int getFirstSyncAfter(List<Integer> syncs, int time, int end) {
+        for (int sync : syncs) {
+            if (sync >= time) {
+                return sync;
+            }
+        }
+        return Math.max(time, end);
+    }
+
+    private static List<Revision> parse(String[] records) {
+        List<Revision> history = new ArrayList<>();
+        for (String record : records) {
+            String[] parts = record.split(":");
+            String[] dayRecords = parts[1].trim().split(" ");
+            Day[] days = new Day[dayRecords.length];
+            for (int i = 0; i < days.length; i++) {
+                String[] values = dayRecords[i].split(",");
+                days[i] = new Day(Double.parseDouble(values[0]), Double.parseDouble(values[1]),
+                        Integer.parseInt(values[2]));
+            }
+            history.add(new Revision(Integer.parseInt(parts[0]) * HOUR, days));
+        }
+        return history;
+    }
+
+    private static void log(String name, Report fixed, Report adaptive) {
+        Log.i(LOG_TAG, name + ": " + adaptive.requests + " requests instead of " + fixed.requests
+                + " (" + (fixed.requests - adaptive.requests) + " saved), "
+                + fixed.significantRevisions + " significant revisions, SLA of " + SLA / HOUR
+                + "h missed " + adaptive.slaMisses + " times instead of " + fixed.slaMisses
+                + ", mean delay " + adaptive.totalDelay / Math.max(1, adaptive.significantRevisions)
+                / 60 + "min instead of "
+                + fixed.totalDelay / Math.max(1, fixed.significantRevisions) / 60 + "min");
+    }
+}
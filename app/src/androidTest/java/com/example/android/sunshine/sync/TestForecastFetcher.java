@@ -0,0 +1,139 @@
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.utils.FakeHttpServer;
+import com.example.android.sunshine.utils.FakeHttpServer.Response;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+
+/*
+    Runs the ForecastFetcher against a FakeHttpServer that fails, stalls or answers on demand,
+    and checks the retries, the timeouts and the circuit breaker.
+ */
+public class TestForecastFetcher extends AndroidTestCase {
+
+    private static final String PREFS_NAME = "test_circuit_breaker";
+    private static final int TIMEOUT_MILLIS = 250;
+    private static final int ATTEMPTS = 3;
+    private static final long BACKOFF_MILLIS = 10;
+
+    private FakeHttpServer mServer;
+    private CircuitBreaker mBreaker;
+    private ForecastFetcher mFetcher;
+    private URL mUrl;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new FakeHttpServer();
+        mUrl = mServer.getUrl("/data/2.5/forecast/daily?q=94043");
+        mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit().clear().commit();
+        mBreaker = new CircuitBreaker(
+                mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE));
+        mFetcher = new ForecastFetcher(new UrlConnectionTransport(), mBreaker,
+                TIMEOUT_MILLIS, TIMEOUT_MILLIS, ATTEMPTS, BACKOFF_MILLIS);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit().clear().commit();
+        super.tearDown();
+    }
+
+    public void testRetriesServerErrors() throws IOException {
+        mServer.enqueue(new Response(500, "down"));
+        mServer.enqueue(Response.disconnect());
+        mServer.enqueue(new Response(200, "{\"cod\":\"200\"}"));
+
+        assertEquals("{\"cod\":\"200\"}", mFetcher.fetch(mUrl).trim());
+        assertFalse(mBreaker.isOpen(System.currentTimeMillis()));
+    }
+
+    public void testClientErrorsAreNotRetried() throws IOException {
+        mServer.enqueue(new Response(404, "{\"cod\":\"404\"}"));
+
+        assertEquals("Error: The error body wasn't returned",
+                "{\"cod\":\"404\"}", mFetcher.fetch(mUrl).trim());
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    public void testReadTimeout() {
+        mServer.setDefaultResponse(new Response(200, "late").delay(TIMEOUT_MILLIS * 4));
+
+        long start = System.currentTimeMillis();
+        try {
+            mFetcher.fetch(mUrl);
+            fail("Error: A stalled server didn't time out");
+        } catch (IOException e) {
+            assertTrue("Error: Unexpected " + e, e instanceof SocketTimeoutException);
+        }
+        assertEquals(ATTEMPTS, mServer.getRequestCount());
+        // Every attempt gave up at the timeout, not when the server answered
+        assertTrue(System.currentTimeMillis() - start < ATTEMPTS * TIMEOUT_MILLIS * 4);
+    }
+
+    public void testBreakerStopsRequests() {
+        mServer.setDefaultResponse(new Response(503, "down"));
+
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            try {
+                mFetcher.fetch(mUrl);
+                fail("Error: A failing server returned data");
+            } catch (ForecastFetcher.CircuitOpenException e) {
+                fail("Error: The breaker opened after " + i + " failures");
+            } catch (IOException e) {
+                // Expected
+            }
+        }
+        int requests = mServer.getRequestCount();
+        assertEquals(CircuitBreaker.FAILURE_THRESHOLD * ATTEMPTS, requests);
+
+        try {
+            mFetcher.fetch(mUrl);
+            fail("Error: The breaker didn't open");
+        } catch (ForecastFetcher.CircuitOpenException e) {
+            assertTrue(e.openUntil > System.currentTimeMillis());
+        } catch (IOException e) {
+            fail("Error: Unexpected " + e);
+        }
+        assertEquals("Error: The open breaker let a request through",
+                requests, mServer.getRequestCount());
+    }
+
+    public void testBreakerHalfOpens() {
+        long now = 1000000;
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            mBreaker.onFailure(now);
+        }
+        assertTrue(mBreaker.isOpen(now));
+        assertTrue(mBreaker.isOpen(now + CircuitBreaker.BASE_OPEN_MILLIS - 1));
+
+        // Half open: one request goes through, and opens it for longer when it fails
+        now += CircuitBreaker.BASE_OPEN_MILLIS;
+        assertTrue(mBreaker.allowRequest(now));
+        assertTrue(mBreaker.onFailure(now));
+        assertEquals(now + 2 * CircuitBreaker.BASE_OPEN_MILLIS, mBreaker.getOpenUntil());
+
+        // A success closes it
+        now += 2 * CircuitBreaker.BASE_OPEN_MILLIS;
+        mBreaker.onSuccess();
+        assertFalse(mBreaker.isOpen(now));
+        assertFalse("Error: A single failure reopened a closed breaker", mBreaker.onFailure(now));
+    }
+
+    public void testBackoffIsJittered() {
+        for (int retry = 0; retry < 8; retry++) {
+            long cap = Math.min(ForecastFetcher.MAX_BACKOFF_MILLIS, BACKOFF_MILLIS << retry);
+            for (int i = 0; i < 20; i++) {
+                long backoff = mFetcher.getBackoff(retry);
+                assertTrue("Error: Backoff " + backoff + " out of [0, " + cap + "[",
+                        backoff >= 0 && backoff < cap);
+            }
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.example.android.sunshine.sync;
+
+import android.content.ContentResolver;
+import android.content.SharedPreferences;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.R;
+import com.example.android.sunshine.Utility;
+import com.example.android.sunshine.data.TestUtilities;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utils.FakeHttpServer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/*
+    Runs the whole sync, from the fetch to the provider writes, on recorded responses: from a
+    fixture directory through the FixtureTransport, or from a loopback server.  Nothing goes to
+    the weather server, so this runs without a network.
+ */
+public class TestSyncReplay extends AndroidTestCase {
+    public static final String LOG_TAG = TestSyncReplay.class.getSimpleName();
+
+    private static final String LOCATION = "94043";
+    private static final String LOCATION_WITH_COMMA = "London,UK";
+    private static final int DAYS = 14;
+    private static final int SOAK_SYNCS = 30;
+
+    private File mFixtures;
+    private FixtureTransport mTransport;
+    private SunshineSyncAdapter mSyncAdapter;
+    private String mSavedLocation;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String key = mContext.getString(R.string.pref_location_key);
+        mSavedLocation = prefs.getString(key, null);
+        prefs.edit().putString(key, LOCATION).commit();
+        new CircuitBreaker(mContext).onSuccess();
+        ForecastVersions.clear(mContext);
+        TestUtilities.deleteAllRecords(mContext);
+
+        mFixtures = new File(mContext.getCacheDir(), "fixtures");
+        mFixtures.mkdirs();
+        write(new File(mFixtures, LOCATION + ".json"),
+                TestTransportBenchmark.createForecastJson(DAYS));
+        mTransport = new FixtureTransport(mFixtures);
+        SunshineSyncAdapter.setReplayTransport(mTransport);
+        mSyncAdapter = new SunshineSyncAdapter(mContext, false);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SunshineSyncAdapter.resetReplay();
+        new CircuitBreaker(mContext).onSuccess();
+        ForecastVersions.clear(mContext);
+        TestUtilities.deleteAllRecords(mContext);
+        File[] fixtures = mFixtures.listFiles();
+        if (fixtures != null) {
+            for (File fixture : fixtures) {
+                fixture.delete();
+            }
+        }
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String key = mContext.getString(R.string.pref_location_key);
+        if (mSavedLocation == null) {
+            prefs.edit().remove(key).commit();
+        } else {
+            prefs.edit().putString(key, mSavedLocation).commit();
+        }
+        super.tearDown();
+    }
+
+    public void testReplayFromFixtures() {
+        sync();
+
+        assertEquals(1, mTransport.getRequestCount());
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, Utility.getLocationStatus(mContext));
+        assertEquals(DAYS, countWeather());
+    }
+
+    public void testReplayFromLoopbackServer() throws IOException {
+        FakeHttpServer server = new FakeHttpServer();
+        try {
+            server.setDefaultResponse(new FakeHttpServer.Response(200,
+                    TestTransportBenchmark.createForecastJson(DAYS)));
+            SunshineSyncAdapter.setReplayTransport(null);
+            SunshineSyncAdapter.setForecastBaseUrl(
+                    server.getUrl("/data/2.5/forecast/daily?").toString());
+
+            sync();
+
+            assertEquals(1, server.getRequestCount());
+            assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK,
+                    Utility.getLocationStatus(mContext));
+            assertEquals(DAYS, countWeather());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    public void testInjectedNotFound() {
+        mTransport.setError(404, 1);
+
+        sync();
+
+        assertEquals("Error: A cod 404 didn't make the location invalid",
+                SunshineSyncAdapter.LOCATION_STATUS_INVALID, Utility.getLocationStatus(mContext));
+        assertEquals(0, countWeather());
+    }
+
+    public void testInjectedServerErrorsOpenBreaker() {
+        mTransport.setError(500, 1);
+
+        sync();
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+                Utility.getLocationStatus(mContext));
+        for (int i = 1; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            sync();
+        }
+        assertEquals("Error: Repeated server errors didn't open the breaker",
+                SunshineSyncAdapter.LOCATION_STATUS_CIRCUIT_OPEN,
+                Utility.getLocationStatus(mContext));
+
+        int requests = mTransport.getRequestCount();
+        sync();
+        assertEquals("Error: The open breaker let a request through",
+                requests, mTransport.getRequestCount());
+    }
+
+    public void testPushedLocationWithComma() throws IOException {
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putString(mContext.getString(R.string.pref_location_key), LOCATION_WITH_COMMA)
+                .commit();
+        write(new File(mFixtures, LOCATION_WITH_COMMA + ".json"),
+                TestTransportBenchmark.createForecastJson(DAYS));
+
+        // A push naming other locations only doesn't fetch anything
+        sync(SunshineSyncAdapter.getLocationsExtras(new String[]{LOCATION, "London"}, 5,
+                ForecastVersions.VERSION_NONE));
+        assertEquals(0, mTransport.getRequestCount());
+
+        sync(SunshineSyncAdapter.getLocationsExtras(
+                new String[]{LOCATION, LOCATION_WITH_COMMA}, 5, ForecastVersions.VERSION_NONE));
+        assertEquals("Error: The pushed location wasn't synced", 1, mTransport.getRequestCount());
+        assertEquals(5, ForecastVersions.get(mContext, LOCATION_WITH_COMMA));
+        assertEquals(ForecastVersions.VERSION_NONE,
+                ForecastVersions.getDelta(mContext, LOCATION_WITH_COMMA));
+    }
+
+    /*
+        Soak: many syncs in a row, slowed down, with a server error every few requests that the
+        retries have to absorb.  The table must end up with one row per day, whatever the
+        number of syncs.
+     */
+    public void testSoak() {
+        mTransport.setDelayMillis(20);
+        mTransport.setError(500, 4);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < SOAK_SYNCS; i++) {
+            sync();
+            assertEquals("Error: Sync " + i + " failed",
+                    SunshineSyncAdapter.LOCATION_STATUS_OK, Utility.getLocationStatus(mContext));
+        }
+        long millis = (System.nanoTime() - start) / 1000000;
+
+        assertEquals(DAYS, countWeather());
+        Log.i(LOG_TAG, SOAK_SYNCS + " syncs in " + millis + "ms ("
+                + SOAK_SYNCS * 1000L / Math.max(1, millis) + " syncs/s), "
+                + mTransport.getRequestCount() + " requests");
+    }
+
+    private void sync() {
+        Bundle extras = new Bundle();
+        // Manual, so the sync isn't put off on a metered network
+        extras.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        sync(extras);
+    }
+
+    private void sync(Bundle extras) {
+        mSyncAdapter.onPerformSync(null, extras, mContext.getString(R.string.content_authority),
+                null, new SyncResult());
+    }
+
+    private int countWeather() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(LOCATION), null, null, null, null);
+        assertNotNull(cursor);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private static void write(File file, String content) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.android.sunshine.sync;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.utils.FakeHttpServer;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+
+/*
+    Benchmark: REQUESTS forecast fetches through the UrlConnectionTransport from a local server,
+    with and without gzip.  The bytes on the wire, the latencies (p50, p99) and the connections
+    opened are written to the log.  The assertions only check what must hold on any device:
+    the body decodes to what was sent, gzip shrinks it, and connections are reused.
+ */
+public class TestTransportBenchmark extends AndroidTestCase {
+    public static final String LOG_TAG = TestTransportBenchmark.class.getSimpleName();
+
+    private static final int REQUESTS = 50;
+    private static final int TIMEOUT_MILLIS = 5000;
+
+    private FakeHttpServer mServer;
+    private URL mUrl;
+    private String mForecastJson;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new FakeHttpServer();
+        mUrl = mServer.getUrl("/data/2.5/forecast/daily?q=Z%C3%BCrich&cnt=14");
+        mForecastJson = createForecastJson(14);
+        mServer.setDefaultResponse(new FakeHttpServer.Response(200, mForecastJson)
+                .header("Content-Type", "application/json; charset=utf-8"));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    public void testGzipAndKeepAlive() throws IOException {
+        mServer.setGzip(false);
+        Run plain = run();
+        mServer.setGzip(true);
+        Run gzip = run();
+
+        log("Identity", plain);
+        log("Gzip", gzip);
+        assertTrue("Error: Gzip wasn't asked for",
+                mServer.getLastRequestHeaders().get("accept-encoding").contains("gzip"));
+        assertEquals("Error: The decompressed body size doesn't match",
+                plain.bodyBytes, gzip.bodyBytes);
+        assertTrue("Error: Gzip didn't reduce the bytes on the wire",
+                gzip.wireBytes < plain.wireBytes);
+        assertTrue("Error: No connection was reused", plain.connections < REQUESTS);
+        assertTrue("Error: No connection was reused", gzip.connections < REQUESTS);
+    }
+
+    private static class Run {
+        long wireBytes;
+        long bodyBytes;
+        int connections;
+        long[] latencies = new long[REQUESTS];
+    }
+
+    private Run run() throws IOException {
+        UrlConnectionTransport transport = new UrlConnectionTransport();
+        int connections = mServer.getConnectionCount();
+        Run run = new Run();
+        for (int i = 0; i < REQUESTS; i++) {
+            long start = System.nanoTime();
+            HttpTransport.Response response = transport.get(mUrl, TIMEOUT_MILLIS, TIMEOUT_MILLIS);
+            run.latencies[i] = System.nanoTime() - start;
+            assertEquals(200, response.code);
+            // Decoded as UTF-8, whatever the platform default
+            assertEquals("Error: The body didn't survive the transport",
+                    mForecastJson, response.body);
+        }
+        run.wireBytes = transport.getTotalWireBytes();
+        run.bodyBytes = transport.getTotalBodyBytes();
+        run.connections = mServer.getConnectionCount() - connections;
+        Arrays.sort(run.latencies);
+        return run;
+    }
+
+    private static void log(String name, Run run) {
+        Log.i(LOG_TAG, name + ": " + run.wireBytes / REQUESTS + " bytes on the wire per request ("
+                + run.bodyBytes / REQUESTS + " decoded), " + run.connections + " connections for "
+                + REQUESTS + " requests, p50 " + run.latencies[REQUESTS / 2] / 1000 + "us, p99 "
+                + run.latencies[REQUESTS * 99 / 100] / 1000 + "us");
+    }
+
+    /*
+        An OpenWeatherMap daily forecast, shaped like the real thing, for a city whose name
+        isn't ASCII.
+     */
+    static String createForecastJson(int days) throws IOException {
+        try {
+            JSONArray list = new JSONArray();
+            for (int i = 0; i < days; i++) {
+                list.put(new JSONObject()
+                        .put("dt", 1449489600L + i * 86400L)
+                        .put("temp", new JSONObject()
+                                .put("day", 8.5 + i % 5).put("min", 3.25 + i % 3)
+                                .put("max", 10.75 + i % 4).put("night", 4.1)
+                                .put("eve", 7.3).put("morn", 3.9))
+                        .put("pressure", 1015.57 - i)
+                        .put("humidity", 70 + i % 20)
+                        .put("weather", new JSONArray().put(new JSONObject()
+                                .put("id", i % 2 == 0 ? 500 : 800)
+                                .put("main", i % 2 == 0 ? "Rain" : "Clear")
+                                .put("description", i % 2 == 0 ? "light rain" : "sky is clear")
+                                .put("icon", i % 2 == 0 ? "10d" : "01d")))
+                        .put("speed", 3.21 + i % 6)
+                        .put("deg", (i * 37) % 360)
+                        .put("clouds", (i * 13) % 100));
+            }
+            JSONObject city = new JSONObject()
+                    .put("id", 2657896)
+                    .put("name", "Zürich")
+                    .put("coord", new JSONObject().put("lon", 8.55).put("lat", 47.366669))
+                    .put("country", "CH")
+                    .put("population", 0);
+            return new JSONObject()
+                    .put("city", city)
+                    .put("cod", "200")
+                    .put("message", 0.0123)
+                    .put("cnt", days)
+                    .put("list", list)
+                    .toString();
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.example.android.sunshine.utils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/*
+    A minimal HTTP/1.1 server on the loopback interface, for the tests of the sync's network code.
+    Responses are scripted: each request takes the next enqueued Response, or the default one
+    once the queue is empty.  A response can be delayed, to exercise the timeouts, or be a
+    dropped connection.  Connections are kept alive unless the client asks otherwise, and bodies
+    are gzipped for clients that accept it when setGzip is on.
+ */
+public class FakeHttpServer {
+
+    public static class Response {
+        final int code;
+        final byte[] body;
+        final Map<String, String> headers = new HashMap<>();
+        long delayMillis;
+        boolean disconnect;
+
+        public Response(int code, String body) {
+            this.code = code;
+            this.body = body.getBytes(Charset.forName("UTF-8"));
+        }
+
+        /* Waits this long before answering */
+        public Response delay(long millis) {
+            delayMillis = millis;
+            return this;
+        }
+
+        public Response header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        /* Closes the connection instead of answering */
+        public static Response disconnect() {
+            Response response = new Response(0, "");
+            response.disconnect = true;
+            return response;
+        }
+    }
+
+    private final ServerSocket mServerSocket;
+    private final LinkedList<Response> mQueue = new LinkedList<>();
+    private Response mDefaultResponse = new Response(200, "");
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+    private volatile Map<String, String> mLastRequestHeaders = new HashMap<>();
+    private volatile boolean mRunning = true;
+    private volatile boolean mGzip;
+
+    public FakeHttpServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (mRunning) {
+                    try {
+                        final Socket socket = mServerSocket.accept();
+                        mConnectionCount.incrementAndGet();
+                        new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        }).start();
+                    } catch (IOException e) {
+                        // Closed by shutdown()
+                    }
+                }
+            }
+        });
+        acceptThread.start();
+    }
+
+    public URL getUrl(String path) throws IOException {
+        return new URL("http://127.0.0.1:" + mServerSocket.getLocalPort() + path);
+    }
+
+    public synchronized void enqueue(Response response) {
+        mQueue.add(response);
+    }
+
+    public synchronized void setDefaultResponse(Response response) {
+        mDefaultResponse = response;
+    }
+
+    private synchronized Response next() {
+        return mQueue.isEmpty() ? mDefaultResponse : mQueue.removeFirst();
+    }
+
+    public void setGzip(boolean gzip) {
+        mGzip = gzip;
+    }
+
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    public int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    /* Header names are lower case */
+    public Map<String, String> getLastRequestHeaders() {
+        return mLastRequestHeaders;
+    }
+
+    public void shutdown() throws IOException {
+        mRunning = false;
+        mServerSocket.close();
+    }
+
+    private void serve(Socket socket) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            while (mRunning) {
+                String requestLine = readLine(in);
+                if (requestLine == null || requestLine.length() == 0) {
+                    break;
+                }
+                Map<String, String> headers = new HashMap<>();
+                String line;
+                while ((line = readLine(in)) != null && line.length() > 0) {
+                    int colon = line.indexOf(':');
+                    if (colon > 0) {
+                        headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                                line.substring(colon + 1).trim());
+                    }
+                }
+                mLastRequestHeaders = headers;
+                mRequestCount.incrementAndGet();
+
+                Response response = next();
+                if (response.delayMillis > 0) {
+                    Thread.sleep(response.delayMillis);
+                }
+                if (response.disconnect) {
+                    break;
+                }
+                String acceptEncoding = headers.get("accept-encoding");
+                if (mGzip && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                    write(out, response, gzip(response.body), "gzip");
+                } else {
+                    write(out, response, response.body, null);
+                }
+                if ("close".equalsIgnoreCase(headers.get("connection"))) {
+                    break;
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            // The client went away, or the server is shutting down
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing left to do
+            }
+        }
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+        gzip.write(body);
+        gzip.close();
+        return bytes.toByteArray();
+    }
+
+    private static void write(OutputStream out, Response response, byte[] body,
+                              String contentEncoding) throws IOException {
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(response.code).append(" Fake\r\n");
+        head.append("Content-Length: ").append(body.length).append("\r\n");
+        if (contentEncoding != null) {
+            head.append("Content-Encoding: ").append(contentEncoding).append("\r\n");
+        }
+        for (Map.Entry<String, String> header : response.headers.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        head.append("\r\n");
+        out.write(head.toString().getBytes("US-ASCII"));
+        out.write(body);
+        out.flush();
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                return line.toString("US-ASCII").trim();
+            }
+            line.write(c);
+        }
+        return line.size() == 0 ? null : line.toString("US-ASCII").trim();
+    }
+}
@@ -30,7 +30,7 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
     // Flag to determine if we want to use a separate view for "today".
     private boolean mUseTodayLayout = true;
 
-    private Cursor mCursor;
+    final private ForecastPager mPager;
     final private Context mContext;
     final private ForecastAdapterOnClickHandler mClickHandler;
     final private View mEmptyView;
@@ -59,9 +59,13 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
-            int dateColumnIndex = mCursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-            mClickHandler.onClick(mCursor.getLong(dateColumnIndex), this);
+            Cursor cursor = mPager.moveToPosition(adapterPosition);
+            if (null == cursor) {
+                // The row's page is still loading
+                return;
+            }
+            int dateColumnIndex = cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
+            mClickHandler.onClick(cursor.getLong(dateColumnIndex), this);
             mICM.onClick(this);
         }
     }
@@ -76,6 +80,21 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         mEmptyView = emptyView;
         mICM = new ItemChoiceManager(this);
         mICM.setChoiceMode(choiceMode);
+        mPager = new ForecastPager(context, new ForecastPager.Listener() {
+            @Override
+            public void onRowsLoaded(int position, int count, boolean appended) {
+                if (appended) {
+                    notifyItemRangeInserted(position, count);
+                } else {
+                    notifyItemRangeChanged(position, count);
+                }
+            }
+
+            @Override
+            public void onRowsRemoved(int position, int count) {
+                notifyItemRangeRemoved(position, count);
+            }
+        });
     }
 
     /*
@@ -109,8 +128,14 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-        mCursor.moveToPosition(position);
-        int weatherId = mCursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+        Cursor cursor = mPager.moveToPosition(position);
+        if (null == cursor) {
+            // The page is being reloaded, the row gets rebound when it's there
+            bindPlaceholder(forecastAdapterViewHolder);
+            mICM.onBindViewHolder(forecastAdapterViewHolder, position);
+            return;
+        }
+        int weatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
         int defaultImage;
         boolean useLongToday;
 
@@ -139,7 +164,7 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, "iconView" + position);
 
         // Read date from cursor
-        long dateInMillis = mCursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+        long dateInMillis = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
 
         // Find TextView and set formatted date on it
         forecastAdapterViewHolder.mDateView.setText(Utility.getFriendlyDayString(mContext, dateInMillis, useLongToday));
@@ -156,13 +181,13 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         // is not individually selectable
 
         // Read high temperature from cursor
-        double high = mCursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
+        double high = cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
         String highString = Utility.formatTemperature(mContext, high);
         forecastAdapterViewHolder.mHighTempView.setText(highString);
         forecastAdapterViewHolder.mHighTempView.setContentDescription(mContext.getString(R.string.a11y_high_temp, highString));
 
         // Read low temperature from cursor
-        double low = mCursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
+        double low = cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
         String lowString = Utility.formatTemperature(mContext, low);
         forecastAdapterViewHolder.mLowTempView.setText(lowString);
         forecastAdapterViewHolder.mLowTempView.setContentDescription(mContext.getString(R.string.a11y_low_temp, lowString));
@@ -170,6 +195,18 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         mICM.onBindViewHolder(forecastAdapterViewHolder, position);
     }
 
+    private void bindPlaceholder(ForecastAdapterViewHolder forecastAdapterViewHolder) {
+        Glide.clear(forecastAdapterViewHolder.mIconView);
+        forecastAdapterViewHolder.mIconView.setImageDrawable(null);
+        forecastAdapterViewHolder.mDateView.setText(null);
+        forecastAdapterViewHolder.mDescriptionView.setText(null);
+        forecastAdapterViewHolder.mDescriptionView.setContentDescription(null);
+        forecastAdapterViewHolder.mHighTempView.setText(null);
+        forecastAdapterViewHolder.mHighTempView.setContentDescription(null);
+        forecastAdapterViewHolder.mLowTempView.setText(null);
+        forecastAdapterViewHolder.mLowTempView.setContentDescription(null);
+    }
+
     public void onRestoreInstanceState(Bundle savedInstanceState) {
         mICM.onRestoreInstanceState(savedInstanceState);
     }
@@ -193,18 +230,39 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public int getItemCount() {
-        if ( null == mCursor ) return 0;
-        return mCursor.getCount();
+        return mPager.getCount();
     }
 
+    /**
+     * @param newCursor the first page of the forecast, the following ones are loaded by the
+     *                  adapter as the list is scrolled.
+     */
     public void swapCursor(Cursor newCursor) {
-        mCursor = newCursor;
+        mPager.reset(newCursor);
         notifyDataSetChanged();
         mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
+    /**
+     * @return the first page, as given to {@link #swapCursor(Cursor)}
+     */
     public Cursor getCursor() {
-        return mCursor;
+        return mPager.getFirstPage();
+    }
+
+    /**
+     * To be called from the RecyclerView's OnScrollListener, so the pages around the visible
+     * rows are loaded ahead of time.
+     */
+    public void onScrolled(int firstVisiblePosition, int lastVisiblePosition, int dy) {
+        mPager.onScrolled(firstVisiblePosition, lastVisiblePosition, dy);
+    }
+
+    /**
+     * Releases the pages loaded by the adapter.
+     */
+    public void close() {
+        mPager.close();
     }
 
     public void selectView(RecyclerView.ViewHolder viewHolder) {
@@ -51,7 +51,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     private static final int FORECAST_LOADER = 0;
     // For the forecast view we're showing only a small subset of the stored data.
     // Specify the columns we need.
-    private static final String[] FORECAST_COLUMNS = {
+    static final String[] FORECAST_COLUMNS = {
             // In this case the id needs to be fully qualified with a table name, since
             // the content provider joins the location & weather tables in the background
             // (both have an _id column)
@@ -186,6 +186,17 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         // specify an adapter (see also next example)
         mRecyclerView.setAdapter(mForecastAdapter);
 
+        // Only the first page comes from the loader, the adapter pages in the rest as we scroll
+        mRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                LinearLayoutManager layoutManager =
+                        (LinearLayoutManager) recyclerView.getLayoutManager();
+                mForecastAdapter.onScrolled(layoutManager.findFirstVisibleItemPosition(),
+                        layoutManager.findLastVisibleItemPosition(), dy);
+            }
+        });
+
         final View parallaxView = rootView.findViewById(R.id.parallax_bar);
         if (null != parallaxView) {
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
@@ -245,6 +256,15 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         if ( mHoldForTransition ) {
             getActivity().supportPostponeEnterTransition();
         }
+        if (savedInstanceState == null && mForecastAdapter.getCursor() == null) {
+            // Show what we rendered last time while the loader opens the database. The loader
+            // swaps in the real data as soon as it's ready.
+            Cursor snapshot = ForecastSnapshot.read(getActivity());
+            if (snapshot != null) {
+                mForecastAdapter.swapCursor(snapshot);
+                traceFirstMeaningfulDraw(true);
+            }
+        }
         getLoaderManager().initLoader(FORECAST_LOADER, null, this);
         super.onActivityCreated(savedInstanceState);
     }
@@ -261,9 +281,17 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         if (null != mForecastAdapter) {
             Cursor c = mForecastAdapter.getCursor();
             if (null != c) {
-                c.moveToPosition(0);
-                String posLat = c.getString(COL_COORD_LAT);
-                String posLong = c.getString(COL_COORD_LONG);
+                long ioStart = IoWatchdog.begin();
+                String posLat;
+                String posLong;
+                try {
+                    c.moveToPosition(0);
+                    posLat = c.getString(COL_COORD_LAT);
+                    posLong = c.getString(COL_COORD_LONG);
+                } finally {
+                    // Moving the cursor can fill a window from the database
+                    IoWatchdog.end("cursor read", "forecast", ioStart);
+                }
                 Uri geoLocation = Uri.parse("geo:" + posLat + "," + posLong);
 
                 Intent intent = new Intent(Intent.ACTION_VIEW);
@@ -293,14 +321,16 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         // fragment only uses one loader, so we don't care about checking the id.
 
         // To only show current and future dates, filter the query to return weather only for
-        // dates after or including today.
+        // dates after or including today.  The loader only holds the first page, the adapter
+        // loads the following ones.
 
         // Sort order:  Ascending, by date.
         String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
 
         String locationSetting = Utility.getPreferredLocation(getActivity());
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                locationSetting, System.currentTimeMillis());
+        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationPage(
+                locationSetting, WeatherContract.normalizeDate(System.currentTimeMillis()),
+                ForecastPager.PAGE_SIZE);
 
         return new CursorLoader(getActivity(),
                 weatherForLocationUri,
@@ -314,6 +344,9 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
         mForecastAdapter.swapCursor(data);
         updateEmptyView();
+        if ( data.getCount() > 0 ) {
+            traceFirstMeaningfulDraw(false);
+        }
         if ( data.getCount() == 0 ) {
             getActivity().supportStartPostponedEnterTransition();
         } else {
@@ -366,6 +399,9 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         if (null != mRecyclerView) {
             mRecyclerView.clearOnScrollListeners();
         }
+        if (null != mForecastAdapter) {
+            mForecastAdapter.close();
+        }
     }
 
     @Override
@@ -384,6 +420,22 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         mInitialSelectedDate = initialSelectedDate;
     }
 
+    /*
+        Reports the first frame that has forecast rows in it to the StartupTrace.
+     */
+    private void traceFirstMeaningfulDraw(final boolean fromSnapshot) {
+        mRecyclerView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                if (mRecyclerView.getChildCount() > 0) {
+                    mRecyclerView.getViewTreeObserver().removeOnPreDrawListener(this);
+                    StartupTrace.markFirstMeaningfulDraw(fromSnapshot);
+                }
+                return true;
+            }
+        });
+    }
+
     /*
         Updates the empty list view with contextually relevant information that the user can
         use to determine why they aren't seeing weather.
@@ -405,6 +457,9 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
                     case SunshineSyncAdapter.LOCATION_STATUS_INVALID:
                         message = R.string.empty_forecast_list_invalid_location;
                         break;
+                    case SunshineSyncAdapter.LOCATION_STATUS_CIRCUIT_OPEN:
+                        message = R.string.empty_forecast_list_server_circuit_open;
+                        break;
                     default:
                         if (!Utility.isNetworkAvailable(getActivity())) {
                             message = R.string.empty_forecast_list_no_network;
@@ -0,0 +1,379 @@
+package com.example.android.sunshine;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.android.sunshine.data.WeatherContract;
+
+import java.util.ArrayList;
+
+/**
+ * Pages through the forecast of a location for {@link ForecastAdapter}, so that the list keeps
+ * a bounded number of rows in memory however much history the weather table holds.
+ * <p/>
+ * Page 0 is the cursor delivered by the loader.  The following pages are keyset-paginated on the
+ * date column: page n+1 is "date > last date of page n", limited to {@link #PAGE_SIZE} rows, and
+ * is fetched in the background when the list scrolls close to the end of what is loaded.
+ * <p/>
+ * At most {@link #MAX_OPEN_PAGES} pages (besides page 0) hold an open cursor.  The least recently
+ * used ones are closed, and reloaded from their first date when they're scrolled back to.
+ * Only the page boundaries are kept for closed pages.  If a page doesn't come back as it was
+ * (compaction or archiving removed rows meanwhile), it and the pages after it are dropped and
+ * paged again from the end of the page before.
+ * <p/>
+ * All methods must be called from the UI thread.
+ */
+public class ForecastPager {
+
+    public static final int PAGE_SIZE = 30;
+    static final int MAX_OPEN_PAGES = 4;
+
+    // How many rows ahead of the scroll direction a page gets requested
+    static final int PREFETCH_DISTANCE = PAGE_SIZE / 3;
+
+    public interface Listener {
+        /**
+         * Called when the rows [position, position + count) have been loaded.
+         *
+         * @param appended true if those rows are new to the list, false if they were already
+         *                 counted but their page had to be reloaded.
+         */
+        void onRowsLoaded(int position, int count, boolean appended);
+
+        /**
+         * Called when the rows [position, position + count) were dropped, to be paged again.
+         */
+        void onRowsRemoved(int position, int count);
+    }
+
+    private static class Page {
+        final int start;
+        final int count;
+        final long firstDate;
+        final long lastDate;
+        Cursor cursor;
+        boolean loading;
+        long lastAccess;
+
+        Page(int start, Cursor cursor) {
+            this.start = start;
+            this.count = cursor.getCount();
+            this.cursor = cursor;
+            cursor.moveToFirst();
+            this.firstDate = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+            cursor.moveToLast();
+            this.lastDate = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+        }
+    }
+
+    private final Context mContext;
+    private final Listener mListener;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ArrayList<Page> mPages = new ArrayList<>();
+
+    private String mLocationSetting;
+    private boolean mEndReached = true;
+    private boolean mAppending;
+    private long mAccessCounter;
+    // Rows the list had before the last reset, we page back up to it so the list doesn't shrink
+    private int mRestoreCount;
+    // Bumped on each reset/close, so results from an older generation get thrown away
+    private int mGeneration;
+
+    public ForecastPager(Context context, Listener listener) {
+        mContext = context;
+        mListener = listener;
+    }
+
+    /**
+     * Starts over from a new first page.  The cursor stays owned by whoever passed it in (the
+     * loader), the pager never closes it.
+     */
+    public void reset(Cursor firstPage) {
+        int previousCount = getCount();
+        closePages();
+        mGeneration++;
+        mAppending = false;
+        if (firstPage == null || firstPage.getCount() == 0) {
+            mLocationSetting = null;
+            mEndReached = true;
+            mRestoreCount = 0;
+            return;
+        }
+        firstPage.moveToFirst();
+        mLocationSetting = firstPage.getString(ForecastFragment.COL_LOCATION_SETTING);
+        mPages.add(new Page(0, firstPage));
+        mEndReached = firstPage.getCount() < PAGE_SIZE;
+        mRestoreCount = previousCount;
+        if (getCount() < mRestoreCount) {
+            appendPage();
+        }
+    }
+
+    public int getCount() {
+        if (mPages.isEmpty()) return 0;
+        Page last = mPages.get(mPages.size() - 1);
+        return last.start + last.count;
+    }
+
+    /**
+     * @return the first page, as handed to {@link #reset(Cursor)}
+     */
+    public Cursor getFirstPage() {
+        return mPages.isEmpty() ? null : mPages.get(0).cursor;
+    }
+
+    /**
+     * Moves to a row of the list.
+     *
+     * @return the cursor of the row's page, positioned on the row, or null if that page is
+     * being (re)loaded.  The listener is told when it's there.
+     */
+    public Cursor moveToPosition(int position) {
+        if (position < 0 || position >= getCount()) {
+            return null;
+        }
+        // Pages are full, except the last one
+        final Page page = mPages.get(position / PAGE_SIZE);
+        if (page.cursor == null) {
+            reloadPage(page);
+            return null;
+        }
+        page.lastAccess = ++mAccessCounter;
+        if (!page.cursor.moveToPosition(position - page.start)) {
+            // Not while the list is binding its rows
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    repageFrom(page);
+                }
+            });
+            return null;
+        }
+        return page.cursor;
+    }
+
+    /**
+     * Feeds the scroll position in, so the pages ahead of the scroll direction are requested
+     * before they are needed.
+     *
+     * @param dy the scroll delta, as given to RecyclerView.OnScrollListener.onScrolled
+     */
+    public void onScrolled(int firstVisiblePosition, int lastVisiblePosition, int dy) {
+        if (mPages.isEmpty()) {
+            return;
+        }
+        if (dy >= 0) {
+            int target = lastVisiblePosition + PREFETCH_DISTANCE;
+            if (target >= getCount()) {
+                appendPage();
+                target = getCount() - 1;
+            }
+            ensureLoaded(target);
+        }
+        if (dy <= 0) {
+            ensureLoaded(Math.max(0, firstVisiblePosition - PREFETCH_DISTANCE));
+        }
+    }
+
+    /**
+     * Closes every page the pager opened.  Results still in flight are dropped.
+     */
+    public void close() {
+        closePages();
+        mGeneration++;
+        mAppending = false;
+    }
+
+    private void closePages() {
+        for (int i = 1; i < mPages.size(); i++) {
+            Cursor cursor = mPages.get(i).cursor;
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        mPages.clear();
+    }
+
+    private void ensureLoaded(int position) {
+        if (position < 0 || position >= getCount()) {
+            return;
+        }
+        Page page = mPages.get(position / PAGE_SIZE);
+        if (page.cursor == null) {
+            reloadPage(page);
+        }
+    }
+
+    private void appendPage() {
+        if (mEndReached || mAppending || mPages.isEmpty()) {
+            return;
+        }
+        mAppending = true;
+        final Page last = mPages.get(mPages.size() - 1);
+        // Dates are normalized to the day, so the next one is at least a millisecond later
+        final Uri uri = WeatherContract.WeatherEntry.buildWeatherLocationPage(
+                mLocationSetting, last.lastDate + 1, PAGE_SIZE);
+        load(uri, new PageCallback() {
+            @Override
+            public void onPageLoaded(Cursor cursor) {
+                if (mPages.isEmpty() || mPages.get(mPages.size() - 1) != last) {
+                    // The pages were dropped meanwhile, another append follows the new last one
+                    if (cursor != null) {
+                        cursor.close();
+                    }
+                    return;
+                }
+                mAppending = false;
+                if (cursor == null) {
+                    return;
+                }
+                int count = cursor.getCount();
+                if (count == 0) {
+                    cursor.close();
+                    mEndReached = true;
+                    return;
+                }
+                mEndReached = count < PAGE_SIZE;
+                Page page = new Page(last.start + last.count, cursor);
+                page.lastAccess = ++mAccessCounter;
+                mPages.add(page);
+                trimOpenPages();
+                mListener.onRowsLoaded(page.start, page.count, true);
+                if (getCount() < mRestoreCount) {
+                    appendPage();
+                }
+            }
+        });
+    }
+
+    private void reloadPage(final Page page) {
+        if (page.loading) {
+            return;
+        }
+        page.loading = true;
+        Uri uri = WeatherContract.WeatherEntry.buildWeatherLocationPage(
+                mLocationSetting, page.firstDate, page.count);
+        load(uri, new PageCallback() {
+            @Override
+            public void onPageLoaded(Cursor cursor) {
+                page.loading = false;
+                if (cursor == null) {
+                    return;
+                }
+                if (!mPages.contains(page)) {
+                    cursor.close();
+                    return;
+                }
+                if (!isSamePage(page, cursor)) {
+                    cursor.close();
+                    repageFrom(page);
+                    return;
+                }
+                page.cursor = cursor;
+                page.lastAccess = ++mAccessCounter;
+                trimOpenPages();
+                mListener.onRowsLoaded(page.start, Math.min(page.count, cursor.getCount()), false);
+            }
+        });
+    }
+
+    private static boolean isSamePage(Page page, Cursor cursor) {
+        return cursor.getCount() == page.count
+                && cursor.moveToFirst()
+                && cursor.getLong(ForecastFragment.COL_WEATHER_DATE) == page.firstDate
+                && cursor.moveToLast()
+                && cursor.getLong(ForecastFragment.COL_WEATHER_DATE) == page.lastDate;
+    }
+
+    /*
+        Drops the page and the ones after it, whose rows changed since they were paged, and
+        pages again from the end of the page before, up to as many rows as the list had.  Page 0
+        belongs to the loader, it is replaced by a reset when its rows change.
+     */
+    private void repageFrom(Page page) {
+        int index = mPages.indexOf(page);
+        if (index < 1) {
+            return;
+        }
+        int previousCount = getCount();
+        for (int i = mPages.size() - 1; i >= index; i--) {
+            Cursor cursor = mPages.remove(i).cursor;
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        mAppending = false;
+        mEndReached = false;
+        mRestoreCount = previousCount;
+        mListener.onRowsRemoved(page.start, previousCount - page.start);
+        appendPage();
+    }
+
+    /*
+        Closes the least recently used pages until at most MAX_OPEN_PAGES are open.  Page 0 belongs
+        to the loader and doesn't count.
+     */
+    private void trimOpenPages() {
+        while (true) {
+            int open = 0;
+            Page oldest = null;
+            for (int i = 1; i < mPages.size(); i++) {
+                Page page = mPages.get(i);
+                if (page.cursor == null) continue;
+                open++;
+                if (oldest == null || page.lastAccess < oldest.lastAccess) {
+                    oldest = page;
+                }
+            }
+            if (open <= MAX_OPEN_PAGES) {
+                return;
+            }
+            oldest.cursor.close();
+            oldest.cursor = null;
+        }
+    }
+
+    private interface PageCallback {
+        /**
+         * Called on the UI thread.
+         *
+         * @param cursor the page, or null if the provider couldn't be queried.
+         */
+        void onPageLoaded(Cursor cursor);
+    }
+
+    private void load(final Uri uri, final PageCallback callback) {
+        final int generation = mGeneration;
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Cursor cursor = mContext.getContentResolver().query(uri,
+                        ForecastFragment.FORECAST_COLUMNS,
+                        null,
+                        null,
+                        WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+                if (cursor != null) {
+                    // Fill the window here rather than on the UI thread
+                    cursor.getCount();
+                }
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            if (cursor != null) {
+                                cursor.close();
+                            }
+                            return;
+                        }
+                        callback.onPageLoaded(cursor);
+                    }
+                });
+            }
+        });
+    }
+}
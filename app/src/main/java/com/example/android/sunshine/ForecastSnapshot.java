@@ -0,0 +1,41 @@
+package com.example.android.sunshine;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.example.android.sunshine.data.ForecastMappedFile;
+
+/**
+ * The forecast list as it was last synced, read from the {@link ForecastMappedFile} the sync
+ * adapter writes after each sync. {@link ForecastFragment} shows it on a cold start so the first
+ * frame doesn't have to wait for the database to be opened and the weather/location join to run.
+ */
+public class ForecastSnapshot {
+
+    /**
+     * Reads the snapshot back as a Cursor laid out like {@link ForecastFragment#FORECAST_COLUMNS}.
+     * Days before today are dropped.
+     *
+     * @param context Context used to get the files directory and the preferred location
+     * @return the snapshot, or null if there is none or it belongs to another location.
+     */
+    public static Cursor read(Context context) {
+        String locationSetting = Utility.getPreferredLocation(context);
+        ForecastMappedFile snapshot = ForecastMappedFile.open(context, locationSetting);
+        int first = snapshot != null ? snapshot.findDay(System.currentTimeMillis()) : -1;
+        if (first == -1) {
+            return null;
+        }
+        int count = snapshot.getCount();
+        MatrixCursor cursor = new MatrixCursor(ForecastFragment.FORECAST_COLUMNS, count - first);
+        for (int day = first; day < count; day++) {
+            // Must match the order of ForecastFragment.FORECAST_COLUMNS
+            cursor.addRow(new Object[]{snapshot.getId(day), snapshot.getDate(day),
+                    snapshot.getDescription(day), snapshot.getMaxTemp(day),
+                    snapshot.getMinTemp(day), locationSetting, snapshot.getWeatherId(day),
+                    snapshot.getCoordLat(), snapshot.getCoordLong()});
+        }
+        return cursor;
+    }
+}
@@ -0,0 +1,220 @@
+package com.example.android.sunshine;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Debug builds only: records every ContentProvider call and SharedPreferences commit, how long
+ * it took and on which thread it ran.  Calls made on the UI thread are aggregated per call site
+ * so the worst offenders come out on top of the report.
+ * <p/>
+ * The report is available from {@link #getReport()}, and from the command line with
+ * {@code adb shell dumpsys activity provider com.example.android.sunshine/.data.WeatherProvider}
+ * <p/>
+ * In release builds every method returns immediately.
+ */
+public class IoWatchdog {
+    private static final String LOG_TAG = IoWatchdog.class.getSimpleName();
+
+    public static final boolean ENABLED = BuildConfig.DEBUG;
+
+    // UI thread calls slower than this are also logged as they happen (about a third of a frame)
+    private static final long SLOW_MAIN_THREAD_NANOS = 5 * 1000 * 1000;
+
+    private static final Map<String, Stats> sOperations = new HashMap<>();
+    private static final Map<String, Stats> sMainThreadOffenders = new HashMap<>();
+
+    private static class Stats {
+        final String name;
+        int count;
+        int mainThreadCount;
+        long totalNanos;
+        long maxNanos;
+
+        Stats(String name) {
+            this.name = name;
+        }
+
+        void add(long nanos, boolean mainThread) {
+            count++;
+            if (mainThread) mainThreadCount++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+    }
+
+    /**
+     * @return a start timestamp to pass to {@link #end(String, long)}
+     */
+    public static long begin() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records one I/O operation that started at startNanos and is finishing now, on the current
+     * thread.
+     *
+     * @param operation  what was done, e.g "query weather/*".  Keep the cardinality low, don't
+     *                   put location strings or ids in there.
+     * @param startNanos the value returned by {@link #begin()}
+     */
+    public static void end(String operation, long startNanos) {
+        if (!ENABLED) {
+            return;
+        }
+        long nanos = System.nanoTime() - startNanos;
+        boolean mainThread = Utility.isMainThread();
+        String callSite = mainThread ? findCallSite() : null;
+        synchronized (sOperations) {
+            Stats stats = sOperations.get(operation);
+            if (stats == null) {
+                stats = new Stats(operation);
+                sOperations.put(operation, stats);
+            }
+            stats.add(nanos, mainThread);
+
+            if (mainThread) {
+                String key = operation + " from " + callSite;
+                Stats offender = sMainThreadOffenders.get(key);
+                if (offender == null) {
+                    offender = new Stats(key);
+                    sMainThreadOffenders.put(key, offender);
+                }
+                offender.add(nanos, true);
+            }
+        }
+        if (mainThread && nanos > SLOW_MAIN_THREAD_NANOS) {
+            Log.w(LOG_TAG, operation + " took " + toMillis(nanos) + "ms on the UI thread, from "
+                    + callSite);
+        }
+    }
+
+    /**
+     * Same as {@link #end(String, long)}, for an operation on a target, e.g "query" "weather/*".
+     * The two are only put together in debug builds.
+     */
+    public static void end(String operation, String target, long startNanos) {
+        if (ENABLED) {
+            end(operation + " " + target, startNanos);
+        }
+    }
+
+    /**
+     * Commits the editor, and records how long the commit took.
+     *
+     * @param editor the editor to commit
+     * @param name   short name of what is being written, used in the report
+     * @return the result of {@link SharedPreferences.Editor#commit()}
+     */
+    public static boolean commit(SharedPreferences.Editor editor, String name) {
+        long start = begin();
+        try {
+            return editor.commit();
+        } finally {
+            end("prefs commit", name, start);
+        }
+    }
+
+    /**
+     * Applies the editor, and records how long the call took.  The write to disk happens later,
+     * but the call itself still updates the preferences in memory and queues that write.
+     *
+     * @param editor the editor to apply
+     * @param name   short name of what is being written, used in the report
+     */
+    public static void apply(SharedPreferences.Editor editor, String name) {
+        long start = begin();
+        try {
+            editor.apply();
+        } finally {
+            end("prefs apply", name, start);
+        }
+    }
+
+    public static void reset() {
+        synchronized (sOperations) {
+            sOperations.clear();
+            sMainThreadOffenders.clear();
+        }
+    }
+
+    public static String getReport() {
+        StringWriter writer = new StringWriter();
+        dump(new PrintWriter(writer));
+        return writer.toString();
+    }
+
+    public static void dump(PrintWriter writer) {
+        if (!ENABLED) {
+            writer.println("I/O watchdog is only enabled in debug builds");
+            return;
+        }
+        List<Stats> operations;
+        List<Stats> offenders;
+        synchronized (sOperations) {
+            operations = copyOf(sOperations);
+            offenders = copyOf(sMainThreadOffenders);
+        }
+
+        writer.println("UI thread offenders (by total time):");
+        if (offenders.isEmpty()) {
+            writer.println("  none");
+        }
+        for (Stats stats : offenders) {
+            writer.println("  " + stats.name + ": " + stats.count + " calls, "
+                    + toMillis(stats.totalNanos) + "ms total, "
+                    + toMillis(stats.maxNanos) + "ms max");
+        }
+        writer.println("All operations (by total time):");
+        for (Stats stats : operations) {
+            writer.println("  " + stats.name + ": " + stats.count + " calls ("
+                    + stats.mainThreadCount + " on the UI thread), "
+                    + toMillis(stats.totalNanos) + "ms total, "
+                    + toMillis(stats.maxNanos) + "ms max");
+        }
+        writer.flush();
+    }
+
+    private static List<Stats> copyOf(Map<String, Stats> map) {
+        List<Stats> list = new ArrayList<>(map.values());
+        Collections.sort(list, new Comparator<Stats>() {
+            @Override
+            public int compare(Stats lhs, Stats rhs) {
+                return lhs.totalNanos < rhs.totalNanos ? 1
+                        : (lhs.totalNanos == rhs.totalNanos ? 0 : -1);
+            }
+        });
+        return list;
+    }
+
+    /*
+        The first frame of our own code that isn't the watchdog itself or the provider, which is
+        the code that actually asked for the I/O.
+     */
+    private static String findCallSite() {
+        StackTraceElement[] stack = Thread.currentThread().getStackTrace();
+        for (StackTraceElement element : stack) {
+            String className = element.getClassName();
+            if (className.startsWith(BuildConfig.APPLICATION_ID)
+                    && !className.equals(IoWatchdog.class.getName())
+                    && !className.startsWith(BuildConfig.APPLICATION_ID + ".data.WeatherProvider")) {
+                return element.getClassName().substring(BuildConfig.APPLICATION_ID.length() + 1)
+                        + "." + element.getMethodName() + ":" + element.getLineNumber();
+            }
+        }
+        return "unknown";
+    }
+
+    private static String toMillis(long nanos) {
+        return String.format("%.2f", nanos / 1000000.0);
+    }
+}
@@ -9,8 +9,17 @@ import android.preference.EditTextPreference;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.util.AttributeSet;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.EditText;
+import android.widget.ListView;
+
+import com.example.android.sunshine.data.CityIndex;
+
+import java.util.regex.Pattern;
 
 /**
  * Created by Elorri on 01/12/2015.
@@ -18,7 +27,11 @@ import android.widget.EditText;
 public class LocationEditTextPreference extends EditTextPreference {
 
     static final private int DEFAULT_MINIMUM_LOCATION_LENGTH = 2;
+    static final private int MAX_SUGGESTIONS = 5;
+    // Postal codes aren't in the city index
+    static final private Pattern POSTAL_CODE = Pattern.compile(".*\\d.*");
     private int mMinLength;
+    private ArrayAdapter<String> mSuggestions;
 
 
     public LocationEditTextPreference(Context context, AttributeSet attrs) {
@@ -34,11 +47,43 @@ public class LocationEditTextPreference extends EditTextPreference {
     }
 
 
+    @Override
+    protected void onAddEditTextToDialogView(View dialogView, EditText editText) {
+        super.onAddEditTextToDialogView(dialogView, editText);
+        if (CityIndex.open(getContext()) == null) {
+            return;
+        }
+        // The cities starting with what is typed, under it
+        mSuggestions = new ArrayAdapter<>(getContext(), android.R.layout.simple_list_item_1);
+        ListView suggestions = new ListView(getContext());
+        suggestions.setAdapter(mSuggestions);
+        suggestions.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                EditText et = getEditText();
+                et.setText(mSuggestions.getItem(position));
+                et.setSelection(et.length());
+            }
+        });
+        ((ViewGroup) editText.getParent()).addView(suggestions,
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT);
+    }
+
+    @Override
+    protected boolean persistString(String value) {
+        long ioStart = IoWatchdog.begin();
+        try {
+            return super.persistString(value);
+        } finally {
+            IoWatchdog.end("prefs commit", getKey(), ioStart);
+        }
+    }
+
     @Override
     protected void showDialog(Bundle state) {
         super.showDialog(state);
 
-        EditText et = getEditText();
+        final EditText et = getEditText();
         et.addTextChangedListener(new TextWatcher() {
             @Override
             public void beforeTextChanged(CharSequence s, int start, int count, int after) {
@@ -52,6 +97,22 @@ public class LocationEditTextPreference extends EditTextPreference {
 
             @Override
             public void afterTextChanged(Editable s) {
+                // The index pages are read from the APK as the search touches them
+                long ioStart = IoWatchdog.begin();
+                boolean known;
+                try {
+                    CityIndex index = CityIndex.open(getContext());
+                    if (mSuggestions != null) {
+                        mSuggestions.clear();
+                        if (s.length() >= mMinLength) {
+                            mSuggestions.addAll(index.suggest(s.toString(), MAX_SUGGESTIONS));
+                        }
+                    }
+                    known = index == null || s.length() < mMinLength
+                            || POSTAL_CODE.matcher(s).matches() || index.contains(s.toString());
+                } finally {
+                    IoWatchdog.end("city index", "lookup", ioStart);
+                }
                 Dialog d = getDialog();
                 //We know it's an AlertDialog because we have looked the EditTextPreference doc,
                 // but if it change in the future we don't want our app to crash.
@@ -67,6 +128,10 @@ public class LocationEditTextPreference extends EditTextPreference {
                         positiveButton.setEnabled(true);
                     }
                 }
+                // A city missing from the index is only a warning: the weather server also
+                // knows aliases, like "London,UK" for "London,GB"
+                et.setError(known
+                        ? null : getContext().getString(R.string.pref_location_not_in_index));
             }
         });
     }
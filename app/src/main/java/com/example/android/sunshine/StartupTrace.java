@@ -0,0 +1,44 @@
+package com.example.android.sunshine;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Measures how long a start of {@link MainActivity} takes to put forecast rows on screen
+ * (first meaningful draw), and whether those rows came from the {@link ForecastSnapshot} or
+ * from the database.
+ */
+public class StartupTrace {
+    private static final String LOG_TAG = StartupTrace.class.getSimpleName();
+
+    private static long sActivityCreateTime = -1;
+    private static long sFirstMeaningfulDrawMillis = -1;
+    private static boolean sFirstDrawFromSnapshot;
+
+    static void markActivityCreated() {
+        sActivityCreateTime = SystemClock.uptimeMillis();
+        sFirstMeaningfulDrawMillis = -1;
+    }
+
+    static void markFirstMeaningfulDraw(boolean fromSnapshot) {
+        if (sActivityCreateTime == -1 || sFirstMeaningfulDrawMillis != -1) {
+            return;
+        }
+        sFirstMeaningfulDrawMillis = SystemClock.uptimeMillis() - sActivityCreateTime;
+        sFirstDrawFromSnapshot = fromSnapshot;
+        Log.i(LOG_TAG, "First meaningful draw after " + sFirstMeaningfulDrawMillis + "ms"
+                + (fromSnapshot ? " (snapshot)" : " (database)"));
+    }
+
+    /**
+     * @return the time from MainActivity.onCreate to the first frame with forecast rows, in
+     * milliseconds, or -1 if that frame hasn't been drawn yet.
+     */
+    public static long getFirstMeaningfulDrawMillis() {
+        return sFirstMeaningfulDrawMillis;
+    }
+
+    public static boolean isFirstDrawFromSnapshot() {
+        return sFirstDrawFromSnapshot;
+    }
+}
@@ -527,15 +527,19 @@ public class Utility {
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
         SharedPreferences.Editor spe = sp.edit();
         spe.putInt(c.getString(R.string.pref_location_status_key), SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
-        spe.apply();
+        IoWatchdog.apply(spe, c.getString(R.string.pref_location_status_key));
     }
 
     public static String thread() {
-        if (Looper.getMainLooper().getThread() == Thread.currentThread())
+        if (isMainThread())
             return "ThreadUI";
         else return "Background";
     }
 
+    public static boolean isMainThread() {
+        return Looper.getMainLooper().getThread() == Thread.currentThread();
+    }
+
 
     /*
     * Helper method to provide the correct image according to the weather condition id returned
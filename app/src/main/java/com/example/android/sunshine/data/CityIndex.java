@@ -0,0 +1,271 @@
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * The cities OpenWeatherMap knows, as "City,CC" location settings, sorted by a search key
+ * (lower case, without accents) so that the cities starting with what the user typed are found
+ * by a binary search.  The index is an asset, stored uncompressed so it can be memory-mapped
+ * rather than read: a lookup only touches the few pages the search goes through.
+ * <p/>
+ * Layout, in little-endian order:
+ * <pre>
+ * header   magic, version, count
+ * offsets  one int per city, in key order, to its record
+ * records  key length (1 byte), key in UTF-8, name length (1 byte), name in UTF-8
+ * </pre>
+ * The asset is built with {@link #build} from OpenWeatherMap's city list, by the
+ * generateCityIndex task of the app's build.
+ */
+public class CityIndex {
+    private static final String LOG_TAG = CityIndex.class.getSimpleName();
+
+    static final String ASSET_NAME = "cities.idx";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Pattern ACCENTS = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+
+    private static final int MAGIC = 0x53574349; // "SWCI"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+
+    private static CityIndex sIndex;
+    private static boolean sOpened;
+
+    private final ByteBuffer mBuffer;
+    private final int mCount;
+
+    CityIndex(ByteBuffer buffer) {
+        mBuffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC
+                || buffer.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("Not a city index");
+        }
+        mCount = buffer.getInt(8);
+    }
+
+    /**
+     * The index shipped with the app, mapped the first time.
+     *
+     * @return the index, or null if the app was built without one.
+     */
+    public static synchronized CityIndex open(Context context) {
+        if (sOpened) {
+            return sIndex;
+        }
+        sOpened = true;
+        AssetFileDescriptor asset = null;
+        FileInputStream in = null;
+        try {
+            // Only possible with an uncompressed asset
+            asset = context.getAssets().openFd(ASSET_NAME);
+            in = asset.createInputStream();
+            sIndex = new CityIndex(in.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                    asset.getStartOffset(), asset.getLength()));
+        } catch (FileNotFoundException e) {
+            Log.w(LOG_TAG, "No city index, locations won't be suggested");
+        } catch (IOException | IllegalArgumentException e) {
+            Log.e(LOG_TAG, "Error mapping the city index", e);
+        } finally {
+            try {
+                // The mapping outlives the file
+                if (in != null) {
+                    in.close();
+                } else if (asset != null) {
+                    asset.close();
+                }
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error closing the city index", e);
+            }
+        }
+        return sIndex;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * The first cities, in key order, whose key starts with the prefix.
+     */
+    public List<String> suggest(String prefix, int limit) {
+        byte[] key = toKey(prefix).getBytes(UTF_8);
+        List<String> suggestions = new ArrayList<>(Math.min(limit, 16));
+        for (int i = lowerBound(key); i < mCount && suggestions.size() < limit; i++) {
+            int record = getRecord(i);
+            if (compareKey(record, key, true) != 0) {
+                break;
+            }
+            suggestions.add(getName(record));
+        }
+        return suggestions;
+    }
+
+    /**
+     * Whether the location setting names a city of the index, as "City" or "City,CC".  The
+     * weather server knows more names than these, so a miss is only a hint.
+     */
+    public boolean contains(String locationSetting) {
+        byte[] key = toKey(locationSetting).getBytes(UTF_8);
+        // Longer cities can come first: "london colney,gb" sorts before "london,gb", as a space
+        // or any byte below a comma does
+        for (int i = lowerBound(key); i < mCount; i++) {
+            int record = getRecord(i);
+            if (compareKey(record, key, true) != 0) {
+                return false;
+            }
+            if ((mBuffer.get(record) & 0xff) == key.length) {
+                return true;
+            }
+            int next = mBuffer.get(record + 1 + key.length) & 0xff;
+            if (next >= ',') {
+                return next == ',';
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The search key of a city or of what the user typed.
+     */
+    static String toKey(String name) {
+        String key = Normalizer.normalize(name, Normalizer.Form.NFD);
+        key = ACCENTS.matcher(key).replaceAll("");
+        key = SPACES.matcher(key.trim()).replaceAll(" ");
+        return key.replace(" ,", ",").replace(", ", ",").toLowerCase(Locale.US);
+    }
+
+    /**
+     * Builds an index of the cities, each as its location setting ("City,CC").  Duplicates are
+     * kept once.
+     */
+    public static ByteBuffer build(List<String> cities) {
+        final int count = cities.size();
+        final byte[][] keys = new byte[count][];
+        final byte[][] names = new byte[count][];
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = toKey(cities.get(i)).getBytes(UTF_8);
+            names[i] = cities.get(i).getBytes(UTF_8);
+            if (keys[i].length > 255 || names[i].length > 255) {
+                throw new IllegalArgumentException("Name too long: " + cities.get(i));
+            }
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int byKey = compareBytes(keys[a], keys[b]);
+                return byKey != 0 ? byKey : compareBytes(names[a], names[b]);
+            }
+        });
+
+        List<Integer> unique = new ArrayList<>(count);
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            if (i > 0 && Arrays.equals(names[order[i]], names[order[i - 1]])) {
+                continue;
+            }
+            unique.add(order[i]);
+            size += 2 + keys[order[i]].length + names[order[i]].length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 4 * unique.size() + size)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(unique.size());
+        int record = HEADER_SIZE + 4 * unique.size();
+        for (int i : unique) {
+            buffer.putInt(record);
+            record += 2 + keys[i].length + names[i].length;
+        }
+        for (int i : unique) {
+            buffer.put((byte) keys[i].length);
+            buffer.put(keys[i]);
+            buffer.put((byte) names[i].length);
+            buffer.put(names[i]);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /*
+        The first city whose key isn't before the given key.
+     */
+    private int lowerBound(byte[] key) {
+        int low = 0;
+        int high = mCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compareKey(getRecord(middle), key, false) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /*
+        Compares the key of the record with the given one, or only with its start if prefix.
+     */
+    private int compareKey(int record, byte[] key, boolean prefix) {
+        int length = mBuffer.get(record) & 0xff;
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int difference = (mBuffer.get(record + 1 + i) & 0xff) - (key[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        if (prefix && length >= key.length) {
+            return 0;
+        }
+        return length - key.length;
+    }
+
+    private int getRecord(int i) {
+        return mBuffer.getInt(HEADER_SIZE + 4 * i);
+    }
+
+    private String getName(int record) {
+        return getString(record + 1 + (mBuffer.get(record) & 0xff));
+    }
+
+    private String getString(int offset) {
+        byte[] bytes = new byte[mBuffer.get(offset) & 0xff];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = mBuffer.get(offset + 1 + i);
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    private static int compareBytes(byte[] a, byte[] b) {
+        int common = Math.min(a.length, b.length);
+        for (int i = 0; i < common; i++) {
+            int difference = (a[i] & 0xff) - (b[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return a.length - b.length;
+    }
+}
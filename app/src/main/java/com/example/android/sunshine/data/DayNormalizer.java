@@ -0,0 +1,124 @@
+package com.example.android.sunshine.data;
+
+import java.util.TimeZone;
+
+/**
+ * Turns dates into the day they fall on, the way the weather table stores them: the start of
+ * the Julian day, in the device's time zone.  These are the results the round trip through
+ * {@link android.text.format.Time} used to give, down to the days a transition skips
+ * midnight, but with plain arithmetic on the zone offsets and without allocating.
+ * <p/>
+ * The zone is looked up once and kept until {@link #onTimeZoneChanged(String)}.  The bounds
+ * of the last day are kept too, since a sync or a bulk insert normalizes the same few days
+ * over and over: most dates are normalized without even asking the zone for an offset.
+ */
+public class DayNormalizer {
+
+    // Julian day of the epoch, as in android.text.format.Time
+    public static final int EPOCH_JULIAN_DAY = 2440588;
+    public static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private static final DayNormalizer sDefault = new DayNormalizer(null);
+
+    private final boolean mFollowsDevice;
+    private TimeZone mZone;
+
+    // The last day normalized, [mDayStart, mDayEnd[
+    private long mDayStart;
+    private long mDayEnd;
+
+    /**
+     * The normalizer following the device's time zone, shared by the provider and the sync.
+     */
+    public static DayNormalizer getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * A normalizer for the given zone, or for the device's zone if null.
+     */
+    public DayNormalizer(TimeZone zone) {
+        mFollowsDevice = zone == null;
+        mZone = zone;
+        forgetDay();
+    }
+
+    /**
+     * Switches a normalizer following the device to its new zone.
+     *
+     * @param zoneId the new zone, or null to look it up again.
+     */
+    public synchronized void onTimeZoneChanged(String zoneId) {
+        if (mFollowsDevice) {
+            mZone = zoneId == null ? null : TimeZone.getTimeZone(zoneId);
+        }
+        forgetDay();
+    }
+
+    /**
+     * The start of the day the date falls on.
+     */
+    public synchronized long normalize(long millis) {
+        if (millis >= mDayStart && millis < mDayEnd) {
+            return mDayStart;
+        }
+        int julianDay = getJulianDay(millis);
+        long start = getStartOfJulianDay(julianDay);
+        // Dates in the first hour of a day that starts twice come before its start, see
+        // getStartOfJulianDay, and are left out of the cache
+        if (millis >= start) {
+            long nextStart = getStartOfJulianDay(julianDay + 1);
+            long nextMidnight = (julianDay + 1 - EPOCH_JULIAN_DAY) * DAY_IN_MILLIS;
+            mDayStart = start;
+            mDayEnd = Math.min(nextStart, nextMidnight - getZone().getOffset(nextStart - 1));
+        }
+        return start;
+    }
+
+    /**
+     * The Julian day the date falls on, as {@link android.text.format.Time#getJulianDay}
+     * with the zone's offset at that date.
+     */
+    public synchronized int getJulianDay(long millis) {
+        // Truncated rather than floored, like Time, which only makes a difference before 1970
+        return (int) ((millis + getZone().getOffset(millis)) / DAY_IN_MILLIS) + EPOCH_JULIAN_DAY;
+    }
+
+    /**
+     * The start of the Julian day, as {@link android.text.format.Time#setJulianDay}.
+     */
+    public synchronized long getStartOfJulianDay(int julianDay) {
+        TimeZone zone = getZone();
+        long localMidnight = (julianDay - EPOCH_JULIAN_DAY) * DAY_IN_MILLIS;
+        // Which offset applies at midnight depends on which instant midnight is.  Like Time,
+        // first try the offset in force when midnight is taken as standard time.
+        int offset = zone.getOffset(localMidnight - zone.getRawOffset());
+        long start = localMidnight - offset;
+        int actualOffset = zone.getOffset(start);
+        if (actualOffset != offset) {
+            // A transition between the two: the other offset is the right one, unless neither
+            // is because the transition skips midnight and the day starts when it ends
+            long otherStart = localMidnight - actualOffset;
+            if (zone.getOffset(otherStart) == actualOffset) {
+                start = otherStart;
+            } else {
+                start = localMidnight - Math.min(offset, actualOffset);
+            }
+        }
+        // When a transition back to standard time repeats the first hour of the day, this is
+        // its second start, as with Time
+        return start;
+    }
+
+    private TimeZone getZone() {
+        if (mZone == null) {
+            mZone = TimeZone.getDefault();
+        }
+        return mZone;
+    }
+
+    private void forgetDay() {
+        mDayStart = Long.MAX_VALUE;
+        mDayEnd = Long.MIN_VALUE;
+    }
+}
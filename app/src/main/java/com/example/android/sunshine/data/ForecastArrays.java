@@ -0,0 +1,206 @@
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.os.Bundle;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The forecast of a location read in one go through {@link WeatherContract#METHOD_GET_FORECAST}:
+ * one primitive array per column instead of a cursor.  For a couple of weeks of small rows, this
+ * spares the {@link android.database.CursorWindow}, its per cell type tags and the paging of a
+ * cursor across processes.  The descriptions repeat a lot, so they come as a dictionary and an
+ * index per day.
+ */
+public class ForecastArrays {
+
+    // The columns read by the provider, in this order
+    static final String[] COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+    private static final int COL_ID = 0;
+    private static final int COL_DATE = 1;
+    private static final int COL_WEATHER_ID = 2;
+    private static final int COL_SHORT_DESC = 3;
+    private static final int COL_MAX_TEMP = 4;
+    private static final int COL_MIN_TEMP = 5;
+    private static final int COL_HUMIDITY = 6;
+    private static final int COL_PRESSURE = 7;
+    private static final int COL_WIND_SPEED = 8;
+    private static final int COL_DEGREES = 9;
+
+    // Keys of the Bundle returned by the provider
+    private static final String KEY_IDS = "ids";
+    private static final String KEY_DATES = "dates";
+    private static final String KEY_WEATHER_IDS = "weather_ids";
+    private static final String KEY_DESCRIPTIONS = "descriptions";
+    private static final String KEY_DESCRIPTION_INDEXES = "description_indexes";
+    private static final String KEY_MAX_TEMPS = "max";
+    private static final String KEY_MIN_TEMPS = "min";
+    private static final String KEY_HUMIDITIES = "humidity";
+    private static final String KEY_PRESSURES = "pressure";
+    private static final String KEY_WIND_SPEEDS = "wind";
+    private static final String KEY_DEGREES = "degrees";
+
+    private final long[] mIds;
+    private final long[] mDates;
+    private final int[] mWeatherIds;
+    private final String[] mDescriptions;
+    private final int[] mDescriptionIndexes;
+    private final double[] mMaxTemps;
+    private final double[] mMinTemps;
+    private final double[] mHumidities;
+    private final double[] mPressures;
+    private final double[] mWindSpeeds;
+    private final double[] mDegrees;
+
+    /**
+     * Reads the forecast of a location from startDate (normalized) until endDate (excluded).
+     *
+     * @return the forecast, empty if there is none, or null if the provider couldn't be reached.
+     */
+    public static ForecastArrays query(ContentResolver resolver, String locationSetting,
+                                       long startDate, long endDate) {
+        Bundle extras = new Bundle();
+        extras.putLong(WeatherContract.EXTRA_START_DATE, WeatherContract.normalizeDate(startDate));
+        extras.putLong(WeatherContract.EXTRA_END_DATE, endDate);
+        Bundle result = resolver.call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_GET_FORECAST, locationSetting, extras);
+        return result != null ? new ForecastArrays(result) : null;
+    }
+
+    /**
+     * The whole forecast from startDate on.
+     */
+    public static ForecastArrays query(ContentResolver resolver, String locationSetting,
+                                       long startDate) {
+        return query(resolver, locationSetting, startDate, Long.MAX_VALUE);
+    }
+
+    public ForecastArrays(Bundle bundle) {
+        mIds = bundle.getLongArray(KEY_IDS);
+        mDates = bundle.getLongArray(KEY_DATES);
+        mWeatherIds = bundle.getIntArray(KEY_WEATHER_IDS);
+        mDescriptions = bundle.getStringArray(KEY_DESCRIPTIONS);
+        mDescriptionIndexes = bundle.getIntArray(KEY_DESCRIPTION_INDEXES);
+        mMaxTemps = bundle.getDoubleArray(KEY_MAX_TEMPS);
+        mMinTemps = bundle.getDoubleArray(KEY_MIN_TEMPS);
+        mHumidities = bundle.getDoubleArray(KEY_HUMIDITIES);
+        mPressures = bundle.getDoubleArray(KEY_PRESSURES);
+        mWindSpeeds = bundle.getDoubleArray(KEY_WIND_SPEEDS);
+        mDegrees = bundle.getDoubleArray(KEY_DEGREES);
+    }
+
+    /*
+        Packs the rows of a cursor over COLUMNS, on the provider's side.
+     */
+    static Bundle toBundle(Cursor cursor) {
+        int count = cursor.getCount();
+        long[] ids = new long[count];
+        long[] dates = new long[count];
+        int[] weatherIds = new int[count];
+        int[] descriptionIndexes = new int[count];
+        double[] maxTemps = new double[count];
+        double[] minTemps = new double[count];
+        double[] humidities = new double[count];
+        double[] pressures = new double[count];
+        double[] windSpeeds = new double[count];
+        double[] degrees = new double[count];
+        Map<String, Integer> dictionary = new HashMap<>();
+
+        cursor.moveToPosition(-1);
+        for (int i = 0; cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(COL_ID);
+            dates[i] = cursor.getLong(COL_DATE);
+            weatherIds[i] = cursor.getInt(COL_WEATHER_ID);
+            String description = cursor.getString(COL_SHORT_DESC);
+            Integer index = dictionary.get(description);
+            if (index == null) {
+                index = dictionary.size();
+                dictionary.put(description, index);
+            }
+            descriptionIndexes[i] = index;
+            maxTemps[i] = cursor.getDouble(COL_MAX_TEMP);
+            minTemps[i] = cursor.getDouble(COL_MIN_TEMP);
+            humidities[i] = cursor.getDouble(COL_HUMIDITY);
+            pressures[i] = cursor.getDouble(COL_PRESSURE);
+            windSpeeds[i] = cursor.getDouble(COL_WIND_SPEED);
+            degrees[i] = cursor.getDouble(COL_DEGREES);
+        }
+        String[] descriptions = new String[dictionary.size()];
+        for (Map.Entry<String, Integer> entry : dictionary.entrySet()) {
+            descriptions[entry.getValue()] = entry.getKey();
+        }
+
+        Bundle bundle = new Bundle();
+        bundle.putLongArray(KEY_IDS, ids);
+        bundle.putLongArray(KEY_DATES, dates);
+        bundle.putIntArray(KEY_WEATHER_IDS, weatherIds);
+        bundle.putStringArray(KEY_DESCRIPTIONS, descriptions);
+        bundle.putIntArray(KEY_DESCRIPTION_INDEXES, descriptionIndexes);
+        bundle.putDoubleArray(KEY_MAX_TEMPS, maxTemps);
+        bundle.putDoubleArray(KEY_MIN_TEMPS, minTemps);
+        bundle.putDoubleArray(KEY_HUMIDITIES, humidities);
+        bundle.putDoubleArray(KEY_PRESSURES, pressures);
+        bundle.putDoubleArray(KEY_WIND_SPEEDS, windSpeeds);
+        bundle.putDoubleArray(KEY_DEGREES, degrees);
+        return bundle;
+    }
+
+    public int getCount() {
+        return mDates.length;
+    }
+
+    public long getId(int day) {
+        return mIds[day];
+    }
+
+    public long getDate(int day) {
+        return mDates[day];
+    }
+
+    public int getWeatherId(int day) {
+        return mWeatherIds[day];
+    }
+
+    public String getDescription(int day) {
+        return mDescriptions[mDescriptionIndexes[day]];
+    }
+
+    public double getMaxTemp(int day) {
+        return mMaxTemps[day];
+    }
+
+    public double getMinTemp(int day) {
+        return mMinTemps[day];
+    }
+
+    public double getHumidity(int day) {
+        return mHumidities[day];
+    }
+
+    public double getPressure(int day) {
+        return mPressures[day];
+    }
+
+    public double getWindSpeed(int day) {
+        return mWindSpeeds[day];
+    }
+
+    public double getDegrees(int day) {
+        return mDegrees[day];
+    }
+}
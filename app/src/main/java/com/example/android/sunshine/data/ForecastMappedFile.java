@@ -0,0 +1,411 @@
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.support.v4.util.AtomicFile;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+/**
+ * A read-only copy of the forecast of the preferred location, for the forecast list on a cold
+ * start, the widgets, the Muzei source and the notification: they only ever need today and the
+ * next few days, and read them from a memory-mapped file instead of opening the database.
+ * <p/>
+ * The file is rewritten as a whole after each sync through an {@link AtomicFile}, so readers see
+ * either snapshot and never half of one.  A mapping stays valid after the file is replaced,
+ * readers keep the snapshot they opened.  The layout is fixed, in little-endian order:
+ * <pre>
+ * header   magic, version, CRC32 of the rest of the file, days, written at, offset of the
+ *          strings, latitude and longitude of the location
+ * days     one RECORD_SIZE record per day: id, date, weather id, description index, max, min,
+ *          humidity, pressure, wind speed, degrees
+ * strings  count, then each as a length and UTF-8 bytes: the location setting, then the
+ *          descriptions the days point to
+ * </pre>
+ * Opening a snapshot checks its checksum once; later reads of the same snapshot, known by the
+ * checksum and write time in its header, reuse the mapping.
+ */
+public class ForecastMappedFile {
+    private static final String LOG_TAG = ForecastMappedFile.class.getSimpleName();
+
+    private static final String FILE_NAME = "forecast.bin";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int MAGIC = 0x53574643; // "SWFC"
+    private static final int VERSION = 3;
+
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 4;
+    private static final int OFFSET_CRC = 8;
+    private static final int OFFSET_COUNT = 12;
+    private static final int OFFSET_WRITTEN = 16;
+    private static final int OFFSET_STRINGS = 24;
+    private static final int OFFSET_COORD_LAT = 28;
+    private static final int OFFSET_COORD_LONG = 36;
+    private static final int HEADER_SIZE = 44;
+
+    private static final String[] COORD_COLUMNS = {
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    // Offsets within a day's record
+    private static final int DAY_ID = 0;
+    private static final int DAY_DATE = 8;
+    private static final int DAY_WEATHER_ID = 16;
+    private static final int DAY_DESCRIPTION = 20;
+    private static final int DAY_MAX_TEMP = 24;
+    private static final int DAY_MIN_TEMP = 32;
+    private static final int DAY_HUMIDITY = 40;
+    private static final int DAY_PRESSURE = 48;
+    private static final int DAY_WIND_SPEED = 56;
+    private static final int DAY_DEGREES = 64;
+    private static final int RECORD_SIZE = 72;
+
+    // The snapshot opened last
+    private static ForecastMappedFile sOpened;
+
+    private final ByteBuffer mBuffer;
+    private final int mCrc;
+    private final int mCount;
+    private final long mWrittenAt;
+    private final String mLocationSetting;
+    private final String[] mDescriptions;
+
+    private ForecastMappedFile(ByteBuffer buffer, int crc, int count, long writtenAt,
+                               String locationSetting, String[] descriptions) {
+        mBuffer = buffer;
+        mCrc = crc;
+        mCount = count;
+        mWrittenAt = writtenAt;
+        mLocationSetting = locationSetting;
+        mDescriptions = descriptions;
+    }
+
+    /**
+     * Writes the forecast of the location from today on, once the sync committed it.  This hits
+     * the ContentProvider, so it should not be called from the UI thread.
+     */
+    public static void write(Context context, String locationSetting) {
+        ForecastArrays forecast = ForecastArrays.query(context.getContentResolver(),
+                locationSetting, System.currentTimeMillis());
+        if (forecast == null) {
+            return;
+        }
+        Cursor location = context.getContentResolver().query(LocationEntry.CONTENT_URI,
+                COORD_COLUMNS, LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting}, null);
+        if (location == null) {
+            return;
+        }
+        double lat;
+        double lon;
+        try {
+            if (!location.moveToFirst()) {
+                return;
+            }
+            lat = location.getDouble(0);
+            lon = location.getDouble(1);
+        } finally {
+            location.close();
+        }
+        ByteBuffer buffer = encode(locationSetting, lat, lon, forecast,
+                System.currentTimeMillis());
+
+        AtomicFile file = new AtomicFile(getFile(context));
+        FileOutputStream out = null;
+        try {
+            out = file.startWrite();
+            out.write(buffer.array(), 0, buffer.limit());
+            file.finishWrite(out);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error writing the forecast file", e);
+            file.failWrite(out);
+        }
+        forget();
+    }
+
+    /**
+     * The last snapshot written, if it is the forecast of that location.
+     *
+     * @return the snapshot, or null if there is none, it is damaged or it is of another location.
+     */
+    public static ForecastMappedFile open(Context context, String locationSetting) {
+        ForecastMappedFile snapshot = open(getFile(context));
+        if (snapshot == null || !snapshot.mLocationSetting.equals(locationSetting)) {
+            return null;
+        }
+        return snapshot;
+    }
+
+    static synchronized ForecastMappedFile open(File file) {
+        FileInputStream in = null;
+        try {
+            // Back to the previous snapshot if a write was cut short
+            in = new AtomicFile(file).openRead();
+            FileChannel channel = in.getChannel();
+            // The modification time and length of the file can stay the same across two quick
+            // writes, the header tells whether it still holds the snapshot opened last
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header) != -1) {
+                // Until the header is read or the file ends
+            }
+            if (sOpened != null && !header.hasRemaining()
+                    && header.getInt(OFFSET_CRC) == sOpened.mCrc
+                    && header.getLong(OFFSET_WRITTEN) == sOpened.mWrittenAt) {
+                return sOpened;
+            }
+            sOpened = null;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+            sOpened = decode(buffer);
+            return sOpened;
+        } catch (FileNotFoundException e) {
+            // No sync has completed yet
+            sOpened = null;
+            return null;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error mapping the forecast file", e);
+            sOpened = null;
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    // The mapping outlives the channel
+                    in.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+        }
+    }
+
+    public static void delete(Context context) {
+        new AtomicFile(getFile(context)).delete();
+        forget();
+    }
+
+    /*
+        Drops the snapshot opened last, the next open maps the file again.
+     */
+    static synchronized void forget() {
+        sOpened = null;
+    }
+
+    static File getFile(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    static ByteBuffer encode(String locationSetting, double lat, double lon,
+                             ForecastArrays forecast, long writtenAt) {
+        int count = forecast.getCount();
+        // The descriptions in the order of their first day
+        String[] strings = new String[count + 1];
+        strings[0] = locationSetting;
+        int stringCount = 1;
+        int[] descriptionIndexes = new int[count];
+        for (int day = 0; day < count; day++) {
+            String description = forecast.getDescription(day);
+            int index = 1;
+            while (index < stringCount && !strings[index].equals(description)) {
+                index++;
+            }
+            if (index == stringCount) {
+                strings[stringCount++] = description;
+            }
+            descriptionIndexes[day] = index - 1;
+        }
+        byte[][] encoded = new byte[stringCount][];
+        int stringsSize = 2;
+        for (int i = 0; i < stringCount; i++) {
+            encoded[i] = strings[i].getBytes(UTF_8);
+            stringsSize += 2 + encoded[i].length;
+        }
+
+        int stringsOffset = HEADER_SIZE + count * RECORD_SIZE;
+        ByteBuffer buffer = ByteBuffer.allocate(stringsOffset + stringsSize)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(OFFSET_MAGIC, MAGIC);
+        buffer.putInt(OFFSET_VERSION, VERSION);
+        buffer.putInt(OFFSET_COUNT, count);
+        buffer.putLong(OFFSET_WRITTEN, writtenAt);
+        buffer.putInt(OFFSET_STRINGS, stringsOffset);
+        buffer.putDouble(OFFSET_COORD_LAT, lat);
+        buffer.putDouble(OFFSET_COORD_LONG, lon);
+        for (int day = 0; day < count; day++) {
+            int record = HEADER_SIZE + day * RECORD_SIZE;
+            buffer.putLong(record + DAY_ID, forecast.getId(day));
+            buffer.putLong(record + DAY_DATE, forecast.getDate(day));
+            buffer.putInt(record + DAY_WEATHER_ID, forecast.getWeatherId(day));
+            buffer.putInt(record + DAY_DESCRIPTION, descriptionIndexes[day]);
+            buffer.putDouble(record + DAY_MAX_TEMP, forecast.getMaxTemp(day));
+            buffer.putDouble(record + DAY_MIN_TEMP, forecast.getMinTemp(day));
+            buffer.putDouble(record + DAY_HUMIDITY, forecast.getHumidity(day));
+            buffer.putDouble(record + DAY_PRESSURE, forecast.getPressure(day));
+            buffer.putDouble(record + DAY_WIND_SPEED, forecast.getWindSpeed(day));
+            buffer.putDouble(record + DAY_DEGREES, forecast.getDegrees(day));
+        }
+        buffer.position(stringsOffset);
+        buffer.putShort((short) stringCount);
+        for (byte[] string : encoded) {
+            buffer.putShort((short) string.length);
+            buffer.put(string);
+        }
+        buffer.putInt(OFFSET_CRC, checksum(buffer));
+        buffer.position(0);
+        return buffer;
+    }
+
+    /*
+        Checks the header and the checksum, and reads the strings; the days are read in place.
+        Returns null if the buffer isn't a snapshot this version can read.
+     */
+    static ForecastMappedFile decode(ByteBuffer buffer) {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(OFFSET_MAGIC) != MAGIC
+                || buffer.getInt(OFFSET_VERSION) != VERSION) {
+            return null;
+        }
+        int count = buffer.getInt(OFFSET_COUNT);
+        int stringsOffset = buffer.getInt(OFFSET_STRINGS);
+        if (count < 0 || stringsOffset != HEADER_SIZE + count * RECORD_SIZE
+                || stringsOffset + 2 > buffer.limit()
+                || buffer.getInt(OFFSET_CRC) != checksum(buffer)) {
+            Log.w(LOG_TAG, "Damaged forecast file");
+            return null;
+        }
+        // A duplicate is big-endian whatever the original
+        ByteBuffer strings = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        strings.position(stringsOffset);
+        int stringCount = strings.getShort();
+        if (stringCount < 1) {
+            return null;
+        }
+        String locationSetting = readString(strings);
+        String[] descriptions = new String[stringCount - 1];
+        for (int i = 0; i < descriptions.length; i++) {
+            descriptions[i] = readString(strings);
+        }
+        return new ForecastMappedFile(buffer, buffer.getInt(OFFSET_CRC), count,
+                buffer.getLong(OFFSET_WRITTEN), locationSetting, descriptions);
+    }
+
+    private static int checksum(ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        // Everything but the checksum itself, the header included
+        for (int i = 0; i < OFFSET_CRC; i++) {
+            crc.update(buffer.get(i));
+        }
+        for (int i = OFFSET_CRC + 4; i < buffer.limit(); i++) {
+            crc.update(buffer.get(i));
+        }
+        return (int) crc.getValue();
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * The first day at or after the date (normalized), or -1 if the snapshot ends before it.
+     */
+    public int findDay(long date) {
+        long normalizedDate = WeatherContract.normalizeDate(date);
+        for (int day = 0; day < mCount; day++) {
+            if (getDate(day) >= normalizedDate) {
+                return day;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The day of the date (normalized), or -1 if the snapshot doesn't hold it.
+     */
+    public int findDate(long date) {
+        int day = findDay(date);
+        return day != -1 && getDate(day) == WeatherContract.normalizeDate(date) ? day : -1;
+    }
+
+    public String getLocationSetting() {
+        return mLocationSetting;
+    }
+
+    public double getCoordLat() {
+        return mBuffer.getDouble(OFFSET_COORD_LAT);
+    }
+
+    public double getCoordLong() {
+        return mBuffer.getDouble(OFFSET_COORD_LONG);
+    }
+
+    public long getWrittenAt() {
+        return mWrittenAt;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    public long getId(int day) {
+        return mBuffer.getLong(record(day) + DAY_ID);
+    }
+
+    public long getDate(int day) {
+        return mBuffer.getLong(record(day) + DAY_DATE);
+    }
+
+    public int getWeatherId(int day) {
+        return mBuffer.getInt(record(day) + DAY_WEATHER_ID);
+    }
+
+    public String getDescription(int day) {
+        return mDescriptions[mBuffer.getInt(record(day) + DAY_DESCRIPTION)];
+    }
+
+    public double getMaxTemp(int day) {
+        return mBuffer.getDouble(record(day) + DAY_MAX_TEMP);
+    }
+
+    public double getMinTemp(int day) {
+        return mBuffer.getDouble(record(day) + DAY_MIN_TEMP);
+    }
+
+    public double getHumidity(int day) {
+        return mBuffer.getDouble(record(day) + DAY_HUMIDITY);
+    }
+
+    public double getPressure(int day) {
+        return mBuffer.getDouble(record(day) + DAY_PRESSURE);
+    }
+
+    public double getWindSpeed(int day) {
+        return mBuffer.getDouble(record(day) + DAY_WIND_SPEED);
+    }
+
+    public double getDegrees(int day) {
+        return mBuffer.getDouble(record(day) + DAY_DEGREES);
+    }
+
+    private int record(int day) {
+        if (day < 0 || day >= mCount) {
+            throw new IndexOutOfBoundsException("Day " + day + " of " + mCount);
+        }
+        return HEADER_SIZE + day * RECORD_SIZE;
+    }
+}
@@ -0,0 +1,277 @@
+package com.example.android.sunshine.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Finds the locations near a point through a grid over their coordinates: the earth is cut in
+ * cells of {@link #CELL_DEGREES} and every location row holds the number of its cell in an
+ * indexed column, kept up to date by triggers whatever the write path.  A query turns the
+ * bounding box of its circle into ranges of cell numbers, reads the candidates through the
+ * index, then keeps and sorts those really within the circle.
+ * <p/>
+ * Cell numbers go row by row from the south pole and the antimeridian, so the cells of a box
+ * are one range per grid row, and a single range when the box goes all around the earth.
+ */
+final class LocationGrid {
+
+    static final double CELL_DEGREES = 0.5;
+    static final int COLUMNS = (int) (360 / CELL_DEGREES);
+    static final int ROWS = (int) (180 / CELL_DEGREES);
+
+    static final double EARTH_RADIUS_KM = 6371.0;
+    private static final double KM_PER_DEGREE = Math.PI * EARTH_RADIUS_KM / 180;
+    private static final double HALF_CIRCUMFERENCE_KM = Math.PI * EARTH_RADIUS_KM;
+
+    // First radius tried by a nearest neighbour query, doubled until enough locations are found
+    private static final double NEAREST_START_KM = 50;
+    // Beyond this many ranges one range from the first cell to the last is read instead
+    private static final int MAX_RANGES = 64;
+
+    static final String INDEX_NAME = "location_grid_cell";
+
+    // The cell of the row's coordinates, as cell() computes it
+    private static final String SQL_CELL = "MIN(CAST((" + LocationEntry.COLUMN_COORD_LAT +
+            " + 90) / " + CELL_DEGREES + " AS INTEGER), " + (ROWS - 1) + ") * " + COLUMNS +
+            " + CAST((" + LocationEntry.COLUMN_COORD_LONG + " + 180) / " + CELL_DEGREES +
+            " AS INTEGER) % " + COLUMNS;
+
+    private static final String SQL_SET_CELL = "UPDATE " + LocationEntry.TABLE_NAME +
+            " SET " + LocationEntry.COLUMN_GRID_CELL + " = " + SQL_CELL +
+            " WHERE " + LocationEntry._ID + " = NEW." + LocationEntry._ID + ";";
+
+    // The columns of a query without projection
+    static final String[] DEFAULT_PROJECTION = {
+            LocationEntry._ID,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            LocationEntry.COLUMN_CITY_NAME,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG,
+            LocationEntry.COLUMN_DISTANCE
+    };
+
+    private LocationGrid() {
+    }
+
+    /**
+     * Adds the cell column, its index and the triggers keeping it up to date to the location
+     * table, and fills it for the rows already there.
+     */
+    static void create(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + LocationEntry.TABLE_NAME + " ADD COLUMN " +
+                LocationEntry.COLUMN_GRID_CELL + " INTEGER NOT NULL DEFAULT 0");
+        db.execSQL("UPDATE " + LocationEntry.TABLE_NAME + " SET " +
+                LocationEntry.COLUMN_GRID_CELL + " = " + SQL_CELL);
+        db.execSQL("CREATE INDEX " + INDEX_NAME + " ON " + LocationEntry.TABLE_NAME + " (" +
+                LocationEntry.COLUMN_GRID_CELL + ")");
+        db.execSQL("CREATE TRIGGER location_grid_insert AFTER INSERT ON " +
+                LocationEntry.TABLE_NAME + " BEGIN " + SQL_SET_CELL + " END");
+        db.execSQL("CREATE TRIGGER location_grid_update AFTER UPDATE OF " +
+                LocationEntry.COLUMN_COORD_LAT + ", " + LocationEntry.COLUMN_COORD_LONG +
+                " ON " + LocationEntry.TABLE_NAME + " BEGIN " + SQL_SET_CELL + " END");
+    }
+
+    /**
+     * The cell of a point, the same as the triggers store.
+     */
+    static int cell(double lat, double lon) {
+        return getRow(lat) * COLUMNS + getColumn(lon);
+    }
+
+    /**
+     * The locations within radiusKm of the point, nearest first, at most limit of them.  The
+     * distance column holds their distance in kilometers.
+     */
+    static Cursor queryWithin(SQLiteDatabase db, String[] projection, double lat, double lon,
+                              double radiusKm, int limit) {
+        return toCursor(projection, findWithin(db, projection, lat, lon, radiusKm), limit);
+    }
+
+    /**
+     * The limit locations nearest to the point, nearest first, however far.
+     */
+    static Cursor queryNearest(SQLiteDatabase db, String[] projection, double lat, double lon,
+                               int limit) {
+        List<Object[]> found;
+        double radiusKm = NEAREST_START_KM;
+        while (true) {
+            found = findWithin(db, projection, lat, lon, radiusKm);
+            // All of the limit nearest are within the circle once it holds limit locations
+            if (found.size() >= limit || radiusKm >= HALF_CIRCUMFERENCE_KM) {
+                break;
+            }
+            radiusKm *= 2;
+        }
+        return toCursor(projection, found, limit);
+    }
+
+    /**
+     * The great-circle distance between two points, in kilometers.
+     */
+    static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /*
+        The SQL selection of the cells of the circle's bounding box.
+     */
+    static String getSelection(double lat, double lon, double radiusKm) {
+        double latDelta = radiusKm / KM_PER_DEGREE;
+        double south = lat - latDelta;
+        double north = lat + latDelta;
+        int firstRow = getRow(Math.max(south, -90));
+        int lastRow = getRow(Math.min(north, 90));
+
+        // Column ranges, two when the box crosses the antimeridian
+        List<int[]> columns = new ArrayList<>(2);
+        double farthestLat = Math.max(Math.abs(south), Math.abs(north));
+        if (farthestLat >= 90) {
+            columns.add(new int[]{0, COLUMNS - 1});
+        } else {
+            double lonDelta = latDelta / Math.cos(Math.toRadians(farthestLat));
+            double west = lon - lonDelta;
+            double east = lon + lonDelta;
+            if (lonDelta >= 180) {
+                columns.add(new int[]{0, COLUMNS - 1});
+            } else if (west < -180) {
+                columns.add(new int[]{0, getColumn(east)});
+                columns.add(new int[]{getColumn(west + 360), COLUMNS - 1});
+            } else if (east >= 180) {
+                columns.add(new int[]{0, getColumn(east - 360)});
+                columns.add(new int[]{getColumn(west), COLUMNS - 1});
+            } else {
+                columns.add(new int[]{getColumn(west), getColumn(east)});
+            }
+        }
+
+        // Ranges of cells, the adjacent ones merged
+        List<int[]> ranges = new ArrayList<>();
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int[] column : columns) {
+                int first = row * COLUMNS + column[0];
+                int last = row * COLUMNS + column[1];
+                int[] previous = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+                if (previous != null && previous[1] + 1 >= first) {
+                    previous[1] = Math.max(previous[1], last);
+                } else {
+                    ranges.add(new int[]{first, last});
+                }
+            }
+        }
+        if (ranges.size() > MAX_RANGES) {
+            int last = ranges.get(ranges.size() - 1)[1];
+            ranges.subList(1, ranges.size()).clear();
+            ranges.get(0)[1] = last;
+        }
+
+        StringBuilder selection = new StringBuilder();
+        for (int[] range : ranges) {
+            if (selection.length() > 0) {
+                selection.append(" OR ");
+            }
+            selection.append(LocationEntry.COLUMN_GRID_CELL).append(" BETWEEN ")
+                    .append(range[0]).append(" AND ").append(range[1]);
+        }
+        return selection.toString();
+    }
+
+    private static int getRow(double lat) {
+        return Math.min((int) ((lat + 90) / CELL_DEGREES), ROWS - 1);
+    }
+
+    private static int getColumn(double lon) {
+        return (int) ((lon + 180) / CELL_DEGREES) % COLUMNS;
+    }
+
+    /*
+        The locations within the circle, each as its projected values followed by its distance,
+        in no particular order.
+     */
+    private static List<Object[]> findWithin(SQLiteDatabase db, String[] projection,
+                                             double lat, double lon, double radiusKm) {
+        if (projection == null) {
+            projection = DEFAULT_PROJECTION;
+        }
+        // The projection without the distance, then the coordinates to compute it
+        String[] columns = new String[projection.length + 2];
+        for (int i = 0; i < projection.length; i++) {
+            columns[i] = LocationEntry.COLUMN_DISTANCE.equals(projection[i])
+                    ? "NULL" : projection[i];
+        }
+        columns[projection.length] = LocationEntry.COLUMN_COORD_LAT;
+        columns[projection.length + 1] = LocationEntry.COLUMN_COORD_LONG;
+
+        List<Object[]> found = new ArrayList<>();
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME, columns,
+                getSelection(lat, lon, radiusKm), null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                double distance = distanceKm(lat, lon, cursor.getDouble(projection.length),
+                        cursor.getDouble(projection.length + 1));
+                if (distance > radiusKm) {
+                    continue;
+                }
+                Object[] row = new Object[projection.length + 1];
+                for (int i = 0; i < projection.length; i++) {
+                    row[i] = LocationEntry.COLUMN_DISTANCE.equals(projection[i])
+                            ? distance : getValue(cursor, i);
+                }
+                row[projection.length] = distance;
+                found.add(row);
+            }
+        } finally {
+            cursor.close();
+        }
+        return found;
+    }
+
+    private static Cursor toCursor(String[] projection, List<Object[]> found, int limit) {
+        if (projection == null) {
+            projection = DEFAULT_PROJECTION;
+        }
+        final int distance = projection.length;
+        Collections.sort(found, new Comparator<Object[]>() {
+            @Override
+            public int compare(Object[] a, Object[] b) {
+                return Double.compare((Double) a[distance], (Double) b[distance]);
+            }
+        });
+        int count = Math.min(limit, found.size());
+        MatrixCursor cursor = new MatrixCursor(projection, count);
+        for (int i = 0; i < count; i++) {
+            // Without the distance used for sorting
+            Object[] row = new Object[projection.length];
+            System.arraycopy(found.get(i), 0, row, 0, projection.length);
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    private static Object getValue(Cursor cursor, int column) {
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(column);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble(column);
+            case Cursor.FIELD_TYPE_STRING:
+                return cursor.getString(column);
+            case Cursor.FIELD_TYPE_BLOB:
+                return cursor.getBlob(column);
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The row ids of the locations by location setting, kept in memory by the provider: they
+ * almost never change, and every sync needs its location's.
+ * <p/>
+ * The provider warms it when it opens the database and invalidates it whenever it notifies a
+ * change of the location table other than an insert.  Ids read from the database while it is
+ * being invalidated are dropped rather than cached, so a deleted location never comes back.
+ * Ids read or inserted inside of a batch are kept aside until it commits, a batch rolled back
+ * leaves nothing behind.
+ */
+class LocationIdCache {
+
+    private static final String[] LOCATION_COLUMNS = {
+            LocationEntry._ID,
+            LocationEntry.COLUMN_LOCATION_SETTING
+    };
+    private static final int COL_LOCATION_ID = 0;
+    private static final int COL_LOCATION_SETTING = 1;
+
+    private static final String sLocationSettingSelection =
+            LocationEntry.COLUMN_LOCATION_SETTING + " = ?";
+
+    private final ConcurrentHashMap<String, Long> mIds = new ConcurrentHashMap<>();
+    // Incremented by every invalidation
+    private volatile int mGeneration;
+    // The ids of the batch applied by this thread, null outside of a batch
+    private final ThreadLocal<Batch> mBatch = new ThreadLocal<>();
+
+    private static class Batch {
+        final Map<String, Long> ids = new HashMap<>();
+        int generation;
+    }
+
+    /**
+     * Loads the ids of every location.
+     */
+    void warm(SQLiteDatabase db) {
+        int generation = mGeneration;
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME, LOCATION_COLUMNS, null, null, null,
+                null, null);
+        try {
+            while (cursor.moveToNext()) {
+                put(generation, cursor.getString(COL_LOCATION_SETTING),
+                        cursor.getLong(COL_LOCATION_ID));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * The id of the location, or -1 if there is no such location.
+     */
+    long get(SQLiteDatabase db, String locationSetting) {
+        Batch batch = mBatch.get();
+        Long id = batch != null ? batch.ids.get(locationSetting) : null;
+        if (id != null) {
+            return id;
+        }
+        id = mIds.get(locationSetting);
+        if (id != null) {
+            return id;
+        }
+        int generation = mGeneration;
+        long locationId = query(db, locationSetting);
+        if (locationId != -1) {
+            put(generation, locationSetting, locationId);
+        }
+        return locationId;
+    }
+
+    /**
+     * Inserts a location {@link #get} didn't find, and returns its id.  Safe when several syncs
+     * insert the same location at once: the location setting is unique, so all inserts but one
+     * are ignored, and they all return the id of the one that went through.
+     *
+     * @return the id of the location, or -1 if it couldn't be inserted.
+     */
+    long insert(SQLiteDatabase db, String locationSetting, ContentValues values) {
+        int generation = mGeneration;
+        long locationId;
+        db.beginTransaction();
+        try {
+            values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+            locationId = db.insertWithOnConflict(LocationEntry.TABLE_NAME, null, values,
+                    SQLiteDatabase.CONFLICT_IGNORE);
+            if (locationId == -1) {
+                locationId = query(db, locationSetting);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (locationId != -1) {
+            put(generation, locationSetting, locationId);
+        }
+        return locationId;
+    }
+
+    /**
+     * Keeps the ids this thread reads or inserts aside until {@link #endBatch} is called.
+     */
+    void beginBatch() {
+        Batch batch = new Batch();
+        batch.generation = mGeneration;
+        mBatch.set(batch);
+    }
+
+    /**
+     * Caches the ids kept aside since {@link #beginBatch} if the batch committed, forgets them
+     * otherwise.
+     */
+    void endBatch(boolean committed) {
+        Batch batch = mBatch.get();
+        mBatch.remove();
+        if (batch != null && committed) {
+            for (Map.Entry<String, Long> entry : batch.ids.entrySet()) {
+                put(batch.generation, entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Forgets every id, after a location was updated or deleted.
+     */
+    synchronized void invalidate() {
+        mGeneration++;
+        mIds.clear();
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.ids.clear();
+            batch.generation = mGeneration;
+        }
+    }
+
+    private synchronized void put(int generation, String locationSetting, long locationId) {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            // Only once the batch commits
+            batch.ids.put(locationSetting, locationId);
+        } else if (generation == mGeneration) {
+            // Not if the location changed since the id was read
+            mIds.put(locationSetting, locationId);
+        }
+    }
+
+    private static long query(SQLiteDatabase db, String locationSetting) {
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME, LOCATION_COLUMNS,
+                sLocationSettingSelection, new String[]{locationSetting}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(COL_LOCATION_ID) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+}
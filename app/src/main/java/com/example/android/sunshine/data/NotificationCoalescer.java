@@ -0,0 +1,156 @@
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+import com.example.android.sunshine.R;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Holds content notifications back for a short window, then sends each distinct one once.  A
+ * sync or a preference change notifies the same URIs several times in a row, and every
+ * notification makes the loaders watching them query again.
+ * <p/>
+ * URIs are merged by prefix: a notification of content://authority/weather already reaches the
+ * observers of content://authority/weather/94043, so the latter is dropped when both are
+ * pending.  Notifications are sent from a background thread, at most one window after the
+ * first of them was asked for.
+ * <p/>
+ * The window comes from {@code R.integer.notification_window_millis}; 0 sends every
+ * notification at once, as ContentResolver would.
+ */
+public class NotificationCoalescer {
+    private static final String LOG_TAG = NotificationCoalescer.class.getSimpleName();
+
+    private static NotificationCoalescer sInstance;
+
+    private final ContentResolver mResolver;
+    private final Handler mHandler;
+    private final List<Uri> mPending = new ArrayList<>();
+    private long mWindowMillis;
+    // Notifications asked for and actually sent, for the dump
+    private int mRequested;
+    private int mSent;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * The coalescer shared by the provider and the app's components.
+     */
+    public static synchronized NotificationCoalescer getInstance(Context context) {
+        if (sInstance == null) {
+            // Not an activity's, which the resolver would keep alive
+            if (context.getApplicationContext() != null) {
+                context = context.getApplicationContext();
+            }
+            HandlerThread thread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            sInstance = new NotificationCoalescer(context.getContentResolver(),
+                    thread.getLooper(),
+                    context.getResources().getInteger(R.integer.notification_window_millis));
+        }
+        return sInstance;
+    }
+
+    NotificationCoalescer(ContentResolver resolver, Looper looper, long windowMillis) {
+        mResolver = resolver;
+        mHandler = new Handler(looper);
+        mWindowMillis = windowMillis;
+    }
+
+    /**
+     * Notifies the observers of the URI (and of its descendants) by the end of the window.
+     */
+    public void notifyChange(Uri uri) {
+        synchronized (this) {
+            mRequested++;
+            if (mWindowMillis > 0) {
+                if (mPending.isEmpty()) {
+                    mHandler.postDelayed(mFlush, mWindowMillis);
+                }
+                add(uri);
+                return;
+            }
+            mSent++;
+        }
+        mResolver.notifyChange(uri, null);
+    }
+
+    /*
+        Lets a test change the window; what is pending is sent right away.
+     */
+    void setWindowMillis(long windowMillis) {
+        synchronized (this) {
+            mWindowMillis = windowMillis;
+        }
+        flush();
+    }
+
+    /*
+        Sends the pending notifications now.
+     */
+    void flush() {
+        Uri[] uris;
+        synchronized (this) {
+            mHandler.removeCallbacks(mFlush);
+            uris = mPending.toArray(new Uri[mPending.size()]);
+            mPending.clear();
+            mSent += uris.length;
+        }
+        for (Uri uri : uris) {
+            mResolver.notifyChange(uri, null);
+        }
+    }
+
+    synchronized void dump(PrintWriter writer) {
+        writer.println("Notifications: " + mRequested + " asked for, " + mSent + " sent, "
+                + mPending.size() + " pending, window " + mWindowMillis + "ms");
+    }
+
+    /* Called with the lock held */
+    private void add(Uri uri) {
+        for (Iterator<Uri> it = mPending.iterator(); it.hasNext(); ) {
+            Uri pending = it.next();
+            if (isPrefix(pending, uri)) {
+                // Already covered, or a duplicate
+                return;
+            }
+            if (isPrefix(uri, pending)) {
+                it.remove();
+            }
+        }
+        mPending.add(uri);
+    }
+
+    /*
+        Whether notifying prefix reaches the observers of uri, which ContentService decides on the
+        authority and the path segments alone.
+     */
+    private static boolean isPrefix(Uri prefix, Uri uri) {
+        if (!equals(prefix.getAuthority(), uri.getAuthority())) {
+            return false;
+        }
+        List<String> prefixSegments = prefix.getPathSegments();
+        List<String> segments = uri.getPathSegments();
+        return prefixSegments.size() <= segments.size()
+                && prefixSegments.equals(segments.subList(0, prefixSegments.size()));
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.android.sunshine.data;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Moves the {@link DayNormalizer} to the new zone when the device's time zone changes, so
+ * the days stored from then on are the days the user sees.
+ */
+public class TimeZoneReceiver extends BroadcastReceiver {
+
+    // Extra of ACTION_TIMEZONE_CHANGED holding the id of the new zone
+    private static final String EXTRA_TIME_ZONE = "time-zone";
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (Intent.ACTION_TIMEZONE_CHANGED.equals(intent.getAction())) {
+            // Taken from the intent: this process's default zone may not be updated yet
+            DayNormalizer.getDefault().onTimeZoneChanged(intent.getStringExtra(EXTRA_TIME_ZONE));
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.Calendar;
+
+/**
+ * Applies the retention policy of each location to the weather table: days older than the
+ * location's retention are downsampled into one archive row per week or month (or just dropped
+ * if the location doesn't archive), and removed from the weather table.
+ * <p/>
+ * The work is done one period at a time, each in its own short transaction, so readers are
+ * only ever blocked for the time it takes to fold about a month of rows.  A call stops once
+ * its time budget is spent and the next one picks up where it left off, since what is left to
+ * do is simply what is still in the weather table.
+ * <p/>
+ * A period is only archived once all of its days are past the retention, so the archive
+ * never holds half a week.
+ */
+public class WeatherArchiver {
+    private static final String LOG_TAG = WeatherArchiver.class.getSimpleName();
+
+    // Rows removed per transaction for locations that don't archive
+    private static final int DELETE_BATCH_SIZE = 200;
+
+    private static final String[] LOCATION_POLICY_COLUMNS = {
+            LocationEntry._ID,
+            LocationEntry.COLUMN_RETENTION_DAYS,
+            LocationEntry.COLUMN_ARCHIVE_PERIOD
+    };
+
+    private static final String[] ARCHIVE_COLUMNS = {
+            ArchiveEntry.COLUMN_DAYS,
+            ArchiveEntry.COLUMN_MIN_TEMP,
+            ArchiveEntry.COLUMN_MAX_TEMP,
+            ArchiveEntry.COLUMN_MEAN_TEMP,
+            ArchiveEntry.COLUMN_WEATHER_ID
+    };
+
+    // location_id = ? AND date < ?
+    private static final String sExpiredSelection =
+            WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " < ? ";
+
+    // location_id = ? AND date >= ? AND date < ?
+    private static final String sPeriodSelection =
+            WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " >= ? AND " +
+                    WeatherEntry.COLUMN_DATE + " < ? ";
+
+    /**
+     * What a call to {@link #compact(SQLiteDatabase, long, long)} did.
+     */
+    public static class Result {
+        // Weather rows removed, archived or not
+        public int rowsRemoved;
+        public int periodsArchived;
+        // False if the time budget ran out before everything was compacted
+        public boolean done = true;
+    }
+
+    /**
+     * Compacts every location, for at most budgetMillis.
+     *
+     * @param db           the writable weather database
+     * @param now          the current time, the retention is counted from its day
+     * @param budgetMillis how long the call may run.  It is checked between transactions, so
+     *                     the last one can go slightly over.
+     */
+    public static Result compact(SQLiteDatabase db, long now, long budgetMillis) {
+        long deadline = SystemClock.uptimeMillis() + budgetMillis;
+        Result result = new Result();
+        long today = WeatherContract.normalizeDate(now);
+
+        Cursor locations = db.query(LocationEntry.TABLE_NAME, LOCATION_POLICY_COLUMNS,
+                null, null, null, null, null);
+        try {
+            while (locations.moveToNext()) {
+                long locationId = locations.getLong(0);
+                int retentionDays = locations.getInt(1);
+                String period = locations.getString(2);
+                long cutoff = addDays(today, -retentionDays);
+
+                boolean locationDone;
+                if (LocationEntry.ARCHIVE_PERIOD_WEEK.equals(period)
+                        || LocationEntry.ARCHIVE_PERIOD_MONTH.equals(period)) {
+                    locationDone = archiveExpired(db, locationId, period, cutoff, deadline, result);
+                } else {
+                    locationDone = deleteExpired(db, locationId, cutoff, deadline, result);
+                }
+                if (!locationDone) {
+                    result.done = false;
+                    break;
+                }
+            }
+        } finally {
+            locations.close();
+        }
+        Log.d(LOG_TAG, "Removed " + result.rowsRemoved + " rows, archived "
+                + result.periodsArchived + " periods" + (result.done ? "" : ", not done yet"));
+        return result;
+    }
+
+    /*
+        Folds the expired days of a location, oldest period first.  Returns false if the deadline
+        was hit before everything was archived.
+     */
+    private static boolean archiveExpired(SQLiteDatabase db, long locationId, String period,
+                                          long cutoff, long deadline, Result result) {
+        while (true) {
+            long oldest = getOldestDate(db, locationId, cutoff);
+            if (oldest == -1) {
+                return true;
+            }
+            long start = getPeriodStart(oldest, period);
+            long end = getPeriodEnd(start, period);
+            if (end > cutoff) {
+                // The oldest period still has days within the retention, it waits for them
+                return true;
+            }
+            if (SystemClock.uptimeMillis() >= deadline) {
+                return false;
+            }
+
+            db.beginTransactionNonExclusive();
+            try {
+                result.rowsRemoved += archivePeriod(db, locationId, period, start, end);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            result.periodsArchived++;
+        }
+    }
+
+    private static boolean deleteExpired(SQLiteDatabase db, long locationId, long cutoff,
+                                         long deadline, Result result) {
+        String[] args = new String[]{Long.toString(locationId), Long.toString(cutoff)};
+        while (true) {
+            if (SystemClock.uptimeMillis() >= deadline) {
+                return getOldestDate(db, locationId, cutoff) == -1;
+            }
+            // SQLite on Android isn't built with DELETE ... LIMIT, hence the sub-select
+            int deleted = db.delete(WeatherStore.TABLE_NAME,
+                    WeatherEntry._ID + " IN (SELECT " + WeatherEntry._ID + " FROM " +
+                            WeatherStore.TABLE_NAME + " WHERE " + sExpiredSelection +
+                            " LIMIT " + DELETE_BATCH_SIZE + ")",
+                    args);
+            result.rowsRemoved += deleted;
+            if (deleted < DELETE_BATCH_SIZE) {
+                return true;
+            }
+        }
+    }
+
+    /*
+        Adds the days of [start, end) to the archive row of that period, and removes them from the
+        weather table.  Must be called within a transaction.
+     */
+    private static int archivePeriod(SQLiteDatabase db, long locationId, String period,
+                                     long start, long end) {
+        String[] args = new String[]{Long.toString(locationId), Long.toString(start),
+                Long.toString(end)};
+
+        Cursor aggregate = db.query(WeatherEntry.TABLE_NAME, new String[]{
+                        "COUNT(*)",
+                        "MIN(" + WeatherEntry.COLUMN_MIN_TEMP + ")",
+                        "MAX(" + WeatherEntry.COLUMN_MAX_TEMP + ")",
+                        "AVG((" + WeatherEntry.COLUMN_MIN_TEMP + " + "
+                                + WeatherEntry.COLUMN_MAX_TEMP + ") / 2)"},
+                sPeriodSelection, args, null, null, null);
+        int days;
+        double min;
+        double max;
+        double mean;
+        try {
+            aggregate.moveToFirst();
+            days = aggregate.getInt(0);
+            min = aggregate.getDouble(1);
+            max = aggregate.getDouble(2);
+            mean = aggregate.getDouble(3);
+        } finally {
+            aggregate.close();
+        }
+        if (days == 0) {
+            return 0;
+        }
+
+        // Most frequent condition, ties go to the lowest (most severe) weather id
+        int weatherId;
+        Cursor dominant = db.query(WeatherEntry.TABLE_NAME,
+                new String[]{WeatherEntry.COLUMN_WEATHER_ID},
+                sPeriodSelection, args, WeatherEntry.COLUMN_WEATHER_ID, null,
+                "COUNT(*) DESC, " + WeatherEntry.COLUMN_WEATHER_ID + " ASC", "1");
+        try {
+            dominant.moveToFirst();
+            weatherId = dominant.getInt(0);
+        } finally {
+            dominant.close();
+        }
+
+        // Days of this period may have been archived before (e.g. a sync brought an old day
+        // back), those are merged in.
+        Cursor existing = db.query(ArchiveEntry.TABLE_NAME, ARCHIVE_COLUMNS,
+                ArchiveEntry.COLUMN_LOC_KEY + " = ? AND " + ArchiveEntry.COLUMN_PERIOD + " = ? AND "
+                        + ArchiveEntry.COLUMN_START_DATE + " = ?",
+                new String[]{Long.toString(locationId), period, Long.toString(start)},
+                null, null, null);
+        try {
+            if (existing.moveToFirst()) {
+                int archivedDays = existing.getInt(0);
+                min = Math.min(min, existing.getDouble(1));
+                max = Math.max(max, existing.getDouble(2));
+                mean = (mean * days + existing.getDouble(3) * archivedDays)
+                        / (days + archivedDays);
+                // The per condition counts aren't archived, keep the condition of the larger part
+                if (archivedDays > days) {
+                    weatherId = existing.getInt(4);
+                }
+                days += archivedDays;
+            }
+        } finally {
+            existing.close();
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(ArchiveEntry.COLUMN_LOC_KEY, locationId);
+        values.put(ArchiveEntry.COLUMN_PERIOD, period);
+        values.put(ArchiveEntry.COLUMN_START_DATE, start);
+        values.put(ArchiveEntry.COLUMN_END_DATE, end);
+        values.put(ArchiveEntry.COLUMN_DAYS, days);
+        values.put(ArchiveEntry.COLUMN_MIN_TEMP, min);
+        values.put(ArchiveEntry.COLUMN_MAX_TEMP, max);
+        values.put(ArchiveEntry.COLUMN_MEAN_TEMP, mean);
+        values.put(ArchiveEntry.COLUMN_WEATHER_ID, weatherId);
+        db.insertOrThrow(ArchiveEntry.TABLE_NAME, null, values);
+
+        // The selection is on stored columns, no need to go through the view
+        return db.delete(WeatherStore.TABLE_NAME, sPeriodSelection, args);
+    }
+
+    private static long getOldestDate(SQLiteDatabase db, long locationId, long cutoff) {
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME,
+                new String[]{"MIN(" + WeatherEntry.COLUMN_DATE + ")"},
+                sExpiredSelection,
+                new String[]{Long.toString(locationId), Long.toString(cutoff)},
+                null, null, null);
+        try {
+            if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                return cursor.getLong(0);
+            }
+            return -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+        Periods follow the local calendar, like the normalized dates: weeks start on the locale's
+        first day of the week, months on the 1st.
+     */
+    static long getPeriodStart(long date, String period) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(date);
+        if (LocationEntry.ARCHIVE_PERIOD_MONTH.equals(period)) {
+            calendar.set(Calendar.DAY_OF_MONTH, 1);
+        } else {
+            int daysIntoWeek = (calendar.get(Calendar.DAY_OF_WEEK)
+                    - calendar.getFirstDayOfWeek() + 7) % 7;
+            calendar.add(Calendar.DAY_OF_MONTH, -daysIntoWeek);
+        }
+        return WeatherContract.normalizeDate(calendar.getTimeInMillis());
+    }
+
+    static long getPeriodEnd(long start, String period) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(start);
+        if (LocationEntry.ARCHIVE_PERIOD_MONTH.equals(period)) {
+            calendar.add(Calendar.MONTH, 1);
+        } else {
+            calendar.add(Calendar.DAY_OF_MONTH, 7);
+        }
+        return WeatherContract.normalizeDate(calendar.getTimeInMillis());
+    }
+
+    private static long addDays(long date, int days) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(date);
+        calendar.add(Calendar.DAY_OF_MONTH, days);
+        return WeatherContract.normalizeDate(calendar.getTimeInMillis());
+    }
+}
@@ -0,0 +1,485 @@
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.support.v4.util.AtomicFile;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A compact copy of the locations and their weather, restored into the database when it is
+ * created empty (after a reinstall, or a restore of the app's backup on a new device) so there
+ * is something to show before the first sync completes.  The database itself is left out of
+ * the app's backup, this file is much smaller (see res/xml/backup_rules.xml).
+ * <p/>
+ * The file is a header (magic, version, size of the last whole write) followed by segments,
+ * each one location and some of its days: a sync appends the segment of the days it stored,
+ * and restoring replays the segments in order, later days replacing earlier ones.  Once the
+ * appends have made the file {@link #REWRITE_FACTOR} times as large as it was last written as
+ * a whole, it is written again, one segment per location, so it stays proportional to what
+ * the database holds however many locations there are.
+ * <pre>
+ * segment  payload length, CRC32 of the payload, payload
+ * payload  location setting, city name, latitude, longitude, retention days, archive period,
+ *          descriptions (count, then each), days (count, then each: date, weather id,
+ *          description index, then min, max, humidity, pressure, wind speed and degrees
+ *          scaled to integers as the weather table stores them)
+ * </pre>
+ * A segment cut short by a crash is dropped, by the next append or by the restore.  Whole
+ * writes go through an {@link AtomicFile}, a crash during one leaves the previous file.
+ */
+public class WeatherBackup {
+    private static final String LOG_TAG = WeatherBackup.class.getSimpleName();
+
+    private static final String FILE_NAME = "weather.bak";
+
+    private static final int MAGIC = 0x53574242; // "SWBB"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 12;
+    private static final int SEGMENT_HEADER_SIZE = 8;
+
+    static final int REWRITE_FACTOR = 2;
+
+    private static final String[] LOCATION_COLUMNS = {
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            LocationEntry.COLUMN_CITY_NAME,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG,
+            LocationEntry.COLUMN_RETENTION_DAYS,
+            LocationEntry.COLUMN_ARCHIVE_PERIOD
+    };
+    private static final int COL_LOCATION_SETTING = 0;
+    private static final int COL_CITY_NAME = 1;
+    private static final int COL_COORD_LAT = 2;
+    private static final int COL_COORD_LONG = 3;
+    private static final int COL_RETENTION_DAYS = 4;
+    private static final int COL_ARCHIVE_PERIOD = 5;
+
+    // The weather columns, the scaled ones last in the order of SCALED_COLUMNS
+    private static final String[] WEATHER_COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+    private static final int COL_DATE = 0;
+    private static final int COL_WEATHER_ID = 1;
+    private static final int COL_SHORT_DESC = 2;
+    private static final int COL_FIRST_SCALED = 3;
+    private static final String[] SCALED_COLUMNS = {
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    private static final String sLocationSettingSelection =
+            LocationEntry.COLUMN_LOCATION_SETTING + " = ?";
+
+    /**
+     * Adds the days of the location from startDate on, once a sync stored them.  This hits the
+     * ContentProvider, so it should not be called from the UI thread.
+     */
+    public static synchronized void append(Context context, String locationSetting,
+                                           long startDate) {
+        File file = getFile(context);
+        recover(file);
+        if (needsRewrite(file)) {
+            write(context);
+            return;
+        }
+        ContentResolver resolver = context.getContentResolver();
+        byte[] segment;
+        try {
+            segment = encodeSegment(resolver, locationSetting,
+                    WeatherEntry.buildWeatherLocationWithStartDate(locationSetting, startDate));
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error encoding the weather backup", e);
+            return;
+        }
+        if (segment == null) {
+            return;
+        }
+        RandomAccessFile out = null;
+        try {
+            out = new RandomAccessFile(file, "rw");
+            // After the last whole segment, over what a crash may have left of another one
+            out.setLength(findEnd(out));
+            out.seek(out.length());
+            out.write(segment);
+            out.getFD().sync();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error appending to the weather backup", e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes every location and all their days, replacing the whole file.
+     */
+    public static synchronized void write(Context context) {
+        ContentResolver resolver = context.getContentResolver();
+        List<String> locationSettings = new ArrayList<>();
+        Cursor cursor = resolver.query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry.COLUMN_LOCATION_SETTING}, null, null, null);
+        if (cursor == null) {
+            return;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                locationSettings.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        // Encoded first, the header holds the size of the whole file
+        List<byte[]> segments = new ArrayList<>(locationSettings.size());
+        int size = HEADER_SIZE;
+        try {
+            for (String locationSetting : locationSettings) {
+                byte[] segment = encodeSegment(resolver, locationSetting,
+                        WeatherEntry.buildWeatherLocation(locationSetting));
+                if (segment != null) {
+                    segments.add(segment);
+                    size += segment.length;
+                }
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error encoding the weather backup", e);
+            return;
+        }
+
+        AtomicFile file = new AtomicFile(getFile(context));
+        FileOutputStream out = null;
+        try {
+            out = file.startWrite();
+            DataOutputStream header = new DataOutputStream(out);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            header.writeInt(size);
+            for (byte[] segment : segments) {
+                out.write(segment);
+            }
+            file.finishWrite(out);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error writing the weather backup", e);
+            file.failWrite(out);
+        }
+    }
+
+    /**
+     * Inserts what the file holds into the database, in one transaction, through the weather
+     * table's compiled insert.  Stops at the first damaged segment.
+     *
+     * @return the number of days restored.
+     */
+    static int restore(File file, SQLiteDatabase db) {
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new AtomicFile(file).openRead()));
+        } catch (FileNotFoundException e) {
+            return 0;
+        }
+        long fileLength = file.length();
+        int days = 0;
+        db.beginTransaction();
+        WeatherStore.Inserter inserter = new WeatherStore.Inserter(db);
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Log.w(LOG_TAG, "Not a weather backup: " + file);
+                return 0;
+            }
+            // The size of the last whole write, only appends need it
+            in.readInt();
+            Map<String, Long> locationIds = new HashMap<>();
+            CRC32 crc = new CRC32();
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                int expectedCrc = in.readInt();
+                if (length < 0 || length > fileLength) {
+                    Log.w(LOG_TAG, "Damaged segment in the weather backup, the rest is dropped");
+                    break;
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != expectedCrc) {
+                    Log.w(LOG_TAG, "Damaged segment in the weather backup, the rest is dropped");
+                    break;
+                }
+                days += restoreSegment(db, inserter, payload, locationIds);
+            }
+            db.setTransactionSuccessful();
+        } catch (EOFException e) {
+            // A segment cut short, what came before it is kept
+            db.setTransactionSuccessful();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error reading the weather backup", e);
+            days = 0;
+        } finally {
+            inserter.close();
+            db.endTransaction();
+            try {
+                in.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error closing stream", e);
+            }
+        }
+        return days;
+    }
+
+    public static synchronized void delete(Context context) {
+        new AtomicFile(getFile(context)).delete();
+    }
+
+    static File getFile(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    /*
+        The segment of the location and of the days the URI returns, with its header, or null
+        if there is no such location.
+     */
+    private static byte[] encodeSegment(ContentResolver resolver, String locationSetting,
+                                        Uri weatherUri) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(payload);
+        Cursor location = resolver.query(LocationEntry.CONTENT_URI, LOCATION_COLUMNS,
+                sLocationSettingSelection, new String[]{locationSetting}, null);
+        if (location == null) {
+            return null;
+        }
+        try {
+            if (!location.moveToFirst()) {
+                return null;
+            }
+            out.writeUTF(location.getString(COL_LOCATION_SETTING));
+            out.writeUTF(location.getString(COL_CITY_NAME));
+            out.writeDouble(location.getDouble(COL_COORD_LAT));
+            out.writeDouble(location.getDouble(COL_COORD_LONG));
+            out.writeInt(location.getInt(COL_RETENTION_DAYS));
+            out.writeUTF(location.getString(COL_ARCHIVE_PERIOD));
+        } finally {
+            location.close();
+        }
+
+        // The days go after the descriptions they point to
+        ByteArrayOutputStream dayBytes = new ByteArrayOutputStream();
+        DataOutputStream days = new DataOutputStream(dayBytes);
+        List<String> descriptions = new ArrayList<>();
+        Map<String, Integer> descriptionIndexes = new HashMap<>();
+        int count = 0;
+        Cursor cursor = resolver.query(weatherUri, WEATHER_COLUMNS, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                String description = cursor.getString(COL_SHORT_DESC);
+                if (description == null) {
+                    description = "";
+                }
+                Integer index = descriptionIndexes.get(description);
+                if (index == null) {
+                    index = descriptions.size();
+                    descriptions.add(description);
+                    descriptionIndexes.put(description, index);
+                }
+                days.writeLong(cursor.getLong(COL_DATE));
+                days.writeInt(cursor.getInt(COL_WEATHER_ID));
+                days.writeShort(index);
+                for (int i = 0; i < SCALED_COLUMNS.length; i++) {
+                    days.writeInt((int) Math.round(
+                            cursor.getDouble(COL_FIRST_SCALED + i) * WeatherStore.SCALE));
+                }
+                count++;
+            }
+        } finally {
+            cursor.close();
+        }
+        out.writeShort(descriptions.size());
+        for (String description : descriptions) {
+            out.writeUTF(description);
+        }
+        out.writeInt(count);
+        days.flush();
+        dayBytes.writeTo(out);
+        out.flush();
+
+        CRC32 crc = new CRC32();
+        byte[] bytes = payload.toByteArray();
+        crc.update(bytes, 0, bytes.length);
+        ByteArrayOutputStream segment = new ByteArrayOutputStream(
+                SEGMENT_HEADER_SIZE + bytes.length);
+        DataOutputStream header = new DataOutputStream(segment);
+        header.writeInt(bytes.length);
+        header.writeInt((int) crc.getValue());
+        header.write(bytes);
+        header.flush();
+        return segment.toByteArray();
+    }
+
+    private static int restoreSegment(SQLiteDatabase db, WeatherStore.Inserter inserter,
+                                      byte[] payload, Map<String, Long> locationIds)
+            throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        String locationSetting = in.readUTF();
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_CITY_NAME, in.readUTF());
+        values.put(LocationEntry.COLUMN_COORD_LAT, in.readDouble());
+        values.put(LocationEntry.COLUMN_COORD_LONG, in.readDouble());
+        values.put(LocationEntry.COLUMN_RETENTION_DAYS, in.readInt());
+        values.put(LocationEntry.COLUMN_ARCHIVE_PERIOD, in.readUTF());
+        Long locationId = locationIds.get(locationSetting);
+        if (locationId == null) {
+            locationId = insertLocation(db, locationSetting, values);
+            locationIds.put(locationSetting, locationId);
+        }
+
+        String[] descriptions = new String[in.readUnsignedShort()];
+        for (int i = 0; i < descriptions.length; i++) {
+            descriptions[i] = in.readUTF();
+        }
+        int count = in.readInt();
+        ContentValues day = new ContentValues();
+        for (int i = 0; i < count; i++) {
+            day.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+            day.put(WeatherEntry.COLUMN_DATE, in.readLong());
+            day.put(WeatherEntry.COLUMN_WEATHER_ID, in.readInt());
+            day.put(WeatherEntry.COLUMN_SHORT_DESC, descriptions[in.readUnsignedShort()]);
+            for (String column : SCALED_COLUMNS) {
+                day.put(column, (double) in.readInt() / WeatherStore.SCALE);
+            }
+            if (inserter.insert(day) == -1) {
+                throw new IOException("Couldn't restore a day of " + locationSetting);
+            }
+        }
+        return count;
+    }
+
+    /*
+        Inserts the location, or gets the id of the one already there.
+     */
+    private static long insertLocation(SQLiteDatabase db, String locationSetting,
+                                       ContentValues values) {
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        long locationId = db.insertWithOnConflict(LocationEntry.TABLE_NAME, null, values,
+                SQLiteDatabase.CONFLICT_IGNORE);
+        if (locationId != -1) {
+            return locationId;
+        }
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME, new String[]{LocationEntry._ID},
+                sLocationSettingSelection, new String[]{locationSetting}, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+        Whether the file has to be written as a whole rather than appended to: it isn't a backup
+        of this version, or the appends made it REWRITE_FACTOR times its last whole write.
+     */
+    private static boolean needsRewrite(File file) {
+        if (file.length() < HEADER_SIZE) {
+            return true;
+        }
+        RandomAccessFile in = null;
+        try {
+            in = new RandomAccessFile(file, "r");
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return true;
+            }
+            return in.length() >= (long) REWRITE_FACTOR * in.readInt();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error reading the weather backup", e);
+            return true;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+        }
+    }
+
+    /*
+        Puts back the previous file if a whole write was cut short, before appending to it.
+     */
+    private static void recover(File file) {
+        try {
+            new AtomicFile(file).openRead().close();
+        } catch (FileNotFoundException e) {
+            // No backup yet
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error closing stream", e);
+        }
+    }
+
+    /*
+        The end of the last whole segment.
+     */
+    private static long findEnd(RandomAccessFile file) throws IOException {
+        long length = file.length();
+        long end = HEADER_SIZE;
+        while (end + SEGMENT_HEADER_SIZE <= length) {
+            file.seek(end);
+            int segmentLength = file.readInt();
+            long next = end + SEGMENT_HEADER_SIZE + segmentLength;
+            if (segmentLength < 0 || next > length) {
+                break;
+            }
+            end = next;
+        }
+        return Math.min(end, length);
+    }
+}
@@ -4,7 +4,6 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
-import android.text.format.Time;
 
 /**
  * Defines table and column names for the weather database.
@@ -28,15 +27,37 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_ARCHIVE = "archive";
+    public static final String PATH_NEAR = "near";
+    public static final String PATH_EXPORT = "export";
+
+    // ContentResolver.call() method applying the retention policies, see WeatherArchiver.
+    // Takes a time budget in EXTRA_BUDGET_MILLIS, and tells in EXTRA_DONE whether everything
+    // got compacted within it.
+    public static final String METHOD_COMPACT = "compact";
+    public static final String EXTRA_BUDGET_MILLIS = "budget_millis";
+    public static final String EXTRA_DONE = "done";
+
+    // ContentResolver.call() method copying the write-ahead log back into the database, which is
+    // kept from happening in the middle of a sync.  Call it once the sync is done.
+    public static final String METHOD_CHECKPOINT = "checkpoint";
+
+    // ContentResolver.call() method reading the forecast of the location setting in arg, from
+    // EXTRA_START_DATE until EXTRA_END_DATE (excluded), as packed arrays: see ForecastArrays.
+    public static final String METHOD_GET_FORECAST = "getForecast";
+    public static final String EXTRA_START_DATE = "start_date";
+    public static final String EXTRA_END_DATE = "end_date";
+
+    // ContentResolver.call() method returning in EXTRA_LOCATION_ID the row id of the location
+    // setting in arg, -1 if there is none.  With the city name and coordinates in the extras
+    // (keyed by their LocationEntry column), a missing location is inserted first.
+    public static final String METHOD_GET_LOCATION_ID = "getLocationId";
+    public static final String EXTRA_LOCATION_ID = "location_id";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
-    // the database to the start of the the Julian day at UTC.
+    // the database to the start of the the Julian day, see DayNormalizer.
     public static long normalizeDate(long startDate) {
-        // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
-        time.set(startDate);
-        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
-        return time.setJulianDay(julianDay);
+        return DayNormalizer.getDefault().normalize(startDate);
     }
 
     /* Inner class that defines the table contents of the location table */
@@ -66,9 +87,157 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // Retention policy of the location: how many days of raw weather are kept (counting back
+        // from today), and into which period older days are downsampled in the archive table.
+        public static final String COLUMN_RETENTION_DAYS = "retention_days";
+        public static final String COLUMN_ARCHIVE_PERIOD = "archive_period";
+
+        public static final int DEFAULT_RETENTION_DAYS = 30;
+
+        // Values of COLUMN_ARCHIVE_PERIOD.  "none" drops the expired days without archiving them.
+        public static final String ARCHIVE_PERIOD_NONE = "none";
+        public static final String ARCHIVE_PERIOD_WEEK = "week";
+        public static final String ARCHIVE_PERIOD_MONTH = "month";
+
+        // The cell of the coordinates in the grid the proximity queries go through, set by the
+        // database itself.
+        public static final String COLUMN_GRID_CELL = "grid_cell";
+
+        // Only in the rows of a proximity query: the distance to its point, in kilometers.
+        public static final String COLUMN_DISTANCE = "distance";
+
+        // Query parameters of a proximity query.  Without a radius the nearest locations are
+        // returned however far they are, without a limit only the nearest one.
+        public static final String PARAM_LAT = "lat";
+        public static final String PARAM_LONG = "lon";
+        public static final String PARAM_RADIUS_KM = "radius_km";
+        public static final String PARAM_LIMIT = "limit";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
+
+        /*
+            The locations within radiusKm of the point, nearest first, at most limit of them.
+         */
+        public static Uri buildLocationNearUri(double lat, double lon, double radiusKm,
+                                               int limit) {
+            return buildLocationNearestUri(lat, lon, limit).buildUpon()
+                    .appendQueryParameter(PARAM_RADIUS_KM, Double.toString(radiusKm)).build();
+        }
+
+        /*
+            The limit locations nearest to the point, nearest first.
+         */
+        public static Uri buildLocationNearestUri(double lat, double lon, int limit) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_NEAR)
+                    .appendQueryParameter(PARAM_LAT, Double.toString(lat))
+                    .appendQueryParameter(PARAM_LONG, Double.toString(lon))
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit)).build();
+        }
+    }
+
+    /* Inner class that defines the table contents of the weather archive table, where the weather
+       older than the retention of its location ends up, one row per week or month. */
+    public static final class ArchiveEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_ARCHIVE).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ARCHIVE;
+
+        public static final String TABLE_NAME = "weather_archive";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // LocationEntry.ARCHIVE_PERIOD_WEEK or LocationEntry.ARCHIVE_PERIOD_MONTH
+        public static final String COLUMN_PERIOD = "period";
+        // First day of the period, and first day of the next one, normalized like the weather
+        // dates.  Stored as longs in milliseconds since the epoch.
+        public static final String COLUMN_START_DATE = "start_date";
+        public static final String COLUMN_END_DATE = "end_date";
+        // Number of days of the period that were actually in the weather table
+        public static final String COLUMN_DAYS = "days";
+
+        // Lowest min, highest max, and mean of the daily (min + max) / 2, in Celsius
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+        public static final String COLUMN_MEAN_TEMP = "mean";
+        // Most frequent weather id of the period
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+
+        public static Uri buildArchiveLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+    }
+
+    /* Inner class that defines the export of the weather table: ContentResolver.openInputStream()
+       on one of its URIs streams the forecasts of a set of locations over a range of dates, as
+       CSV (with a header line) or as one JSON object per line. */
+    public static final class ExportEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_EXPORT).build();
+
+        public static final String FORMAT_CSV = "csv";
+        public static final String FORMAT_NDJSON = "ndjson";
+
+        public static final String MIME_TYPE_CSV = "text/csv";
+        public static final String MIME_TYPE_NDJSON = "application/x-ndjson";
+
+        // Query parameters: the format, the location settings (repeated, all the locations
+        // without any), and the dates from PARAM_START_DATE until PARAM_END_DATE (excluded).
+        public static final String PARAM_FORMAT = "format";
+        public static final String PARAM_LOCATION = "location";
+        public static final String PARAM_START_DATE = "start_date";
+        public static final String PARAM_END_DATE = "end_date";
+
+        // The fields of every row, in order
+        public static final String[] COLUMNS = {
+                LocationEntry.COLUMN_LOCATION_SETTING,
+                WeatherEntry.COLUMN_DATE,
+                WeatherEntry.COLUMN_WEATHER_ID,
+                WeatherEntry.COLUMN_SHORT_DESC,
+                WeatherEntry.COLUMN_MIN_TEMP,
+                WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherEntry.COLUMN_HUMIDITY,
+                WeatherEntry.COLUMN_PRESSURE,
+                WeatherEntry.COLUMN_WIND_SPEED,
+                WeatherEntry.COLUMN_DEGREES
+        };
+
+        public static Uri buildExportUri(String format, String[] locationSettings,
+                                         long startDate, long endDate) {
+            Uri.Builder builder = CONTENT_URI.buildUpon()
+                    .appendQueryParameter(PARAM_FORMAT, format)
+                    .appendQueryParameter(PARAM_START_DATE, Long.toString(startDate))
+                    .appendQueryParameter(PARAM_END_DATE, Long.toString(endDate));
+            if (locationSettings != null) {
+                for (String locationSetting : locationSettings) {
+                    builder.appendQueryParameter(PARAM_LOCATION, locationSetting);
+                }
+            }
+            return builder.build();
+        }
+
+        /*
+            The MIME type of the export, which tells its format.
+         */
+        public static String getMimeType(Uri uri) {
+            String format = uri.getQueryParameter(PARAM_FORMAT);
+            if (FORMAT_NDJSON.equals(format)) {
+                return MIME_TYPE_NDJSON;
+            }
+            if (format == null || FORMAT_CSV.equals(format)) {
+                return MIME_TYPE_CSV;
+            }
+            throw new IllegalArgumentException("Unknown export format: " + format);
+        }
     }
 
     /* Inner class that defines the table contents of the weather table */
@@ -111,6 +280,9 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Query parameter limiting the number of rows returned for a location
+        public static final String PARAM_LIMIT = "limit";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -129,6 +301,18 @@ public class WeatherContract {
                     .appendQueryParameter(COLUMN_DATE, Long.toString(normalizedDate)).build();
         }
 
+        /*
+            One page of the forecast of a location: at most limit rows, from startDate on.  The
+            start date is used as is (not normalized) so a page can start right after the last
+            date of the previous one.
+         */
+        public static Uri buildWeatherLocationPage(String locationSetting, long startDate,
+                                                   int limit) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(COLUMN_DATE, Long.toString(startDate))
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit)).build();
+        }
+
         public static Uri buildWeatherLocationWithDate(String locationSetting, long date) {
             return CONTENT_URI.buildUpon().appendPath(locationSetting)
                     .appendPath(Long.toString(normalizeDate(date))).build();
@@ -149,5 +333,16 @@ public class WeatherContract {
             else
                 return 0;
         }
+
+        /*
+            Returns the row limit of a page URI, or null if there is none (all the rows)
+         */
+        public static String getLimitFromUri(Uri uri) {
+            String limitString = uri.getQueryParameter(PARAM_LIMIT);
+            if (null != limitString && limitString.length() > 0)
+                return Integer.toString(Integer.parseInt(limitString));
+            else
+                return null;
+        }
     }
 }
\ No newline at end of file
@@ -4,25 +4,137 @@ package com.example.android.sunshine.data;
  * Created by Elorri-user on 02/10/2015.
  */
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.util.Log;
 
+import com.example.android.sunshine.data.WeatherContract.ArchiveEntry;
 import com.example.android.sunshine.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
 
+import java.io.File;
+
 /**
  * Manages a local database for weather data.
+ * <p/>
+ * The database uses write-ahead logging, so the widgets, the Muzei source and the UI loaders can
+ * keep reading while a sync writes: readers get their own connections from the framework's pool
+ * (its size is set by the platform, not by apps) and see the last committed data.  Automatic
+ * checkpoints are pushed back so they don't happen in the middle of a sync, the sync asks for
+ * one when it is done (see {@link #checkpoint()}).
+ * <p/>
+ * A database created, or migrated, without weather is filled from the {@link WeatherBackup}
+ * as it is opened, so the app has something to show before its first sync.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
+    private static final String LOG_TAG = WeatherDbHelper.class.getSimpleName();
 
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 5;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // Pages the write-ahead log can grow to before a commit checkpoints it by itself.  The
+    // default (1000) is small enough for a long sync to hit it, this is about 16MB of 4KB pages.
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 4000;
+
+    private final boolean mWriteAheadLogging;
+    // The backup to restore from, only the app's database has one
+    private File mBackupFile;
+    // Set when the database was created or upgraded by this open
+    private boolean mRestoreBackup;
+
     public WeatherDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME, true);
+    }
+
+    /**
+     * @param name              the database file, or null for an in-memory database
+     * @param writeAheadLogging false to use the default rollback journal
+     */
+    public WeatherDbHelper(Context context, String name, boolean writeAheadLogging) {
+        super(context, name, null, DATABASE_VERSION);
+        mWriteAheadLogging = writeAheadLogging;
+        if (DATABASE_NAME.equals(name)) {
+            mBackupFile = WeatherBackup.getFile(context);
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLogging(writeAheadLogging);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void setWriteAheadLogging(boolean enabled) {
+        // Set either way, so the platform doesn't pick a journal mode for us
+        setWriteAheadLoggingEnabled(enabled);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (db.isReadOnly()) {
+            return;
+        }
+        if (mWriteAheadLogging) {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+                // No setWriteAheadLoggingEnabled() before Jelly Bean, it has to be done once open
+                db.enableWriteAheadLogging();
+            }
+            // After enabling the write-ahead log, which resets the checkpoint interval
+            pragma(db, "wal_autocheckpoint=" + WAL_AUTOCHECKPOINT_PAGES);
+        }
+        if (mRestoreBackup) {
+            mRestoreBackup = false;
+            restoreBackup(db);
+        }
+    }
+
+    /*
+        Fills the weather from the backup, if there is none.
+     */
+    private void restoreBackup(SQLiteDatabase db) {
+        if (mBackupFile == null || !mBackupFile.exists()
+                || DatabaseUtils.queryNumEntries(db, WeatherStore.TABLE_NAME) != 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        int days = WeatherBackup.restore(mBackupFile, db);
+        Log.i(LOG_TAG, days + " days restored from the backup in "
+                + (System.nanoTime() - start) / 1000000 + "ms");
+    }
+
+    /*
+        Lets a test restore a backup into a database of its own.
+     */
+    void setBackupFile(File backupFile) {
+        mBackupFile = backupFile;
+    }
+
+    /**
+     * Copies what the write-ahead log holds back into the database, without waiting for the
+     * readers.  Does nothing without write-ahead logging.
+     */
+    public void checkpoint() {
+        if (mWriteAheadLogging) {
+            pragma(getWritableDatabase(), "wal_checkpoint(PASSIVE)");
+        }
+    }
+
+    /*
+        Pragmas that return a row can't go through execSQL on every version.
+     */
+    private static void pragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
@@ -34,54 +146,75 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
                 LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
                 LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+                LocationEntry.COLUMN_RETENTION_DAYS + " INTEGER NOT NULL DEFAULT " +
+                LocationEntry.DEFAULT_RETENTION_DAYS + ", " +
+                LocationEntry.COLUMN_ARCHIVE_PERIOD + " TEXT NOT NULL DEFAULT '" +
+                LocationEntry.ARCHIVE_PERIOD_WEEK + "'" +
                 " );";
 
-        final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
-                // Why AutoIncrement here, and not above?
-                // Unique keys will be auto-generated in either case.  But for weather
-                // forecasting, it's reasonable to assume the user will want information
-                // for a certain date and all dates *following*, so the forecast data
-                // should be sorted accordingly.
-                WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
-
-                // the ID of the location entry associated with this weather data
-                WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
-                WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
-                WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
-                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
-
-                WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
-
-                WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
-
-                // Set up the location column as a foreign key to location table.
-                " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
-                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
+        mRestoreBackup = true;
+        // The grid cell of the coordinates, for the proximity queries
+        LocationGrid.create(sqLiteDatabase);
+        // The weather rows, behind the weather view
+        WeatherStore.create(sqLiteDatabase);
+        createArchiveTable(sqLiteDatabase);
+    }
 
-                // To assure the application have just one weather entry per day
-                // per location, it's created a UNIQUE constraint with REPLACE strategy
-                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
-                WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
+    private static void createArchiveTable(SQLiteDatabase sqLiteDatabase) {
+        final String SQL_CREATE_ARCHIVE_TABLE = "CREATE TABLE " + ArchiveEntry.TABLE_NAME + " (" +
+                ArchiveEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                ArchiveEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                ArchiveEntry.COLUMN_PERIOD + " TEXT NOT NULL, " +
+                ArchiveEntry.COLUMN_START_DATE + " INTEGER NOT NULL, " +
+                ArchiveEntry.COLUMN_END_DATE + " INTEGER NOT NULL, " +
+                ArchiveEntry.COLUMN_DAYS + " INTEGER NOT NULL, " +
+                ArchiveEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                ArchiveEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                ArchiveEntry.COLUMN_MEAN_TEMP + " REAL NOT NULL, " +
+                ArchiveEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+
+                " FOREIGN KEY (" + ArchiveEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
 
-        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
-        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+                // One row per location and period, the archiver merges into it
+                " UNIQUE (" + ArchiveEntry.COLUMN_LOC_KEY + ", " +
+                ArchiveEntry.COLUMN_PERIOD + ", " +
+                ArchiveEntry.COLUMN_START_DATE + ") ON CONFLICT REPLACE);";
+        sqLiteDatabase.execSQL(SQL_CREATE_ARCHIVE_TABLE);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        mRestoreBackup = true;
+        if (oldVersion < 2) {
+            // Version 1 was only a cache for online data, so it is simply discarded
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + ArchiveEntry.TABLE_NAME);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+        // From here on the database holds history that can't be downloaded again, each step
+        // migrates it in place.
+        if (oldVersion < 3) {
+            sqLiteDatabase.execSQL("ALTER TABLE " + LocationEntry.TABLE_NAME + " ADD COLUMN " +
+                    LocationEntry.COLUMN_RETENTION_DAYS + " INTEGER NOT NULL DEFAULT " +
+                    LocationEntry.DEFAULT_RETENTION_DAYS);
+            sqLiteDatabase.execSQL("ALTER TABLE " + LocationEntry.TABLE_NAME + " ADD COLUMN " +
+                    LocationEntry.COLUMN_ARCHIVE_PERIOD + " TEXT NOT NULL DEFAULT '" +
+                    LocationEntry.ARCHIVE_PERIOD_WEEK + "'");
+            createArchiveTable(sqLiteDatabase);
+        }
+        if (oldVersion < 4) {
+            // Descriptions moved to their own table, measures stored as scaled integers
+            WeatherStore.migrateFromVersion3(sqLiteDatabase);
+        }
+        if (oldVersion < 5) {
+            LocationGrid.create(sqLiteDatabase);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,293 @@
+package com.example.android.sunshine.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract.ExportEntry;
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes the export of an {@link ExportEntry} URI into the pipe the provider hands to its
+ * reader.  The rows are read a page at a time, each page starting after the last row of the
+ * previous one (dates, then location ids, are the order of the weather table's unique index),
+ * so memory stays the same whatever the size of the export.  When the reader is slower than
+ * the database the pipe fills up and the writes block until it catches up.
+ * <p/>
+ * The URI is checked before the pipe is opened.  A query failing once the export has started
+ * closes the pipe with an error, which the reader gets as an IOException from KitKat on (before
+ * it only sees the export end early).
+ */
+final class WeatherExporter {
+    private static final String LOG_TAG = WeatherExporter.class.getSimpleName();
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int PAGE_ROWS = 1000;
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private static final String SQL_SELECT = "SELECT " +
+            LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherEntry.COLUMN_SHORT_DESC + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherEntry.COLUMN_HUMIDITY + ", " +
+            WeatherEntry.COLUMN_PRESSURE + ", " +
+            WeatherEntry.COLUMN_WIND_SPEED + ", " +
+            WeatherEntry.COLUMN_DEGREES + ", " +
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_LOC_KEY +
+            " FROM " + WeatherEntry.TABLE_NAME + " INNER JOIN " + LocationEntry.TABLE_NAME +
+            " ON " + WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_LOC_KEY + " = " +
+            LocationEntry.TABLE_NAME + "." + LocationEntry._ID +
+            " WHERE " + WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_DATE + " >= ? AND " +
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_DATE + " < ? AND (" +
+            // After the last row of the previous page
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_DATE + " > ? OR (" +
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_DATE + " = ? AND " +
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_LOC_KEY + " > ?))";
+
+    private static final String SQL_ORDER = " ORDER BY " +
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_LOC_KEY +
+            " LIMIT " + PAGE_ROWS;
+
+    // Columns of the query
+    private static final int COL_LOCATION_SETTING = 0;
+    private static final int COL_DATE = 1;
+    private static final int COL_WEATHER_ID = 2;
+    private static final int COL_SHORT_DESC = 3;
+    private static final int COL_FIRST_MEASURE = 4;
+    private static final int COL_LAST_MEASURE = 9;
+    private static final int COL_LOC_KEY = 10;
+
+    private final WeatherDbHelper mOpenHelper;
+
+    WeatherExporter(WeatherDbHelper openHelper) {
+        mOpenHelper = openHelper;
+    }
+
+    /**
+     * Opens the read end of a pipe the export of the URI is written into, from a background
+     * thread.
+     *
+     * @throws FileNotFoundException if the URI isn't a valid export.
+     */
+    ParcelFileDescriptor open(final Uri uri) throws FileNotFoundException {
+        try {
+            validate(uri);
+        } catch (IllegalArgumentException e) {
+            throw new FileNotFoundException(e.getMessage());
+        }
+        final ParcelFileDescriptor[] pipe;
+        try {
+            pipe = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                    ? ParcelFileDescriptor.createReliablePipe()
+                    : ParcelFileDescriptor.createPipe();
+        } catch (IOException e) {
+            throw new FileNotFoundException("Couldn't open a pipe for " + uri + ": " + e);
+        }
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(pipe[1], uri);
+            }
+        });
+        return pipe[0];
+    }
+
+    /**
+     * Checks the format and the dates of an export URI.
+     *
+     * @throws IllegalArgumentException if one of them isn't valid.
+     */
+    static void validate(Uri uri) {
+        ExportEntry.getMimeType(uri);
+        for (String param : new String[]{ExportEntry.PARAM_START_DATE,
+                ExportEntry.PARAM_END_DATE}) {
+            String value = uri.getQueryParameter(param);
+            if (value == null) {
+                continue;
+            }
+            try {
+                Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid " + param + " in " + uri);
+            }
+        }
+    }
+
+    private void write(ParcelFileDescriptor output, Uri uri) {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(output.getFileDescriptor()), UTF_8), BUFFER_SIZE);
+        String error = null;
+        try {
+            int rows = export(mOpenHelper.getReadableDatabase(), uri, writer);
+            writer.flush();
+            Log.d(LOG_TAG, rows + " rows exported to " + uri);
+        } catch (IOException e) {
+            // The reader closed its end
+            Log.w(LOG_TAG, "Export to " + uri + " interrupted", e);
+        } catch (RuntimeException e) {
+            // A query failed, this thread mustn't take the provider's process down with it
+            Log.e(LOG_TAG, "Error exporting " + uri, e);
+            error = e.toString();
+        } finally {
+            close(output, error);
+        }
+    }
+
+    /*
+        Closes the write end of the pipe, with the error for the reader if the export failed
+        and the platform can pass it on.  The writer doesn't own the file descriptor, the
+        rows it buffered are dropped with it.
+     */
+    private static void close(ParcelFileDescriptor output, String error) {
+        try {
+            if (error != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                output.closeWithError(error);
+            } else {
+                output.close();
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Error closing the export pipe", e);
+        }
+    }
+
+    /**
+     * Writes the export of the URI, and returns how many rows it holds.
+     */
+    static int export(SQLiteDatabase db, Uri uri, Writer writer) throws IOException {
+        boolean json = ExportEntry.MIME_TYPE_NDJSON.equals(ExportEntry.getMimeType(uri));
+        String startDate = uri.getQueryParameter(ExportEntry.PARAM_START_DATE);
+        String endDate = uri.getQueryParameter(ExportEntry.PARAM_END_DATE);
+        List<String> locationSettings = uri.getQueryParameters(ExportEntry.PARAM_LOCATION);
+
+        String sql = SQL_SELECT;
+        String[] selectionArgs = new String[5 + locationSettings.size()];
+        selectionArgs[0] = startDate != null ? Long.toString(Long.parseLong(startDate)) : "0";
+        selectionArgs[1] = endDate != null
+                ? Long.toString(Long.parseLong(endDate)) : Long.toString(Long.MAX_VALUE);
+        if (!locationSettings.isEmpty()) {
+            String[] placeholders = new String[locationSettings.size()];
+            Arrays.fill(placeholders, "?");
+            sql += " AND " + LocationEntry.TABLE_NAME + "." +
+                    LocationEntry.COLUMN_LOCATION_SETTING + " IN (" +
+                    TextUtils.join(", ", placeholders) + ")";
+            for (int i = 0; i < locationSettings.size(); i++) {
+                selectionArgs[5 + i] = locationSettings.get(i);
+            }
+        }
+        sql += SQL_ORDER;
+
+        StringBuilder line = new StringBuilder(256);
+        if (!json) {
+            writer.write(TextUtils.join(",", ExportEntry.COLUMNS));
+            writer.write('\n');
+        }
+        int rows = 0;
+        long lastDate = Long.MIN_VALUE;
+        long lastLocationId = Long.MIN_VALUE;
+        while (true) {
+            selectionArgs[2] = Long.toString(lastDate);
+            selectionArgs[3] = Long.toString(lastDate);
+            selectionArgs[4] = Long.toString(lastLocationId);
+            Cursor cursor = db.rawQuery(sql, selectionArgs);
+            int pageRows = 0;
+            try {
+                while (cursor.moveToNext()) {
+                    line.setLength(0);
+                    if (json) {
+                        appendJson(line, cursor);
+                    } else {
+                        appendCsv(line, cursor);
+                    }
+                    line.append('\n');
+                    writer.append(line);
+                    lastDate = cursor.getLong(COL_DATE);
+                    lastLocationId = cursor.getLong(COL_LOC_KEY);
+                    pageRows++;
+                }
+            } finally {
+                cursor.close();
+            }
+            rows += pageRows;
+            if (pageRows < PAGE_ROWS) {
+                return rows;
+            }
+        }
+    }
+
+    private static void appendCsv(StringBuilder line, Cursor cursor) {
+        appendCsvString(line, cursor.getString(COL_LOCATION_SETTING));
+        line.append(',').append(cursor.getLong(COL_DATE));
+        line.append(',').append(cursor.getInt(COL_WEATHER_ID));
+        line.append(',');
+        appendCsvString(line, cursor.getString(COL_SHORT_DESC));
+        for (int i = COL_FIRST_MEASURE; i <= COL_LAST_MEASURE; i++) {
+            line.append(',').append(cursor.getDouble(i));
+        }
+    }
+
+    private static void appendJson(StringBuilder line, Cursor cursor) {
+        line.append("{\"").append(ExportEntry.COLUMNS[COL_LOCATION_SETTING]).append("\":")
+                .append(JSONObject.quote(cursor.getString(COL_LOCATION_SETTING)));
+        line.append(",\"").append(ExportEntry.COLUMNS[COL_DATE]).append("\":")
+                .append(cursor.getLong(COL_DATE));
+        line.append(",\"").append(ExportEntry.COLUMNS[COL_WEATHER_ID]).append("\":")
+                .append(cursor.getInt(COL_WEATHER_ID));
+        line.append(",\"").append(ExportEntry.COLUMNS[COL_SHORT_DESC]).append("\":")
+                .append(JSONObject.quote(cursor.getString(COL_SHORT_DESC)));
+        for (int i = COL_FIRST_MEASURE; i <= COL_LAST_MEASURE; i++) {
+            line.append(",\"").append(ExportEntry.COLUMNS[i]).append("\":")
+                    .append(cursor.getDouble(i));
+        }
+        line.append('}');
+    }
+
+    /*
+        Quoted when it holds a separator, a quote or a line break, its quotes doubled.
+     */
+    private static void appendCsvString(StringBuilder line, String value) {
+        if (value == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            line.append(value);
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                line.append('"');
+            }
+            line.append(c);
+        }
+        line.append('"');
+    }
+}
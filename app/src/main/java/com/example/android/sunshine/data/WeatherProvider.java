@@ -6,28 +6,58 @@ package com.example.android.sunshine.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
 import android.util.Log;
 
+import com.example.android.sunshine.IoWatchdog;
 import com.example.android.sunshine.Utility;
 
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
 public class WeatherProvider extends ContentProvider {
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    private final LocationIdCache mLocationIds = new LocationIdCache();
+    // The URIs to notify when the batch applied by this thread commits, null outside of a batch
+    private final ThreadLocal<Set<Uri>> mBatchNotifications = new ThreadLocal<>();
+    // The weather inserts of the batch applied by this thread, null outside of a batch
+    private final ThreadLocal<WeatherStore.Inserter> mBatchInserter = new ThreadLocal<>();
+    private NotificationCoalescer mNotifications;
+    private WeatherExporter mExporter;
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
+    static final int LOCATION_NEAR = 301;
+    static final int ARCHIVE = 400;
+    static final int ARCHIVE_WITH_LOCATION = 401;
+    static final int EXPORT = 500;
 
     private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    private static final SQLiteQueryBuilder sArchiveByLocationSettingQueryBuilder;
+
+    // Default time budget of a compaction call
+    private static final long DEFAULT_COMPACT_BUDGET_MILLIS = 2000;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -41,6 +71,16 @@ public class WeatherProvider extends ContentProvider {
                         "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
                         " = " + WeatherContract.LocationEntry.TABLE_NAME +
                         "." + WeatherContract.LocationEntry._ID);
+
+        //weather_archive INNER JOIN location ON weather_archive.location_id = location._id
+        sArchiveByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sArchiveByLocationSettingQueryBuilder.setTables(
+                WeatherContract.ArchiveEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.ArchiveEntry.TABLE_NAME +
+                        "." + WeatherContract.ArchiveEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
     }
 
     //location.location_setting = ?
@@ -60,9 +100,17 @@ public class WeatherProvider extends ContentProvider {
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
+    //location.location_setting = ? AND date >= ? AND date < ?
+    private static final String sLocationSettingWithDateRangeSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " < ? ";
+
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+        String limit = WeatherContract.WeatherEntry.getLimitFromUri(uri);
 
         String[] selectionArgs;
         String selection;
@@ -81,7 +129,8 @@ public class WeatherProvider extends ContentProvider {
                 selectionArgs,
                 null,
                 null,
-                sortOrder
+                sortOrder,
+                limit
         );
     }
 
@@ -100,6 +149,27 @@ public class WeatherProvider extends ContentProvider {
         );
     }
 
+    private Cursor getLocationsNear(Uri uri, String[] projection) {
+        String lat = uri.getQueryParameter(WeatherContract.LocationEntry.PARAM_LAT);
+        String lon = uri.getQueryParameter(WeatherContract.LocationEntry.PARAM_LONG);
+        if (lat == null || lon == null) {
+            throw new IllegalArgumentException("No point in " + uri);
+        }
+        String radius = uri.getQueryParameter(WeatherContract.LocationEntry.PARAM_RADIUS_KM);
+        String limitString = uri.getQueryParameter(WeatherContract.LocationEntry.PARAM_LIMIT);
+        // Every location within the radius, or the nearest one
+        int limit = limitString != null ? Integer.parseInt(limitString)
+                : radius != null ? Integer.MAX_VALUE : 1;
+
+        if (radius != null) {
+            return LocationGrid.queryWithin(mOpenHelper.getReadableDatabase(), projection,
+                    Double.parseDouble(lat), Double.parseDouble(lon), Double.parseDouble(radius),
+                    limit);
+        }
+        return LocationGrid.queryNearest(mOpenHelper.getReadableDatabase(), projection,
+                Double.parseDouble(lat), Double.parseDouble(lon), limit);
+    }
+
     /*
         Students: Here is where you need to create the UriMatcher. This UriMatcher will
         match each URI to the WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
@@ -122,6 +192,13 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/" + WeatherContract.PATH_NEAR,
+                LOCATION_NEAR);
+
+        matcher.addURI(authority, WeatherContract.PATH_ARCHIVE, ARCHIVE);
+        matcher.addURI(authority, WeatherContract.PATH_ARCHIVE + "/*", ARCHIVE_WITH_LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_EXPORT, EXPORT);
         return matcher;
     }
 
@@ -132,6 +209,16 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         mOpenHelper = new WeatherDbHelper(getContext());
+        mNotifications = NotificationCoalescer.getInstance(getContext());
+        mExporter = new WeatherExporter(mOpenHelper);
+        // Open (and if needed create or upgrade) the database on a background thread now, so the
+        // first query doesn't have to pay for it, nor the first sync for its location id.
+        AsyncTask.execute(new Runnable() {
+            @Override
+            public void run() {
+                mLocationIds.warm(mOpenHelper.getWritableDatabase());
+            }
+        });
         return true;
     }
 
@@ -154,7 +241,13 @@ public class WeatherProvider extends ContentProvider {
             case WEATHER:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
+            case LOCATION_NEAR:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case ARCHIVE:
+            case ARCHIVE_WITH_LOCATION:
+                return WeatherContract.ArchiveEntry.CONTENT_TYPE;
+            case EXPORT:
+                return WeatherContract.ExportEntry.getMimeType(uri);
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -163,53 +256,94 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        long ioStart = IoWatchdog.begin();
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
         Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
-            // "weather/*/*"
-            case WEATHER_WITH_LOCATION_AND_DATE:
-            {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
-                break;
-            }
-            // "weather/*"
-            case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
-                break;
-            }
-            // "weather"
-            case WEATHER: {
-                retCursor = mOpenHelper.getReadableDatabase().query(
-                        WeatherContract.WeatherEntry.TABLE_NAME,
-                        projection,
-                        selection,
-                        selectionArgs,
-                        null,
-                        null,
-                        sortOrder
-                );
-                break;
-            }
-            // "location"
-            case LOCATION: {
-                retCursor = mOpenHelper.getReadableDatabase().query(
-                        WeatherContract.LocationEntry.TABLE_NAME,
-                        projection,
-                        selection,
-                        selectionArgs,
-                        null,
-                        null,
-                        sortOrder
-                );
-                break;
-            }
+        final int match = sUriMatcher.match(uri);
+        try {
+            switch (match) {
+                // "weather/*/*"
+                case WEATHER_WITH_LOCATION_AND_DATE:
+                {
+                    retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
+                    break;
+                }
+                // "weather/*"
+                case WEATHER_WITH_LOCATION: {
+                    retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                    break;
+                }
+                // "weather"
+                case WEATHER: {
+                    retCursor = mOpenHelper.getReadableDatabase().query(
+                            WeatherContract.WeatherEntry.TABLE_NAME,
+                            projection,
+                            selection,
+                            selectionArgs,
+                            null,
+                            null,
+                            sortOrder
+                    );
+                    break;
+                }
+                // "location"
+                case LOCATION: {
+                    retCursor = mOpenHelper.getReadableDatabase().query(
+                            WeatherContract.LocationEntry.TABLE_NAME,
+                            projection,
+                            selection,
+                            selectionArgs,
+                            null,
+                            null,
+                            sortOrder
+                    );
+                    break;
+                }
+                // "location/near"
+                case LOCATION_NEAR: {
+                    retCursor = getLocationsNear(uri, projection);
+                    break;
+                }
+                // "archive"
+                case ARCHIVE: {
+                    retCursor = mOpenHelper.getReadableDatabase().query(
+                            WeatherContract.ArchiveEntry.TABLE_NAME,
+                            projection,
+                            selection,
+                            selectionArgs,
+                            null,
+                            null,
+                            sortOrder
+                    );
+                    break;
+                }
+                // "archive/*"
+                case ARCHIVE_WITH_LOCATION: {
+                    retCursor = sArchiveByLocationSettingQueryBuilder.query(
+                            mOpenHelper.getReadableDatabase(),
+                            projection,
+                            sLocationSettingSelection,
+                            new String[]{WeatherContract.ArchiveEntry.getLocationSettingFromUri(uri)},
+                            null,
+                            null,
+                            sortOrder
+                    );
+                    break;
+                }
 
                 default:
                     throw new UnsupportedOperationException("Unknown uri: " + uri);
             }
             retCursor.setNotificationUri(getContext().getContentResolver(), uri);
+            if (IoWatchdog.ENABLED) {
+                // The query only really runs when the first window is filled
+                retCursor.getCount();
+            }
             return retCursor;
+        } finally {
+            IoWatchdog.end("query", getPath(match), ioStart);
+        }
     }
 
     /*
@@ -217,59 +351,87 @@ public class WeatherProvider extends ContentProvider {
      */
     @Override
     public Uri insert(Uri uri, ContentValues values) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        long ioStart = IoWatchdog.begin();
         final int match = sUriMatcher.match(uri);
         Uri returnUri;
-
-        switch (match) {
-            case WEATHER: {
-                normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
-                if ( _id > 0 )
-                    returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
-                else
-                    throw new android.database.SQLException("Failed to insert row into " + uri);
-                break;
-            }
-            case LOCATION: {
-                long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
-                if ( _id > 0 )
-                    returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
-                else
-                    throw new android.database.SQLException("Failed to insert row into " + uri);
-                break;
+        try {
+            final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+            switch (match) {
+                case WEATHER: {
+                    normalizeDate(values);
+                    WeatherStore.Inserter inserter = mBatchInserter.get();
+                    long _id = inserter != null
+                            ? inserter.insert(values) : WeatherStore.insert(db, values);
+                    if ( _id > 0 )
+                        returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
+                    else
+                        throw new android.database.SQLException("Failed to insert row into " + uri);
+                    break;
+                }
+                case LOCATION: {
+                    // Insert or get: a location that is already there keeps its row and its id is
+                    // returned, so a sync can insert its location and refer to it in one batch
+                    String locationSetting = values.getAsString(
+                            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+                    long _id = -1;
+                    if (locationSetting != null) {
+                        _id = mLocationIds.get(db, locationSetting);
+                        if (_id != -1) {
+                            return WeatherContract.LocationEntry.buildLocationUri(_id);
+                        }
+                        _id = mLocationIds.insert(db, locationSetting, values);
+                    }
+                    if ( _id > 0 )
+                        returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
+                    else
+                        throw new android.database.SQLException("Failed to insert row into " + uri);
+                    break;
+                }
+                default:
+                    throw new UnsupportedOperationException("Unknown uri: " + uri);
             }
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
+            notifyChange(uri);
+            return returnUri;
+        } finally {
+            IoWatchdog.end("insert", getPath(match), ioStart);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
-        return returnUri;
     }
 
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        long ioStart = IoWatchdog.begin();
         final int match = sUriMatcher.match(uri);
         int rowsDeleted;
-        // this makes delete all rows return the number of rows deleted
-        if ( null == selection ) selection = "1";
-        switch (match) {
-            case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            case LOCATION:
-                rowsDeleted = db.delete(
-                        WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
-        }
-        // Because a null deletes all rows
-        if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+        try {
+            final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+            // this makes delete all rows return the number of rows deleted
+            if ( null == selection ) selection = "1";
+            switch (match) {
+                case WEATHER:
+                    rowsDeleted = WeatherStore.delete(db, selection, selectionArgs);
+                    break;
+                case LOCATION:
+                    rowsDeleted = db.delete(
+                            WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                    if (rowsDeleted != 0) {
+                        mLocationIds.invalidate();
+                    }
+                    break;
+                case ARCHIVE:
+                    rowsDeleted = db.delete(
+                            WeatherContract.ArchiveEntry.TABLE_NAME, selection, selectionArgs);
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Unknown uri: " + uri);
+            }
+            // Because a null deletes all rows
+            if (rowsDeleted != 0) {
+                notifyChange(uri);
+            }
+            return rowsDeleted;
+        } finally {
+            IoWatchdog.end("delete", getPath(match), ioStart);
         }
-        return rowsDeleted;
     }
 
     private void normalizeDate(ContentValues values) {
@@ -283,57 +445,296 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public int update(
             Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-            final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+            long ioStart = IoWatchdog.begin();
             final int match = sUriMatcher.match(uri);
             int rowsUpdated;
+            try {
+                final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+                switch (match) {
+                    case WEATHER:
+                        normalizeDate(values);
+                        rowsUpdated = WeatherStore.update(db, values, selection, selectionArgs);
+                        break;
+                    case LOCATION:
+                        rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
+                                selectionArgs);
+                        if (rowsUpdated != 0) {
+                            mLocationIds.invalidate();
+                        }
+                        break;
+                    default:
+                        throw new UnsupportedOperationException("Unknown uri: " + uri);
+                }
+                if (rowsUpdated != 0) {
+                    notifyChange(uri);
+                }
+                return rowsUpdated;
+            } finally {
+                IoWatchdog.end("update", getPath(match), ioStart);
+            }
+    }
 
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        long ioStart = IoWatchdog.begin();
+        final int match = sUriMatcher.match(uri);
+        try {
             switch (match) {
                 case WEATHER:
-                    normalizeDate(values);
-                    rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                            selectionArgs);
-                    break;
-                case LOCATION:
-                    rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
-                            selectionArgs);
-                    break;
+                    Log.d("Lifecycle", Thread.currentThread().getStackTrace()[2] + " : " + Utility.thread() + " : nb rowsInserted :  object created");
+                    final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+                    // Non exclusive, so that with write-ahead logging the readers carry on meanwhile
+                    db.beginTransactionNonExclusive();
+                    int returnCount = 0;
+                    WeatherStore.Inserter inserter = new WeatherStore.Inserter(db);
+                    try {
+                        for (ContentValues value : values) {
+                            normalizeDate(value);
+                            long _id = inserter.insert(value);
+                            if (_id != -1) {
+                                returnCount++;
+                            }
+                        }
+                        db.setTransactionSuccessful();
+                    } finally {
+                        inserter.close();
+                        db.endTransaction();
+                    }
+                    notifyChange(uri);
+                    return returnCount;
                 default:
-                    throw new UnsupportedOperationException("Unknown uri: " + uri);
+                    return super.bulkInsert(uri, values);
             }
-            if (rowsUpdated != 0) {
-                getContext().getContentResolver().notifyChange(uri, null);
+        } finally {
+            IoWatchdog.end("bulkInsert", getPath(match), ioStart);
+        }
+    }
+
+    /**
+     * Applies the operations in one transaction: observers see all of them or none, and are
+     * notified once per URI when the transaction commits rather than once per operation.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        long ioStart = IoWatchdog.begin();
+        Set<Uri> notifications = new LinkedHashSet<>();
+        mBatchNotifications.set(notifications);
+        mLocationIds.beginBatch();
+        ContentProviderResult[] results;
+        boolean committed = false;
+        try {
+            final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+            // Non exclusive, so that with write-ahead logging the readers carry on meanwhile
+            db.beginTransactionNonExclusive();
+            WeatherStore.Inserter inserter = new WeatherStore.Inserter(db);
+            mBatchInserter.set(inserter);
+            try {
+                results = super.applyBatch(operations);
+                db.setTransactionSuccessful();
+            } finally {
+                mBatchInserter.remove();
+                inserter.close();
+                db.endTransaction();
             }
-            return rowsUpdated;
+            committed = true;
+        } finally {
+            mBatchNotifications.remove();
+            // Ids of locations the batch inserted are only cached once they are in the database
+            mLocationIds.endBatch(committed);
+            IoWatchdog.end("applyBatch", ioStart);
+        }
+        for (Uri uri : notifications) {
+            mNotifications.notifyChange(uri);
+        }
+        return results;
+    }
+
+    /*
+        Notifies the observers of the URI through the coalescer, or when the batch commits inside
+        of one.
+     */
+    private void notifyChange(Uri uri) {
+        Set<Uri> batch = mBatchNotifications.get();
+        if (batch != null) {
+            batch.add(uri);
+        } else {
+            mNotifications.notifyChange(uri);
+        }
     }
 
+    /**
+     * Opens the export of an {@link WeatherContract.ExportEntry} URI: the read end of a pipe a
+     * background thread writes the rows into as they are read.
+     *
+     * @throws FileNotFoundException if the URI isn't an export, or its format or dates aren't
+     *                               valid.
+     */
     @Override
-    public int bulkInsert(Uri uri, ContentValues[] values) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
         final int match = sUriMatcher.match(uri);
+        if (match != EXPORT) {
+            throw new FileNotFoundException("No file at " + uri);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Exports can only be read: " + uri);
+        }
+        long ioStart = IoWatchdog.begin();
+        try {
+            return mExporter.open(uri);
+        } finally {
+            IoWatchdog.end("openFile", getPath(match), ioStart);
+        }
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.METHOD_COMPACT.equals(method)) {
+            return compact(extras);
+        }
+        if (WeatherContract.METHOD_CHECKPOINT.equals(method)) {
+            long ioStart = IoWatchdog.begin();
+            try {
+                mOpenHelper.checkpoint();
+            } finally {
+                IoWatchdog.end("call", method, ioStart);
+            }
+            return null;
+        }
+        if (WeatherContract.METHOD_GET_FORECAST.equals(method)) {
+            return getForecast(arg, extras);
+        }
+        if (WeatherContract.METHOD_GET_LOCATION_ID.equals(method)) {
+            return getLocationId(arg, extras);
+        }
+        return super.call(method, arg, extras);
+    }
+
+    private Bundle getLocationId(String locationSetting, Bundle extras) {
+        if (locationSetting == null) {
+            throw new IllegalArgumentException("No location setting");
+        }
+        long locationId;
+        if (extras != null) {
+            ContentValues values = new ContentValues();
+            values.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+            values.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+                    extras.getString(WeatherContract.LocationEntry.COLUMN_CITY_NAME));
+            values.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+                    extras.getDouble(WeatherContract.LocationEntry.COLUMN_COORD_LAT));
+            values.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+                    extras.getDouble(WeatherContract.LocationEntry.COLUMN_COORD_LONG));
+            locationId = ContentUris.parseId(
+                    insert(WeatherContract.LocationEntry.CONTENT_URI, values));
+        } else {
+            long ioStart = IoWatchdog.begin();
+            try {
+                locationId = mLocationIds.get(mOpenHelper.getWritableDatabase(), locationSetting);
+            } finally {
+                IoWatchdog.end("call", WeatherContract.METHOD_GET_LOCATION_ID, ioStart);
+            }
+        }
+
+        Bundle bundle = new Bundle();
+        bundle.putLong(WeatherContract.EXTRA_LOCATION_ID, locationId);
+        return bundle;
+    }
+
+    private Bundle getForecast(String locationSetting, Bundle extras) {
+        if (locationSetting == null) {
+            throw new IllegalArgumentException("No location setting");
+        }
+        long ioStart = IoWatchdog.begin();
+        long startDate = extras != null ? extras.getLong(WeatherContract.EXTRA_START_DATE) : 0;
+        long endDate = extras != null
+                ? extras.getLong(WeatherContract.EXTRA_END_DATE, Long.MAX_VALUE)
+                : Long.MAX_VALUE;
+        try {
+            Cursor cursor = sWeatherByLocationSettingQueryBuilder.query(
+                    mOpenHelper.getReadableDatabase(),
+                    ForecastArrays.COLUMNS,
+                    sLocationSettingWithDateRangeSelection,
+                    new String[]{locationSetting, Long.toString(startDate), Long.toString(endDate)},
+                    null,
+                    null,
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+            try {
+                return ForecastArrays.toBundle(cursor);
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            IoWatchdog.end("call", WeatherContract.METHOD_GET_FORECAST, ioStart);
+        }
+    }
+
+    private Bundle compact(Bundle extras) {
+        long ioStart = IoWatchdog.begin();
+        long budget = extras != null
+                ? extras.getLong(WeatherContract.EXTRA_BUDGET_MILLIS, DEFAULT_COMPACT_BUDGET_MILLIS)
+                : DEFAULT_COMPACT_BUDGET_MILLIS;
+        WeatherArchiver.Result result;
+        try {
+            result = WeatherArchiver.compact(
+                    mOpenHelper.getWritableDatabase(), System.currentTimeMillis(), budget);
+        } finally {
+            IoWatchdog.end("call", WeatherContract.METHOD_COMPACT, ioStart);
+        }
+        if (result.rowsRemoved > 0) {
+            notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+        }
+        if (result.periodsArchived > 0) {
+            notifyChange(WeatherContract.ArchiveEntry.CONTENT_URI);
+        }
+
+        Bundle bundle = new Bundle();
+        bundle.putBoolean(WeatherContract.EXTRA_DONE, result.done);
+        return bundle;
+    }
+
+    /*
+        The UriMatcher pattern for a match, so the I/O watchdog doesn't get one entry per location.
+     */
+    private static String getPath(int match) {
         switch (match) {
             case WEATHER:
-                Log.d("Lifecycle", Thread.currentThread().getStackTrace()[2] + " : " + Utility.thread() + " : nb rowsInserted :  object created");
-                db.beginTransaction();
-                int returnCount = 0;
-                try {
-                    for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
-                        }
-                    }
-                    db.setTransactionSuccessful();
-                } finally {
-                    db.endTransaction();
-                }
-                getContext().getContentResolver().notifyChange(uri, null);
-                return returnCount;
+                return WeatherContract.PATH_WEATHER;
+            case WEATHER_WITH_LOCATION:
+                return WeatherContract.PATH_WEATHER + "/*";
+            case WEATHER_WITH_LOCATION_AND_DATE:
+                return WeatherContract.PATH_WEATHER + "/*/#";
+            case LOCATION:
+                return WeatherContract.PATH_LOCATION;
+            case LOCATION_NEAR:
+                return WeatherContract.PATH_LOCATION + "/" + WeatherContract.PATH_NEAR;
+            case ARCHIVE:
+                return WeatherContract.PATH_ARCHIVE;
+            case ARCHIVE_WITH_LOCATION:
+                return WeatherContract.PATH_ARCHIVE + "/*";
+            case EXPORT:
+                return WeatherContract.PATH_EXPORT;
             default:
-                return super.bulkInsert(uri, values);
+                return "unknown";
         }
     }
 
+    // adb shell dumpsys activity provider com.example.android.sunshine/.data.WeatherProvider
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        IoWatchdog.dump(writer);
+        mNotifications.dump(writer);
+    }
+
+    /*
+        Lets a test run the provider over a database of its own (e.g. with or without write-ahead
+        logging).
+     */
+    void setOpenHelper(WeatherDbHelper openHelper) {
+        mOpenHelper = openHelper;
+        mExporter = new WeatherExporter(openHelper);
+        mLocationIds.invalidate();
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
@@ -0,0 +1,373 @@
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+/**
+ * How the weather rows are actually stored.  The weather "table" of the contract is a view over
+ * two tables:
+ * <ul>
+ * <li>{@link #TABLE_NAME}, one row per day, with the measures as integers in hundredths
+ * (e.g. 1013.25 hPa is 101325), which SQLite stores in 1 to 4 bytes instead of 8 for a REAL,</li>
+ * <li>{@link #CONDITION_TABLE_NAME}, the short description of each OpenWeatherMap weather id,
+ * stored once instead of once per day.</li>
+ * </ul>
+ * The view gives back the columns and types of {@link WeatherEntry}, so queries don't change.
+ * A view can't be written to, writes go through this class instead; the selections of
+ * {@link #update} and {@link #delete} are on the view's columns, as they were on the table's.
+ * <p/>
+ * A weather id keeps the last description written for it, so a description can only be written
+ * along with the weather id it describes.
+ */
+final class WeatherStore {
+    private static final String LOG_TAG = WeatherStore.class.getSimpleName();
+
+    static final String TABLE_NAME = "weather_data";
+    static final String CONDITION_TABLE_NAME = "condition";
+
+    // The measures are stored multiplied by this
+    static final int SCALE = 100;
+
+    private static final String[] SCALED_COLUMNS = {
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    // What a day of weather can't be inserted without
+    private static final String[] REQUIRED_COLUMNS = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    private static final String SQL_INSERT = "INSERT INTO " + TABLE_NAME + " (" +
+            WeatherEntry.COLUMN_LOC_KEY + ", " +
+            WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherEntry.COLUMN_HUMIDITY + ", " +
+            WeatherEntry.COLUMN_PRESSURE + ", " +
+            WeatherEntry.COLUMN_WIND_SPEED + ", " +
+            WeatherEntry.COLUMN_DEGREES + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // Nothing is written when the description is already there
+    private static final String SQL_INSERT_CONDITION = "INSERT OR IGNORE INTO " +
+            CONDITION_TABLE_NAME + " (" + WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherEntry.COLUMN_SHORT_DESC + ") VALUES (?, ?)";
+    private static final String SQL_UPDATE_CONDITION = "UPDATE " + CONDITION_TABLE_NAME +
+            " SET " + WeatherEntry.COLUMN_SHORT_DESC + " = ?1 WHERE " +
+            WeatherEntry.COLUMN_WEATHER_ID + " = ?2 AND " + WeatherEntry.COLUMN_SHORT_DESC +
+            " != ?1";
+
+    private WeatherStore() {
+    }
+
+    /**
+     * Creates the tables and the view of the current schema.
+     */
+    static void create(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + CONDITION_TABLE_NAME + " (" +
+                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER PRIMARY KEY, " +
+                WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL);");
+
+        db.execSQL("CREATE TABLE " + TABLE_NAME + " (" +
+                // Autoincrement, so the ids keep following the dates as rows are replaced
+                WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_MIN_TEMP + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_MAX_TEMP + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_HUMIDITY + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_PRESSURE + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_WIND_SPEED + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_DEGREES + " INTEGER NOT NULL, " +
+
+                " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+                // One weather entry per day per location, a new one replaces the old one
+                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
+                WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);");
+
+        StringBuilder view = new StringBuilder("CREATE VIEW " + WeatherEntry.TABLE_NAME +
+                " AS SELECT " +
+                column(TABLE_NAME, WeatherEntry._ID) + ", " +
+                column(TABLE_NAME, WeatherEntry.COLUMN_LOC_KEY) + ", " +
+                column(TABLE_NAME, WeatherEntry.COLUMN_DATE) + ", " +
+                column(CONDITION_TABLE_NAME, WeatherEntry.COLUMN_SHORT_DESC) + ", " +
+                column(TABLE_NAME, WeatherEntry.COLUMN_WEATHER_ID));
+        for (String column : SCALED_COLUMNS) {
+            view.append(", ").append(TABLE_NAME).append('.').append(column)
+                    .append(" / ").append(SCALE).append(".0 AS ").append(column);
+        }
+        view.append(" FROM ").append(TABLE_NAME).append(" LEFT JOIN ")
+                .append(CONDITION_TABLE_NAME).append(" ON ")
+                .append(CONDITION_TABLE_NAME).append('.').append(WeatherEntry.COLUMN_WEATHER_ID)
+                .append(" = ")
+                .append(TABLE_NAME).append('.').append(WeatherEntry.COLUMN_WEATHER_ID)
+                .append(';');
+        db.execSQL(view.toString());
+    }
+
+    /**
+     * Moves the rows of the version 3 weather table, descriptions and REAL measures in every
+     * row, into the current schema.  Ids are kept.  Must be called within a transaction, as
+     * onUpgrade is.
+     */
+    static void migrateFromVersion3(SQLiteDatabase db) {
+        final String oldTable = WeatherEntry.TABLE_NAME + "_v3";
+        db.execSQL("ALTER TABLE " + WeatherEntry.TABLE_NAME + " RENAME TO " + oldTable);
+        create(db);
+
+        // The most recent description of each weather id
+        db.execSQL("INSERT INTO " + CONDITION_TABLE_NAME + " (" +
+                WeatherEntry.COLUMN_WEATHER_ID + ", " + WeatherEntry.COLUMN_SHORT_DESC + ")" +
+                " SELECT " + WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                WeatherEntry.COLUMN_SHORT_DESC + " FROM " + oldTable +
+                " WHERE " + WeatherEntry._ID + " IN (SELECT MAX(" + WeatherEntry._ID + ") FROM " +
+                oldTable + " GROUP BY " + WeatherEntry.COLUMN_WEATHER_ID + ")");
+
+        StringBuilder columns = new StringBuilder(WeatherEntry._ID + ", " +
+                WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ", " +
+                WeatherEntry.COLUMN_WEATHER_ID);
+        StringBuilder values = new StringBuilder(columns);
+        for (String column : SCALED_COLUMNS) {
+            columns.append(", ").append(column);
+            values.append(", CAST(ROUND(").append(column).append(" * ").append(SCALE)
+                    .append(") AS INTEGER)");
+        }
+        db.execSQL("INSERT INTO " + TABLE_NAME + " (" + columns + ") SELECT " + values +
+                " FROM " + oldTable);
+        db.execSQL("DROP TABLE " + oldTable);
+    }
+
+    /**
+     * Inserts a day of weather with the columns of {@link WeatherEntry}, replacing the one of the
+     * same location and date if there is one.  Like {@link SQLiteDatabase#insert}, a row that
+     * can't be inserted (e.g. with a missing column) is logged and not thrown, and leaves the
+     * caller's transaction, if any, as it was.  Many rows go through an {@link Inserter}.
+     *
+     * @return the id of the row, or -1 if it couldn't be inserted.
+     */
+    static long insert(SQLiteDatabase db, ContentValues values) {
+        Inserter inserter = new Inserter(db);
+        try {
+            return inserter.insert(values);
+        } finally {
+            inserter.close();
+        }
+    }
+
+    /**
+     * Inserts days of weather as {@link WeatherStore#insert} does, through statements compiled
+     * once for all the rows, like those of a bulk insert, a batch or a restore.  Not thread safe;
+     * must be closed once the rows are in.
+     */
+    static final class Inserter {
+        private final SQLiteDatabase mDb;
+        private SQLiteStatement mInsert;
+        private SQLiteStatement mInsertCondition;
+        private SQLiteStatement mUpdateCondition;
+        // The descriptions this inserter wrote, by weather id, so they aren't written again
+        private final Map<Long, String> mConditions = new HashMap<>();
+
+        Inserter(SQLiteDatabase db) {
+            mDb = db;
+        }
+
+        /**
+         * @return the id of the row, or -1 if it couldn't be inserted.
+         */
+        long insert(ContentValues values) {
+            // The columns are spread over two tables: the NOT NULL of one doesn't hold the other
+            for (String column : REQUIRED_COLUMNS) {
+                if (values.get(column) == null) {
+                    Log.e(LOG_TAG, "Error inserting " + values + ", no " + column);
+                    return -1;
+                }
+            }
+            // A transaction of our own within the caller's would fail it when ending
+            // unsuccessful, rolling back the rows inserted before this one
+            boolean nested = mDb.inTransaction();
+            try {
+                if (!nested) {
+                    mDb.beginTransactionNonExclusive();
+                }
+                try {
+                    putCondition(values.getAsLong(WeatherEntry.COLUMN_WEATHER_ID),
+                            values.getAsString(WeatherEntry.COLUMN_SHORT_DESC));
+
+                    if (mInsert == null) {
+                        mInsert = mDb.compileStatement(SQL_INSERT);
+                    }
+                    bind(mInsert, 1, values.getAsLong(WeatherEntry.COLUMN_LOC_KEY));
+                    bind(mInsert, 2, values.getAsLong(WeatherEntry.COLUMN_DATE));
+                    bind(mInsert, 3, values.getAsLong(WeatherEntry.COLUMN_WEATHER_ID));
+                    for (int i = 0; i < SCALED_COLUMNS.length; i++) {
+                        bind(mInsert, 4 + i, scale(values.getAsDouble(SCALED_COLUMNS[i])));
+                    }
+                    long id = mInsert.executeInsert();
+                    if (!nested) {
+                        mDb.setTransactionSuccessful();
+                    }
+                    return id;
+                } finally {
+                    if (!nested) {
+                        mDb.endTransaction();
+                    }
+                }
+            } catch (SQLException e) {
+                // Written or not, the description is checked again by the next row
+                mConditions.clear();
+                Log.e(LOG_TAG, "Error inserting " + values, e);
+                return -1;
+            }
+        }
+
+        void putCondition(Long weatherId, String description) {
+            if (weatherId == null) {
+                // Nothing to describe: an update setting the weather id to null fails on its own
+                return;
+            }
+            if (description.equals(mConditions.get(weatherId))) {
+                return;
+            }
+            if (mInsertCondition == null) {
+                mInsertCondition = mDb.compileStatement(SQL_INSERT_CONDITION);
+            }
+            mInsertCondition.bindLong(1, weatherId);
+            mInsertCondition.bindString(2, description);
+            if (mInsertCondition.executeInsert() == -1) {
+                if (mUpdateCondition == null) {
+                    mUpdateCondition = mDb.compileStatement(SQL_UPDATE_CONDITION);
+                }
+                mUpdateCondition.bindString(1, description);
+                mUpdateCondition.bindLong(2, weatherId);
+                mUpdateCondition.execute();
+            }
+            mConditions.put(weatherId, description);
+        }
+
+        void close() {
+            for (SQLiteStatement statement : new SQLiteStatement[]{mInsert, mInsertCondition,
+                    mUpdateCondition}) {
+                if (statement != null) {
+                    statement.close();
+                }
+            }
+            mInsert = null;
+            mInsertCondition = null;
+            mUpdateCondition = null;
+        }
+    }
+
+    /**
+     * Updates the days matching the selection.  A new description applies to every day of the
+     * same weather id, so it must come with that weather id.
+     *
+     * @return the number of days updated.
+     * @throws IllegalArgumentException if the values hold a description without a weather id.
+     */
+    static int update(SQLiteDatabase db, ContentValues values, String selection,
+                      String[] selectionArgs) {
+        String description = values.getAsString(WeatherEntry.COLUMN_SHORT_DESC);
+        if (description != null && values.getAsLong(WeatherEntry.COLUMN_WEATHER_ID) == null) {
+            // It would change the description of every day of those weather ids, everywhere
+            throw new IllegalArgumentException("A description can only be updated along with "
+                    + "its weather id: " + values);
+        }
+        String idSelection = getIdSelection(selection != null ? selection : "1");
+        ContentValues stored = new ContentValues(values);
+        for (String column : SCALED_COLUMNS) {
+            if (values.containsKey(column)) {
+                Long scaled = scale(values.getAsDouble(column));
+                stored.put(column, scaled);
+            }
+        }
+        stored.remove(WeatherEntry.COLUMN_SHORT_DESC);
+
+        db.beginTransactionNonExclusive();
+        try {
+            int count;
+            if (stored.size() > 0) {
+                count = db.update(TABLE_NAME, stored, idSelection, selectionArgs);
+            } else {
+                count = (int) DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME,
+                        selection, selectionArgs);
+            }
+            if (description != null) {
+                Inserter inserter = new Inserter(db);
+                try {
+                    inserter.putCondition(values.getAsLong(WeatherEntry.COLUMN_WEATHER_ID),
+                            description);
+                } finally {
+                    inserter.close();
+                }
+            }
+            db.setTransactionSuccessful();
+            return count;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Deletes the days matching the selection, all of them if it is null.  The descriptions stay.
+     *
+     * @return the number of days deleted.
+     */
+    static int delete(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        if (selection == null) {
+            // "1" so the deleted rows are counted
+            return db.delete(TABLE_NAME, "1", null);
+        }
+        return db.delete(TABLE_NAME, getIdSelection(selection), selectionArgs);
+    }
+
+    /*
+        The selection on the view, as a selection of the stored rows.
+     */
+    private static String getIdSelection(String selection) {
+        return WeatherEntry._ID + " IN (SELECT " + WeatherEntry._ID + " FROM " +
+                WeatherEntry.TABLE_NAME + " WHERE " + selection + ")";
+    }
+
+    private static Long scale(Double value) {
+        return value != null ? Math.round(value * SCALE) : null;
+    }
+
+    private static void bind(SQLiteStatement statement, int index, Long value) {
+        if (value != null) {
+            statement.bindLong(index, value);
+        } else {
+            statement.bindNull(index);
+        }
+    }
+
+    private static String column(String table, String column) {
+        return table + "." + column + " AS " + column;
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.android.sunshine.gcm;
+
+import android.content.ContentValues;
+
+import com.example.android.sunshine.data.DayNormalizer;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The days of a location's forecast that changed between two versions of the server data, as
+ * carried by a push message.  To fit in a GCM payload each day is an array rather than an
+ * object:
+ * <pre>
+ *     { "location": "94043", "base": 41, "version": 42,
+ *       "days": [[2457366, 500, "Rain", 14.5, 9.2, 81, 1012.3, 4.1, 230], ...] }
+ * </pre>
+ * A day is its Julian day, the weather id, the short description, the max and min
+ * temperatures, the humidity, the pressure, the wind speed and the wind direction.
+ * <p/>
+ * The delta applies on top of the data of version base, and brings it to version.
+ */
+public class ForecastDelta {
+    static final String KEY_LOCATION = "location";
+    static final String KEY_BASE = "base";
+    static final String KEY_VERSION = "version";
+    static final String KEY_DAYS = "days";
+
+    // A sync fetches 14 days, a delta can't hold more than a month
+    private static final int MAX_DAYS = 31;
+
+    private static final int DAY_JULIAN_DAY = 0;
+    private static final int DAY_WEATHER_ID = 1;
+    private static final int DAY_SHORT_DESC = 2;
+    private static final int DAY_MAX_TEMP = 3;
+    private static final int DAY_MIN_TEMP = 4;
+    private static final int DAY_HUMIDITY = 5;
+    private static final int DAY_PRESSURE = 6;
+    private static final int DAY_WIND_SPEED = 7;
+    private static final int DAY_DEGREES = 8;
+    private static final int DAY_LENGTH = 9;
+
+    public final String locationSetting;
+    public final long baseVersion;
+    public final long version;
+
+    // The rows of the weather table, without their location
+    private final ContentValues[] mDays;
+
+    private ForecastDelta(String locationSetting, long baseVersion, long version,
+                          ContentValues[] days) {
+        this.locationSetting = locationSetting;
+        this.baseVersion = baseVersion;
+        this.version = version;
+        mDays = days;
+    }
+
+    /**
+     * Parses and validates a delta.  Nothing of a delta is applied unless all of it is valid,
+     * so any malformed or out of range value rejects the whole message.
+     *
+     * @throws JSONException if the delta isn't valid.
+     */
+    public static ForecastDelta parse(JSONObject json) throws JSONException {
+        String locationSetting = json.getString(KEY_LOCATION);
+        if (locationSetting.length() == 0) {
+            throw new JSONException("Empty location");
+        }
+        long baseVersion = json.getLong(KEY_BASE);
+        long version = json.getLong(KEY_VERSION);
+        if (baseVersion < 0 || version <= baseVersion) {
+            throw new JSONException("Invalid versions " + baseVersion + " to " + version);
+        }
+
+        JSONArray days = json.getJSONArray(KEY_DAYS);
+        if (days.length() == 0 || days.length() > MAX_DAYS) {
+            throw new JSONException("Invalid number of days: " + days.length());
+        }
+        ContentValues[] values = new ContentValues[days.length()];
+        // Same dates as the sync: the start of the Julian day, see SunshineSyncAdapter
+        DayNormalizer dayNormalizer = DayNormalizer.getDefault();
+        int previousJulianDay = 0;
+        for (int i = 0; i < days.length(); i++) {
+            JSONArray day = days.getJSONArray(i);
+            if (day.length() != DAY_LENGTH) {
+                throw new JSONException("Invalid day " + i + ": " + day);
+            }
+            int julianDay = day.getInt(DAY_JULIAN_DAY);
+            if (julianDay <= previousJulianDay) {
+                throw new JSONException("Days out of order at " + i);
+            }
+            previousJulianDay = julianDay;
+
+            double high = day.getDouble(DAY_MAX_TEMP);
+            double low = day.getDouble(DAY_MIN_TEMP);
+            int humidity = day.getInt(DAY_HUMIDITY);
+            double degrees = day.getDouble(DAY_DEGREES);
+            String description = day.getString(DAY_SHORT_DESC);
+            if (low > high || humidity < 0 || humidity > 100 || degrees < 0 || degrees > 360
+                    || description.length() == 0) {
+                throw new JSONException("Invalid values for day " + i + ": " + day);
+            }
+
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherEntry.COLUMN_DATE,
+                    dayNormalizer.getStartOfJulianDay(julianDay));
+            weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, day.getInt(DAY_WEATHER_ID));
+            weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, description);
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, high);
+            weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, low);
+            weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, humidity);
+            weatherValues.put(WeatherEntry.COLUMN_PRESSURE, day.getDouble(DAY_PRESSURE));
+            weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, day.getDouble(DAY_WIND_SPEED));
+            weatherValues.put(WeatherEntry.COLUMN_DEGREES, degrees);
+            values[i] = weatherValues;
+        }
+        return new ForecastDelta(locationSetting, baseVersion, version, values);
+    }
+
+    /**
+     * Returns the rows to bulk insert in the weather table for the location row locationId.
+     * The table replaces the rows of the same day, so this updates the days that changed.
+     */
+    public ContentValues[] toContentValues(long locationId) {
+        ContentValues[] values = new ContentValues[mDays.length];
+        for (int i = 0; i < mDays.length; i++) {
+            values[i] = new ContentValues(mDays[i]);
+            values[i].put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+        }
+        return values;
+    }
+}
@@ -52,14 +52,20 @@ public class MyGcmListenerService extends GcmListenerService {
                 // Process message and then post a notification of the received message.
                 try {
                     JSONObject jsonObject = new JSONObject(data.getString(EXTRA_DATA));
-                    String weather = jsonObject.getString(EXTRA_WEATHER);
-                    String location = jsonObject.getString(EXTRA_LOCATION);
-                    String alert =
-                            String.format(getString(R.string.gcm_weather_alert), weather, location);
-                    sendNotification(alert);
+                    // New data on the server: store it or sync the locations it is about
+                    PushMessageHandler.create(this).handle(jsonObject);
+                    if (jsonObject.has(EXTRA_WEATHER)) {
+                        String weather = jsonObject.getString(EXTRA_WEATHER);
+                        String location = jsonObject.getString(EXTRA_LOCATION);
+                        String alert = String.format(getString(R.string.gcm_weather_alert),
+                                weather, location);
+                        sendNotification(alert);
+                    }
                 } catch (JSONException e) {
                     // JSON parsing failed, so we just let this message go, since GCM is not one
-                    // of our critical features.
+                    // of our critical features.  An invalid delta ends up here too, rejected
+                    // before any of it was written.
+                    Log.e(TAG, "Invalid message", e);
                 }
             }
             Log.i(TAG, "Received: " + data.toString());
@@ -0,0 +1,195 @@
+package com.example.android.sunshine.gcm;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.sunshine.Utility;
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.sync.ForecastVersions;
+import com.example.android.sunshine.sync.SunshineSyncAdapter;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Turns the "new data" push messages of the server into syncs or database updates.
+ * <p/>
+ * A message either names the locations whose forecast changed and the version of the data on
+ * the server:
+ * <pre>
+ *     { "locations": ["94043", "London,UK"], "version": 1449500000 }
+ * </pre>
+ * or carries the change itself, as a {@link ForecastDelta}:
+ * <pre>
+ *     { "delta": { "location": "94043", "base": 41, "version": 42, "days": [...] } }
+ * </pre>
+ * Only the locations this device shows are handled, and only if it doesn't already hold that
+ * version.  A delta is written straight to the provider when it applies on top of the version
+ * we hold; when versions are missing in between, or its days couldn't all be stored, the
+ * location gets a full sync instead.  The versions of the deltas and those of the announcements
+ * are separate series, see {@link ForecastVersions}.
+ * <p/>
+ * Syncs go through a {@link SyncRequester}, so that tests can feed messages in without the
+ * sync adapter running.
+ */
+public class PushMessageHandler {
+    private static final String LOG_TAG = PushMessageHandler.class.getSimpleName();
+
+    static final String EXTRA_DATA = "data";
+    static final String KEY_LOCATIONS = "locations";
+    static final String KEY_VERSION = "version";
+    static final String KEY_DELTA = "delta";
+
+    /**
+     * Where the syncs asked for by push messages go.
+     */
+    public interface SyncRequester {
+        /**
+         * @param version      The announced version the locations are synced to, or
+         *                     {@link ForecastVersions#VERSION_NONE}
+         * @param deltaVersion The delta version they are synced to, or
+         *                     {@link ForecastVersions#VERSION_NONE}
+         */
+        void requestSync(String[] locationSettings, long version, long deltaVersion);
+    }
+
+    private final Context mContext;
+    private final SyncRequester mSyncRequester;
+
+    public PushMessageHandler(Context context, SyncRequester syncRequester) {
+        mContext = context;
+        mSyncRequester = syncRequester;
+    }
+
+    /**
+     * Returns a handler whose syncs are run by {@link SunshineSyncAdapter}.
+     */
+    public static PushMessageHandler create(final Context context) {
+        return new PushMessageHandler(context, new SyncRequester() {
+            @Override
+            public void requestSync(String[] locationSettings, long version,
+                                    long deltaVersion) {
+                SunshineSyncAdapter.syncLocations(context, locationSettings, version,
+                        deltaVersion);
+            }
+        });
+    }
+
+    /**
+     * Handles the data bundle of a GCM message.
+     *
+     * @return true if a sync was requested.
+     */
+    public boolean handle(Bundle data) {
+        String json = data.getString(EXTRA_DATA);
+        if (json == null) {
+            return false;
+        }
+        try {
+            return handle(new JSONObject(json));
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, "Invalid message: " + json, e);
+            return false;
+        }
+    }
+
+    /**
+     * Same as {@link #handle(Bundle)}, for a message that is already parsed.  Messages without
+     * locations, like the weather alerts, are left alone.
+     */
+    public boolean handle(JSONObject message) throws JSONException {
+        JSONObject delta = message.optJSONObject(KEY_DELTA);
+        if (delta != null) {
+            return apply(ForecastDelta.parse(delta));
+        }
+
+        JSONArray locations = message.optJSONArray(KEY_LOCATIONS);
+        if (locations == null) {
+            return false;
+        }
+        long version = message.optLong(KEY_VERSION, ForecastVersions.VERSION_NONE);
+
+        // The sync adapter only fetches the preferred location, the others aren't stored here
+        String preferred = Utility.getPreferredLocation(mContext);
+        List<String> affected = new ArrayList<>();
+        for (int i = 0; i < locations.length(); i++) {
+            String location = locations.getString(i);
+            if (!location.equals(preferred) || affected.contains(location)) {
+                continue;
+            }
+            // A message without a version can't be compared, it always syncs
+            if (version != ForecastVersions.VERSION_NONE
+                    && version <= ForecastVersions.get(mContext, location)) {
+                Log.d(LOG_TAG, location + " already at version " + version);
+                continue;
+            }
+            affected.add(location);
+        }
+        if (affected.isEmpty()) {
+            return false;
+        }
+        mSyncRequester.requestSync(affected.toArray(new String[affected.size()]), version,
+                ForecastVersions.VERSION_NONE);
+        return true;
+    }
+
+    /*
+        Writes a delta to the provider if it follows the version we hold.  Older or repeated
+        deltas are dropped, deltas after a gap or whose days weren't all stored cause a full sync
+        of the location.
+     */
+    private boolean apply(ForecastDelta delta) {
+        String location = delta.locationSetting;
+        if (!location.equals(Utility.getPreferredLocation(mContext))) {
+            return false;
+        }
+        long current = ForecastVersions.getDelta(mContext, location);
+        if (delta.version <= current) {
+            Log.d(LOG_TAG, "Dropping delta to " + delta.version + ", " + location
+                    + " is at version " + current);
+            return false;
+        }
+        long locationId = getLocationId(location);
+        if (delta.baseVersion != current || locationId == -1) {
+            Log.d(LOG_TAG, "Delta from " + delta.baseVersion + " doesn't apply to " + location
+                    + " at version " + current + ", syncing it");
+            mSyncRequester.requestSync(new String[]{location}, ForecastVersions.VERSION_NONE,
+                    delta.version);
+            return true;
+        }
+
+        ContentResolver resolver = mContext.getContentResolver();
+        ContentValues[] days = delta.toContentValues(locationId);
+        int inserted = resolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, days);
+        if (inserted != days.length) {
+            // The location isn't at that version, a full sync brings it there
+            Log.w(LOG_TAG, "Only " + inserted + " of " + days.length + " days of the delta to "
+                    + delta.version + " were stored, syncing " + location);
+            mSyncRequester.requestSync(new String[]{location}, ForecastVersions.VERSION_NONE,
+                    delta.version);
+            return true;
+        }
+        ForecastVersions.setDelta(mContext, location, delta.version);
+        SunshineSyncAdapter.onForecastStored(mContext);
+        resolver.call(WeatherContract.BASE_CONTENT_URI, WeatherContract.METHOD_CHECKPOINT,
+                null, null);
+        return true;
+    }
+
+    /*
+        The row of the location, or -1 if it was never synced: a delta has no city name or
+        coordinates to create it with.
+     */
+    private long getLocationId(String locationSetting) {
+        Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_GET_LOCATION_ID, locationSetting, null);
+        return result != null ? result.getLong(WeatherContract.EXTRA_LOCATION_ID, -1) : -1;
+    }
+}
@@ -9,8 +9,10 @@ import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
 import android.util.Log;
 
+import com.example.android.sunshine.IoWatchdog;
 import com.example.android.sunshine.MainActivity;
 import com.example.android.sunshine.R;
+import com.example.android.sunshine.sync.SunshineSyncAdapter;
 import com.google.android.gms.gcm.GoogleCloudMessaging;
 import com.google.android.gms.iid.InstanceID;
 
@@ -41,19 +43,26 @@ public class RegistrationIntentService extends IntentService {
                     String token = instanceID.getToken(senderId,
                             GoogleCloudMessaging.INSTANCE_ID_SCOPE, null);
                     sendRegistrationToServer(token);
+                    // The server now tells us when there is new data, polling can be rarer
+                    SunshineSyncAdapter.setPushRegistered(this, true);
                 }
 
                 // You should store a boolean that indicates whether the generated token has been
                 // sent to your server. If the boolean is false, send the token to your server,
                 // otherwise your server should have already received the token.
-                sharedPreferences.edit().putBoolean(MainActivity.SENT_TOKEN_TO_SERVER, true).apply();
+                IoWatchdog.apply(sharedPreferences.edit()
+                        .putBoolean(MainActivity.SENT_TOKEN_TO_SERVER, true),
+                        MainActivity.SENT_TOKEN_TO_SERVER);
             }
         } catch (Exception e) {
             Log.d(TAG, "Failed to complete token refresh", e);
 
             // If an exception happens while fetching the new token or updating our registration data
             // on a third-party server, this ensures that we'll attempt the update at a later time.
-            sharedPreferences.edit().putBoolean(MainActivity.SENT_TOKEN_TO_SERVER, false).apply();
+            IoWatchdog.apply(sharedPreferences.edit()
+                    .putBoolean(MainActivity.SENT_TOKEN_TO_SERVER, false),
+                    MainActivity.SENT_TOKEN_TO_SERVER);
+            SunshineSyncAdapter.setPushRegistered(this, false);
         }
     }
 
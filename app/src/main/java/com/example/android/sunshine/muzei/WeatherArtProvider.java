@@ -0,0 +1,153 @@
+package com.example.android.sunshine.muzei;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.support.v4.util.AtomicFile;
+import android.util.DisplayMetrics;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Pattern;
+
+/**
+ * Serves the Muzei wallpapers from local, downscaled copies of the condition images, so that
+ * Muzei doesn't download the multi-megabyte originals again each time the condition changes.
+ * <p/>
+ * The provider is exported so Muzei can read it, but it only ever opens files of its own
+ * directory, read only.  Everything but {@link #openFile(Uri, String)} is unsupported.
+ */
+public class WeatherArtProvider extends ContentProvider {
+    private static final String LOG_TAG = WeatherArtProvider.class.getSimpleName();
+
+    public static final String AUTHORITY = "com.example.android.sunshine.muzei";
+    private static final String PATH_ART = "art";
+    private static final String DIRECTORY = "muzei_art";
+
+    // The only file names we hand out: a hash of the image URL
+    private static final Pattern FILE_NAME = Pattern.compile("[0-9a-f]{1,8}\\.jpg");
+
+    private static final int JPEG_QUALITY = 90;
+
+    /**
+     * Returns the content URI of the local copy of an image, downloading and downscaling it to
+     * the screen size first if it isn't there yet.  This blocks on the network the first time,
+     * so it must not be called from the UI thread.
+     *
+     * @return the content URI, or null if the image couldn't be fetched.
+     */
+    public static Uri getArtUri(Context context, String imageUrl) {
+        String fileName = getFileName(imageUrl);
+        File file = new File(getDirectory(context), fileName);
+        if (!file.exists() && !fetch(context, imageUrl, file)) {
+            return null;
+        }
+        return new Uri.Builder().scheme("content").authority(AUTHORITY)
+                .appendPath(PATH_ART).appendPath(fileName).build();
+    }
+
+    private static boolean fetch(Context context, String imageUrl, File file) {
+        // Wallpapers are shown at most at the screen size, whatever the orientation
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        int size = Math.max(metrics.widthPixels, metrics.heightPixels);
+        Bitmap bitmap;
+        try {
+            bitmap = Glide.with(context.getApplicationContext())
+                    .load(imageUrl)
+                    .asBitmap()
+                    .fitCenter()
+                    .into(size, size)
+                    .get();
+        } catch (InterruptedException | ExecutionException e) {
+            Log.e(LOG_TAG, "Error retrieving image from " + imageUrl, e);
+            return false;
+        }
+
+        // Muzei only gets the URI once the image is written, a failed write leaves no file
+        AtomicFile atomicFile = new AtomicFile(file);
+        FileOutputStream out = null;
+        try {
+            out = atomicFile.startWrite();
+            OutputStream buffered = new BufferedOutputStream(out);
+            bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, buffered);
+            buffered.flush();
+            atomicFile.finishWrite(out);
+            return true;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error writing " + file, e);
+            atomicFile.failWrite(out);
+            return false;
+        }
+    }
+
+    private static String getFileName(String imageUrl) {
+        return Integer.toHexString(imageUrl.hashCode()) + ".jpg";
+    }
+
+    private static File getDirectory(Context context) {
+        File directory = new File(context.getFilesDir(), DIRECTORY);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.e(LOG_TAG, "Couldn't create " + directory);
+        }
+        return directory;
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (!"r".equals(mode)) {
+            throw new SecurityException("Read only: " + uri);
+        }
+        // Only art/<hash>.jpg, so nothing outside our directory can be named
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() != 2 || !PATH_ART.equals(segments.get(0))
+                || !FILE_NAME.matcher(segments.get(1)).matches()) {
+            throw new FileNotFoundException("Unknown uri: " + uri);
+        }
+        File file = new File(getDirectory(getContext()), segments.get(1));
+        return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return "image/jpeg";
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder) {
+        throw new UnsupportedOperationException("Unsupported: " + uri);
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException("Unsupported: " + uri);
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Unsupported: " + uri);
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Unsupported: " + uri);
+    }
+}
@@ -6,6 +6,7 @@ import android.net.Uri;
 
 import com.example.android.sunshine.MainActivity;
 import com.example.android.sunshine.Utility;
+import com.example.android.sunshine.data.ForecastMappedFile;
 import com.example.android.sunshine.data.WeatherContract;
 import com.example.android.sunshine.sync.SunshineSyncAdapter;
 import com.google.android.apps.muzei.api.Artwork;
@@ -40,25 +41,63 @@ public class WeatherMuzeiSource extends MuzeiArtSource {
     @Override
     protected void onUpdate(int reason) {
         String location = Utility.getPreferredLocation(this);
+        // From the forecast file when the last sync wrote one for this location
+        ForecastMappedFile snapshot = ForecastMappedFile.open(this, location);
+        int today = snapshot != null ? snapshot.findDay(System.currentTimeMillis()) : -1;
+        if (today != -1) {
+            publishIfValid(reason, snapshot.getWeatherId(today), snapshot.getDescription(today),
+                    location);
+            return;
+        }
         Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
                 location, System.currentTimeMillis());
         Cursor cursor = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
                 null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
-        if (cursor.moveToFirst()) {
-            int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-            String desc = cursor.getString(INDEX_SHORT_DESC);
-
-            String imageUrl = Utility.getImageUrlForWeatherCondition(weatherId);
-            // Only publish a new wallpaper if we have a valid image
-            if (imageUrl != null) {
-                publishArtwork(new Artwork.Builder()
-                        .imageUri(Uri.parse(imageUrl))
-                        .title(desc)
-                        .byline(location)
-                        .viewIntent(new Intent(this, MainActivity.class))
-                        .build());
+        if (cursor == null) {
+            return;
+        }
+        try {
+            if (cursor.moveToFirst()) {
+                publishIfValid(reason, cursor.getInt(INDEX_WEATHER_ID),
+                        cursor.getString(INDEX_SHORT_DESC), location);
             }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void publishIfValid(int reason, int weatherId, String desc, String location) {
+        String imageUrl = Utility.getImageUrlForWeatherCondition(weatherId);
+        // Only publish a new wallpaper if we have a valid image
+        if (imageUrl != null) {
+            publishIfChanged(reason, imageUrl, desc, location);
+        }
+    }
+
+    /*
+        Muzei fetches the image again each time an artwork is published, so nothing is published
+        while the image, the description and the location stay the same.  The token of the
+        current artwork is what Muzei persists for us, so this survives the service being killed.
+     */
+    private void publishIfChanged(int reason, String imageUrl, String desc, String location) {
+        String token = imageUrl + "|" + location + "|" + desc;
+        Artwork current = getCurrentArtwork();
+        if (reason != UPDATE_REASON_INITIAL && current != null
+                && token.equals(current.getToken())) {
+            return;
+        }
+
+        // Served from our downscaled copy, falling back on the original if it can't be fetched
+        Uri imageUri = WeatherArtProvider.getArtUri(this, imageUrl);
+        if (imageUri == null) {
+            imageUri = Uri.parse(imageUrl);
         }
-        cursor.close();
+        publishArtwork(new Artwork.Builder()
+                .imageUri(imageUri)
+                .title(desc)
+                .byline(location)
+                .token(token)
+                .viewIntent(new Intent(this, MainActivity.class))
+                .build());
     }
 }
@@ -0,0 +1,128 @@
+package com.example.android.sunshine.sync;
+
+/**
+ * Decides how often the forecast is polled, from how much it moved in the recent syncs.
+ * <p/>
+ * Each sync compares the forecast of today and tomorrow before and after the sync, and scores
+ * the change: the temperature differences in degrees, plus a fixed penalty when the condition
+ * group changes (clear to rain, say).  The scores are smoothed with an exponentially weighted
+ * moving average.  A volatile forecast halves the interval, a stable one stretches it by half,
+ * within {@link #MIN_INTERVAL} and {@link #MAX_INTERVAL}.
+ * <p/>
+ * This class holds no Android state, so it can be replayed over recorded forecasts; see
+ * {@link AdaptiveSyncScheduler} for the part that stores it and reschedules the sync.
+ */
+public class AdaptiveSyncPolicy {
+
+    // Intervals, in seconds like the sync adapter's
+    public static final int MIN_INTERVAL = 60 * 60;
+    public static final int DEFAULT_INTERVAL = SunshineSyncAdapter.SYNC_INTERVAL;
+    public static final int MAX_INTERVAL = 60 * 60 * 8;
+
+    // Weight of the latest sync in the average
+    static final double ALPHA = 0.4;
+    // A change of condition group counts as much as this many degrees
+    static final double CONDITION_CHANGE_SCORE = 4;
+    // Above this average the forecast is volatile, below STABLE_SCORE it is stable
+    static final double VOLATILE_SCORE = 3;
+    static final double STABLE_SCORE = 0.75;
+
+    /**
+     * What the policy looks at in the forecast of a day.
+     */
+    public static class Day {
+        public final double high;
+        public final double low;
+        public final int weatherId;
+
+        public Day(double high, double low, int weatherId) {
+            this.high = high;
+            this.low = low;
+            this.weatherId = weatherId;
+        }
+    }
+
+    private double mVolatility;
+    private int mInterval;
+
+    public AdaptiveSyncPolicy() {
+        this(0, DEFAULT_INTERVAL);
+    }
+
+    public AdaptiveSyncPolicy(double volatility, int interval) {
+        mVolatility = volatility;
+        mInterval = Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, interval));
+    }
+
+    /**
+     * Scores the change between two forecasts of the same days.  Days missing from either
+     * side, like on the first sync, don't count.
+     */
+    public static double score(Day[] before, Day[] after) {
+        double score = 0;
+        int days = Math.min(before.length, after.length);
+        for (int i = 0; i < days; i++) {
+            if (before[i] == null || after[i] == null) {
+                continue;
+            }
+            score += Math.abs(after[i].high - before[i].high);
+            score += Math.abs(after[i].low - before[i].low);
+            // The hundreds of the OpenWeatherMap ids are the condition groups
+            if (after[i].weatherId / 100 != before[i].weatherId / 100) {
+                score += CONDITION_CHANGE_SCORE;
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Takes a sync's change into account.  A sync with no day to compare, like the first one,
+     * says nothing of how the forecast moves and leaves the policy as it was.
+     *
+     * @return true if the interval changed, and the periodic sync needs rescheduling.
+     */
+    public boolean onSync(Day[] before, Day[] after) {
+        if (!hasCommonDay(before, after)) {
+            return false;
+        }
+        mVolatility = ALPHA * score(before, after) + (1 - ALPHA) * mVolatility;
+        int interval = mInterval;
+        if (mVolatility >= VOLATILE_SCORE) {
+            interval = Math.max(MIN_INTERVAL, interval / 2);
+        } else if (mVolatility <= STABLE_SCORE) {
+            interval = Math.min(MAX_INTERVAL, interval + interval / 2);
+        }
+        boolean changed = interval != mInterval;
+        mInterval = interval;
+        return changed;
+    }
+
+    /*
+        Whether a day is known both before and after the sync, so the score measures a change.
+     */
+    private static boolean hasCommonDay(Day[] before, Day[] after) {
+        int days = Math.min(before.length, after.length);
+        for (int i = 0; i < days; i++) {
+            if (before[i] != null && after[i] != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * How long a sync may be put off on a metered or poor connection: the data is never left
+     * older than twice the current interval.
+     */
+    public int getMaxDeferral() {
+        return mInterval * 2;
+    }
+
+    public double getVolatility() {
+        return mVolatility;
+    }
+
+    public int getInterval() {
+        return mInterval;
+    }
+}
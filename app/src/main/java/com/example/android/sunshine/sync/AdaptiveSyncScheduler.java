@@ -0,0 +1,177 @@
+package com.example.android.sunshine.sync;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Bundle;
+import android.support.v4.net.ConnectivityManagerCompat;
+import android.telephony.TelephonyManager;
+import android.util.Log;
+
+import com.example.android.sunshine.IoWatchdog;
+import com.example.android.sunshine.Utility;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+/**
+ * Keeps the {@link AdaptiveSyncPolicy} across syncs, and applies it: the periodic sync is
+ * rescheduled when the policy's interval changes, and periodic syncs are put off while the
+ * connection is metered or slow, as long as the data isn't too old.
+ */
+public class AdaptiveSyncScheduler {
+    private static final String LOG_TAG = AdaptiveSyncScheduler.class.getSimpleName();
+
+    private static final String PREFS_NAME = "sync_schedule";
+    private static final String PREF_VOLATILITY = "volatility";
+    private static final String PREF_INTERVAL = "interval";
+    private static final String PREF_LAST_SYNC = "last_sync";
+
+    // Today and tomorrow
+    static final int DAYS = 2;
+
+    private static final String[] DAY_COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_WEATHER_ID
+    };
+    // these indices must match the projection
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_MAX_TEMP = 1;
+    private static final int INDEX_MIN_TEMP = 2;
+    private static final int INDEX_WEATHER_ID = 3;
+
+    /**
+     * Returns the interval the periodic sync should run at, in seconds.
+     */
+    public static int getInterval(Context context) {
+        return load(getPreferences(context)).getInterval();
+    }
+
+    /**
+     * Returns true if the sync should be skipped for now.  Only periodic syncs are put off: a
+     * sync the user asked for or one announced by a push message always runs.
+     */
+    public static boolean shouldDefer(Context context, Bundle extras) {
+        if (extras.getBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, false)
+                || extras.containsKey(SunshineSyncAdapter.EXTRA_LOCATIONS)) {
+            return false;
+        }
+        if (!Utility.isNetworkAvailable(context)) {
+            return true;
+        }
+        ConnectivityManager cm =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (!ConnectivityManagerCompat.isActiveNetworkMetered(cm) && !isSlow(cm)) {
+            return false;
+        }
+        SharedPreferences prefs = getPreferences(context);
+        long age = System.currentTimeMillis() - prefs.getLong(PREF_LAST_SYNC, 0);
+        boolean defer = age < load(prefs).getMaxDeferral() * 1000L;
+        if (defer) {
+            Log.d(LOG_TAG, "Deferring sync on a metered or slow network, data is "
+                    + age / 1000 + "s old");
+        }
+        return defer;
+    }
+
+    /*
+        2G class mobile networks, where a sync takes long enough to be worth waiting for better.
+     */
+    private static boolean isSlow(ConnectivityManager cm) {
+        NetworkInfo info = cm.getActiveNetworkInfo();
+        if (info == null || info.getType() != ConnectivityManager.TYPE_MOBILE) {
+            return false;
+        }
+        switch (info.getSubtype()) {
+            case TelephonyManager.NETWORK_TYPE_GPRS:
+            case TelephonyManager.NETWORK_TYPE_EDGE:
+            case TelephonyManager.NETWORK_TYPE_CDMA:
+            case TelephonyManager.NETWORK_TYPE_1xRTT:
+            case TelephonyManager.NETWORK_TYPE_IDEN:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Reads today's and tomorrow's forecast of a location as stored before a sync writes it.
+     *
+     * @param dates The dates of the days, as the sync is about to store them
+     */
+    public static AdaptiveSyncPolicy.Day[] readDays(Context context, String locationSetting,
+                                                    long[] dates) {
+        AdaptiveSyncPolicy.Day[] days = new AdaptiveSyncPolicy.Day[dates.length];
+        if (dates.length == 0) {
+            return days;
+        }
+        Cursor cursor = context.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithStartDate(locationSetting, dates[0]),
+                DAY_COLUMNS, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) {
+            return days;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                long date = cursor.getLong(INDEX_DATE);
+                for (int i = 0; i < dates.length; i++) {
+                    if (dates[i] == date) {
+                        days[i] = new AdaptiveSyncPolicy.Day(cursor.getDouble(INDEX_MAX_TEMP),
+                                cursor.getDouble(INDEX_MIN_TEMP), cursor.getInt(INDEX_WEATHER_ID));
+                    }
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return days;
+    }
+
+    /**
+     * Returns the days of the rows a sync is about to bulk insert, as the policy sees them.
+     */
+    public static AdaptiveSyncPolicy.Day[] toDays(ContentValues[] values) {
+        AdaptiveSyncPolicy.Day[] days =
+                new AdaptiveSyncPolicy.Day[Math.min(DAYS, values.length)];
+        for (int i = 0; i < days.length; i++) {
+            days[i] = new AdaptiveSyncPolicy.Day(
+                    values[i].getAsDouble(WeatherEntry.COLUMN_MAX_TEMP),
+                    values[i].getAsDouble(WeatherEntry.COLUMN_MIN_TEMP),
+                    values[i].getAsInteger(WeatherEntry.COLUMN_WEATHER_ID));
+        }
+        return days;
+    }
+
+    /**
+     * Feeds a successful sync to the policy, and reschedules the periodic sync if its
+     * interval changed.  Called from the sync thread, as it writes the preferences.
+     */
+    public static void onSynced(Context context, AdaptiveSyncPolicy.Day[] before,
+                                AdaptiveSyncPolicy.Day[] after) {
+        SharedPreferences prefs = getPreferences(context);
+        AdaptiveSyncPolicy policy = load(prefs);
+        boolean changed = policy.onSync(before, after);
+        IoWatchdog.commit(prefs.edit()
+                .putFloat(PREF_VOLATILITY, (float) policy.getVolatility())
+                .putInt(PREF_INTERVAL, policy.getInterval())
+                .putLong(PREF_LAST_SYNC, System.currentTimeMillis()), PREFS_NAME);
+        if (changed) {
+            Log.d(LOG_TAG, "Volatility " + policy.getVolatility() + ", syncing every "
+                    + policy.getInterval() + "s");
+            SunshineSyncAdapter.configurePeriodicSync(context);
+        }
+    }
+
+    private static AdaptiveSyncPolicy load(SharedPreferences prefs) {
+        return new AdaptiveSyncPolicy(prefs.getFloat(PREF_VOLATILITY, 0),
+                prefs.getInt(PREF_INTERVAL, AdaptiveSyncPolicy.DEFAULT_INTERVAL));
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.example.android.sunshine.IoWatchdog;
+
+/**
+ * Stops the sync from calling a weather server that keeps failing.
+ * <p/>
+ * After {@link #FAILURE_THRESHOLD} failed fetches in a row the breaker opens, and fetches fail
+ * straight away for a while: {@link #BASE_OPEN_MILLIS} the first time, doubling each time it
+ * opens again, up to {@link #MAX_OPEN_MILLIS}.  Once that time is over the breaker is half
+ * open: the next fetch goes through, and closes the breaker if it succeeds or opens it again
+ * if it fails.
+ * <p/>
+ * The state is kept in preferences, since the sync adapter doesn't outlive a sync.
+ */
+public class CircuitBreaker {
+    private static final String PREFS_NAME = "circuit_breaker";
+    private static final String PREF_FAILURES = "failures";
+    private static final String PREF_OPENED_AT = "opened_at";
+    private static final String PREF_OPEN_MILLIS = "open_millis";
+
+    static final int FAILURE_THRESHOLD = 3;
+    static final long BASE_OPEN_MILLIS = 15 * 60 * 1000;
+    static final long MAX_OPEN_MILLIS = 4 * 60 * 60 * 1000;
+
+    private final SharedPreferences mPrefs;
+
+    public CircuitBreaker(Context context) {
+        this(context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE));
+    }
+
+    CircuitBreaker(SharedPreferences prefs) {
+        mPrefs = prefs;
+    }
+
+    /**
+     * Returns true if a fetch may be made at the given time, that is if the breaker is closed,
+     * or half open.
+     */
+    public synchronized boolean allowRequest(long now) {
+        return now >= getOpenUntil();
+    }
+
+    /**
+     * Returns true if the breaker is open at the given time: fetches are refused.
+     */
+    public synchronized boolean isOpen(long now) {
+        return !allowRequest(now);
+    }
+
+    /**
+     * Returns the time until which fetches are refused, in the past if they aren't.
+     */
+    public synchronized long getOpenUntil() {
+        return mPrefs.getLong(PREF_OPENED_AT, 0) + mPrefs.getLong(PREF_OPEN_MILLIS, 0);
+    }
+
+    public synchronized void onSuccess() {
+        IoWatchdog.commit(mPrefs.edit().clear(), PREFS_NAME);
+    }
+
+    /**
+     * Records a failed fetch, after its retries.
+     *
+     * @return true if this failure opened the breaker.
+     */
+    public synchronized boolean onFailure(long now) {
+        int failures = mPrefs.getInt(PREF_FAILURES, 0) + 1;
+        SharedPreferences.Editor editor = mPrefs.edit().putInt(PREF_FAILURES, failures);
+        boolean open = failures >= FAILURE_THRESHOLD;
+        if (open) {
+            // A breaker that was already open once stays open longer each time
+            long openMillis = mPrefs.getLong(PREF_OPEN_MILLIS, 0);
+            openMillis = openMillis == 0
+                    ? BASE_OPEN_MILLIS : Math.min(MAX_OPEN_MILLIS, openMillis * 2);
+            editor.putLong(PREF_OPENED_AT, now).putLong(PREF_OPEN_MILLIS, openMillis);
+        }
+        IoWatchdog.commit(editor, PREFS_NAME);
+        return open;
+    }
+}
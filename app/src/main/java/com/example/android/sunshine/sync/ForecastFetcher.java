@@ -0,0 +1,146 @@
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Random;
+
+/**
+ * Fetches the forecast from the weather server, without hanging on a dead connection or
+ * hammering a server that is down.  The requests themselves go through an
+ * {@link HttpTransport}, by default one {@link UrlConnectionTransport} shared by every sync so
+ * its connections are reused.
+ * <p/>
+ * Connecting and reading each have their own timeout.  A fetch that fails on the network or
+ * with a server error (5xx, or 429) is retried a few times, after a jittered exponential
+ * backoff.  A fetch that still fails counts against the {@link CircuitBreaker}, and while the
+ * breaker is open fetches fail with a {@link CircuitOpenException} without touching the
+ * network.
+ */
+public class ForecastFetcher {
+    private static final String LOG_TAG = ForecastFetcher.class.getSimpleName();
+
+    static final int CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    static final int READ_TIMEOUT_MILLIS = 20 * 1000;
+    static final int MAX_ATTEMPTS = 3;
+    static final long BASE_BACKOFF_MILLIS = 1000;
+    static final long MAX_BACKOFF_MILLIS = 16 * 1000;
+
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    /**
+     * Thrown instead of fetching while the circuit breaker is open.
+     */
+    public static class CircuitOpenException extends IOException {
+        public final long openUntil;
+
+        CircuitOpenException(long openUntil) {
+            super("Circuit breaker open until " + openUntil);
+            this.openUntil = openUntil;
+        }
+    }
+
+    private static final HttpTransport sDefaultTransport = new UrlConnectionTransport();
+
+    private final HttpTransport mTransport;
+    private final CircuitBreaker mBreaker;
+    private final int mConnectTimeout;
+    private final int mReadTimeout;
+    private final int mMaxAttempts;
+    private final long mBaseBackoff;
+    private final Random mRandom = new Random();
+
+    public ForecastFetcher(Context context) {
+        this(context, sDefaultTransport);
+    }
+
+    public ForecastFetcher(Context context, HttpTransport transport) {
+        this(transport, new CircuitBreaker(context), CONNECT_TIMEOUT_MILLIS, READ_TIMEOUT_MILLIS,
+                MAX_ATTEMPTS, BASE_BACKOFF_MILLIS);
+    }
+
+    ForecastFetcher(HttpTransport transport, CircuitBreaker breaker, int connectTimeout,
+                    int readTimeout, int maxAttempts, long baseBackoff) {
+        mTransport = transport;
+        mBreaker = breaker;
+        mConnectTimeout = connectTimeout;
+        mReadTimeout = readTimeout;
+        mMaxAttempts = maxAttempts;
+        mBaseBackoff = baseBackoff;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return mBreaker;
+    }
+
+    /**
+     * Fetches the body of the response.  Client errors (4xx) aren't retried and return the
+     * error body, which the weather server fills with a JSON error code.
+     *
+     * @throws CircuitOpenException if the circuit breaker is open.
+     * @throws IOException          if every attempt failed.
+     */
+    public String fetch(URL url) throws IOException {
+        if (!mBreaker.allowRequest(System.currentTimeMillis())) {
+            throw new CircuitOpenException(mBreaker.getOpenUntil());
+        }
+        IOException failure = null;
+        for (int attempt = 0; attempt < mMaxAttempts; attempt++) {
+            if (attempt > 0) {
+                sleep(getBackoff(attempt - 1));
+            }
+            try {
+                String body = get(url);
+                mBreaker.onSuccess();
+                return body;
+            } catch (InterruptedIOException e) {
+                // A timeout is worth retrying, an interrupted sync isn't
+                if (Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                failure = e;
+            } catch (IOException e) {
+                failure = e;
+            }
+            Log.w(LOG_TAG, "Attempt " + (attempt + 1) + " of " + mMaxAttempts + " failed: "
+                    + failure);
+        }
+        if (mBreaker.onFailure(System.currentTimeMillis())) {
+            Log.w(LOG_TAG, "Circuit breaker open until " + mBreaker.getOpenUntil());
+        }
+        throw failure;
+    }
+
+    /*
+        "Full jitter": a random delay up to the exponential backoff, so that clients failing
+        together don't retry together.
+     */
+    long getBackoff(int retry) {
+        long cap = Math.min(MAX_BACKOFF_MILLIS, mBaseBackoff << Math.min(retry, 16));
+        return (long) (mRandom.nextDouble() * cap);
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted during backoff");
+        }
+    }
+
+    private String get(URL url) throws IOException {
+        HttpTransport.Response response = mTransport.get(url, mConnectTimeout, mReadTimeout);
+        if (response.code >= HttpURLConnection.HTTP_INTERNAL_ERROR
+                || response.code == HTTP_TOO_MANY_REQUESTS) {
+            throw new IOException("HTTP " + response.code);
+        }
+        Log.d(LOG_TAG, "HTTP " + response.code + ", " + response.wireBytes + " bytes received, "
+                + response.bodyBytes + " bytes of body");
+        return response.body;
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.example.android.sunshine.IoWatchdog;
+
+/**
+ * The version of the server data each location was last synced to.  Push messages carry the
+ * version they announce, so a message about data we already have doesn't cause a sync.
+ * <p/>
+ * There are two unrelated series of versions: the ones announcing new data (timestamps), and
+ * the ones of the deltas (counters, each delta moving from one to the next).  Each has its own
+ * entry, so one can't pass for a gap or a stale version of the other.  Versions are kept in
+ * their own preferences file, apart from the user's settings.
+ */
+public class ForecastVersions {
+    private static final String PREFS_NAME = "forecast_versions";
+
+    /** Version of a location that was never synced from a versioned message. */
+    public static final long VERSION_NONE = 0;
+
+    // Prefix of the entries of the delta versions, those of the announced ones are the bare
+    // location settings
+    private static final String DELTA_PREFIX = "delta:";
+
+    /**
+     * The announced version a location was last synced to.
+     */
+    public static long get(Context context, String locationSetting) {
+        return getPreferences(context).getLong(locationSetting, VERSION_NONE);
+    }
+
+    /**
+     * Records that a location holds the data of the given announced version.  Versions only
+     * move forward, an older version than the one stored is ignored.
+     */
+    public static void set(Context context, String locationSetting, long version) {
+        put(context, locationSetting, version);
+    }
+
+    /**
+     * The version of the last delta a location holds, applied or synced over.
+     */
+    public static long getDelta(Context context, String locationSetting) {
+        return getPreferences(context).getLong(DELTA_PREFIX + locationSetting, VERSION_NONE);
+    }
+
+    /**
+     * Records that a location holds the data of the given delta version, forward only as
+     * {@link #set} is.
+     */
+    public static void setDelta(Context context, String locationSetting, long version) {
+        put(context, DELTA_PREFIX + locationSetting, version);
+    }
+
+    public static void clear(Context context) {
+        IoWatchdog.apply(getPreferences(context).edit().clear(), PREFS_NAME);
+    }
+
+    private static void put(Context context, String key, long version) {
+        SharedPreferences prefs = getPreferences(context);
+        if (version > prefs.getLong(key, VERSION_NONE)) {
+            IoWatchdog.apply(prefs.edit().putLong(key, version), PREFS_NAME);
+        }
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.android.sunshine.sync;
+
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * How the sync talks HTTP.  {@link UrlConnectionTransport} is the real one; tests and
+ * benchmarks put their own in front of a local server or recorded responses.
+ */
+public interface HttpTransport {
+
+    /**
+     * A response, read in full.
+     */
+    class Response {
+        public final int code;
+        public final String body;
+        // Bytes of the body as they came over the network, compressed or not
+        public final long wireBytes;
+        // Bytes of the body once decompressed
+        public final long bodyBytes;
+
+        public Response(int code, String body, long wireBytes, long bodyBytes) {
+            this.code = code;
+            this.body = body;
+            this.wireBytes = wireBytes;
+            this.bodyBytes = bodyBytes;
+        }
+    }
+
+    /**
+     * Makes a GET request and reads the whole body, whatever the response code.
+     *
+     * @throws IOException if no response could be read, within the timeouts.
+     */
+    Response get(URL url, int connectTimeoutMillis, int readTimeoutMillis) throws IOException;
+}
@@ -7,32 +7,41 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
-import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
 import android.content.res.Resources;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.RemoteException;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
+import android.support.annotation.VisibleForTesting;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
-import android.text.format.Time;
+import android.text.TextUtils;
 import android.util.Log;
 
 import com.bumptech.glide.Glide;
+import com.example.android.sunshine.IoWatchdog;
 import com.example.android.sunshine.MainActivity;
 import com.example.android.sunshine.R;
 import com.example.android.sunshine.Utility;
+import com.example.android.sunshine.data.DayNormalizer;
+import com.example.android.sunshine.data.ForecastMappedFile;
+import com.example.android.sunshine.data.WeatherBackup;
 import com.example.android.sunshine.data.WeatherContract;
 import com.example.android.sunshine.muzei.WeatherMuzeiSource;
 import com.google.android.gms.common.ConnectionResult;
@@ -47,14 +56,13 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Vector;
 import java.util.concurrent.ExecutionException;
 import com.google.android.gms.common.api.GoogleApiClient.ConnectionCallbacks;
@@ -76,6 +84,25 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     //public static final int SYNC_INTERVAL = 30;
     //public static final int SYNC_INTERVAL = 60 * 720;
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL / 3;
+    // Once push messages announce new data, polling is only a safety net: 12 hours
+    public static final int SYNC_INTERVAL_WITH_PUSH = 60 * 720;
+
+    // Sync extras of a push triggered sync: the location settings to sync, one per line, and
+    // the server version they were announced at or the delta version they are behind
+    public static final String EXTRA_LOCATIONS = "locations";
+    public static final String EXTRA_VERSION = "version";
+    public static final String EXTRA_DELTA_VERSION = "delta_version";
+    // Location settings hold commas, as in "London,UK", but no line breaks
+    private static final String LOCATIONS_SEPARATOR = "\n";
+
+    private static final String PREF_PUSH_REGISTERED = "pushRegistered";
+
+    private static final String DEFAULT_FORECAST_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast/daily?";
+
+    // Replay mode: where the forecast comes from when it isn't the weather server
+    private static volatile String sForecastBaseUrl = DEFAULT_FORECAST_BASE_URL;
+    private static volatile HttpTransport sReplayTransport;
 
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
@@ -112,7 +139,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
 
 
     @Retention(RetentionPolicy.SOURCE)
-    @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID, LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
+    @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID, LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID, LOCATION_STATUS_CIRCUIT_OPEN})
     public @interface LocationStatus {
     }
 
@@ -121,6 +148,8 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     public static final int LOCATION_STATUS_SERVER_INVALID = 2;
     public static final int LOCATION_STATUS_UNKNOWN = 3;
     public static final int LOCATION_STATUS_INVALID = 4;
+    // The server failed too often, syncs are on hold for a while (see CircuitBreaker)
+    public static final int LOCATION_STATUS_CIRCUIT_OPEN = 5;
 
     final GoogleApiClient mGoogleApiClient;
 
@@ -142,9 +171,11 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
      * <p/>
      * Fortunately parsing is easy:  constructor takes the JSON string and converts it
      * into an Object hierarchy for us.
+     *
+     * @return true if the forecast was stored.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
+    private boolean getWeatherDataFromJson(String forecastJsonStr,
+                                           String locationSetting)
             throws JSONException {
 
         // Now we have a String representing the complete forecast in JSON Format.
@@ -194,10 +225,10 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                         break;
                     case HttpURLConnection.HTTP_NOT_FOUND:
                         setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
+                        return false;
                     default:
                         setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+                        return false;
                 }
             }
 
@@ -211,7 +242,11 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
             double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
             double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
 
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
+            // The location and its forecast are written in one batch, the forecast refers to
+            // the location through the result of its insert
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+            operations.add(newLocationOperation(locationSetting, cityName, cityLatitude,
+                    cityLongitude));
 
             // Insert the new weather information into the database
             Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
@@ -224,14 +259,10 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
             // current day, we're going to take advantage of that to get a nice
             // normalized UTC date for all of our weather.
 
-            Time dayTime = new Time();
-            dayTime.setToNow();
+            DayNormalizer days = DayNormalizer.getDefault();
 
             // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
+            int julianStartDay = days.getJulianDay(System.currentTimeMillis());
 
             for (int i = 0; i < weatherArray.length(); i++) {
                 // These are the values that will be collected.
@@ -251,7 +282,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                 JSONObject dayForecast = weatherArray.getJSONObject(i);
 
                 // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay + i);
+                dateTime = days.getStartOfJulianDay(julianStartDay + i);
 
                 pressure = dayForecast.getDouble(OWM_PRESSURE);
                 humidity = dayForecast.getInt(OWM_HUMIDITY);
@@ -273,7 +304,6 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
 
                 ContentValues weatherValues = new ContentValues();
 
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
                 weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
                 weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
                 weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
@@ -289,45 +319,94 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
 
             int inserted = 0;
             // add to database
-            if (cVVector.size() > 0) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                inserted = getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[]{Long.toString(dayTime.setJulianDay(julianStartDay - 1))});
-
-                updateWidgets();
-                updateMuzei();
-
+            ContentValues[] cvArray = new ContentValues[cVVector.size()];
+            cVVector.toArray(cvArray);
+            AdaptiveSyncPolicy.Day[] before = null;
+            AdaptiveSyncPolicy.Day[] after = null;
+            if (cvArray.length > 0) {
+                // How much today and tomorrow move from sync to sync sets the sync interval
+                after = AdaptiveSyncScheduler.toDays(cvArray);
+                long[] dates = new long[after.length];
+                for (int i = 0; i < dates.length; i++) {
+                    dates[i] = cvArray[i].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                }
+                before = AdaptiveSyncScheduler.readDays(getContext(), locationSetting, dates);
+            }
+            for (ContentValues weatherValues : cvArray) {
+                operations.add(ContentProviderOperation
+                        .newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                        .withValues(weatherValues)
+                        .withValueBackReference(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, 0)
+                        .build());
+            }
+            try {
+                // One transaction, and one notification per URI once it commits
+                inserted = getContext().getContentResolver().applyBatch(
+                        WeatherContract.CONTENT_AUTHORITY, operations).length - 1;
+            } catch (RemoteException | OperationApplicationException e) {
+                Log.e(LOG_TAG, "Failed to store the forecast", e);
+                setLocationStatus(getContext(), LOCATION_STATUS_UNKNOWN);
+                return false;
+            } catch (SQLException e) {
+                // A row the provider refused (e.g. a missing field), the whole batch is rolled back
+                Log.e(LOG_TAG, "Failed to store the forecast", e);
+                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+                return false;
+            }
+            if (inserted > 0) {
+                onForecastStored(getContext());
+                AdaptiveSyncScheduler.onSynced(getContext(), before, after);
             }
             notifyWeather();
             syncWearable();
+            // Now that the sync's writes are over, fold the write-ahead log into the database
+            getContext().getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                    WeatherContract.METHOD_CHECKPOINT, null, null);
             Log.d(LOG_TAG, "FetchWeatherTask Complete. " + inserted + " Inserted");
             setLocationStatus(getContext(), LOCATION_STATUS_OK);
+            return true;
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
             e.printStackTrace();
             setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            return false;
         }
     }
 
 
 
-    private void updateWidgets() {
-        Context context = getContext();
+    /**
+     * Brings everything derived from the stored forecast up to date, after new forecast rows
+     * were written, by a sync or by a push message.
+     *
+     * @param context The context used to reach the widgets and services
+     */
+    public static void onForecastStored(Context context) {
+        // Old data is archived or dropped according to the location's retention policy,
+        // in the background so the sync doesn't wait for it
+        WeatherCompactionService.startCompaction(context);
+
+        // The file the cold start list, the widgets, Muzei and the notification read from
+        String locationSetting = Utility.getPreferredLocation(context);
+        ForecastMappedFile.write(context, locationSetting);
+        // And the backup a reinstall starts from, with the days just stored
+        WeatherBackup.append(context, locationSetting,
+                WeatherContract.normalizeDate(System.currentTimeMillis()));
+
+        updateWidgets(context);
+        updateMuzei(context);
+    }
+
+    private static void updateWidgets(Context context) {
         // Setting the package ensures that only components in our app will receive the broadcast
         Intent dataUpdatedIntent = new Intent(ACTION_DATA_UPDATED).setPackage(context.getPackageName());
         context.sendBroadcast(dataUpdatedIntent);
     }
 
-    private void updateMuzei() {
+    private static void updateMuzei(Context context) {
         // Muzei is only compatible with Jelly Bean MR1+ devices, so there's no need to update the
         // Muzei background on lower API level devices
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
-            Context context = getContext();
             context.startService(new Intent(ACTION_DATA_UPDATED)
                     .setClass(context, WeatherMuzeiSource.class));
         }
@@ -349,98 +428,123 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                 // Last sync was more than 1 day ago, let's send a notification with the weather.
                 String locationQuery = Utility.getPreferredLocation(context);
 
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
-
-                    int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
-                    Resources resources = context.getResources();
-                    int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-                    String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
-
-                    // On Honeycomb and higher devices, we can retrieve the size of the large icon
-                    // Prior to that, we use a fixed size
-                    @SuppressLint("InlinedApi")
-                    int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-                    @SuppressLint("InlinedApi")
-                    int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-
-                    // Retrieve the large icon
-                    Bitmap largeIcon;
+                int weatherId;
+                double high;
+                double low;
+                String desc;
+                // The forecast file was just written, today is read from it without the database
+                ForecastMappedFile snapshot = ForecastMappedFile.open(context, locationQuery);
+                // Today itself, never the next day the file holds
+                int today = snapshot != null ? snapshot.findDate(System.currentTimeMillis()) : -1;
+                if (today != -1) {
+                    weatherId = snapshot.getWeatherId(today);
+                    high = snapshot.getMaxTemp(today);
+                    low = snapshot.getMinTemp(today);
+                    desc = snapshot.getDescription(today);
+                } else {
+                    Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
+
+                    // we'll query our contentProvider, as always
+                    Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
                     try {
-                        largeIcon = Glide.with(context)
-                                .load(artUrl)
-                                .asBitmap()
-                                .error(artResourceId)
-                                .fitCenter()
-                                .into(largeIconWidth, largeIconHeight).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from "+artUrl, e);
-                        largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
+                        if (!cursor.moveToFirst()) {
+                            return;
+                        }
+                        weatherId = cursor.getInt(INDEX_WEATHER_ID);
+                        high = cursor.getDouble(INDEX_MAX_TEMP);
+                        low = cursor.getDouble(INDEX_MIN_TEMP);
+                        desc = cursor.getString(INDEX_SHORT_DESC);
+                    } finally {
+                        cursor.close();
                     }
-                    String title = context.getString(R.string.app_name);
-
-                    // Define the text of the forecast.
-                    String contentText = String.format(context.getString(R.string.format_notification),
-                            desc,
-                            Utility.formatTemperature(context, high),
-                            Utility.formatTemperature(context, low));
-
-                    // NotificationCompatBuilder is a very convenient way to build backward-compatible
-                    // notifications.  Just throw in some data.
-                    NotificationCompat.Builder mBuilder =
-                            new NotificationCompat.Builder(getContext())
-                                    .setColor(resources.getColor(R.color.primary_light))
-                                    .setSmallIcon(iconId)
-                                    .setLargeIcon(largeIcon)
-                                    .setContentTitle(title)
-                                    .setContentText(contentText);
-
-                    // Make something interesting happen when the user clicks on the notification.
-                    // In this case, opening the app is sufficient.
-                    Intent resultIntent = new Intent(context, MainActivity.class);
-
-                    // The stack builder object will contain an artificial back stack for the
-                    // started Activity.
-                    // This ensures that navigating backward from the Activity leads out of
-                    // your application to the Home screen.
-                    TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
-                    stackBuilder.addNextIntent(resultIntent);
-                    PendingIntent resultPendingIntent =
-                            stackBuilder.getPendingIntent(
-                                    0,
-                                    PendingIntent.FLAG_UPDATE_CURRENT
-                            );
-                    mBuilder.setContentIntent(resultPendingIntent);
-
-                    NotificationManager mNotificationManager =
-                            (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
-                    // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
-                    mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
-                    //refreshing last sync
-                    SharedPreferences.Editor editor = prefs.edit();
-                    editor.putLong(lastNotificationKey, System.currentTimeMillis());
-                    editor.commit();
                 }
-                cursor.close();
+
+                int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
+                Resources resources = context.getResources();
+                int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+                String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
+
+                // On Honeycomb and higher devices, we can retrieve the size of the large icon
+                // Prior to that, we use a fixed size
+                @SuppressLint("InlinedApi")
+                int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                        ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
+                        : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+                @SuppressLint("InlinedApi")
+                int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                        ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
+                        : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+
+                // Retrieve the large icon
+                Bitmap largeIcon;
+                try {
+                    largeIcon = Glide.with(context)
+                            .load(artUrl)
+                            .asBitmap()
+                            .error(artResourceId)
+                            .fitCenter()
+                            .into(largeIconWidth, largeIconHeight).get();
+                } catch (InterruptedException | ExecutionException e) {
+                    Log.e(LOG_TAG, "Error retrieving large icon from "+artUrl, e);
+                    largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
+                }
+                String title = context.getString(R.string.app_name);
+
+                // Define the text of the forecast.
+                String contentText = String.format(context.getString(R.string.format_notification),
+                        desc,
+                        Utility.formatTemperature(context, high),
+                        Utility.formatTemperature(context, low));
+
+                // NotificationCompatBuilder is a very convenient way to build backward-compatible
+                // notifications.  Just throw in some data.
+                NotificationCompat.Builder mBuilder =
+                        new NotificationCompat.Builder(getContext())
+                                .setColor(resources.getColor(R.color.primary_light))
+                                .setSmallIcon(iconId)
+                                .setLargeIcon(largeIcon)
+                                .setContentTitle(title)
+                                .setContentText(contentText);
+
+                // Make something interesting happen when the user clicks on the notification.
+                // In this case, opening the app is sufficient.
+                Intent resultIntent = new Intent(context, MainActivity.class);
+
+                // The stack builder object will contain an artificial back stack for the
+                // started Activity.
+                // This ensures that navigating backward from the Activity leads out of
+                // your application to the Home screen.
+                TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
+                stackBuilder.addNextIntent(resultIntent);
+                PendingIntent resultPendingIntent =
+                        stackBuilder.getPendingIntent(
+                                0,
+                                PendingIntent.FLAG_UPDATE_CURRENT
+                        );
+                mBuilder.setContentIntent(resultPendingIntent);
+
+                NotificationManager mNotificationManager =
+                        (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
+                // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
+                mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
+                //refreshing last sync
+                SharedPreferences.Editor editor = prefs.edit();
+                editor.putLong(lastNotificationKey, System.currentTimeMillis());
+                IoWatchdog.commit(editor, lastNotificationKey);
             }
         }
     }
 
     private void syncWearable() {
-        // we'll query our contentProvider, as always
         String locationQuery = Utility.getPreferredLocation(getContext());
+        ForecastMappedFile snapshot = ForecastMappedFile.open(getContext(), locationQuery);
+        int today = snapshot != null ? snapshot.findDate(System.currentTimeMillis()) : -1;
+        if (today != -1) {
+            syncWearable(snapshot.getWeatherId(today), snapshot.getMaxTemp(today),
+                    snapshot.getMinTemp(today));
+            return;
+        }
+        // we'll query our contentProvider, as always
         Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
         Cursor cursor = getContext().getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
         if (cursor.moveToFirst()) {
@@ -449,6 +553,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
             double low = cursor.getDouble(INDEX_MIN_TEMP);
             syncWearable(weatherId, high, low);
         }
+        cursor.close();
     }
 
     private void syncWearable(int weatherId, double high, double low) {
@@ -491,53 +596,23 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     }
 
     /**
-     * Helper method to handle insertion of a new location in the weather database.
+     * Helper method to handle insertion of a new location in the weather database.  The
+     * provider inserts the location only if it isn't there yet, and returns its row either way.
      *
      * @param locationSetting The location string used to request updates from the server.
      * @param cityName        A human-readable city name, e.g "Mountain View"
      * @param lat             the latitude of the city
      * @param lon             the longitude of the city
-     * @return the row ID of the added location.
+     * @return the operation inserting the location, whose result is the location's URI.
      */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
-        }
-
-        locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
+    static ContentProviderOperation newLocationOperation(String locationSetting, String cityName,
+                                                         double lat, double lon) {
+        return ContentProviderOperation.newInsert(WeatherContract.LocationEntry.CONTENT_URI)
+                .withValue(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName)
+                .withValue(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting)
+                .withValue(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat)
+                .withValue(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon)
+                .build();
     }
 
     @Override
@@ -546,10 +621,19 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
 
         String locationQuery = Utility.getPreferredLocation(getContext());
 
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
+        // Periodic syncs wait for a better connection while the data is recent enough
+        if (AdaptiveSyncScheduler.shouldDefer(getContext(), extras)) {
+            return;
+        }
+
+        // A push triggered sync is only about the locations the message named
+        String locations = extras.getString(EXTRA_LOCATIONS);
+        if (locations != null
+                && !Arrays.asList(TextUtils.split(locations, LOCATIONS_SEPARATOR))
+                .contains(locationQuery)) {
+            Log.d(LOG_TAG, "Sync not needed, " + locationQuery + " isn't in " + locations);
+            return;
+        }
 
         // Will contain the raw JSON response as a string.
         String forecastJsonStr = null;
@@ -558,12 +642,14 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         String units = "metric";
         int numDays = 14;
 
+        HttpTransport transport = sReplayTransport;
+        ForecastFetcher fetcher = transport != null
+                ? new ForecastFetcher(getContext(), transport) : new ForecastFetcher(getContext());
         try {
             // Construct the URL for the OpenWeatherMap query
             // Possible parameters are avaiable at OWM's forecast API page, at
             // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
+            final String FORECAST_BASE_URL = sForecastBaseUrl;
             final String QUERY_PARAM = "q";
             final String FORMAT_PARAM = "mode";
             final String UNITS_PARAM = "units";
@@ -581,61 +667,75 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
 
             URL url = new URL(builtUri.toString());
 
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-
-            Log.d("Json", Thread.currentThread().getStackTrace()[2] + ": "
-                    + Utility.thread() + " : InputStream json : object created");
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
-            }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
-            }
+            // Timeouts, retries and the circuit breaker are the fetcher's business
+            forecastJsonStr = fetcher.fetch(url);
 
-            if (buffer.length() == 0) {
+            if (forecastJsonStr.length() == 0) {
                 // Stream was empty.  No point in parsing.
                 setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
                 return;
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
+            if (getWeatherDataFromJson(forecastJsonStr, locationQuery)) {
+                if (extras.containsKey(EXTRA_VERSION)) {
+                    ForecastVersions.set(getContext(), locationQuery,
+                            extras.getLong(EXTRA_VERSION));
+                }
+                if (extras.containsKey(EXTRA_DELTA_VERSION)) {
+                    ForecastVersions.setDelta(getContext(), locationQuery,
+                            extras.getLong(EXTRA_DELTA_VERSION));
+                }
+            }
+        } catch (ForecastFetcher.CircuitOpenException e) {
+            Log.d(LOG_TAG, e.getMessage());
+            setLocationStatus(getContext(), LOCATION_STATUS_CIRCUIT_OPEN);
+            // Tell the SyncManager not to bring the sync back before the breaker half opens
+            syncResult.delayUntil = e.openUntil / 1000;
         } catch (IOException e) {
             Log.e(LOG_TAG, "Error ", e);
             // If the code didn't successfully get the weather data, there's no point in attempting
             // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            syncResult.stats.numIoExceptions++;
+            CircuitBreaker breaker = fetcher.getCircuitBreaker();
+            if (breaker.isOpen(System.currentTimeMillis())) {
+                setLocationStatus(getContext(), LOCATION_STATUS_CIRCUIT_OPEN);
+                syncResult.delayUntil = breaker.getOpenUntil() / 1000;
+            } else {
+                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            }
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
             e.printStackTrace();
             setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-                }
-            }
         }
-        return;
+    }
+
+    /**
+     * Replay mode, for tests: the syncs fetch their forecast from another server than the
+     * weather server, like a loopback server, until {@link #resetReplay()}.
+     *
+     * @param baseUrl The URL the forecast query parameters are appended to
+     */
+    @VisibleForTesting
+    static void setForecastBaseUrl(String baseUrl) {
+        sForecastBaseUrl = baseUrl;
+    }
 
+    /**
+     * Replay mode, for tests: the syncs get their responses from the given transport, like one
+     * serving recorded responses, until {@link #resetReplay()}.
+     */
+    @VisibleForTesting
+    static void setReplayTransport(HttpTransport transport) {
+        sReplayTransport = transport;
+    }
+
+    /**
+     * Leaves replay mode, syncs go back to the weather server.
+     */
+    @VisibleForTesting
+    static void resetReplay() {
+        sForecastBaseUrl = DEFAULT_FORECAST_BASE_URL;
+        sReplayTransport = null;
     }
 
     /**
@@ -651,6 +751,54 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                 context.getString(R.string.content_authority), bundle);
     }
 
+    /**
+     * Helper method to sync the given locations as soon as possible, after a push message
+     * announced new data for them.  Unlike {@link #syncImmediately(Context)} this is not a
+     * manual sync, so it respects the user's auto-sync and background data settings.
+     *
+     * @param context          The context used to access the account service
+     * @param locationSettings The locations whose data changed
+     * @param version          The announced server version of that data, or
+     *                         {@link ForecastVersions#VERSION_NONE}
+     * @param deltaVersion     The delta version of that data, or
+     *                         {@link ForecastVersions#VERSION_NONE}
+     */
+    public static void syncLocations(Context context, String[] locationSettings, long version,
+                                     long deltaVersion) {
+        Bundle bundle = getLocationsExtras(locationSettings, version, deltaVersion);
+        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
+        ContentResolver.requestSync(getSyncAccount(context),
+                context.getString(R.string.content_authority), bundle);
+    }
+
+    /*
+        The extras telling a sync which locations to fetch, as onPerformSync reads them.
+     */
+    static Bundle getLocationsExtras(String[] locationSettings, long version,
+                                     long deltaVersion) {
+        Bundle bundle = new Bundle();
+        // Sync extras can't hold arrays
+        bundle.putString(EXTRA_LOCATIONS, TextUtils.join(LOCATIONS_SEPARATOR, locationSettings));
+        if (version != ForecastVersions.VERSION_NONE) {
+            bundle.putLong(EXTRA_VERSION, version);
+        }
+        if (deltaVersion != ForecastVersions.VERSION_NONE) {
+            bundle.putLong(EXTRA_DELTA_VERSION, deltaVersion);
+        }
+        return bundle;
+    }
+
+    /**
+     * Records whether this device receives the push messages announcing new data, and
+     * reschedules the periodic sync accordingly.
+     */
+    public static void setPushRegistered(Context context, boolean registered) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        IoWatchdog.apply(sp.edit().putBoolean(PREF_PUSH_REGISTERED, registered),
+                PREF_PUSH_REGISTERED);
+        configurePeriodicSync(context);
+    }
+
     /**
      * Helper method to get the fake account to be used with SyncAdapter, or make a new one
      * if the fake account doesn't exist yet.  If we make a new account, we call the
@@ -711,11 +859,24 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         }
     }
 
+    /**
+     * Schedules the periodic sync at the interval of the {@link AdaptiveSyncPolicy}, and no
+     * more often than {@link #SYNC_INTERVAL_WITH_PUSH} if push messages announce new data.
+     */
+    public static void configurePeriodicSync(Context context) {
+        int syncInterval = AdaptiveSyncScheduler.getInterval(context);
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        if (sp.getBoolean(PREF_PUSH_REGISTERED, false)) {
+            syncInterval = Math.max(syncInterval, SYNC_INTERVAL_WITH_PUSH);
+        }
+        configurePeriodicSync(context, syncInterval, syncInterval / 3);
+    }
+
     private static void onAccountCreated(Account newAccount, Context context) {
         /*
          * Since we've created an account
          */
-        SunshineSyncAdapter.configurePeriodicSync(context, SYNC_INTERVAL, SYNC_FLEXTIME);
+        SunshineSyncAdapter.configurePeriodicSync(context);
 
         /*
          * Without calling setSyncAutomatically, our periodic sync will not be enabled.
@@ -732,6 +893,22 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         getSyncAccount(context);
     }
 
+    /**
+     * Same as {@link #initializeSyncAdapter(Context)}, but the AccountManager lookups run on a
+     * background thread, so it can be called on the startup path of an activity.
+     *
+     * @param context The context used to access the account service
+     */
+    public static void initializeSyncAdapterInBackground(Context context) {
+        final Context appContext = context.getApplicationContext();
+        AsyncTask.execute(new Runnable() {
+            @Override
+            public void run() {
+                initializeSyncAdapter(appContext);
+            }
+        });
+    }
+
 
     /**
      * Sets the location status into shared preference.  This function should not be called from
@@ -745,6 +922,6 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
         SharedPreferences.Editor spe = sp.edit();
         spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
-        spe.commit();
+        IoWatchdog.commit(spe, c.getString(R.string.pref_location_status_key));
     }
 }
\ No newline at end of file
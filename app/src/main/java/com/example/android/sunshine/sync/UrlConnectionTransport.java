@@ -0,0 +1,132 @@
+package com.example.android.sunshine.sync;
+
+import android.util.Log;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * {@link HttpTransport} over HttpURLConnection.
+ * <p/>
+ * The body is asked for gzipped and inflated here, rather than left to the platform, so the
+ * bytes that came over the network can be counted.  It is decoded as UTF-8 whatever the
+ * platform's default charset.  Connections are never disconnected: a body read to its end and
+ * closed hands the connection back to the platform's keep-alive pool, and the next sync reuses
+ * it instead of opening a new one.
+ */
+public class UrlConnectionTransport implements HttpTransport {
+    private static final String LOG_TAG = UrlConnectionTransport.class.getSimpleName();
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final AtomicLong mTotalWireBytes = new AtomicLong();
+    private final AtomicLong mTotalBodyBytes = new AtomicLong();
+
+    @Override
+    public Response get(URL url, int connectTimeoutMillis, int readTimeoutMillis)
+            throws IOException {
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        urlConnection.setConnectTimeout(connectTimeoutMillis);
+        urlConnection.setReadTimeout(readTimeoutMillis);
+        urlConnection.setRequestMethod("GET");
+        urlConnection.setRequestProperty("Accept-Encoding", "gzip");
+        urlConnection.setRequestProperty("Accept-Charset", "utf-8");
+
+        int code = urlConnection.getResponseCode();
+        InputStream raw = code >= HttpURLConnection.HTTP_BAD_REQUEST
+                ? urlConnection.getErrorStream() : urlConnection.getInputStream();
+        if (raw == null) {
+            return new Response(code, "", 0, 0);
+        }
+        CountingInputStream wire = new CountingInputStream(raw);
+        CountingInputStream body = wire;
+        Reader reader = null;
+        try {
+            if ("gzip".equalsIgnoreCase(urlConnection.getContentEncoding())) {
+                body = new CountingInputStream(new GZIPInputStream(wire, BUFFER_SIZE));
+            }
+            reader = new InputStreamReader(body, UTF_8);
+            int length = urlConnection.getContentLength();
+            StringBuilder builder = new StringBuilder(length > 0 ? length : BUFFER_SIZE);
+            char[] buffer = new char[BUFFER_SIZE];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                builder.append(buffer, 0, read);
+            }
+            // The gzip trailer may be left unread, the connection is only reusable once the
+            // whole body went through
+            while (wire.read() != -1) {
+                // Drain
+            }
+            mTotalWireBytes.addAndGet(wire.count);
+            mTotalBodyBytes.addAndGet(body.count);
+            return new Response(code, builder.toString(), wire.count, body.count);
+        } finally {
+            try {
+                if (reader != null) {
+                    reader.close();
+                } else {
+                    raw.close();
+                }
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error closing stream", e);
+            }
+        }
+    }
+
+    /**
+     * Returns the body bytes received over the network since this transport was created.
+     */
+    public long getTotalWireBytes() {
+        return mTotalWireBytes.get();
+    }
+
+    /**
+     * Returns the body bytes received, once decompressed, since this transport was created.
+     */
+    public long getTotalBodyBytes() {
+        return mTotalBodyBytes.get();
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.android.sunshine.sync;
+
+import android.app.AlarmManager;
+import android.app.IntentService;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract;
+
+/**
+ * Applies the retention policy of the locations (see
+ * {@link com.example.android.sunshine.data.WeatherArchiver}) outside of the sync.
+ * <p/>
+ * Each run gets a small time budget.  If the work isn't done by then, the service schedules
+ * itself again a bit later instead of holding on to the database.
+ */
+public class WeatherCompactionService extends IntentService {
+    private static final String LOG_TAG = WeatherCompactionService.class.getSimpleName();
+
+    private static final long BUDGET_MILLIS = 500;
+    private static final long RESCHEDULE_DELAY_MILLIS = 60 * 1000;
+
+    public WeatherCompactionService() {
+        super(LOG_TAG);
+    }
+
+    /**
+     * Starts a compaction in the background.
+     */
+    public static void startCompaction(Context context) {
+        context.startService(new Intent(context, WeatherCompactionService.class));
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        Bundle extras = new Bundle();
+        extras.putLong(WeatherContract.EXTRA_BUDGET_MILLIS, BUDGET_MILLIS);
+        Bundle result = getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_COMPACT, null, extras);
+        getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_CHECKPOINT, null, null);
+        if (result != null && !result.getBoolean(WeatherContract.EXTRA_DONE, true)) {
+            Log.d(LOG_TAG, "Compaction not done, continuing in " + RESCHEDULE_DELAY_MILLIS + "ms");
+            PendingIntent pendingIntent = PendingIntent.getService(this, 0,
+                    new Intent(this, WeatherCompactionService.class),
+                    PendingIntent.FLAG_UPDATE_CURRENT);
+            AlarmManager alarmManager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
+            alarmManager.set(AlarmManager.ELAPSED_REALTIME,
+                    SystemClock.elapsedRealtime() + RESCHEDULE_DELAY_MILLIS, pendingIntent);
+        }
+    }
+}
@@ -2,23 +2,25 @@ package com.example.android.sunshine.widget;
 
 import android.annotation.TargetApi;
 import android.content.Intent;
-import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Binder;
 import android.os.Build;
+import android.os.Parcel;
 import android.util.Log;
+import android.util.SparseArray;
 import android.widget.AdapterView;
 import android.widget.RemoteViews;
 import android.widget.RemoteViewsService;
 
-import com.bumptech.glide.Glide;
-import com.bumptech.glide.request.target.Target;
+import com.example.android.sunshine.BuildConfig;
 import com.example.android.sunshine.R;
 import com.example.android.sunshine.Utility;
+import com.example.android.sunshine.data.ForecastArrays;
 import com.example.android.sunshine.data.WeatherContract;
 
-import java.util.concurrent.ExecutionException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * RemoteViewsService controlling the data being shown in the scrollable weather detail widget
@@ -26,124 +28,141 @@ import java.util.concurrent.ExecutionException;
 @TargetApi(Build.VERSION_CODES.HONEYCOMB)
 public class DetailWidgetRemoteViewsService extends RemoteViewsService {
     public final String LOG_TAG = DetailWidgetRemoteViewsService.class.getSimpleName();
-    private static final String[] FORECAST_COLUMNS = {
-            WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID,
-            WeatherContract.WeatherEntry.COLUMN_DATE,
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
-    };
-    // these indices must match the projection
-    static final int INDEX_WEATHER_ID = 0;
-    static final int INDEX_WEATHER_DATE = 1;
-    static final int INDEX_WEATHER_CONDITION_ID = 2;
-    static final int INDEX_WEATHER_DESC = 3;
-    static final int INDEX_WEATHER_MAX_TEMP = 4;
-    static final int INDEX_WEATHER_MIN_TEMP = 5;
+
+    /*
+        Everything a row of the widget shows, formatted ahead of time so getViewAt only has to
+        copy it into a RemoteViews.
+     */
+    private static class Row {
+        long id;
+        String date;
+        String description;
+        String high;
+        String low;
+        int iconResourceId;
+        // Decoded at the size of the list icon, null to use iconResourceId
+        Bitmap icon;
+        Uri detailUri;
+    }
 
     @Override
     public RemoteViewsFactory onGetViewFactory(Intent intent) {
         return new RemoteViewsFactory() {
-            private Cursor data = null;
+            private List<Row> rows = new ArrayList<>();
+
+            // Debug builds only: what the rows handed to the launcher cost
+            private long totalParcelBytes;
 
             @Override
             public void onCreate() {
                 // Nothing to do
             }
 
+            /*
+                Called on a binder thread, where blocking is fine: the query, the formatting and
+                the icon decoding all happen here, once per data change.
+             */
             @Override
             public void onDataSetChanged() {
-                if (data != null) {
-                    data.close();
-                }
                 // This method is called by the app hosting the widget (e.g., the launcher)
                 // However, our ContentProvider is not exported so it doesn't have access to the
                 // data. Therefore we need to clear (and finally restore) the calling identity so
                 // that calls use our process and permission
                 final long identityToken = Binder.clearCallingIdentity();
-                String location = Utility.getPreferredLocation(DetailWidgetRemoteViewsService.this);
-                Uri weatherForLocationUri = WeatherContract.WeatherEntry
-                        .buildWeatherLocationWithStartDate(location, System.currentTimeMillis());
-                data = getContentResolver().query(weatherForLocationUri,
-                        FORECAST_COLUMNS,
-                        null,
-                        null,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
-                Binder.restoreCallingIdentity(identityToken);
+                try {
+                    rows = loadRows();
+                } finally {
+                    Binder.restoreCallingIdentity(identityToken);
+                }
+                totalParcelBytes = 0;
+            }
+
+            private List<Row> loadRows() {
+                DetailWidgetRemoteViewsService context = DetailWidgetRemoteViewsService.this;
+                String location = Utility.getPreferredLocation(context);
+                // One call for the whole forecast, rather than a cursor
+                ForecastArrays forecast = ForecastArrays.query(getContentResolver(), location,
+                        System.currentTimeMillis());
+                List<Row> newRows = new ArrayList<>();
+                if (forecast == null) {
+                    return newRows;
+                }
+                int iconSize = getResources().getDimensionPixelSize(R.dimen.list_icon);
+                // A forecast only has a handful of conditions, each is looked up once
+                SparseArray<Bitmap> icons = new SparseArray<>();
+                for (int day = 0; day < forecast.getCount(); day++) {
+                    Row row = new Row();
+                    int weatherId = forecast.getWeatherId(day);
+                    long dateInMillis = forecast.getDate(day);
+                    row.id = forecast.getId(day);
+                    row.date = Utility.getFriendlyDayString(context, dateInMillis, false);
+                    row.description = forecast.getDescription(day);
+                    row.high = Utility.formatTemperature(context, forecast.getMaxTemp(day));
+                    row.low = Utility.formatTemperature(context, forecast.getMinTemp(day));
+                    row.iconResourceId = Utility.getIconResourceForWeatherCondition(weatherId);
+                    if (icons.indexOfKey(weatherId) < 0) {
+                        icons.put(weatherId, WidgetIconCache.get(context, weatherId, iconSize));
+                    }
+                    row.icon = icons.get(weatherId);
+                    row.detailUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                            location, dateInMillis);
+                    newRows.add(row);
+                }
+                return newRows;
             }
 
             @Override
             public void onDestroy() {
-                if (data != null) {
-                    data.close();
-                    data = null;
-                }
+                rows = new ArrayList<>();
             }
 
             @Override
             public int getCount() {
-                return data == null ? 0 : data.getCount();
+                return rows.size();
             }
 
             @Override
             public RemoteViews getViewAt(int position) {
-                if (position == AdapterView.INVALID_POSITION ||
-                        data == null || !data.moveToPosition(position)) {
+                if (position == AdapterView.INVALID_POSITION || position >= rows.size()) {
                     return null;
                 }
+                long start = BuildConfig.DEBUG ? System.nanoTime() : 0;
+                Row row = rows.get(position);
                 RemoteViews views = new RemoteViews(getPackageName(),
                         R.layout.widget_detail_list_item);
-                int weatherId = data.getInt(INDEX_WEATHER_CONDITION_ID);
-                int weatherArtResourceId = Utility.getIconResourceForWeatherCondition(weatherId);
-                Bitmap weatherArtImage = null;
-                if ( !Utility.usingLocalGraphics(DetailWidgetRemoteViewsService.this) ) {
-                    String weatherArtResourceUrl = Utility.getArtUrlForWeatherCondition(
-                            DetailWidgetRemoteViewsService.this, weatherId);
-                    try {
-                        weatherArtImage = Glide.with(DetailWidgetRemoteViewsService.this)
-                                .load(weatherArtResourceUrl)
-                                .asBitmap()
-                                .error(weatherArtResourceId)
-                                .into(Target.SIZE_ORIGINAL, Target.SIZE_ORIGINAL).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + weatherArtResourceUrl, e);
-                    }
-                }
-                String description = data.getString(INDEX_WEATHER_DESC);
-                long dateInMillis = data.getLong(INDEX_WEATHER_DATE);
-                String formattedDate = Utility.getFriendlyDayString(
-                        DetailWidgetRemoteViewsService.this, dateInMillis, false);
-                double maxTemp = data.getDouble(INDEX_WEATHER_MAX_TEMP);
-                double minTemp = data.getDouble(INDEX_WEATHER_MIN_TEMP);
-                String formattedMaxTemperature =
-                        Utility.formatTemperature(DetailWidgetRemoteViewsService.this, maxTemp);
-                String formattedMinTemperature =
-                        Utility.formatTemperature(DetailWidgetRemoteViewsService.this, minTemp);
-                if (weatherArtImage != null) {
-                    views.setImageViewBitmap(R.id.widget_icon, weatherArtImage);
+                if (row.icon != null) {
+                    views.setImageViewBitmap(R.id.widget_icon, row.icon);
                 } else {
-                    views.setImageViewResource(R.id.widget_icon, weatherArtResourceId);
+                    views.setImageViewResource(R.id.widget_icon, row.iconResourceId);
                 }
                 if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1) {
-                    setRemoteContentDescription(views, description);
+                    setRemoteContentDescription(views, row.description);
                 }
-                views.setTextViewText(R.id.widget_date, formattedDate);
-                views.setTextViewText(R.id.widget_description, description);
-                views.setTextViewText(R.id.widget_high_temperature, formattedMaxTemperature);
-                views.setTextViewText(R.id.widget_low_temperature, formattedMinTemperature);
+                views.setTextViewText(R.id.widget_date, row.date);
+                views.setTextViewText(R.id.widget_description, row.description);
+                views.setTextViewText(R.id.widget_high_temperature, row.high);
+                views.setTextViewText(R.id.widget_low_temperature, row.low);
 
                 final Intent fillInIntent = new Intent();
-                String locationSetting =
-                        Utility.getPreferredLocation(DetailWidgetRemoteViewsService.this);
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
-                        locationSetting,
-                        dateInMillis);
-                fillInIntent.setData(weatherUri);
+                fillInIntent.setData(row.detailUri);
                 views.setOnClickFillInIntent(R.id.widget_list_item, fillInIntent);
+
+                if (BuildConfig.DEBUG) {
+                    logRow(position, views, System.nanoTime() - start);
+                }
                 return views;
             }
 
+            private void logRow(int position, RemoteViews views, long nanos) {
+                Parcel parcel = Parcel.obtain();
+                views.writeToParcel(parcel, 0);
+                int bytes = parcel.dataSize();
+                parcel.recycle();
+                totalParcelBytes += bytes;
+                Log.v(LOG_TAG, "Row " + position + ": " + nanos / 1000 + "us, " + bytes
+                        + " bytes (" + totalParcelBytes + " bytes since the last data change)");
+            }
+
             @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1)
             private void setRemoteContentDescription(RemoteViews views, String description) {
                 views.setContentDescription(R.id.widget_icon, description);
@@ -161,8 +180,8 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
 
             @Override
             public long getItemId(int position) {
-                if (data.moveToPosition(position))
-                    return data.getLong(INDEX_WEATHER_ID);
+                if (position < rows.size())
+                    return rows.get(position).id;
                 return position;
             }
 
@@ -172,4 +191,4 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
             }
         };
     }
-}
\ No newline at end of file
+}
@@ -9,24 +9,50 @@ import android.app.IntentService;
 import android.app.PendingIntent;
 import android.appwidget.AppWidgetManager;
 import android.content.ComponentName;
+import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.util.DisplayMetrics;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
 import android.util.TypedValue;
 import android.widget.RemoteViews;
 
 import com.example.android.sunshine.MainActivity;
 import com.example.android.sunshine.R;
 import com.example.android.sunshine.Utility;
+import com.example.android.sunshine.data.DayNormalizer;
+import com.example.android.sunshine.data.ForecastMappedFile;
 import com.example.android.sunshine.data.WeatherContract;
 
 /**
  * IntentService which handles updating all Today widgets with the latest data
+ * <p/>
+ * The service remembers, per widget id, the layout and the values it last rendered, so that:
+ * <ul>
+ * <li>today's weather is only queried when the data, the day, the preferred location or the
+ * units changed,</li>
+ * <li>widgets already showing the right values are left alone,</li>
+ * <li>widgets that keep their layout only get the values pushed, with a partial update,</li>
+ * <li>the widgets that share a layout share a single RemoteViews and a single update call.</li>
+ * </ul>
+ * The state lives as long as the process, a fresh process starts with a full update.
  */
 public class TodayWidgetIntentService extends IntentService {
+    private static final String LOG_TAG = TodayWidgetIntentService.class.getSimpleName();
+
+    // True if the weather changed since the last run (e.g. after a sync)
+    static final String EXTRA_DATA_CHANGED = "data_changed";
+    // Widgets the host asked content for, they always get a full update
+    static final String EXTRA_APPWIDGET_IDS = AppWidgetManager.EXTRA_APPWIDGET_IDS;
+    // Widget whose options changed, along with its new options
+    static final String EXTRA_APPWIDGET_ID = AppWidgetManager.EXTRA_APPWIDGET_ID;
+    static final String EXTRA_APPWIDGET_OPTIONS = AppWidgetManager.EXTRA_APPWIDGET_OPTIONS;
+
     private static final String[] FORECAST_COLUMNS = {
             WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
             WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
@@ -39,10 +65,78 @@ public class TodayWidgetIntentService extends IntentService {
     private static final int INDEX_MAX_TEMP = 2;
     private static final int INDEX_MIN_TEMP = 3;
 
+    /*
+        What a Today widget shows.
+     */
+    private static class TodayValues {
+        final int weatherArtResourceId;
+        final String description;
+        final String formattedMaxTemperature;
+        final String formattedMinTemperature;
+
+        TodayValues(int weatherArtResourceId, String description, String formattedMaxTemperature,
+                    String formattedMinTemperature) {
+            this.weatherArtResourceId = weatherArtResourceId;
+            this.description = description;
+            this.formattedMaxTemperature = formattedMaxTemperature;
+            this.formattedMinTemperature = formattedMinTemperature;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof TodayValues)) return false;
+            TodayValues that = (TodayValues) o;
+            return weatherArtResourceId == that.weatherArtResourceId
+                    && description.equals(that.description)
+                    && formattedMaxTemperature.equals(that.formattedMaxTemperature)
+                    && formattedMinTemperature.equals(that.formattedMinTemperature);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = weatherArtResourceId;
+            result = 31 * result + description.hashCode();
+            result = 31 * result + formattedMaxTemperature.hashCode();
+            result = 31 * result + formattedMinTemperature.hashCode();
+            return result;
+        }
+    }
+
+    /*
+        What was last rendered into a widget.
+     */
+    private static class Rendered {
+        final int layoutId;
+        final TodayValues values;
+
+        Rendered(int layoutId, TodayValues values) {
+            this.layoutId = layoutId;
+            this.values = values;
+        }
+    }
+
+    // Only touched from onHandleIntent, which runs one intent at a time
+    private static TodayValues sToday;
+    // The day, location and units sToday was queried for, null if it has to be queried again
+    private static String sTodayKey;
+    private static final SparseArray<Rendered> sRendered = new SparseArray<>();
+    private static final SparseIntArray sWidgetWidths = new SparseIntArray();
+
     public TodayWidgetIntentService() {
         super("TodayWidgetIntentService");
     }
 
+    /**
+     * Asks for the Today widgets to be brought up to date.
+     *
+     * @param dataChanged true if the weather may have changed since the last update
+     */
+    static void startUpdate(Context context, boolean dataChanged) {
+        context.startService(new Intent(context, TodayWidgetIntentService.class)
+                .putExtra(EXTRA_DATA_CHANGED, dataChanged));
+    }
+
     @Override
     protected void onHandleIntent(Intent intent) {
         // Retrieve all of the Today widget ids: these are the widgets we need to update
@@ -50,63 +144,166 @@ public class TodayWidgetIntentService extends IntentService {
         int[] appWidgetIds = appWidgetManager.getAppWidgetIds(new ComponentName(this,
                 TodayWidgetProvider.class));
 
-        // Get today's data from the ContentProvider
-        String location = Utility.getPreferredLocation(this);
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                location, System.currentTimeMillis());
-        Cursor data = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
-                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
-        if (data == null) {
-            return;
-        }
-        if (!data.moveToFirst()) {
-            data.close();
-            return;
+        int[] forcedIds = intent.getIntArrayExtra(EXTRA_APPWIDGET_IDS);
+        if (intent.hasExtra(EXTRA_APPWIDGET_ID)) {
+            Bundle options = intent.getBundleExtra(EXTRA_APPWIDGET_OPTIONS);
+            int appWidgetId = intent.getIntExtra(EXTRA_APPWIDGET_ID,
+                    AppWidgetManager.INVALID_APPWIDGET_ID);
+            if (options != null) {
+                sWidgetWidths.put(appWidgetId, getWidgetWidthFromOptions(options));
+            } else {
+                sWidgetWidths.delete(appWidgetId);
+            }
         }
 
-        // Extract the weather data from the Cursor
-        int weatherId = data.getInt(INDEX_WEATHER_ID);
-        int weatherArtResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-        String description = data.getString(INDEX_SHORT_DESC);
-        double maxTemp = data.getDouble(INDEX_MAX_TEMP);
-        double minTemp = data.getDouble(INDEX_MIN_TEMP);
-        String formattedMaxTemperature = Utility.formatTemperature(this, maxTemp);
-        String formattedMinTemperature = Utility.formatTemperature(this, minTemp);
-        data.close();
+        // Get today's data from the ContentProvider, unless we already have it
+        String todayKey = getTodayKey();
+        if (!todayKey.equals(sTodayKey) || intent.getBooleanExtra(EXTRA_DATA_CHANGED, true)) {
+            TodayValues today = queryToday();
+            if (today != null) {
+                sToday = today;
+                sTodayKey = todayKey;
+            } else {
+                // Nothing for today, the widgets mustn't keep showing another day or location
+                sToday = new TodayValues(0, getString(R.string.empty_forecast_list), "", "");
+                sTodayKey = null;
+            }
+        }
 
-        // Perform this loop procedure for each Today widget
+        // Sort the widgets by what they need: nothing, their values, or everything
+        SparseArray<IntList> fullUpdates = new SparseArray<>();
+        SparseArray<IntList> partialUpdates = new SparseArray<>();
+        int skipped = 0;
         for (int appWidgetId : appWidgetIds) {
-            // Find the correct layout based on the widget's width
-            int widgetWidth = getWidgetWidth(appWidgetManager, appWidgetId);
-            int defaultWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_default_width);
-            int largeWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_large_width);
-            int layoutId;
-            if (widgetWidth >= largeWidth) {
-                layoutId = R.layout.widget_today_large;
-            } else if (widgetWidth >= defaultWidth) {
-                layoutId = R.layout.widget_today;
-            } else {
-                layoutId = R.layout.widget_today_small;
+            int layoutId = getLayoutId(getWidgetWidth(appWidgetManager, appWidgetId));
+            Rendered rendered = sRendered.get(appWidgetId);
+            boolean sameLayout = rendered != null && rendered.layoutId == layoutId
+                    && !contains(forcedIds, appWidgetId);
+            if (sameLayout && rendered.values.equals(sToday)) {
+                skipped++;
+                continue;
             }
-            RemoteViews views = new RemoteViews(getPackageName(), layoutId);
+            SparseArray<IntList> updates = sameLayout ? partialUpdates : fullUpdates;
+            IntList ids = updates.get(layoutId);
+            if (ids == null) {
+                ids = new IntList();
+                updates.put(layoutId, ids);
+            }
+            ids.add(appWidgetId);
+        }
 
-            // Add the data to the RemoteViews
-            views.setImageViewResource(R.id.widget_icon, weatherArtResourceId);
-            // Content Descriptions for RemoteViews were only added in ICS MR1
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1) {
-                setRemoteContentDescription(views, description);
+        // Forget the widgets that are gone
+        for (int i = sRendered.size() - 1; i >= 0; i--) {
+            if (!contains(appWidgetIds, sRendered.keyAt(i))) {
+                sWidgetWidths.delete(sRendered.keyAt(i));
+                sRendered.removeAt(i);
             }
-            views.setTextViewText(R.id.widget_description, description);
-            views.setTextViewText(R.id.widget_high_temperature, formattedMaxTemperature);
-            views.setTextViewText(R.id.widget_low_temperature, formattedMinTemperature);
+        }
+
+        for (int i = 0; i < fullUpdates.size(); i++) {
+            int layoutId = fullUpdates.keyAt(i);
+            RemoteViews views = new RemoteViews(getPackageName(), layoutId);
+            setValues(views, sToday);
 
             // Create an Intent to launch MainActivity
             Intent launchIntent = new Intent(this, MainActivity.class);
             PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, launchIntent, 0);
             views.setOnClickPendingIntent(R.id.widget, pendingIntent);
 
-            // Tell the AppWidgetManager to perform an update on the current app widget
-            appWidgetManager.updateAppWidget(appWidgetId, views);
+            // Tell the AppWidgetManager to perform an update on the app widgets with this layout
+            int[] ids = fullUpdates.valueAt(i).toArray();
+            appWidgetManager.updateAppWidget(ids, views);
+            remember(ids, layoutId);
+        }
+        for (int i = 0; i < partialUpdates.size(); i++) {
+            int layoutId = partialUpdates.keyAt(i);
+            // Only the values, the layout and the click intent stay as they are
+            RemoteViews views = new RemoteViews(getPackageName(), layoutId);
+            setValues(views, sToday);
+            int[] ids = partialUpdates.valueAt(i).toArray();
+            appWidgetManager.partiallyUpdateAppWidget(ids, views);
+            remember(ids, layoutId);
+        }
+        Log.d(LOG_TAG, appWidgetIds.length + " widgets: " + fullUpdates.size()
+                + " full layouts, " + partialUpdates.size() + " partial layouts, "
+                + skipped + " unchanged");
+    }
+
+    /*
+        What today's values depend on besides the weather itself.
+     */
+    private String getTodayKey() {
+        return DayNormalizer.getDefault().getJulianDay(System.currentTimeMillis()) + "|"
+                + Utility.isMetric(this) + "|" + Utility.getPreferredLocation(this);
+    }
+
+    private TodayValues queryToday() {
+        String location = Utility.getPreferredLocation(this);
+        // From the forecast file when the last sync wrote one for this location
+        ForecastMappedFile snapshot = ForecastMappedFile.open(this, location);
+        int today = snapshot != null ? snapshot.findDay(System.currentTimeMillis()) : -1;
+        if (today != -1) {
+            int weatherId = snapshot.getWeatherId(today);
+            return new TodayValues(
+                    Utility.getArtResourceForWeatherCondition(weatherId),
+                    snapshot.getDescription(today),
+                    Utility.formatTemperature(this, snapshot.getMaxTemp(today)),
+                    Utility.formatTemperature(this, snapshot.getMinTemp(today)));
+        }
+        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                location, System.currentTimeMillis());
+        Cursor data = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
+                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (data == null) {
+            return null;
+        }
+        try {
+            if (!data.moveToFirst()) {
+                return null;
+            }
+            // Extract the weather data from the Cursor
+            int weatherId = data.getInt(INDEX_WEATHER_ID);
+            return new TodayValues(
+                    Utility.getArtResourceForWeatherCondition(weatherId),
+                    data.getString(INDEX_SHORT_DESC),
+                    Utility.formatTemperature(this, data.getDouble(INDEX_MAX_TEMP)),
+                    Utility.formatTemperature(this, data.getDouble(INDEX_MIN_TEMP)));
+        } finally {
+            data.close();
+        }
+    }
+
+    private void setValues(RemoteViews views, TodayValues values) {
+        // Add the data to the RemoteViews
+        views.setImageViewResource(R.id.widget_icon, values.weatherArtResourceId);
+        // Content Descriptions for RemoteViews were only added in ICS MR1
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1) {
+            setRemoteContentDescription(views, values.description);
+        }
+        views.setTextViewText(R.id.widget_description, values.description);
+        views.setTextViewText(R.id.widget_high_temperature, values.formattedMaxTemperature);
+        views.setTextViewText(R.id.widget_low_temperature, values.formattedMinTemperature);
+    }
+
+    private void remember(int[] appWidgetIds, int layoutId) {
+        Rendered rendered = new Rendered(layoutId, sToday);
+        for (int appWidgetId : appWidgetIds) {
+            sRendered.put(appWidgetId, rendered);
+        }
+    }
+
+    /*
+        Find the correct layout based on the widget's width
+     */
+    private int getLayoutId(int widgetWidth) {
+        int defaultWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_default_width);
+        int largeWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_large_width);
+        if (widgetWidth >= largeWidth) {
+            return R.layout.widget_today_large;
+        } else if (widgetWidth >= defaultWidth) {
+            return R.layout.widget_today;
+        } else {
+            return R.layout.widget_today_small;
         }
     }
 
@@ -116,13 +313,22 @@ public class TodayWidgetIntentService extends IntentService {
             return getResources().getDimensionPixelSize(R.dimen.widget_today_default_width);
         }
         // For Jelly Bean and higher devices, widgets can be resized - the current size can be
-        // retrieved from the newly added App Widget Options
-        return getWidgetWidthFromOptions(appWidgetManager, appWidgetId);
+        // retrieved from the newly added App Widget Options.  It is kept until the options change.
+        int width = sWidgetWidths.get(appWidgetId, -1);
+        if (width == -1) {
+            width = getWidgetWidthFromOptions(getAppWidgetOptions(appWidgetManager, appWidgetId));
+            sWidgetWidths.put(appWidgetId, width);
+        }
+        return width;
     }
 
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
-    private int getWidgetWidthFromOptions(AppWidgetManager appWidgetManager, int appWidgetId) {
-        Bundle options = appWidgetManager.getAppWidgetOptions(appWidgetId);
+    private Bundle getAppWidgetOptions(AppWidgetManager appWidgetManager, int appWidgetId) {
+        return appWidgetManager.getAppWidgetOptions(appWidgetId);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private int getWidgetWidthFromOptions(Bundle options) {
         if (options.containsKey(AppWidgetManager.OPTION_APPWIDGET_MIN_WIDTH)) {
             int minWidthDp = options.getInt(AppWidgetManager.OPTION_APPWIDGET_MIN_WIDTH);
             // The width returned is in dp, but we'll convert it to pixels to match the other widths
@@ -137,4 +343,35 @@ public class TodayWidgetIntentService extends IntentService {
     private void setRemoteContentDescription(RemoteViews views, String description) {
         views.setContentDescription(R.id.widget_icon, description);
     }
+
+    private static boolean contains(int[] array, int value) {
+        if (array == null) return false;
+        for (int element : array) {
+            if (element == value) return true;
+        }
+        return false;
+    }
+
+    /*
+        A growable int array, to collect widget ids without boxing them.
+     */
+    private static class IntList {
+        private int[] mValues = new int[4];
+        private int mSize;
+
+        void add(int value) {
+            if (mSize == mValues.length) {
+                int[] values = new int[mSize * 2];
+                System.arraycopy(mValues, 0, values, 0, mSize);
+                mValues = values;
+            }
+            mValues[mSize++] = value;
+        }
+
+        int[] toArray() {
+            int[] values = new int[mSize];
+            System.arraycopy(mValues, 0, values, 0, mSize);
+            return values;
+        }
+    }
 }
@@ -19,20 +19,27 @@ public class TodayWidgetProvider extends AppWidgetProvider {
 
     @Override
     public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
-        context.startService(new Intent(context, TodayWidgetIntentService.class));
+        // The host wants content for these widgets, whatever we rendered before
+        context.startService(new Intent(context, TodayWidgetIntentService.class)
+                .putExtra(TodayWidgetIntentService.EXTRA_DATA_CHANGED, false)
+                .putExtra(TodayWidgetIntentService.EXTRA_APPWIDGET_IDS, appWidgetIds));
     }
 
     @Override
     public void onAppWidgetOptionsChanged(Context context, AppWidgetManager appWidgetManager,
                                           int appWidgetId, Bundle newOptions) {
-        context.startService(new Intent(context, TodayWidgetIntentService.class));
+        // Only the layout of this widget may have changed, the weather didn't
+        context.startService(new Intent(context, TodayWidgetIntentService.class)
+                .putExtra(TodayWidgetIntentService.EXTRA_DATA_CHANGED, false)
+                .putExtra(TodayWidgetIntentService.EXTRA_APPWIDGET_ID, appWidgetId)
+                .putExtra(TodayWidgetIntentService.EXTRA_APPWIDGET_OPTIONS, newOptions));
     }
 
     @Override
     public void onReceive(@NonNull Context context, @NonNull Intent intent) {
         super.onReceive(context, intent);
         if (SunshineSyncAdapter.ACTION_DATA_UPDATED.equals(intent.getAction())) {
-            context.startService(new Intent(context, TodayWidgetIntentService.class));
+            TodayWidgetIntentService.startUpdate(context, true);
         }
     }
 }
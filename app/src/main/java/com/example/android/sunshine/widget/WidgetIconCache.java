@@ -0,0 +1,72 @@
+package com.example.android.sunshine.widget;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+import com.example.android.sunshine.Utility;
+
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Weather icons for the widgets, decoded at the size they are shown at rather than at the
+ * size of the downloaded art.  Every bitmap handed to a RemoteViews is parceled to the launcher,
+ * so keeping them at cell size is what bounds the Binder payload.
+ * <p/>
+ * The cache is shared by all the widgets of the process.  Bitmaps are keyed on the art URL and
+ * the size, so the same condition is only decoded once per size.
+ */
+public class WidgetIconCache {
+    private static final String LOG_TAG = WidgetIconCache.class.getSimpleName();
+
+    // Enough for the icons of every condition at a couple of sizes
+    private static final int MAX_BYTES = 2 * 1024 * 1024;
+
+    private static final LruCache<String, Bitmap> sCache = new LruCache<String, Bitmap>(MAX_BYTES) {
+        @Override
+        protected int sizeOf(String key, Bitmap value) {
+            return value.getRowBytes() * value.getHeight();
+        }
+    };
+
+    /**
+     * Returns the icon of a condition as a square bitmap of sizePx, downloading and decoding it
+     * if it isn't cached.  This blocks, so it must not be called from the UI thread.
+     *
+     * @return the icon, or null if local graphics are used or the art couldn't be loaded, in
+     * which case the caller should fall back on the icon resource.
+     */
+    public static Bitmap get(Context context, int weatherId, int sizePx) {
+        if (Utility.usingLocalGraphics(context)) {
+            return null;
+        }
+        String url = Utility.getArtUrlForWeatherCondition(context, weatherId);
+        if (url == null) {
+            return null;
+        }
+        String key = url + "@" + sizePx;
+        Bitmap bitmap = sCache.get(key);
+        if (bitmap != null) {
+            return bitmap;
+        }
+        try {
+            bitmap = Glide.with(context.getApplicationContext())
+                    .load(url)
+                    .asBitmap()
+                    .fitCenter()
+                    .into(sizePx, sizePx)
+                    .get();
+        } catch (InterruptedException | ExecutionException e) {
+            Log.e(LOG_TAG, "Error retrieving icon from " + url, e);
+            return null;
+        }
+        sCache.put(key, bitmap);
+        return bitmap;
+    }
+
+    public static void clear() {
+        sCache.evictAll();
+    }
+}
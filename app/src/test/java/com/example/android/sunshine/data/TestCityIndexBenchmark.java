@@ -0,0 +1,172 @@
+package com.example.android.sunshine.data;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/*
+    Builds a city index of 200k made up cities, about the size of OpenWeatherMap's list, checks
+    its suggestions against a scan of the sorted list, then times the build and the lookups in
+    the index mapped from a file as the app maps its asset.
+ */
+public class TestCityIndexBenchmark {
+
+    private static final int CITIES = 200000;
+    private static final int LOOKUPS = 100000;
+    private static final int CHECKS = 2000;
+    private static final int LIMIT = 5;
+
+    private static final String[] SYLLABLES = {
+            "ba", "be", "bo", "ca", "ch", "da", "de", "é", "fa", "go", "ha", "in", "ka", "la",
+            "li", "lo", "ma", "mü", "na", "no", "pa", "ri", "ro", "sa", "sé", "ta", "to", "va",
+            "vi", "za"
+    };
+    private static final String[] COUNTRIES = {"FR", "US", "DE", "BR", "IN", "JP", "GB", "ES"};
+
+    private static List<String> sCities;
+    private static long sBuildNanos;
+    private static CityIndex sIndex;
+    private static long sSize;
+
+    @BeforeClass
+    public static void buildIndex() throws IOException {
+        Random random = new Random(42);
+        sCities = new ArrayList<>(CITIES);
+        for (int i = 0; i < CITIES; i++) {
+            sCities.add(randomCity(random));
+        }
+        long start = System.nanoTime();
+        ByteBuffer built = CityIndex.build(sCities);
+        sBuildNanos = System.nanoTime() - start;
+
+        File file = File.createTempFile("cities", ".idx");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.getChannel().write(built);
+        } finally {
+            out.close();
+        }
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            sSize = in.length();
+            sIndex = new CityIndex(in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, sSize));
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void matchesScan() {
+        // Sorted by key then name, as the index is
+        TreeSet<String> sorted = new TreeSet<>();
+        for (String city : sCities) {
+            sorted.add(CityIndex.toKey(city) + '\u0000' + city);
+        }
+        assertEquals(sorted.size(), sIndex.getCount());
+
+        Random random = new Random(7);
+        for (int i = 0; i < CHECKS; i++) {
+            String prefix = randomPrefix(random);
+            String key = CityIndex.toKey(prefix);
+            List<String> expected = new ArrayList<>();
+            for (String entry : sorted.tailSet(key)) {
+                if (!entry.startsWith(key) || expected.size() == LIMIT) {
+                    break;
+                }
+                expected.add(entry.substring(entry.indexOf('\u0000') + 1));
+            }
+            assertEquals("Suggestions for " + prefix, expected, sIndex.suggest(prefix, LIMIT));
+        }
+
+        String city = sCities.get(123);
+        assertTrue(sIndex.contains(city));
+        assertTrue(sIndex.contains(city.substring(0, city.indexOf(','))));
+        assertTrue(sIndex.contains(" " + city.toUpperCase().replace(",", " , ")));
+        assertFalse(sIndex.contains(city.substring(0, city.indexOf(',') - 1) + "xq"));
+        assertEquals(Collections.emptyList(), sIndex.suggest("qqq", LIMIT));
+    }
+
+    @Test
+    public void containsBehindLongerNames() {
+        CityIndex index = new CityIndex(CityIndex.build(Arrays.asList("London,GB",
+                "London Colney,GB", "Londonderry,GB", "York,GB", "York Harbor,US", "Yorkton,CA")));
+        assertTrue(index.contains("London"));
+        assertTrue(index.contains("london, gb"));
+        assertTrue(index.contains("London Colney"));
+        assertTrue(index.contains("York"));
+        assertTrue(index.contains("York Harbor,US"));
+        assertFalse(index.contains("York Harbor,GB"));
+        assertFalse(index.contains("Lond"));
+        assertFalse(index.contains("York Harb"));
+    }
+
+    @Test
+    public void benchmark() {
+        Random random = new Random(11);
+        String[] prefixes = new String[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            prefixes[i] = randomPrefix(random);
+        }
+        // Warm up
+        for (String prefix : prefixes) {
+            sIndex.suggest(prefix, LIMIT);
+        }
+
+        long found = 0;
+        long slowest = 0;
+        long start = System.nanoTime();
+        for (String prefix : prefixes) {
+            long lookup = System.nanoTime();
+            found += sIndex.suggest(prefix, LIMIT).size();
+            slowest = Math.max(slowest, System.nanoTime() - lookup);
+        }
+        long lookupNanos = System.nanoTime() - start;
+
+        System.out.println(sIndex.getCount() + " cities: index of " + sSize / 1024 + "KB built "
+                + "in " + sBuildNanos / 1000000 + "ms; " + LOOKUPS + " lookups, "
+                + lookupNanos / LOOKUPS / 1000 + "us per lookup, slowest "
+                + slowest / 1000 + "us, " + found / LOOKUPS + " suggestions on average");
+        assertTrue("Suggestions take more than a millisecond", lookupNanos / LOOKUPS < 1000000);
+    }
+
+    private static String randomCity(Random random) {
+        StringBuilder name = new StringBuilder();
+        int words = random.nextInt(10) == 0 ? 2 : 1;
+        for (int word = 0; word < words; word++) {
+            if (word > 0) {
+                name.append(' ');
+            }
+            int syllables = 2 + random.nextInt(4);
+            for (int i = 0; i < syllables; i++) {
+                String syllable = SYLLABLES[random.nextInt(SYLLABLES.length)];
+                name.append(i == 0 ? syllable.substring(0, 1).toUpperCase() + syllable.substring(1)
+                        : syllable);
+            }
+        }
+        return name + "," + COUNTRIES[random.nextInt(COUNTRIES.length)];
+    }
+
+    // The start of a city, as typed: without accents half the time
+    private static String randomPrefix(Random random) {
+        String city = sCities.get(random.nextInt(sCities.size()));
+        String prefix = city.substring(0, Math.min(city.length(), 2 + random.nextInt(4)));
+        return random.nextBoolean() ? prefix : CityIndex.toKey(prefix);
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.android.sunshine.data;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+/*
+    Runs on the JVM, where android.text.format.Time isn't available: the DayNormalizer is
+    checked against a Calendar doing the same round trip as Time did, which the equivalence
+    test on the device ties to Time itself.  Then both are timed.
+ */
+public class TestDayNormalizerBenchmark {
+
+    private static final String[] ZONES = {
+            "UTC", "America/Los_Angeles", "Europe/Paris", "Australia/Lord_Howe",
+            "Asia/Kathmandu", "America/Sao_Paulo", "Asia/Beirut", "America/St_Johns"
+    };
+
+    private static final long FIRST_DATE = 946684800000L;  // January 1st, 2000
+    private static final long LAST_DATE = 1924992000000L;  // January 1st, 2031
+    private static final long STEP = 47 * 60 * 1000L;
+
+    private static final int WARM_UP_ROUNDS = 3;
+    private static final int DATES = 1000000;
+
+    @Test
+    public void matchesCalendar() {
+        for (String id : ZONES) {
+            TimeZone zone = TimeZone.getTimeZone(id);
+            DayNormalizer normalizer = new DayNormalizer(zone);
+            Calendar calendar = new GregorianCalendar(zone);
+            for (long date = FIRST_DATE; date < LAST_DATE; date += STEP) {
+                assertEquals("Normalized " + date + " in " + id,
+                        calendarNormalize(calendar, date), normalizer.normalize(date));
+            }
+        }
+    }
+
+    @Test
+    public void benchmark() {
+        TimeZone zone = TimeZone.getTimeZone("Europe/Paris");
+        long calendarNanos = 0;
+        long normalizerNanos = 0;
+        for (int round = 0; round <= WARM_UP_ROUNDS; round++) {
+            long sum = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < DATES; i++) {
+                // A new calendar each time, as normalizeDate used to allocate a new Time
+                sum += calendarNormalize(new GregorianCalendar(zone), FIRST_DATE + i * STEP);
+            }
+            calendarNanos = System.nanoTime() - start;
+
+            DayNormalizer normalizer = new DayNormalizer(zone);
+            start = System.nanoTime();
+            for (int i = 0; i < DATES; i++) {
+                sum -= normalizer.normalize(FIRST_DATE + i * STEP);
+            }
+            normalizerNanos = System.nanoTime() - start;
+            assertEquals(0, sum);
+        }
+        System.out.println("Normalizing " + DATES + " dates: "
+                + calendarNanos / DATES + "ns per date with a Calendar, "
+                + normalizerNanos / DATES + "ns with the DayNormalizer");
+    }
+
+    // Like Time: midnight of the date's day in its zone, taken as standard time if it is
+    // skipped or repeated
+    private static long calendarNormalize(Calendar calendar, long date) {
+        calendar.setTimeInMillis(date);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+}